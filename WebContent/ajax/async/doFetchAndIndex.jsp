@@ -36,6 +36,13 @@
             //operationinfo object
             Consumer<StatusProvider> setStatusProvider = statusProvider->this.setStatusProvider(statusProvider);
             cancelFetchAndIndex(setStatusProvider);
+        }@Override
+        protected long getMemoryEstimate() {
+            // the fetch itself, plus the archive the messages are added to if it has to be loaded first. in processing mode every import starts a new archive
+            long bytes = super.getMemoryEstimate();
+            if (!ModeConfig.isProcessingMode())
+                bytes += ArchiveReaderWriter.estimateLoadBytes(ArchiveReaderWriter.CACHE_BASE_DIR + File.separator + "user");
+            return bytes;
         }
     };
 
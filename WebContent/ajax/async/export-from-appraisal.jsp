@@ -27,6 +27,10 @@
             //operationinfo object
             Consumer<StatusProvider> setStatusProvider = statusProvider->this.setStatusProvider(statusProvider);
             cancelExportFromAppraisal(setStatusProvider);
+        }@Override
+        protected long getMemoryEstimate() {
+            // the export makes new copies of about as much as the archive itself takes (documents, redacted index entries, session file)
+            return ArchiveReaderWriter.estimateHeapBytes(JSPHelper.getParam(this.getParametersMap(),"archiveID"));
         }
     };
 
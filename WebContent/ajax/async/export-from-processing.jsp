@@ -28,6 +28,10 @@ String actionName = request.getRequestURI();
             //operationinfo object
             Consumer<StatusProvider> setStatusProvider = statusProvider->this.setStatusProvider(statusProvider);
             cancelExportFromProcessing(setStatusProvider);
+        }@Override
+        protected long getMemoryEstimate() {
+            // the export makes new copies of about as much as the archive itself takes (documents, redacted index entries, session file)
+            return ArchiveReaderWriter.estimateHeapBytes(JSPHelper.getParam(this.getParametersMap(),"archiveID"));
         }
     };
 
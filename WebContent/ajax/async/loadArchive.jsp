@@ -29,6 +29,11 @@
             //operationinfo object
             Consumer<StatusProvider> setStatusProvider = statusProvider->this.setStatusProvider(statusProvider);
             cancelLoadArchive(setStatusProvider);
+        }@Override
+        protected long getMemoryEstimate() {
+            // nothing if the archive is already loaded, so that opening it again does not wait for memory
+            String dir = archiveDir(this.getParametersMap());
+            return dir == null ? 0 : ArchiveReaderWriter.estimateLoadBytes(dir);
         }
     };
 
@@ -54,15 +59,30 @@
     %>
 
 <%!
+/** the directory of the archive to load, from the dir parameter and the mode. null if there is no dir parameter */
+public String archiveDir(Multimap<String,String> params){
+        String dir = JSPHelper.getParam(params,"dir");
+        if (Util.nullOrEmpty(dir))
+            return null;
+        dir = dir + java.io.File.separator;
+        if (ModeConfig.isProcessingMode())
+          dir = edu.stanford.muse.Config.REPO_DIR_PROCESSING + File.separator + dir;
+        else if (ModeConfig.isDeliveryMode())
+            dir = edu.stanford.muse.Config.REPO_DIR_DELIVERY + File.separator + dir;
+        else if (ModeConfig.isDiscoveryMode())
+            dir = edu.stanford.muse.Config.REPO_DIR_DISCOVERY + File.separator + dir;
+        return dir;
+}
+
 public void loadArchive(Multimap<String,String> params, Consumer<StatusProvider> setStatusProvider, HttpSession session, JSONObject resultJSON){
 
         setStatusProvider.accept(new StaticStatusProvider("Loading archive"));
         // note: though this page can be invoked from fetch_page_with_progress(), in the result json, we don't have a resultPage to go to --
         // the caller of fetch_page_with_progress() should decide where to redirect to after the archive is loaded
 
-        String dir = JSPHelper.getParam(params,"dir");
+        String dir = archiveDir(params);
         Boolean isEditAccessionNextScreen = JSPHelper.getParam(params,"editscreen") != null;
-        if (Util.nullOrEmpty(dir))
+        if (dir == null)
         {
             resultJSON.put ("status", 1);
             resultJSON.put("error", "No directory specified");
@@ -70,13 +90,6 @@ public void loadArchive(Multimap<String,String> params, Consumer<StatusProvider>
             return;
         }
 
-        dir = dir + java.io.File.separator;
-        if (ModeConfig.isProcessingMode())
-          dir = edu.stanford.muse.Config.REPO_DIR_PROCESSING + File.separator + dir;
-        else if (ModeConfig.isDeliveryMode())
-            dir = edu.stanford.muse.Config.REPO_DIR_DELIVERY + File.separator + dir;
-        else if (ModeConfig.isDiscoveryMode())
-            dir = edu.stanford.muse.Config.REPO_DIR_DISCOVERY + File.separator + dir;
         JSPHelper.log.info("Loading archive from: "+dir);
 
         Archive archive = null;
@@ -18,6 +18,7 @@
 <%@ page import="edu.stanford.muse.email.StatusProvider" %>
 <%@ page import="com.google.common.collect.Multimap" %>
 <%@ page import="edu.stanford.epadd.util.OperationInfo" %>
+<%@ page import="edu.stanford.epadd.util.StartupResources" %>
 <%@ page import="java.util.function.Consumer" %>
 <%@ page import="edu.stanford.muse.ner.model.NBModel" %>
 <%@ page import="edu.stanford.muse.ner.model.NERModel" %>
@@ -92,7 +93,7 @@
 //        = (SequenceModel) session.getAttribute("ner");
                 session.setAttribute("statusProvider", new StaticStatusProvider("Loading openNLPNER sequence model from: " + modelFile + "..."));
                 JSPHelper.log.info("Loading openNLPNER sequence model from: " + modelFile + " ...");
-                nerModel = NBModel.loadModelFromRules(NBModel.MODEL_FILENAME);
+                nerModel = StartupResources.get(StartupResources.NER_MODEL); // loaded once, at startup or by the first user
 
                 if (nerModel == null) {
                     JSPHelper.log.error("Could not load openNLPNER model from: " + modelFile);
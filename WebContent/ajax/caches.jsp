@@ -0,0 +1,12 @@
+<%@page language="java" contentType="application/json;charset=UTF-8"%>
+<%@page trimDirectiveWhitespaces="true"%>
+<%@page language="java" import="edu.stanford.muse.webapp.JSPHelper"%><%@ page import="edu.stanford.muse.util.CacheRegistry"%><%@ page import="java.net.InetAddress"%>
+<%
+    // state of the cache registry: the heap budget and pools, the evictable caches and archives in the order they would be evicted, and the recent evictions. only served to local clients
+    JSPHelper.setPageUncacheable(response);
+    if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+    }
+    out.println(CacheRegistry.toJSON());
+%>
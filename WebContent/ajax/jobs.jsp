@@ -0,0 +1,13 @@
+<%@page language="java" contentType="application/json;charset=UTF-8"%>
+<%@page trimDirectiveWhitespaces="true"%>
+<%@page language="java" import="edu.stanford.muse.webapp.JSPHelper"%><%@ page import="edu.stanford.epadd.util.JobScheduler"%><%@ page import="java.net.InetAddress"%>
+<%
+    // state of the job scheduler: its pools, the running and queued operations of all sessions, and the most recent finished ones with their timings.
+    // this covers the jobs of every session, so like ajax/metrics.jsp it is only served to local clients
+    JSPHelper.setPageUncacheable(response);
+    if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+    }
+    out.println(JobScheduler.getInstance().toJSON());
+%>
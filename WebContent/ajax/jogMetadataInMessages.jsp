@@ -0,0 +1,26 @@
+<%@page language="java" contentType="application/json;charset=UTF-8"%>
+<%@page trimDirectiveWhitespaces="true"%>
+<%@page language="java" import="edu.stanford.muse.webapp.*"%>
+<%@page language="java" import="edu.stanford.muse.index.*"%>
+<%@page language="java" import="org.json.*"%>
+<%
+	// metadata (id, labels, annotation, thread, # attachments) of the messages [start, start+count) of the given dataset, for browseMessages.js.
+	// is used in an ajax call as the user pages through a dataset, never rendered directly
+	JSPHelper.setPageUncacheable(response);
+	String datasetId = request.getParameter("datasetId");
+	DataSet dataset = (DataSet) JSPHelper.getSessionAttribute(session, datasetId);
+	int start = HTMLUtils.getIntParam(request, "start", 0);
+	int count = Math.min(HTMLUtils.getIntParam(request, "count", EmailRenderer.METADATA_BATCH_SIZE), 1000);
+
+	JSONObject result = new JSONObject();
+	if (dataset == null) {
+		result.put("status", 1);
+		result.put("error", "No dataset " + datasetId + ". Session may have timed out.");
+	} else {
+		result.put("status", 0);
+		result.put("start", start);
+		result.put("total", dataset.size());
+		result.put("messages", dataset.getMetadataForMessages(start, count));
+	}
+	out.println(result);
+%>
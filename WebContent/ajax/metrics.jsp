@@ -0,0 +1,19 @@
+<%@page language="java" contentType="application/json;charset=UTF-8"%>
+<%@page trimDirectiveWhitespaces="true"%>
+<%@page language="java" import="edu.stanford.muse.webapp.JSPHelper"%><%@ page import="edu.stanford.muse.util.Metrics"%><%@ page import="java.net.InetAddress"%><%@ page import="edu.stanford.muse.webapp.RequestProfiler"%><%@ page import="org.json.JSONObject"%>
+<%
+    // counters, histograms, gauges and recent spans of this server (see Metrics), and the recent slow requests (see RequestProfiler). only served to local clients, e.g. a Prometheus agent on the same machine
+    JSPHelper.setPageUncacheable(response);
+    if (!InetAddress.getByName(request.getRemoteAddr()).isLoopbackAddress()) {
+        response.sendError(HttpServletResponse.SC_FORBIDDEN);
+        return;
+    }
+    if ("prometheus".equals(request.getParameter("format"))) {
+        response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+        out.print(Metrics.toPrometheus());
+    } else {
+        JSONObject json = Metrics.toJSON();
+        json.put("slowRequests", RequestProfiler.slowRequestsToJSON());
+        out.println(json);
+    }
+%>
@@ -0,0 +1,10 @@
+<%@page language="java" contentType="application/json;charset=UTF-8"%>
+<%@page trimDirectiveWhitespaces="true"%>
+<%@page language="java" import="edu.stanford.muse.webapp.JSPHelper"%><%@ page import="edu.stanford.epadd.util.StartupResources"%>
+<%
+    // readiness: 200 once the models and indexes loaded at startup are done, 503 before that. also lists every resource with its state and load time
+    JSPHelper.setPageUncacheable(response);
+    if (!StartupResources.isReady())
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+    out.println(StartupResources.toJSON());
+%>
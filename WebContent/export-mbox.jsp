@@ -4,6 +4,7 @@
 <%@page language="java" import="edu.stanford.muse.util.*"%>
 <%@page language="java" import="edu.stanford.muse.index.*"%>
 <%@ page import="edu.stanford.muse.AddressBookManager.AddressBook" %>
+<%@ page import="edu.stanford.muse.email.MboxExporter" %>
 <%@include file="getArchive.jspf" %>
 <!DOCTYPE HTML>
 <html>
@@ -47,14 +48,6 @@
     new File(attachmentdirname).mkdir();
 
     String pathToFile = f.getAbsolutePath() + File.separator + fname;
-    PrintWriter pw = null;
-    try {
-        pw = new PrintWriter(pathToFile, "UTF-8");
-    } catch (Exception e) {
-        out.println ("Sorry, error opening mbox file: " + e + ". Please see the log file for more details.");
-        Util.print_exception("Error opening mbox file: ", e, JSPHelper.log);
-        return;
-    }
 
     //check if request contains docsetID then work only on those messages which are in docset
     //else export all messages of mbox.
@@ -77,9 +70,13 @@
     String noAttach = request.getParameter("noattach");
     boolean noAttachments = "on".equals(noAttach);
     boolean stripQuoted = "on".equals(request.getParameter("stripQuoted"));
-    for (Document ed: selectedDocs)
-        EmailUtils.printToMbox(archive, (EmailDocument) ed, pw, noAttachments ? null: bs, false);
-    pw.close();
+    try {
+        new MboxExporter(archive, selectedDocs, noAttachments ? null : bs, false).export(new File(pathToFile));
+    } catch (Exception e) {
+        out.println ("Sorry, error writing mbox file: " + e + ". Please see the log file for more details.");
+        Util.print_exception("Error writing mbox file: ", e, JSPHelper.log);
+        return;
+    }
     String appURL = request.getScheme() + "://" + request.getServerName() + ":" + request.getServerPort() + request.getContextPath();
     String contentURL = "serveTemp.jsp?archiveID="+archiveID+"&file=" + fname ;
     String linkURL = appURL + "/" +  contentURL;
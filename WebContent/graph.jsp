@@ -242,7 +242,7 @@ private String scriptForSentimentsGraph(Map<String, Collection<Document>> map, L
 	if (doSentiments)
 	{
 		int normalizer = ProtovisUtil.normalizingMax(allDocs, addressBook, intervals);
-		int[] allMessagesHistogram = CalendarUtil.computeHistogram(EmailUtils.datesForDocs(allDocs), intervals, true /* ignore invalid dates */);
+		int[] allMessagesHistogram = archive.getDateIndex().computeHistogram(intervals); // allDocs is all of the archive's docs, so use its date index
 		graph_is_empty = true;
 		if (!Util.nullOrEmpty(allDocs))
 		{
@@ -267,7 +267,7 @@ private String scriptForSentimentsGraph(Map<String, Collection<Document>> map, L
 	else if (doPeople)
 	{
 		int normalizer = ProtovisUtil.normalizingMax(allDocs, addressBook, intervals);
-		int[] allMessagesHistogram = CalendarUtil.computeHistogram(EmailUtils.datesForDocs(allDocs), intervals, true /* ignore invalid dates */);
+		int[] allMessagesHistogram = archive.getDateIndex().computeHistogram(intervals); // allDocs is all of the archive's docs, so use its date index
 		Map<Contact, DetailedFacetItem> folders = IndexUtils.partitionDocsByPerson((Collection) allDocs, addressBook);
 		List<DetailedFacetItem> list = new ArrayList<>(folders.values());
 		graph_script = scriptForFacetsGraph(list, intervals, (Collection) allDocs, allMessagesHistogram, 1000, 450);
@@ -275,7 +275,7 @@ private String scriptForSentimentsGraph(Map<String, Collection<Document>> map, L
 	else if (doEntities)
 	{
 		int normalizer = ProtovisUtil.normalizingMax(allDocs, addressBook, intervals);
-		int[] allMessagesHistogram = CalendarUtil.computeHistogram(EmailUtils.datesForDocs(allDocs), intervals, true /* ignore invalid dates */);
+		int[] allMessagesHistogram = archive.getDateIndex().computeHistogram(intervals); // allDocs is all of the archive's docs, so use its date index
 		//a map of canonicalized entity (IndexUtils.canonicalizeEntity) to count
 		/*Map<String, Integer> counts = new LinkedHashMap<>();
 		//a map of canonicalized entity to original entity
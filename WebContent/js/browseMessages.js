@@ -5,26 +5,112 @@ var docIDs = []; // this is required for posting the docid of the message to whi
 var PAGE_ON_SCREEN = -1; // current page displayed on screen
 var TOTAL_PAGES = 0;
 
+// metadata of the messages (id, labels, annotation, thread, # of attachments), fetched in batches from the dataset on the server
+// as the user pages through it. the page starts out with the batch that has the entry page (window.messageMetadata)
+var Metadata = function() {
+    var batchSize = 50;
+    var loaded = {}; // batch number -> true once its metadata has arrived
+    var pending = {}; // batch number -> list of callbacks waiting for it
+    var listeners = []; // called with (page, metadata) for every message whose metadata arrives
+
+    function add(start, messages) {
+        for (var i = 0; i < messages.length; i++)
+            for (var j = 0; j < listeners.length; j++)
+                listeners[j](start + i, messages[i]);
+    }
+
+    function fetch(batch, callback) {
+        if (batch < 0 || batch * batchSize >= TOTAL_PAGES || loaded[batch]) {
+            if (callback)
+                callback();
+            return;
+        }
+        if (pending[batch]) {
+            if (callback)
+                pending[batch].push(callback);
+            return;
+        }
+        pending[batch] = callback ? [callback] : [];
+        $.ajax({
+            url: 'ajax/jogMetadataInMessages.jsp',
+            data: {archiveID: archiveID, datasetId: docsetID, start: batch * batchSize, count: batchSize},
+            dataType: 'json',
+            success: function (response) {
+                if (response.status === 0) {
+                    loaded[batch] = true;
+                    add(response.start, response.messages);
+                } else
+                    epadd.log('error fetching message metadata: ' + response.error);
+            },
+            error: function () { epadd.log('error fetching message metadata for batch ' + batch); },
+            complete: function () {
+                var callbacks = pending[batch];
+                delete pending[batch];
+                for (var i = 0; i < callbacks.length; i++)
+                    callbacks[i]();
+            }
+        });
+    }
+
+    // calls callback once the metadata of the given page is available, and fetches the batch after it in the background
+    function ensure(page, callback) {
+        var batch = Math.floor(page / batchSize);
+        fetch(batch, callback);
+        fetch(batch + 1);
+    }
+
+    function onMetadata(listener) { listeners.push(listener); }
+
+    function setup(initial) {
+        if (!initial)
+            return;
+        batchSize = initial.batchSize || batchSize;
+        loaded[Math.floor(initial.start / batchSize)] = true;
+        add(initial.start, initial.messages);
+    }
+
+    return {
+        setup: setup,
+        ensure: ensure,
+        onMetadata: onMetadata
+    };
+}();
+
 // interacts with #page_forward, #page_back, and #pageNumbering on screen
 var Navigation = function(){
 
     var jog;
     // currently called before the new page has been rendered, private method
-    var page_change_callback = function(oldPage, currentPage) {
+    var messageInfo = []; // page -> metadata of its message, as far as it has been fetched
 
-        PAGE_ON_SCREEN = currentPage;
-        $('#pageNumbering').html(((TOTAL_PAGES === 0) ? 0 : currentPage+1));
+    // updates the menu and labels etc. for PAGE_ON_SCREEN, if its metadata has been fetched already
+    var refreshMessageMenu = function() {
+        var info = messageInfo[PAGE_ON_SCREEN];
+        if (!info)
+            return;
         Labels.refreshLabels();
         Annotations.refreshAnnotation();
 
         // update the links
-        // $('.message-menu a.id-link').attr('href', 'browse?archiveID=' + archiveID + '&docId=' + window.messageMetadata[PAGE_ON_SCREEN].id);
+        // $('.message-menu a.id-link').attr('href', 'browse?archiveID=' + archiveID + '&docId=' + info.id);
         // we need a full link here since this has to be a persistent URL
         // window.location.origin gives us something like http://localhost:9099
-        $('.message-menu a.id-link').attr('data-href', window.location.origin + '/epadd/browse?archiveID=' + archiveID + '&docId=' + window.messageMetadata[PAGE_ON_SCREEN].id);
-        $('.message-menu a.thread-link').attr('href', 'browse?archiveID=' + archiveID + '&threadID=' + window.messageMetadata[PAGE_ON_SCREEN].threadID);
-        $('.message-menu a.thread-link .thread-count').text(window.messageMetadata[PAGE_ON_SCREEN].msgInThread);
-        $('.message-menu .attach-link span').html(window.messageMetadata[PAGE_ON_SCREEN].nAttachments);
+        $('.message-menu a.id-link').attr('data-href', window.location.origin + '/epadd/browse?archiveID=' + archiveID + '&docId=' + info.id);
+        $('.message-menu a.thread-link').attr('href', 'browse?archiveID=' + archiveID + '&threadID=' + info.threadID);
+        $('.message-menu a.thread-link .thread-count').text(info.msgInThread);
+        $('.message-menu .attach-link span').html(info.nAttachments);
+    };
+
+    var page_change_callback = function(oldPage, currentPage) {
+
+        PAGE_ON_SCREEN = currentPage;
+        $('#pageNumbering').html(((TOTAL_PAGES === 0) ? 0 : currentPage+1));
+        refreshMessageMenu();
+        // if the metadata for this page is not there yet, fill in the menu when it arrives (unless the user has moved on)
+        Metadata.ensure(currentPage, function() {
+            if (PAGE_ON_SCREEN === currentPage)
+                refreshMessageMenu();
+        });
         /*if(window.messageMetadata[PAGE_ON_SCREEN].annotation || Annotations[PAGE_ON_SCREEN]) {
             //change the image of add-annotation if this message has annotation. Because we want to display that icon with a green dot if the message has an annotation.
             $('.message-menu a.annotation-link img').attr('src','images/add_annotation_dot.svg');
@@ -35,6 +121,8 @@ var Navigation = function(){
 
     };
 
+    Metadata.onMetadata(function(page, info) { messageInfo[page] = info; });
+
     var setupEvents = function() {
         //!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
         //Big gotcha here: Be very careful what method is passed as logger into this jog method.
@@ -84,6 +172,12 @@ var Labels = function() {
 
     /** private method labelIds is an array of label ids (e.g. [1,2,5]) which are to be applied to the current message */
     function apply_labels(labelIds) {
+        if (!docIDs[PAGE_ON_SCREEN]) {
+            epadd.error('This message is still loading, please try again in a moment.');
+            labelsOnPage[PAGE_ON_SCREEN] = currentPageOldLabels;
+            refreshLabels();
+            return;
+        }
         //
         // if(labelIds.length===0){
         //     return;
@@ -155,11 +249,12 @@ var Labels = function() {
 
     var setup = function () {
 
-        // set up docIDs and labelsOnPage
-        for (var i = 0; i < TOTAL_PAGES; i++) {
-            labelsOnPage[i] = messageMetadata[i].labels;
-            docIDs[i] = messageMetadata[i].id;
-        }
+        // set up docIDs and labelsOnPage as the metadata of each message arrives. labels changed on this page in the meantime are kept
+        Metadata.onMetadata(function(page, info) {
+            if (labelsOnPage[page] === undefined)
+                labelsOnPage[page] = info.labels;
+            docIDs[page] = info.id;
+        });
 
         // set up label handling
         $('.label-selectpicker').on('change', function () {
@@ -198,6 +293,10 @@ var Annotations = function() {
             var overwrite_or_append = $('#annotation-modal input[type=radio]:checked').attr('value')
 
             Navigation.enableCursorKeys();
+            if (!docIDs[PAGE_ON_SCREEN]) {
+                epadd.error('This message is still loading, please try again in a moment.');
+                return;
+            }
             var annotation = $('#annotation-modal .modal-body').val().trim(); // .val() gets the value of a text area. assume: no html in annotations
             if(overwrite_or_append=="overwrite") {
                     annotations[PAGE_ON_SCREEN] = annotation;
@@ -247,12 +346,14 @@ var Annotations = function() {
                     var annotation = $('#annotation-modal .modal-body').val().trim(); // .val() gets the value of a text area. assume: no html in annotations
                     // if(annotation.trim().length==0)
                     //     annotation="";
+                    // messages whose metadata has not been fetched yet get the updated annotation from the server when it is
                     if(overwrite_or_append=="overwrite") {
                         for (var i = 0; i < TOTAL_PAGES; i++)
                             annotations[i] = annotation;
                     }else if (overwrite_or_append=="append"){
                         for (var i = 0; i < TOTAL_PAGES; i++)
-                            annotations[i] += annotation;
+                            if (annotations[i] !== undefined)
+                                annotations[i] += annotation;
                     }
 
                     Annotations.refreshAnnotation();
@@ -281,11 +382,14 @@ var Annotations = function() {
             }
         }
 
-        for (var i = 0; i < TOTAL_PAGES; i++) {
-            annotations[i] = messageMetadata[i].annotation;
-            if (annotations[i] === null) // protect against null, otherwise the word null uglily (q: is that a word? probably fine. its a better word than bigly.) appears on screen.
-                annotations[i] = '';
-        }
+        // annotations changed on this page before the metadata of a message arrives are kept
+        Metadata.onMetadata(function(page, info) {
+            if (annotations[page] !== undefined)
+                return;
+            annotations[page] = info.annotation;
+            if (!annotations[page]) // protect against null, otherwise the word null uglily (q: is that a word? probably fine. its a better word than bigly.) appears on screen.
+                annotations[page] = '';
+        });
 
         // set up handlers for when annotation modal is shown/dismissed
         //$('#annotation-modal').on('shown.bs.modal', annotation_modal_shown).on('hidden.bs.modal', annotation_modal_dismissed);
@@ -341,6 +445,7 @@ $(document).ready(function() {
     PAGE_ON_SCREEN = 0;
     Labels.setup();
     Annotations.setup();
+    Metadata.setup(window.messageMetadata); // after labels and annotations have registered for the metadata
     Navigation.setupEvents(); // important -- this has to be after labels and annotations setup to render the first page correctly
 
     // on page unload, release dataset to free memory
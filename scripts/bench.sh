@@ -0,0 +1,30 @@
+#!/usr/bin/env bash
+# Builds and runs the JMH benchmarks (pom-bench.xml), writing results to target/bench/<commit>.json.
+# Usage: scripts/bench.sh [base results .json to compare with] [-- jmh options, e.g. SearchBenchmark -p messages=20000]
+# Maven runs offline (-o), so the dependencies must already be in the local repository; the benchmarks themselves need no network,
+# they generate their mailboxes and archives under target/bench-data (reused across runs).
+
+set -e
+cd "$(dirname "$0")/.."
+
+BASE=""
+if [ "$#" -gt 0 ] && [ "$1" != "--" ]; then
+    BASE=$1
+    shift
+fi
+[ "$1" == "--" ] && shift
+
+COMMIT=$(git rev-parse --short HEAD)
+if ! git diff --quiet HEAD; then
+    COMMIT=$COMMIT-dirty
+fi
+mkdir -p target/bench
+OUT=target/bench/$COMMIT.json
+
+mvn -o -q -f pom-bench.xml package -DskipTests
+java -jar target/epadd-benchmarks.jar -rf json -rff "$OUT" "$@"
+echo "Results in $OUT"
+
+if [ -n "$BASE" ]; then
+    java -cp target/epadd-benchmarks.jar edu.stanford.epadd.bench.BenchCompare "$BASE" "$OUT"
+fi
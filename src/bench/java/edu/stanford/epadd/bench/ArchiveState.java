@@ -0,0 +1,67 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.index.Document;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A prebuilt synthetic archive (see SyntheticArchive), loaded once per trial, with a fixed sample of its messages and their text,
+ * and search terms drawn from the generator's vocabulary. The generator options are JMH params, e.g. -p messages=20000 -p languages=en,fr
+ */
+@State(Scope.Benchmark)
+public class ArchiveState {
+    private static final int SAMPLE_SIZE = 100;
+
+    @Param({"2000"})
+    public int messages;
+
+    @Param({"en"})
+    public String languages;
+
+    @Param({"0.3"})
+    public double entities;
+
+    public Archive archive;
+    public String archiveID;
+    public List<Document> docs;
+    /** every n'th message, SAMPLE_SIZE of them, and their contents */
+    public List<Document> sample;
+    public List<String> sampleContents;
+    public String[] terms;
+
+    public SyntheticMailbox.Options options() {
+        SyntheticMailbox.Options options = new SyntheticMailbox.Options();
+        options.messages = messages;
+        options.languages = languages.split(",");
+        options.entityDensity = entities;
+        return options;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        archive = SyntheticArchive.load(options());
+        archiveID = ArchiveReaderWriter.getArchiveIDForArchive(archive);
+        docs = archive.getAllDocs();
+        sample = new ArrayList<>();
+        sampleContents = new ArrayList<>();
+        int step = Math.max(1, docs.size() / SAMPLE_SIZE);
+        for (int i = 0; i < docs.size() && sample.size() < SAMPLE_SIZE; i += step) {
+            sample.add(docs.get(i));
+            sampleContents.add(archive.getContents(docs.get(i), false));
+        }
+
+        // a few common words, a name and a place
+        String[] words = SyntheticMailbox.WORDS.get(options().languages[0]);
+        terms = new String[]{words[0], words[words.length / 3], words[2 * words.length / 3], "Smith", "Boston"};
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ArchiveReaderWriter.removeFromGlobalArchiveMap(archive.baseDir, archive);
+        archive.close();
+    }
+}
@@ -0,0 +1,85 @@
+package edu.stanford.epadd.bench;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH result files (-rf json), e.g. from two commits, benchmark by benchmark (with the same params).
+ * A benchmark has regressed if its score is worse by more than the threshold (default 10%) and by more than the error of both runs.
+ * Prints a table and exits with 1 if anything regressed.
+ * Usage: java edu.stanford.epadd.bench.BenchCompare <base.json> <new.json> [threshold percent]
+ */
+public class BenchCompare {
+
+    private static class Result {
+        double score, error;
+        String unit;
+        boolean higherIsBetter;
+    }
+
+    private static Map<String, Result> read(String file) throws IOException {
+        JSONArray array = new JSONArray(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        Map<String, Result> results = new LinkedHashMap<>();
+        for (int i = 0; i < array.length(); i++) {
+            JSONObject o = array.getJSONObject(i);
+            StringBuilder key = new StringBuilder(o.getString("benchmark").replace("edu.stanford.epadd.bench.", ""));
+            JSONObject params = o.optJSONObject("params");
+            String[] names = params == null ? null : JSONObject.getNames(params);
+            if (names != null) {
+                Map<String, Object> sorted = new TreeMap<>();
+                for (String p : names)
+                    sorted.put(p, params.get(p));
+                key.append(sorted);
+            }
+            JSONObject metric = o.getJSONObject("primaryMetric");
+            Result r = new Result();
+            r.score = metric.getDouble("score");
+            r.error = metric.optDouble("scoreError", 0);
+            if (Double.isNaN(r.error))
+                r.error = 0;
+            r.unit = metric.getString("scoreUnit");
+            r.higherIsBetter = "thrpt".equals(o.getString("mode"));
+            results.put(key.toString(), r);
+        }
+        return results;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BenchCompare <base.json> <new.json> [threshold percent]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        Map<String, Result> base = read(args[0]), current = read(args[1]);
+
+        int regressions = 0;
+        System.out.println(String.format("%-70s %14s %14s %9s", "benchmark", "base", "new", "change"));
+        for (Map.Entry<String, Result> e : current.entrySet()) {
+            Result now = e.getValue(), before = base.get(e.getKey());
+            if (before == null) {
+                System.out.println(String.format("%-70s %14s %14.3f %9s  %s", e.getKey(), "-", now.score, "new", now.unit));
+                continue;
+            }
+            double change = 100 * (now.score - before.score) / before.score;
+            double worse = now.higherIsBetter ? -change : change;
+            boolean regressed = worse > threshold && Math.abs(now.score - before.score) > now.error + before.error;
+            if (regressed)
+                regressions++;
+            System.out.println(String.format("%-70s %14.3f %14.3f %+8.1f%%  %s%s", e.getKey(), before.score, now.score, change, now.unit, regressed ? "  REGRESSION" : ""));
+        }
+        for (String key : base.keySet())
+            if (!current.containsKey(key))
+                System.out.println(String.format("%-70s %14.3f %14s %9s", key, base.get(key).score, "-", "missing"));
+
+        System.out.println(regressions + " regression(s) of more than " + threshold + "%");
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+}
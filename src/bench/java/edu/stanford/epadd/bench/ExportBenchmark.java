@@ -0,0 +1,93 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.Config;
+import edu.stanford.muse.email.MboxExporter;
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.util.EmailUtils;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * exporting all messages of the archive to mbox, sequentially and with MboxExporter, and exporting the archive from appraisal to processing.
+ * an export can change the archive in memory, so that one works on a freshly loaded archive each time.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ExportBenchmark {
+    private static final Logger log = LogManager.getLogger(ExportBenchmark.class);
+
+    @State(Scope.Thread)
+    public static class Output {
+        File dir;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            dir = new File(SyntheticArchive.benchDir(), "export");
+            dir.mkdirs();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            Util.deleteDir(dir.getPath(), log);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class FreshArchive {
+        Archive archive;
+
+        @Setup(Level.Invocation)
+        public void setup(ArchiveState state) {
+            ArchiveReaderWriter.removeFromGlobalArchiveMap(state.archive.baseDir, state.archive);
+            archive = ArchiveReaderWriter.readArchiveIfPresent(state.archive.baseDir);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            ArchiveReaderWriter.removeFromGlobalArchiveMap(archive.baseDir, archive);
+            archive.close();
+        }
+    }
+
+    @Benchmark
+    public long mbox(ArchiveState state, Output output) throws IOException {
+        File f = new File(output.dir, "all.mbox");
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)))) {
+            for (Document d : state.docs)
+                EmailUtils.printToMbox(state.archive, (EmailDocument) d, pw, state.archive.getBlobStore(), false);
+        }
+        return f.length();
+    }
+
+    @State(Scope.Thread)
+    public static class ExportThreads {
+        @Param({"1", "4"})
+        int threads;
+    }
+
+    @Benchmark
+    public long mboxExporter(ArchiveState state, Output output, ExportThreads exportThreads) throws IOException {
+        File f = new File(output.dir, "all-exporter.mbox");
+        Config.EXPORT_THREADS = exportThreads.threads;
+        new MboxExporter(state.archive, state.docs, state.archive.getBlobStore(), false).export(f);
+        return f.length();
+    }
+
+    @Benchmark
+    public String appraisalToProcessing(FreshArchive fresh, Output output) throws Exception {
+        return fresh.archive.export(fresh.archive.getAllDocs(), Archive.Export_Mode.EXPORT_APPRAISAL_TO_PROCESSING,
+                new File(output.dir, "processing").getPath(), "default", statusProvider -> {});
+    }
+}
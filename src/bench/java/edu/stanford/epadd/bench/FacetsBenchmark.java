@@ -0,0 +1,43 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.AddressBookManager.Contact;
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.index.IndexUtils;
+import edu.stanford.muse.util.DetailedFacetItem;
+import edu.stanford.muse.util.EmailUtils;
+import org.json.JSONArray;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/** the facets of the browse page over all messages, and the address book computations behind the correspondents page */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class FacetsBenchmark {
+
+    @Benchmark
+    public Map<String, Collection<DetailedFacetItem>> messageFacets(ArchiveState state) {
+        return IndexUtils.computeDetailedFacetsForMessageBrowsing(state.docs, state.archive);
+    }
+
+    @Benchmark
+    public List<Contact> sortedContacts(ArchiveState state) {
+        return state.archive.getAddressBook().sortedContacts((Collection) state.docs);
+    }
+
+    @Benchmark
+    public JSONArray correspondentCounts(ArchiveState state) {
+        return state.archive.getAddressBook().getCountsAsJSON(false, state.archiveID);
+    }
+
+    @Benchmark
+    public Collection<Collection<EmailDocument>> threads(ArchiveState state) {
+        return EmailUtils.threadEmails((Collection) state.docs);
+    }
+}
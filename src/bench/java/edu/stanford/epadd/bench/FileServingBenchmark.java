@@ -0,0 +1,81 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.webapp.FileServer;
+import org.openjdk.jmh.annotations.*;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.*;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * throughput of sending a file with FileServer, against the BufferedInputStream/BufferedOutputStream loop JSPHelper.writeFileToResponse used before,
+ * for a file the size of a typical attachment and one the size of an mbox export. the response body is discarded.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class FileServingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Files {
+        @Param({"1000000", "200000000"})
+        int size;
+
+        File file;
+        HttpServletResponse response;
+        long bytesSent;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            File dir = new File(SyntheticArchive.benchDir(), "serve");
+            dir.mkdirs();
+            file = new File(dir, "file-" + size + ".bin");
+            if (file.length() != size) {
+                Random random = new Random(size);
+                byte[] chunk = new byte[1 << 20];
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    for (int written = 0; written < size; written += chunk.length) {
+                        random.nextBytes(chunk);
+                        out.write(chunk, 0, Math.min(chunk.length, size - written));
+                    }
+                }
+            }
+
+            ServletOutputStream out = new ServletOutputStream() {
+                public void write(int b) {
+                    bytesSent++;
+                }
+
+                public void write(byte[] b, int off, int len) {
+                    bytesSent += len;
+                }
+            };
+            response = (HttpServletResponse) Proxy.newProxyInstance(FileServingBenchmark.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class},
+                    (proxy, method, args) -> "getOutputStream".equals(method.getName()) ? out : ("isCommitted".equals(method.getName()) ? Boolean.FALSE : null));
+        }
+    }
+
+    @Benchmark
+    public long bufferedStreams(Files files) throws IOException {
+        int DEFAULT_BUFFER_SIZE = 100000;
+        try (BufferedInputStream input = new BufferedInputStream(new FileInputStream(files.file), DEFAULT_BUFFER_SIZE);
+             BufferedOutputStream output = new BufferedOutputStream(files.response.getOutputStream(), DEFAULT_BUFFER_SIZE)) {
+            byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+            int length;
+            while ((length = input.read(buffer)) > 0)
+                output.write(buffer, 0, length);
+        }
+        return files.bytesSent;
+    }
+
+    @Benchmark
+    public long fileServer(Files files) throws IOException {
+        FileServer.serve(null, files.response, files.file, "application/octet-stream", true);
+        return files.bytesSent;
+    }
+}
@@ -0,0 +1,57 @@
+package edu.stanford.epadd.bench;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import edu.stanford.muse.index.DatedDocument;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.Highlighter;
+import edu.stanford.muse.index.SearchResult;
+import edu.stanford.muse.webapp.EmailRenderer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** highlighting search terms in the sample of messages, on its own and as part of rendering a message for the browse page */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class HighlightBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Query {
+        Set<String> terms;
+        SearchResult searchResult;
+
+        @Setup(Level.Trial)
+        public void setup(ArchiveState state) {
+            terms = new LinkedHashSet<>(Arrays.asList(state.terms));
+            Multimap<String, String> params = LinkedHashMultimap.create();
+            params.put("term", state.terms[0]);
+            searchResult = SearchResult.selectDocsAndBlobs(new SearchResult(state.archive, params)).getSecond();
+        }
+    }
+
+    @Benchmark
+    public int highlightTerms(ArchiveState state, Query query) {
+        int n = 0;
+        for (int i = 0; i < state.sample.size(); i++) {
+            Document d = state.sample.get(i);
+            n += Highlighter.getHTMLAnnotatedDocumentContents(state.archive, state.sampleContents.get(i), ((DatedDocument) d).getDate(), d.getUniqueId(),
+                    null, query.terms, null, null, false).length();
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int renderDocuments(ArchiveState state, Query query) throws Exception {
+        int n = 0;
+        for (Document d : state.sample)
+            n += EmailRenderer.htmlForDocument(d, query.searchResult, "bench", null, false, true, false, state.archiveID).getFirst().length();
+        return n;
+    }
+}
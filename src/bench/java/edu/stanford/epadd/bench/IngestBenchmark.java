@@ -0,0 +1,62 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/** importing a synthetic mailbox into a new archive: fetch, index, NER, threading and the first save */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Thread)
+public class IngestBenchmark {
+    private static final Logger log = LogManager.getLogger(IngestBenchmark.class);
+
+    @Param({"2000"})
+    public int messages;
+
+    @Param({"en"})
+    public String languages;
+
+    @Param({"0.1"})
+    public double attachments;
+
+    private File mboxDir, baseDir;
+    private Archive archive;
+
+    @Setup(Level.Trial)
+    public void generate() throws Exception {
+        SyntheticMailbox.Options options = new SyntheticMailbox.Options();
+        options.messages = messages;
+        options.languages = languages.split(",");
+        options.attachmentRate = attachments;
+        mboxDir = SyntheticArchive.mboxDir(options);
+        baseDir = new File(SyntheticArchive.benchDir(), "ingest");
+        // the NER model is loaded once by the web app too
+        SyntheticArchive.nerModel();
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteArchive() {
+        if (archive != null) {
+            ArchiveReaderWriter.removeFromGlobalArchiveMap(archive.baseDir, archive);
+            archive.close();
+            archive = null;
+        }
+        Util.deleteDir(baseDir.getPath(), log);
+    }
+
+    @Benchmark
+    public Archive ingest() throws Exception {
+        archive = SyntheticArchive.ingest(mboxDir, baseDir);
+        return archive;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.util.Util;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * loading an archive from disk (with nothing cached in memory), and saving it as the web app does after a change.
+ * works on a copy of the prebuilt archive, since saving rewrites its files.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class LoadSaveBenchmark {
+    private static final Logger log = LogManager.getLogger(LoadSaveBenchmark.class);
+
+    @State(Scope.Benchmark)
+    public static class ArchiveCopy {
+        @Param({"2000"})
+        public int messages;
+
+        @Param({"en"})
+        public String languages;
+
+        File dir;
+
+        @Setup(Level.Trial)
+        public void copy() throws Exception {
+            SyntheticMailbox.Options options = new SyntheticMailbox.Options();
+            options.messages = messages;
+            options.languages = languages.split(",");
+            dir = new File(SyntheticArchive.benchDir(), "load-save");
+            Util.deleteDir(dir.getPath(), log);
+            FileUtils.copyDirectory(SyntheticArchive.archiveDir(options), dir);
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() {
+            Util.deleteDir(dir.getPath(), log);
+        }
+    }
+
+    /** the archive loaded by the benchmark (or for it), unloaded after each call */
+    @State(Scope.Thread)
+    public static class Loaded {
+        Archive archive;
+        File dir;
+
+        @TearDown(Level.Invocation)
+        public void unload() {
+            if (archive != null) {
+                ArchiveReaderWriter.removeFromGlobalArchiveMap(dir.getPath(), archive);
+                archive.close();
+                archive = null;
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Preloaded extends Loaded {
+        @Setup(Level.Invocation)
+        public void load(ArchiveCopy copy) {
+            dir = copy.dir;
+            archive = ArchiveReaderWriter.readArchiveIfPresent(dir.getPath());
+        }
+    }
+
+    @Benchmark
+    public Archive load(ArchiveCopy copy, Loaded loaded) {
+        loaded.dir = copy.dir;
+        loaded.archive = ArchiveReaderWriter.readArchiveIfPresent(copy.dir.getPath());
+        return loaded.archive;
+    }
+
+    @Benchmark
+    public boolean save(Preloaded loaded) throws Exception {
+        return ArchiveReaderWriter.saveArchive(loaded.archive, Archive.Save_Archive_Mode.INCREMENTAL_UPDATE);
+    }
+}
@@ -0,0 +1,42 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.ner.model.NERModel;
+import edu.stanford.muse.util.EmailUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** entity recognition with the web app's model, and the quoted text stripping done before indexing, on the sample of messages */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class NERBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Model {
+        NERModel model;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            model = SyntheticArchive.nerModel();
+        }
+    }
+
+    @Benchmark
+    public int findEntities(ArchiveState state, Model model) {
+        int n = 0;
+        for (String contents : state.sampleContents)
+            n += model.model.find(contents).length;
+        return n;
+    }
+
+    @Benchmark
+    public int originalContent(ArchiveState state) {
+        int n = 0;
+        for (String contents : state.sampleContents)
+            n += EmailUtils.getOriginalContent(contents).length();
+        return n;
+    }
+}
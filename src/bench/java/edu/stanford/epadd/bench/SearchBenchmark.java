@@ -0,0 +1,45 @@
+package edu.stanford.epadd.bench;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import edu.stanford.muse.index.Indexer;
+import edu.stanford.muse.index.SearchResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/** term search, straight on the Lucene index and through SearchResult as the search page does it */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SearchBenchmark {
+
+    @Benchmark
+    public int luceneTerms(ArchiveState state) {
+        int n = 0;
+        for (String term : state.terms)
+            n += state.archive.docsForQuery(term, Indexer.QueryType.FULL).size();
+        return n;
+    }
+
+    @Benchmark
+    public int originalContentTerms(ArchiveState state) {
+        int n = 0;
+        for (String term : state.terms)
+            n += state.archive.docsForQuery(term, Indexer.QueryType.ORIGINAL).size();
+        return n;
+    }
+
+    @Benchmark
+    public int searchResultTerms(ArchiveState state) {
+        int n = 0;
+        for (String term : state.terms) {
+            Multimap<String, String> params = LinkedHashMultimap.create();
+            params.put("term", term);
+            n += SearchResult.selectDocsAndBlobs(new SearchResult(state.archive, params)).getFirst().size();
+        }
+        return n;
+    }
+}
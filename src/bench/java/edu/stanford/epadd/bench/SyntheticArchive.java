@@ -0,0 +1,115 @@
+package edu.stanford.epadd.bench;
+
+import edu.stanford.muse.email.FetchConfig;
+import edu.stanford.muse.email.MuseEmailFetcher;
+import edu.stanford.muse.ie.variants.EntityBookManager;
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.ner.NER;
+import edu.stanford.muse.ner.model.NBModel;
+import edu.stanford.muse.ner.model.NERModel;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * Builds archives from synthetic mailboxes, the same way doFetchAndIndex.jsp does for an imported mbox: fetch and index, NER,
+ * thread ids, save, entity books. Prebuilt archives are kept under the bench dir (-Depadd.bench.dir, default target/bench-data),
+ * in a directory named by the generator options, so benchmarks that only read an archive build it once.
+ * Usage: java edu.stanford.epadd.bench.SyntheticArchive [generator options, see SyntheticMailbox] builds (or finds) the archive and prints its dir.
+ */
+public class SyntheticArchive {
+    private static final Logger log = LogManager.getLogger(SyntheticArchive.class);
+
+    public static File benchDir() {
+        return new File(System.getProperty("epadd.bench.dir", "target" + File.separator + "bench-data")).getAbsoluteFile();
+    }
+
+    /** the mbox dir for these options, generated if needed */
+    public static synchronized File mboxDir(SyntheticMailbox.Options options) throws Exception {
+        File dir = new File(new File(benchDir(), options.key()), "mbox");
+        File done = new File(dir, ".complete");
+        if (!done.exists()) {
+            Util.deleteDir(dir.getPath(), log);
+            new SyntheticMailbox(options).generate(dir);
+            done.createNewFile();
+        }
+        return dir;
+    }
+
+    /** the dir of the prebuilt archive for these options, built if needed */
+    public static synchronized File archiveDir(SyntheticMailbox.Options options) throws Exception {
+        File base = new File(new File(benchDir(), options.key()), "archive");
+        File done = new File(base, ".complete");
+        if (!done.exists()) {
+            Util.deleteDir(base.getPath(), log);
+            Archive archive = ingest(mboxDir(options), base);
+            ArchiveReaderWriter.removeFromGlobalArchiveMap(new File(base, "user").getPath(), archive);
+            archive.close();
+            done.createNewFile();
+        }
+        return new File(base, "user");
+    }
+
+    /** loads the prebuilt archive for these options */
+    public static Archive load(SyntheticMailbox.Options options) throws Exception {
+        File dir = archiveDir(options);
+        Archive archive = ArchiveReaderWriter.readArchiveIfPresent(dir.getPath());
+        if (archive == null)
+            throw new IllegalStateException("No archive in " + dir);
+        return archive;
+    }
+
+    /**
+     * imports all the mbox files in mboxDir into a new archive under baseDir (in baseDir/user, like an appraisal archive in the cache dir)
+     * and saves it. the archive is left registered in ArchiveReaderWriter's global map, like an archive imported from the web app.
+     */
+    public static Archive ingest(File mboxDir, File baseDir) throws Exception {
+        ArchiveReaderWriter.CACHE_BASE_DIR = baseDir.getPath();
+        MuseEmailFetcher fetcher = new MuseEmailFetcher();
+        fetcher.addMboxAccount("bench", mboxDir.getPath(), true);
+        Archive archive = ArchiveReaderWriter.prepareAndLoadArchive(fetcher, null);
+        archive.addOwnerEmailAddr(SyntheticMailbox.OWNER_ADDRESS);
+
+        File[] files = mboxDir.listFiles(f -> f.isFile() && !f.getName().startsWith("."));
+        String[] folders = new String[files.length];
+        for (int i = 0; i < files.length; i++)
+            folders[i] = "Local Folders^-^" + files[i].getPath();
+
+        FetchConfig fc = new FetchConfig();
+        fc.downloadMessages = true;
+        fc.downloadAttachments = true;
+        fetcher.fetchAndIndexEmails(archive, folders, false, fc, null, statusProvider -> {});
+        archive.close();
+        archive.openForRead();
+
+        NER ner = new NER(archive, nerModel());
+        ner.recognizeArchive();
+        archive.postProcess();
+        archive.assignThreadIds();
+
+        ArchiveReaderWriter.saveArchive(archive, Archive.Save_Archive_Mode.FRESH_CREATION);
+        String entityBookPath = archive.baseDir + File.separatorChar + Archive.BAG_DATA_FOLDER + File.separatorChar + Archive.SESSIONS_SUBDIR
+                + File.separatorChar + Archive.ENTITYBOOKMANAGER_SUFFIX;
+        archive.setEntityBookManager(EntityBookManager.readObjectFromFiles(archive, entityBookPath));
+        ArchiveReaderWriter.saveEntityBookManager(archive, Archive.Save_Archive_Mode.FRESH_CREATION);
+        log.info("Synthetic archive with " + archive.getAllDocs().size() + " messages saved in " + archive.baseDir);
+        return archive;
+    }
+
+    private static NERModel nerModel;
+
+    /** the model used by the web app for NER, loaded once */
+    public static synchronized NERModel nerModel() {
+        if (nerModel == null)
+            nerModel = NBModel.loadModelFromRules(NBModel.MODEL_FILENAME);
+        return nerModel;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SyntheticMailbox.Options options = SyntheticMailbox.Options.parse(args, 0);
+        System.out.println(archiveDir(options).getPath());
+    }
+}
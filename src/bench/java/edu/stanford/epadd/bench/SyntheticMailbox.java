@@ -0,0 +1,325 @@
+package edu.stanford.epadd.bench;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+/**
+ * Deterministic generator of mbox files for benchmarks: the same options (including the seed) always give byte-identical files.
+ * Messages are written to two folders, Inbox and Sent (the messages sent by the owner, owner@example.org). Some fraction of them are
+ * replies, quoting their parent and carrying In-Reply-To/References headers, up to a maximum thread depth. Bodies are sentences in
+ * one of the chosen languages, with person, organization and place names mixed in at the given density, and some messages
+ * have a text, csv or png attachment.
+ * Usage: java edu.stanford.epadd.bench.SyntheticMailbox <output dir> [-messages 2000] [-correspondents 100] [-depth 6] [-replies 0.4]
+ *          [-attachments 0.1] [-languages en,fr] [-entities 0.3] [-seed 42]
+ */
+public class SyntheticMailbox {
+    public static final String OWNER_NAME = "Robin Owner", OWNER_ADDRESS = "owner@example.org";
+
+    public static class Options {
+        public int messages = 2000, correspondents = 100, maxThreadDepth = 6;
+        public double replyRate = 0.4, attachmentRate = 0.1, entityDensity = 0.3;
+        public String[] languages = {"en"};
+        public long seed = 42;
+
+        public static Options parse(String[] args, int start) {
+            Options o = new Options();
+            for (int i = start; i + 1 < args.length; i += 2) {
+                String v = args[i + 1];
+                switch (args[i]) {
+                    case "-messages": o.messages = Integer.parseInt(v); break;
+                    case "-correspondents": o.correspondents = Integer.parseInt(v); break;
+                    case "-depth": o.maxThreadDepth = Integer.parseInt(v); break;
+                    case "-replies": o.replyRate = Double.parseDouble(v); break;
+                    case "-attachments": o.attachmentRate = Double.parseDouble(v); break;
+                    case "-languages": o.languages = v.split(","); break;
+                    case "-entities": o.entityDensity = Double.parseDouble(v); break;
+                    case "-seed": o.seed = Long.parseLong(v); break;
+                    default: throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+            for (String lang : o.languages)
+                if (!WORDS.containsKey(lang))
+                    throw new IllegalArgumentException("Unknown language: " + lang + ", available: " + WORDS.keySet());
+            return o;
+        }
+
+        /** a name for these options, usable as a directory name */
+        public String key() {
+            return "m" + messages + "-c" + correspondents + "-d" + maxThreadDepth + "-r" + replyRate + "-a" + attachmentRate + "-l" + String.join("_", languages)
+                    + "-e" + entityDensity + "-s" + seed;
+        }
+    }
+
+    static final Map<String, String[]> WORDS = new LinkedHashMap<>();
+    static {
+        WORDS.put("en", ("meeting project budget report draft letter archive library collection review schedule proposal committee grant research "
+                + "conference paper chapter manuscript interview travel weekend dinner family garden weather photographs exhibition museum "
+                + "contract invoice payment office building trustees minutes agenda question answer update summary deadline students faculty "
+                + "would could should please thanks tomorrow yesterday today next last early late quickly finally really again still").split(" "));
+        WORDS.put("fr", ("réunion projet budget rapport brouillon lettre archives bibliothèque collection révision calendrier proposition comité "
+                + "recherche conférence article chapitre manuscrit entretien voyage week-end dîner famille jardin météo photographies exposition "
+                + "musée contrat facture paiement bureau bâtiment procès-verbal ordre question réponse résumé échéance étudiants été hiver "
+                + "pourrait devrait merci demain hier aujourd'hui prochain dernier très déjà encore toujours").split(" "));
+        WORDS.put("de", ("Besprechung Projekt Haushalt Bericht Entwurf Brief Archiv Bibliothek Sammlung Überprüfung Zeitplan Vorschlag Ausschuss "
+                + "Forschung Konferenz Aufsatz Kapitel Manuskript Gespräch Reise Wochenende Abendessen Familie Garten Wetter Fotografien "
+                + "Ausstellung Museum Vertrag Rechnung Zahlung Büro Gebäude Protokoll Tagesordnung Frage Antwort Zusammenfassung Frist "
+                + "Studenten könnte sollte bitte danke morgen gestern heute nächste letzte früh spät schnell über für größer").split(" "));
+        WORDS.put("es", ("reunión proyecto presupuesto informe borrador carta archivo biblioteca colección revisión calendario propuesta comité "
+                + "investigación conferencia artículo capítulo manuscrito entrevista viaje fin-de-semana cena familia jardín tiempo fotografías "
+                + "exposición museo contrato factura pago oficina edificio actas orden pregunta respuesta resumen plazo estudiantes año "
+                + "podría debería gracias mañana ayer hoy próximo último pronto tarde rápido señor niño también todavía").split(" "));
+    }
+
+    private static final String[] FIRST_NAMES = ("James Mary John Patricia Robert Jennifer Michael Linda William Elizabeth David Barbara Richard Susan "
+            + "Joseph Jessica Thomas Sarah Charles Karen Daniel Nancy Matthew Lisa Anthony Betty Mark Margaret Donald Sandra").split(" ");
+    private static final String[] LAST_NAMES = ("Smith Johnson Williams Brown Jones Garcia Miller Davis Rodriguez Martinez Hernandez Lopez Gonzalez "
+            + "Wilson Anderson Taylor Moore Jackson Martin Lee Thompson White Harris Clark Lewis Robinson Walker Young Allen King").split(" ");
+    private static final String[] ORGS = ("Stanford University|Harvard Library|Ford Foundation|National Science Foundation|Library of Congress|"
+            + "Smithsonian Institution|Getty Research Institute|Mellon Foundation|British Library|New York Public Library|Acme Corporation|"
+            + "United Nations|World Bank|Red Cross|Oxford University Press").split("\\|");
+    private static final String[] PLACES = ("Boston|New York|San Francisco|Chicago|London|Paris|Berlin|Madrid|Rome|Tokyo|Mumbai|Cairo|"
+            + "Toronto|Mexico City|Buenos Aires|Sydney|Palo Alto|Cambridge|Seattle|Washington").split("\\|");
+    private static final String[] DOMAINS = {"example.com", "example.net", "example.edu", "mail.example.org"};
+
+    // a 1x1 png
+    private static final byte[] PNG = Base64.getDecoder().decode("iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNk+M9QDwADhgGAWjR9awAAAABJRU5ErkJggg==");
+    private static final int MAX_QUOTED_LINES = 20, RECENT_MESSAGES = 500;
+
+    private static class Person {
+        final String name, address;
+
+        Person(String name, String address) {
+            this.name = name;
+            this.address = address;
+        }
+
+        String header() {
+            return "\"" + name + "\" <" + address + ">";
+        }
+    }
+
+    private static class Message {
+        String id, subject, references = "", body;
+        Person from;
+        List<Person> to;
+        Date date;
+        int depth;
+    }
+
+    private final Options options;
+    private final Random random;
+    private final List<Person> correspondents = new ArrayList<>();
+    private final Person owner = new Person(OWNER_NAME, OWNER_ADDRESS);
+
+    public SyntheticMailbox(Options options) {
+        this.options = options;
+        this.random = new Random(options.seed);
+        for (int i = 0; i < options.correspondents; i++) {
+            String first = FIRST_NAMES[i % FIRST_NAMES.length], last = LAST_NAMES[(i / FIRST_NAMES.length + i * 7) % LAST_NAMES.length];
+            correspondents.add(new Person(first + " " + last, first.toLowerCase() + "." + last.toLowerCase() + i + "@" + DOMAINS[i % DOMAINS.length]));
+        }
+    }
+
+    /** writes the Inbox and Sent mbox files into dir and returns them */
+    public List<File> generate(File dir) throws IOException {
+        dir.mkdirs();
+        File inboxFile = new File(dir, "Inbox"), sentFile = new File(dir, "Sent");
+        try (Writer inbox = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(inboxFile), StandardCharsets.UTF_8));
+             Writer sent = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(sentFile), StandardCharsets.UTF_8))) {
+            List<Message> recent = new ArrayList<>();
+            long time = 1104537600000L; // 2005-01-01 UTC, fixed so that the output does not depend on when it is generated
+            for (int i = 0; i < options.messages; i++) {
+                time += 10 * 60 * 1000L + random.nextInt(6 * 60 * 60 * 1000);
+                Message m = nextMessage(i, new Date(time), recent);
+                write(m, i, m.from == owner ? sent : inbox);
+                recent.add(m);
+                if (recent.size() > RECENT_MESSAGES)
+                    recent.remove(0);
+            }
+        }
+        return Arrays.asList(inboxFile, sentFile);
+    }
+
+    private Message nextMessage(int i, Date date, List<Message> recent) {
+        Message m = new Message();
+        m.id = "<" + i + "." + options.seed + "@bench.epadd.example.org>";
+        m.date = date;
+        String lang = options.languages[random.nextInt(options.languages.length)];
+
+        Message parent = null;
+        if (!recent.isEmpty() && random.nextDouble() < options.replyRate) {
+            parent = recent.get(recent.size() - 1 - random.nextInt(Math.min(recent.size(), 50)));
+            if (parent.depth + 1 >= options.maxThreadDepth)
+                parent = null;
+        }
+
+        if (parent != null) {
+            // reply to the sender of the parent, from one of its recipients
+            m.depth = parent.depth + 1;
+            m.subject = parent.subject.startsWith("Re: ") ? parent.subject : "Re: " + parent.subject;
+            m.references = (parent.references + " " + parent.id).trim();
+            m.from = parent.to.get(random.nextInt(parent.to.size()));
+            m.to = new ArrayList<>(Collections.singletonList(parent.from));
+        } else {
+            m.subject = capitalize(words(lang, 3 + random.nextInt(4)));
+            m.from = random.nextBoolean() ? owner : randomCorrespondent();
+            m.to = new ArrayList<>();
+            m.to.add(m.from == owner ? randomCorrespondent() : owner);
+        }
+        for (int extra = random.nextInt(3); extra > 0; extra--) {
+            Person p = randomCorrespondent();
+            if (p != m.from && !m.to.contains(p))
+                m.to.add(p);
+        }
+
+        StringBuilder body = new StringBuilder();
+        int paragraphs = 1 + random.nextInt(4);
+        for (int p = 0; p < paragraphs; p++) {
+            int sentences = 2 + random.nextInt(4);
+            for (int s = 0; s < sentences; s++)
+                body.append(sentence(lang)).append(s < sentences - 1 ? " " : "\n");
+            body.append("\n");
+        }
+        body.append(m.from.name).append("\n");
+
+        if (parent != null) {
+            body.append("\nOn ").append(rfc822(parent.date)).append(", ").append(parent.from.name).append(" wrote:\n");
+            String[] lines = parent.body.split("\n");
+            for (int l = 0; l < Math.min(lines.length, MAX_QUOTED_LINES); l++)
+                body.append("> ").append(lines[l]).append("\n");
+        }
+        // keep the whole body, with quoted text, to be quoted by replies
+        m.body = body.toString();
+        return m;
+    }
+
+    private Person randomCorrespondent() {
+        // a few correspondents get most of the mail, like in real archives
+        double r = random.nextDouble();
+        return correspondents.get((int) (r * r * r * correspondents.size()));
+    }
+
+    private String words(String lang, int n) {
+        String[] vocab = WORDS.get(lang);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++)
+            sb.append(i > 0 ? " " : "").append(vocab[random.nextInt(vocab.length)]);
+        return sb.toString();
+    }
+
+    private String entity() {
+        switch (random.nextInt(3)) {
+            case 0: return FIRST_NAMES[random.nextInt(FIRST_NAMES.length)] + " " + LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            case 1: return ORGS[random.nextInt(ORGS.length)];
+            default: return PLACES[random.nextInt(PLACES.length)];
+        }
+    }
+
+    private String sentence(String lang) {
+        String s = words(lang, 6 + random.nextInt(9));
+        if (random.nextDouble() < options.entityDensity) {
+            int idx = s.indexOf(' ', random.nextInt(s.length()));
+            s = idx < 0 ? s + " " + entity() : s.substring(0, idx) + " " + entity() + s.substring(idx);
+        }
+        return capitalize(s) + ".";
+    }
+
+    private static String capitalize(String s) {
+        return s.isEmpty() ? s : Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static String rfc822(Date d) {
+        SimpleDateFormat f = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss Z", Locale.US);
+        f.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return f.format(d);
+    }
+
+    private static String encodeHeader(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) > 127)
+                return "=?UTF-8?B?" + Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8)) + "?=";
+        return s;
+    }
+
+    private void write(Message m, int i, Writer out) throws IOException {
+        SimpleDateFormat fromLine = new SimpleDateFormat("EEE MMM d HH:mm:ss yyyy", Locale.US);
+        fromLine.setTimeZone(TimeZone.getTimeZone("UTC"));
+        out.write("From " + m.from.address + " " + fromLine.format(m.date) + "\n");
+        out.write("Message-ID: " + m.id + "\n");
+        out.write("Date: " + rfc822(m.date) + "\n");
+        out.write("From: " + m.from.header() + "\n");
+        out.write("To: " + m.to.get(0).header() + "\n");
+        if (m.to.size() > 1) {
+            StringBuilder cc = new StringBuilder();
+            for (Person p : m.to.subList(1, m.to.size()))
+                cc.append(cc.length() > 0 ? ", " : "").append(p.header());
+            out.write("Cc: " + cc + "\n");
+        }
+        out.write("Subject: " + encodeHeader(m.subject) + "\n");
+        if (!m.references.isEmpty()) {
+            String[] refs = m.references.split(" ");
+            out.write("In-Reply-To: " + refs[refs.length - 1] + "\n");
+            out.write("References: " + m.references + "\n");
+        }
+        out.write("MIME-Version: 1.0\n");
+
+        String body = escapeFromLines(m.body);
+        if (random.nextDouble() >= options.attachmentRate) {
+            out.write("Content-Type: text/plain; charset=UTF-8\nContent-Transfer-Encoding: 8bit\n\n");
+            out.write(body);
+        } else {
+            String boundary = "=_bench_" + i;
+            out.write("Content-Type: multipart/mixed; boundary=\"" + boundary + "\"\n\n");
+            out.write("--" + boundary + "\nContent-Type: text/plain; charset=UTF-8\nContent-Transfer-Encoding: 8bit\n\n");
+            out.write(body);
+            out.write("\n--" + boundary + "\n");
+            String name, type;
+            byte[] bytes;
+            switch (i % 3) {
+                case 0:
+                    name = "notes-" + i + ".txt";
+                    type = "text/plain; charset=UTF-8";
+                    StringBuilder sb = new StringBuilder();
+                    for (int s = 0; s < 20; s++)
+                        sb.append(sentence(options.languages[0])).append("\n");
+                    bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    break;
+                case 1:
+                    name = "table-" + i + ".csv";
+                    type = "text/csv";
+                    StringBuilder csv = new StringBuilder("year,amount,count\n");
+                    for (int r = 0; r < 30; r++)
+                        csv.append(1990 + r).append(',').append(random.nextInt(100000)).append(',').append(random.nextInt(100)).append('\n');
+                    bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+                    break;
+                default:
+                    name = "image-" + i + ".png";
+                    type = "image/png";
+                    bytes = PNG;
+            }
+            out.write("Content-Type: " + type + "; name=\"" + name + "\"\nContent-Disposition: attachment; filename=\"" + name + "\"\n");
+            out.write("Content-Transfer-Encoding: base64\n\n");
+            out.write(Base64.getMimeEncoder(76, "\n".getBytes(StandardCharsets.US_ASCII)).encodeToString(bytes));
+            out.write("\n--" + boundary + "--\n");
+        }
+        out.write("\n");
+    }
+
+    /** mbox separates messages by lines starting with "From ", so such lines in the body are quoted */
+    private static String escapeFromLines(String body) {
+        return body.replaceAll("(?m)^From ", ">From ");
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: SyntheticMailbox <output dir> [-messages n] [-correspondents n] [-depth n] [-replies f] [-attachments f] [-languages en,fr,de,es] [-entities f] [-seed n]");
+            System.exit(1);
+        }
+        Options options = Options.parse(args, 1);
+        List<File> files = new SyntheticMailbox(options).generate(new File(args[0]));
+        for (File f : files)
+            System.out.println(f.getPath() + ": " + f.length() + " bytes");
+    }
+}
@@ -70,6 +70,11 @@ public class EpaddInitializer implements ServletContextListener {
 					return false;
 				}
 			});*/
+			// start watching the heap, so caches and idle archives are evicted before it fills up
+			edu.stanford.muse.util.CacheRegistry.install();
+			// load the models and indexes needed in this mode in the background; the rest are loaded when first used
+			edu.stanford.epadd.util.StartupResources.start();
+
 			if(Archive.LEXICONS ==null) {
 				System.err.println("Error reading lexicon from the resource folder....");
 			}
@@ -81,6 +86,9 @@ public class EpaddInitializer implements ServletContextListener {
 	}
 
 	public void contextDestroyed(ServletContextEvent event) {
+		edu.stanford.epadd.util.JobScheduler.shutdown();
+		edu.stanford.epadd.util.StartupResources.shutdown();
+		edu.stanford.muse.util.CacheRegistry.shutdown();
 		System.out.println ("ePADD web application context destroyed.");	    	
 	}
 }
@@ -0,0 +1,359 @@
+package edu.stanford.epadd.util;
+
+import edu.stanford.muse.Config;
+import edu.stanford.muse.index.ArchiveReaderWriter;
+import edu.stanford.muse.util.Metrics;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+
+/**
+ * Runs the long-running operations of all sessions (import, NER, export, bag verification, ...) on a few bounded pools of worker threads,
+ * one per resource class, instead of a thread per operation. Archive loads have a pool of their own so that opening an archive never waits
+ * behind an import. Within a pool, jobs run in order of priority (interactive operations first, exports and bag checks last) and then of submission.
+ * A job can also carry an estimate of the heap it needs; it is not started while the estimates of the running jobs plus its own would exceed
+ * the memory budget (a fraction of the max heap), unless nothing else is running. Jobs that wait keep their place at the head of their pool.
+ * Cancelling a queued job just takes it out of the queue; cancelling a running job flags it and interrupts its thread. The import, export and NER
+ * loops check the flag (isCurrentJobCancelled) between steps, since not everything they block on responds to an interrupt.
+ * The archives the submitting request has looked up stay in use (see ArchiveReaderWriter.beginUse) until the job is over, and so do those the job looks up.
+ * The state of the pools, the running and queued jobs and the most recent finished jobs, with their timings, are available as JSON (ajax/jobs.jsp).
+ */
+public class JobScheduler {
+    private static final Logger log = LogManager.getLogger(JobScheduler.class);
+
+    public enum ResourceClass { CPU, IO, MEMORY, LOAD }
+
+    /** in the order in which jobs are taken from a queue */
+    public enum Priority { HIGH, NORMAL, LOW }
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED, CANCELLED }
+
+    private static final int MAX_HISTORY = 200;
+    private static final double MEMORY_BUDGET_FRACTION = 0.8;
+
+    // the pool each async jsp runs on, by file name. anything not here runs on the CPU pool
+    private static final Map<String, ResourceClass> ACTION_RESOURCE_CLASSES = new LinkedHashMap<>();
+    static {
+        ACTION_RESOURCE_CLASSES.put("doFetchAndIndex.jsp", ResourceClass.MEMORY);
+        ACTION_RESOURCE_CLASSES.put("loadArchive.jsp", ResourceClass.LOAD);
+        ACTION_RESOURCE_CLASSES.put("nertrainandrecognise.jsp", ResourceClass.CPU);
+        ACTION_RESOURCE_CLASSES.put("recomputeAddressbook.jsp", ResourceClass.CPU);
+        ACTION_RESOURCE_CLASSES.put("setOwnersAddress.jsp", ResourceClass.CPU);
+        ACTION_RESOURCE_CLASSES.put("export-from-appraisal.jsp", ResourceClass.IO);
+        ACTION_RESOURCE_CLASSES.put("export-from-processing.jsp", ResourceClass.IO);
+        ACTION_RESOURCE_CLASSES.put("save-archive.jsp", ResourceClass.IO);
+        ACTION_RESOURCE_CLASSES.put("setExportableAssets.jsp", ResourceClass.IO);
+        ACTION_RESOURCE_CLASSES.put("verify-bag-checksum.jsp", ResourceClass.IO);
+        ACTION_RESOURCE_CLASSES.put("downloadData.jsp", ResourceClass.IO);
+    }
+
+    // anything not here runs at NORMAL priority. the user is waiting on the screen for the HIGH ones
+    private static final Map<String, Priority> ACTION_PRIORITIES = new LinkedHashMap<>();
+    static {
+        ACTION_PRIORITIES.put("loadArchive.jsp", Priority.HIGH);
+        ACTION_PRIORITIES.put("nertrainandrecognise.jsp", Priority.HIGH);
+        ACTION_PRIORITIES.put("recomputeAddressbook.jsp", Priority.HIGH);
+        ACTION_PRIORITIES.put("setOwnersAddress.jsp", Priority.HIGH);
+        ACTION_PRIORITIES.put("export-from-appraisal.jsp", Priority.LOW);
+        ACTION_PRIORITIES.put("export-from-processing.jsp", Priority.LOW);
+        ACTION_PRIORITIES.put("setExportableAssets.jsp", Priority.LOW);
+        ACTION_PRIORITIES.put("verify-bag-checksum.jsp", Priority.LOW);
+        ACTION_PRIORITIES.put("downloadData.jsp", Priority.LOW);
+    }
+
+    private static JobScheduler instance;
+
+    private final Map<ResourceClass, Pool> pools = new EnumMap<>(ResourceClass.class);
+    private final Deque<Job> history = new ArrayDeque<>();
+    private final long memoryBudget;
+    private long reservedMemory;
+    private long nextSeq;
+    private boolean shutdown;
+
+    private static final ThreadLocal<Job> currentJob = new ThreadLocal<>();
+
+    /** a unit of work submitted to the scheduler. all mutable state is guarded by the scheduler */
+    public static class Job {
+        private final long seq;
+        private final String id, name;
+        private final ResourceClass resourceClass;
+        private final Priority priority;
+        private final long memoryEstimate;
+        private final Runnable task;
+        // archives in use by the request that submitted the job, released when the job is over
+        private final Set<String> archiveIDs = ArchiveReaderWriter.acquireArchivesInUse();
+        private final long submittedMillis = System.currentTimeMillis();
+        private long startedMillis, finishedMillis;
+        private State state = State.QUEUED;
+        private volatile boolean cancelled;
+        private Thread thread;
+        private String error;
+
+        private Job(long seq, String id, String name, ResourceClass resourceClass, Priority priority, long memoryEstimate, Runnable task) {
+            this.seq = seq;
+            this.id = id;
+            this.name = name;
+            this.resourceClass = resourceClass;
+            this.priority = priority;
+            this.memoryEstimate = memoryEstimate;
+            this.task = task;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        private JSONObject toJSON(int queuePosition) {
+            JSONObject json = new JSONObject();
+            json.put("id", id);
+            json.put("name", name);
+            json.put("resourceClass", resourceClass.name());
+            json.put("priority", priority.name());
+            json.put("memoryEstimateMB", memoryEstimate / (1024 * 1024));
+            json.put("state", state.name());
+            json.put("submitted", submittedMillis);
+            if (queuePosition > 0)
+                json.put("queuePosition", queuePosition);
+            if (startedMillis > 0) {
+                json.put("waitMillis", startedMillis - submittedMillis);
+                json.put("runMillis", (finishedMillis > 0 ? finishedMillis : System.currentTimeMillis()) - startedMillis);
+            }
+            if (error != null)
+                json.put("error", error);
+            return json;
+        }
+    }
+
+    private class Pool {
+        final ResourceClass resourceClass;
+        final TreeSet<Job> queue = new TreeSet<>(Comparator.comparing((Job j) -> j.priority).thenComparingLong(j -> j.seq));
+        final List<Job> running = new ArrayList<>();
+        final List<Thread> workers = new ArrayList<>();
+        final int nThreads;
+
+        Pool(ResourceClass resourceClass, int nThreads) {
+            this.resourceClass = resourceClass;
+            this.nThreads = Math.max(1, nThreads);
+        }
+
+        /** starts another worker if there is queued work and fewer workers than nThreads. called with the scheduler lock held */
+        void ensureWorkers() {
+            if (workers.size() < nThreads && workers.size() < running.size() + queue.size()) {
+                Thread t = new Thread(this::work, "epadd-job-" + resourceClass.name().toLowerCase() + "-" + (workers.size() + 1));
+                t.setDaemon(true);
+                workers.add(t);
+                t.start();
+            }
+        }
+
+        private void work() {
+            while (true) {
+                Job job;
+                synchronized (JobScheduler.this) {
+                    while ((job = nextAdmissible()) == null) {
+                        if (shutdown)
+                            return;
+                        try {
+                            JobScheduler.this.wait();
+                        } catch (InterruptedException e) {
+                            // a cancel of the previous job on this thread may arrive late, ignore it
+                        }
+                    }
+                    queue.remove(job);
+                    running.add(job);
+                    reservedMemory += job.memoryEstimate;
+                    job.state = State.RUNNING;
+                    job.startedMillis = System.currentTimeMillis();
+                    job.thread = Thread.currentThread();
+                }
+                Metrics.histogram("jobs.wait.millis").record(job.startedMillis - job.submittedMillis);
+
+                State end = State.DONE;
+                String error = null;
+                currentJob.set(job);
+                ArchiveReaderWriter.beginUse();
+                try (Metrics.Span s = Metrics.span("job." + resourceClass.name().toLowerCase())) {
+                    log.info("Starting job " + job.name + " (" + job.id + ") on the " + resourceClass + " pool after waiting " + (job.startedMillis - job.submittedMillis) + "ms");
+                    job.task.run();
+                } catch (Throwable t) {
+                    end = State.FAILED;
+                    error = t.toString();
+                    Util.print_exception("Job " + job.name + " (" + job.id + ") failed", t, log);
+                } finally {
+                    ArchiveReaderWriter.endUse();
+                    currentJob.remove();
+                }
+                ArchiveReaderWriter.release(job.archiveIDs);
+
+                synchronized (JobScheduler.this) {
+                    job.thread = null;
+                    job.finishedMillis = System.currentTimeMillis();
+                    job.state = job.cancelled ? State.CANCELLED : end;
+                    job.error = error;
+                    running.remove(job);
+                    reservedMemory -= job.memoryEstimate;
+                    addToHistory(job);
+                    JobScheduler.this.notifyAll();
+                }
+                // clear an interrupt from a cancel that came in as the job was finishing, so it does not hit the next job
+                Thread.interrupted();
+                log.info("Job " + job.name + " (" + job.id + ") " + job.state.name().toLowerCase() + " in " + (job.finishedMillis - job.startedMillis) + "ms");
+            }
+        }
+
+        /** the head of the queue, if the memory budget allows it to start now. called with the scheduler lock held */
+        private Job nextAdmissible() {
+            if (queue.isEmpty())
+                return null;
+            Job head = queue.first();
+            if (reservedMemory == 0 || reservedMemory + head.memoryEstimate <= memoryBudget)
+                return head;
+            return null;
+        }
+    }
+
+    private JobScheduler() {
+        memoryBudget = (long) (Runtime.getRuntime().maxMemory() * MEMORY_BUDGET_FRACTION);
+        pools.put(ResourceClass.CPU, new Pool(ResourceClass.CPU, Config.JOB_THREADS_CPU));
+        pools.put(ResourceClass.IO, new Pool(ResourceClass.IO, Config.JOB_THREADS_IO));
+        pools.put(ResourceClass.MEMORY, new Pool(ResourceClass.MEMORY, Config.JOB_THREADS_MEMORY));
+        pools.put(ResourceClass.LOAD, new Pool(ResourceClass.LOAD, Config.JOB_THREADS_LOAD));
+        for (Pool pool : pools.values()) {
+            String prefix = "jobs." + pool.resourceClass.name().toLowerCase();
+            Metrics.gauge(prefix + ".running", () -> { synchronized (this) { return pool.running.size(); } });
+            Metrics.gauge(prefix + ".queued", () -> { synchronized (this) { return pool.queue.size(); } });
+        }
+        log.info("Job scheduler with " + pools.get(ResourceClass.CPU).nThreads + " CPU, " + pools.get(ResourceClass.IO).nThreads + " IO, "
+                + pools.get(ResourceClass.MEMORY).nThreads + " memory-heavy and " + pools.get(ResourceClass.LOAD).nThreads + " archive load workers, memory budget "
+                + memoryBudget / (1024 * 1024) + "MB");
+    }
+
+    public static synchronized JobScheduler getInstance() {
+        if (instance == null)
+            instance = new JobScheduler();
+        return instance;
+    }
+
+    private static String fileName(String actionName) {
+        return actionName == null ? "" : actionName.substring(actionName.lastIndexOf('/') + 1);
+    }
+
+    /** the pool for the given action (the request URI of an async jsp) */
+    public static ResourceClass resourceClassFor(String actionName) {
+        return ACTION_RESOURCE_CLASSES.getOrDefault(fileName(actionName), ResourceClass.CPU);
+    }
+
+    /** the priority of the given action (the request URI of an async jsp) within its pool */
+    public static Priority priorityFor(String actionName) {
+        return ACTION_PRIORITIES.getOrDefault(fileName(actionName), Priority.NORMAL);
+    }
+
+    /** default heap estimate for jobs of the given class, in bytes */
+    public static long defaultMemoryEstimate(ResourceClass resourceClass) {
+        return resourceClass == ResourceClass.MEMORY ? Config.JOB_MEMORY_ESTIMATE_MB * 1024L * 1024L : 0;
+    }
+
+    /** true if the job running on this thread has been cancelled. long-running code can check this to stop early */
+    public static boolean isCurrentJobCancelled() {
+        Job job = currentJob.get();
+        return job != null && job.isCancelled();
+    }
+
+    public synchronized Job submit(String id, String name, ResourceClass resourceClass, Priority priority, long memoryEstimate, Runnable task) {
+        if (shutdown)
+            throw new IllegalStateException("Job scheduler has been shut down");
+        Job job = new Job(nextSeq++, id, name, resourceClass, priority, memoryEstimate, task);
+        Pool pool = pools.get(resourceClass);
+        pool.queue.add(job);
+        pool.ensureWorkers();
+        notifyAll();
+        log.info("Queued job " + name + " (" + id + ") on the " + resourceClass + " pool at position " + queuePosition(job));
+        return job;
+    }
+
+    /** 1-based position of the job in its queue, 0 if it is not queued (anymore) */
+    public synchronized int queuePosition(Job job) {
+        if (job.state != State.QUEUED)
+            return 0;
+        return pools.get(job.resourceClass).queue.headSet(job).size() + 1;
+    }
+
+    public synchronized State getState(Job job) {
+        return job.state;
+    }
+
+    /** cancels the job. returns true if it had not started yet, in which case it never will */
+    public synchronized boolean cancel(Job job) {
+        job.cancelled = true;
+        if (job.state == State.QUEUED) {
+            pools.get(job.resourceClass).queue.remove(job);
+            job.state = State.CANCELLED;
+            job.finishedMillis = System.currentTimeMillis();
+            ArchiveReaderWriter.release(job.archiveIDs);
+            addToHistory(job);
+            notifyAll();
+            return true;
+        }
+        if (job.state == State.RUNNING && job.thread != null)
+            job.thread.interrupt();
+        return false;
+    }
+
+    private void addToHistory(Job job) {
+        history.addFirst(job);
+        while (history.size() > MAX_HISTORY)
+            history.removeLast();
+    }
+
+    public synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        JSONArray poolsJSON = new JSONArray(), running = new JSONArray(), queued = new JSONArray(), finished = new JSONArray();
+        for (Pool pool : pools.values()) {
+            JSONObject p = new JSONObject();
+            p.put("resourceClass", pool.resourceClass.name());
+            p.put("threads", pool.nThreads);
+            p.put("running", pool.running.size());
+            p.put("queued", pool.queue.size());
+            poolsJSON.put(p);
+            for (Job j : pool.running)
+                running.put(j.toJSON(0));
+            int pos = 1;
+            for (Job j : pool.queue)
+                queued.put(j.toJSON(pos++));
+        }
+        for (Job j : history)
+            finished.put(j.toJSON(0));
+        json.put("pools", poolsJSON);
+        json.put("memoryBudgetMB", memoryBudget / (1024 * 1024));
+        json.put("memoryReservedMB", reservedMemory / (1024 * 1024));
+        json.put("running", running);
+        json.put("queued", queued);
+        json.put("history", finished);
+        return json;
+    }
+
+    /** stops the workers once they are idle. queued jobs are dropped, running jobs are cancelled */
+    public static synchronized void shutdown() {
+        if (instance == null)
+            return;
+        synchronized (instance) {
+            instance.shutdown = true;
+            for (Pool pool : instance.pools.values()) {
+                for (Job j : new ArrayList<>(pool.queue))
+                    instance.cancel(j);
+                for (Job j : pool.running)
+                    instance.cancel(j);
+            }
+            instance.notifyAll();
+        }
+        instance = null;
+    }
+}
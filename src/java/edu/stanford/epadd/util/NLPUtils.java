@@ -6,7 +6,9 @@ import opennlp.tools.sentdetect.SentenceDetectorME;
 import opennlp.tools.sentdetect.SentenceModel;
 
 public class NLPUtils {
-	private static final SentenceDetectorME	sentenceDetector;
+	private static final SentenceModel sentenceModel;
+	// SentenceDetectorME is not thread-safe, so each thread gets its own instance over the shared model
+	private static final ThreadLocal<SentenceDetectorME> sentenceDetector = ThreadLocal.withInitial(() -> new SentenceDetectorME(NLPUtils.sentenceModel));
 	static {
 		InputStream SentStream = edu.stanford.muse.Config.getResourceAsStream("models/en-sent.bin");
 		SentenceModel model = null;
@@ -16,10 +18,10 @@ public class NLPUtils {
 			e.printStackTrace();
 			System.err.println("Exception in init'ing sentence model");
 		}
-		sentenceDetector = new SentenceDetectorME(model);
+		sentenceModel = model;
 	}
 
 	public static String[] SentenceTokenizer(String text) {
-		return sentenceDetector.sentDetect(text);
+		return sentenceDetector.get().sentDetect(text);
 	}
 }
@@ -6,10 +6,6 @@ import edu.stanford.muse.email.StaticStatusProvider;
 import edu.stanford.muse.email.StatusProvider;
 import org.json.JSONObject;
 
-import java.util.concurrent.Executor;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
 /**
  * This class contains the metadata about the current operation that is in progress.
  * Mainly used for the bookkeeping of
@@ -17,8 +13,8 @@ import java.util.concurrent.Executors;
 public abstract class OperationInfo {
     //to denote the status of this operation
     private StatusProvider statusProvider;
-    //to denote the threadID that is running this operation.
-    private ExecutorService executorID;
+    //the job that runs this operation on the JobScheduler.
+    private JobScheduler.Job job;
     //Result object in case this operation got over.
     private final JSONObject resultJSON;
     //operationID - unique to every operation object.
@@ -41,9 +37,30 @@ public abstract class OperationInfo {
     }
 
     public StatusProvider getStatusProvider(){
+        //while waiting for other jobs to finish, report the position in the queue.
+        if(statusProvider==null && job!=null){
+            int pos = JobScheduler.getInstance().queuePosition(job);
+            if(pos>0)
+                return new StaticStatusProvider(pos==1 ? "Waiting for other operations to finish..." : "Waiting for other operations to finish (" + (pos-1) + " ahead in the queue)...");
+        }
         return statusProvider;
     }
 
+    //pool this operation runs on. by default decided by the name of the JSP.
+    protected JobScheduler.ResourceClass getResourceClass(){
+        return JobScheduler.resourceClassFor(actionName);
+    }
+
+    //order of this operation in the queue of its pool. by default decided by the name of the JSP.
+    protected JobScheduler.Priority getPriority(){
+        return JobScheduler.priorityFor(actionName);
+    }
+
+    //heap this operation is expected to need, in bytes. It is not started until that much is available.
+    protected long getMemoryEstimate(){
+        return JobScheduler.defaultMemoryEstimate(getResourceClass());
+    }
+
 
     public JSONObject getResultJSON(){
         if(resultJSON==null || resultJSON.length()==0) //we will check for non-readiness of result by checking if it is empty or not.
@@ -55,16 +72,14 @@ public abstract class OperationInfo {
         return parametersMap;
     }
     public void run(){
-        //execute onStart method on a new thread and put that thread ID in this class variable (threadID)
-        executorID = Executors.newSingleThreadExecutor();
-        executorID.submit(() -> {
-            onStart(resultJSON);
-        });
+        //queue onStart on the job scheduler; it runs when a worker of its pool is free and there is enough memory.
+        job = JobScheduler.getInstance().submit(opID, actionName, getResourceClass(), getPriority(), getMemoryEstimate(), () -> onStart(resultJSON));
     }
 
     public void cancel(){
-        //kill the thread corresponding to threadID and execute onCancel method.
-        executorID.shutdownNow();
+        //take the job out of the queue or, if it is running, flag it and interrupt its thread; then execute onCancel method.
+        if(job!=null)
+            JobScheduler.getInstance().cancel(job);
         //set status provider telling that the operation is being cancelled.
         setStatusProvider(new StaticStatusProvider("Canelling the operation..."));
         onCancel();
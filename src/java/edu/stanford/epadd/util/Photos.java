@@ -81,7 +81,7 @@ public class Photos
 
 		// could check if user is authorized here... or get the userKey directly from session
 		// log.info("Serving image from: " + filePath + " and filename is: " + filename);
-		JSPHelper.writeFileToResponse(session, response, filePath, true /* asAttachment */);
+		JSPHelper.writeFileToResponse(request, session, response, filePath, true /* asAttachment */, null);
 	}
 
 	public static void main(String[] args) {
@@ -0,0 +1,257 @@
+package edu.stanford.epadd.util;
+
+import edu.stanford.muse.AuthorityMapper.AuthorityMapper;
+import edu.stanford.muse.Config;
+import edu.stanford.muse.ner.dictionary.EnglishDictionary;
+import edu.stanford.muse.ner.model.NBModel;
+import edu.stanford.muse.util.DictUtils;
+import edu.stanford.muse.util.EmailUtils;
+import edu.stanford.muse.util.Metrics;
+import edu.stanford.muse.util.NLPUtils;
+import edu.stanford.muse.util.Util;
+import edu.stanford.muse.webapp.ModeConfig;
+import edu.stanford.muse.xcoll.CrossCollectionSearch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The models, dictionaries and indexes the web app needs, as a graph of named resources, each with the resources it depends on.
+ * At startup, the resources needed in the current mode (e.g. the NER model in appraisal and processing, cross-collection data in discovery)
+ * are loaded in the background on a pool of Config.STARTUP_THREADS threads, in parallel where the graph allows, while the server already serves pages.
+ * The others are loaded on first use, by get(): it loads the resource (and its dependencies) on the calling thread if no one has started it yet,
+ * and otherwise waits for the thread loading it. A resource is loaded only once; if its loading fails, the next get() tries again.
+ * The state and load time of each resource are available as JSON (ajax/ready.jsp), and the server is ready once the resources loaded at startup are done.
+ */
+public class StartupResources {
+    private static final Logger log = LogManager.getLogger(StartupResources.class);
+
+    public static final String DICTIONARIES = "dictionaries", OPENNLP = "opennlp", NER_MODEL = "ner.model", DBPEDIA = "dbpedia",
+            FAST_INDEX = "fast.index", CROSS_COLLECTION = "xcoll";
+
+    public enum State { PENDING, LOADING, LOADED, FAILED }
+
+    private static class Resource {
+        final String name;
+        final List<String> dependsOn;
+        final Set<ModeConfig.Mode> eagerModes;
+        final Callable<?> loader;
+        // guarded by the resource
+        State state = State.PENDING;
+        Object value;
+        String error, loadedBy;
+        long startedMillis, finishedMillis;
+
+        Resource(String name, List<String> dependsOn, Set<ModeConfig.Mode> eagerModes, Callable<?> loader) {
+            this.name = name;
+            this.dependsOn = dependsOn;
+            this.eagerModes = eagerModes;
+            this.loader = loader;
+        }
+
+        synchronized JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            json.put("state", state.name());
+            json.put("eager", eagerModes.contains(ModeConfig.mode));
+            json.put("dependsOn", new JSONArray(dependsOn));
+            if (startedMillis > 0) {
+                json.put("started", startedMillis);
+                json.put("loadMillis", (finishedMillis > 0 ? finishedMillis : System.currentTimeMillis()) - startedMillis);
+                json.put("loadedBy", loadedBy);
+            }
+            if (error != null)
+                json.put("error", error);
+            return json;
+        }
+    }
+
+    // in order of registration, which is also a valid load order
+    private static final Map<String, Resource> resources = new LinkedHashMap<>();
+
+    private static ExecutorService pool;
+    private static long startMillis, readyMillis; // guarded by StartupResources.class
+
+    static {
+        Set<ModeConfig.Mode> all = EnumSet.allOf(ModeConfig.Mode.class), importing = EnumSet.of(ModeConfig.Mode.APPRAISAL, ModeConfig.Mode.PROCESSING);
+
+        // word lists, stop words and the English dictionary, used throughout
+        register(DICTIONARIES, Collections.emptyList(), all, () -> {
+            initializeClass(DictUtils.class);
+            return initializeClass(EnglishDictionary.class);
+        });
+        // sentence, tokenizer, POS and chunker models
+        register(OPENNLP, Collections.emptyList(), importing, () -> initializeClass(NLPUtils.class));
+        // the rules and gazettes of the Bayesian classifier, needed to import an archive and to re-run NER
+        register(NER_MODEL, Arrays.asList(DICTIONARIES, OPENNLP), importing, () -> NBModel.loadModelFromRules(NBModel.MODEL_FILENAME));
+        // entity types from DBpedia, only used when looking up the type of a name
+        register(DBPEDIA, Collections.emptyList(), EnumSet.noneOf(ModeConfig.Mode.class), EmailUtils::readDBpedia);
+        // authority records, for assigning authorities to correspondents in processing
+        // only opened here; AuthorityMapper reopens it itself when the index is rebuilt, so the reader is not kept as the value
+        register(FAST_INDEX, Collections.emptyList(), EnumSet.of(ModeConfig.Mode.PROCESSING), () -> {
+            AuthorityMapper.warmUpFastIndex();
+            return Boolean.TRUE;
+        });
+        // the entities of all archives in the repository, for searching across collections
+        register(CROSS_COLLECTION, Collections.singletonList(DICTIONARIES), EnumSet.of(ModeConfig.Mode.DISCOVERY, ModeConfig.Mode.PROCESSING), () -> {
+            CrossCollectionSearch.warmUp();
+            return Boolean.TRUE;
+        });
+    }
+
+    private static Class<?> initializeClass(Class<?> c) throws ClassNotFoundException {
+        return Class.forName(c.getName(), true, c.getClassLoader());
+    }
+
+    private static synchronized void register(String name, List<String> dependsOn, Set<ModeConfig.Mode> eagerModes, Callable<?> loader) {
+        for (String dep : dependsOn)
+            if (!resources.containsKey(dep))
+                throw new IllegalArgumentException("Resource " + name + " depends on " + dep + ", which must be registered before it");
+        resources.put(name, new Resource(name, dependsOn, eagerModes, loader));
+    }
+
+    private static synchronized Resource resource(String name) {
+        Resource r = resources.get(name);
+        if (r == null)
+            throw new IllegalArgumentException("No startup resource named " + name);
+        return r;
+    }
+
+    /** returns the value of the named resource, loading it and its dependencies first if needed. returns null if it could not be loaded */
+    @SuppressWarnings("unchecked")
+    public static <T> T get(String name) {
+        Resource r = resource(name);
+        synchronized (r) {
+            while (r.state == State.LOADING) {
+                try {
+                    r.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            if (r.state == State.LOADED)
+                return (T) r.value;
+            // pending, or failed before: this thread loads it
+            r.state = State.LOADING;
+            r.error = null;
+            r.loadedBy = Thread.currentThread().getName();
+            r.startedMillis = System.currentTimeMillis();
+            r.finishedMillis = 0;
+        }
+
+        Object value = null;
+        String error = null;
+        try (Metrics.Span s = Metrics.span("startup." + name)) {
+            for (String dep : r.dependsOn)
+                if (get(dep) == null)
+                    throw new IllegalStateException("dependency " + dep + " could not be loaded");
+            value = r.loader.call();
+            if (value == null)
+                error = "not available";
+        } catch (Throwable t) {
+            error = t.toString();
+            Util.print_exception("Error loading resource " + name, t, log);
+        }
+
+        synchronized (r) {
+            r.finishedMillis = System.currentTimeMillis();
+            r.value = value;
+            r.error = error;
+            r.state = error == null ? State.LOADED : State.FAILED;
+            r.notifyAll();
+            log.info("Resource " + name + (error == null ? " loaded" : " failed (" + error + ")") + " in " + (r.finishedMillis - r.startedMillis) + "ms on " + r.loadedBy);
+        }
+        return error == null ? (T) value : null;
+    }
+
+    /** starts loading the resources needed in the current mode in the background. does not wait for them */
+    public static synchronized void start() {
+        if (pool != null)
+            return;
+        startMillis = System.currentTimeMillis();
+        readyMillis = 0;
+        List<Resource> eager = new ArrayList<>();
+        for (Resource r : resources.values())
+            if (r.eagerModes.contains(ModeConfig.mode))
+                eager.add(r);
+        if (eager.isEmpty() || Config.STARTUP_THREADS <= 0) {
+            readyMillis = startMillis;
+            log.info("No resources to load at startup in " + ModeConfig.mode + " mode, all will be loaded on first use");
+            return;
+        }
+
+        int nThreads = Math.min(Config.STARTUP_THREADS, eager.size());
+        AtomicInteger threadNum = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(nThreads, runnable -> {
+            Thread t = new Thread(runnable, "epadd-startup-" + threadNum.incrementAndGet());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1); // page requests come first
+            return t;
+        });
+        log.info("Loading " + eager.size() + " resources for " + ModeConfig.mode + " mode on " + nThreads + " threads");
+        AtomicInteger remaining = new AtomicInteger(eager.size());
+        for (Resource r : eager) {
+            pool.submit(() -> {
+                get(r.name);
+                if (remaining.decrementAndGet() == 0)
+                    finished();
+            });
+        }
+    }
+
+    private static synchronized void finished() {
+        readyMillis = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (Resource r : resources.values()) {
+            synchronized (r) {
+                if (r.finishedMillis > 0)
+                    sb.append(sb.length() > 0 ? ", " : "").append(r.name).append(" ").append(r.finishedMillis - r.startedMillis).append("ms").append(r.state == State.FAILED ? " (failed)" : "");
+            }
+        }
+        log.info("Startup resources done in " + (readyMillis - startMillis) + "ms: " + sb);
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /** true once the resources needed in the current mode have been loaded, or have failed to load */
+    public static synchronized boolean isReady() {
+        return readyMillis > 0;
+    }
+
+    public static synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        boolean ready = readyMillis > 0, failed = false;
+        JSONArray array = new JSONArray();
+        for (Resource r : resources.values()) {
+            JSONObject o = r.toJSON();
+            if (o.getBoolean("eager") && State.FAILED.name().equals(o.getString("state")))
+                failed = true;
+            array.put(o);
+        }
+        json.put("mode", ModeConfig.mode.name());
+        json.put("ready", ready);
+        json.put("failed", failed);
+        if (startMillis > 0)
+            json.put("startupMillis", (ready ? readyMillis : System.currentTimeMillis()) - startMillis);
+        json.put("resources", array);
+        return json;
+    }
+
+    /** stops loading at startup. resources already loading are left to finish */
+    public static synchronized void shutdown() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+}
@@ -48,7 +48,7 @@ import java.util.stream.Collectors;
  * an addressbook can be merged with another, unifying names and email addresses in common.
  * Usage:
  * to setup: create a addressBook(self addrs),
- * call processContactsFromMessage for each message
+ * call processContactsFromMessage for each message (or processContactsFromMessages for all of them at once)
  * then call addressBook.organizeContacts()
  * to use: call addressBook.lookupContact(...)
  * <p>
@@ -77,9 +77,11 @@ public class AddressBook implements Serializable {
     //following can be crated from contactListForIds list hence no need to serialize them
     transient private Map<Contact, Integer> contactIdMap = new LinkedHashMap<>();
     //transient fields to store summary data.
-private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs = new LinkedHashMap<>();
-    private transient Map<Contact, Set<EmailDocument>> L1_Summary_ReceivedDocs = new LinkedHashMap<>();
-    private transient Map<Contact, Set<EmailDocument>> L1_Summary_RecFrmOwnerDocs= new LinkedHashMap<>();
+    private transient ContactSummaries L1_Summary = new ContactSummaries.Builder().build();
+    //bumped whenever the summary or the contacts change; the rendered correspondents JSON is cached against it
+    private transient long summaryEpoch;
+    private transient String countsJSONCacheKey;
+    private transient JSONArray countsJSONCache;
 //transient Map<Contact,Set<EmailDocument>> L1_Summary_totalInDocs = new LinkedHashMap<>();//to store the info about all docs where a contact is present (irrespective of owner).
     private Contact contactForSelf;
     private Collection<String> dataErrors = new LinkedHashSet<>();
@@ -159,9 +161,8 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
             this.dataErrors = ab.dataErrors;
             this.dataErrosMap = ab.dataErrosMap;
             this.emailMaskingMap = ab.emailMaskingMap;
-            this.L1_Summary_SentDocs = ab.L1_Summary_SentDocs;
-            this.L1_Summary_ReceivedDocs = ab.L1_Summary_ReceivedDocs;
-            this.L1_Summary_RecFrmOwnerDocs = ab.L1_Summary_RecFrmOwnerDocs;
+            this.L1_Summary = ab.L1_Summary;
+            this.summaryEpoch++;
         } catch (IOException e) {
             e.printStackTrace();
             Util.print_exception("Unable to initialize the addressbook with different contact information",e,log);
@@ -227,6 +228,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
     private void addEmailAddressForContact(String email, Contact c) {
         if (Util.nullOrEmpty(email))
             return;
+        summaryEpoch++;
 
         email = EmailUtils.cleanEmailAddress(email);
         c.getEmails().add(email);
@@ -242,21 +244,27 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
     private void addNameForContactAndUpdateMaps(String name, Contact c) {
         if (Util.nullOrEmpty(name))
             return;
+        summaryEpoch++;
 
         // trim is the one operation we do on the source name. otherwise, we want to retain it in its original form, for capitalization etc.
         name = name.trim();
         c.getNames().add(name);
 
         // nameToContact is very important, so only add to it if we're fairly certain about the name.
-        if (Util.tokenize(name).size() > 1)
-            nameToContact.put(EmailUtils.normalizePersonNameForLookup(name), c);
-        else {
-            //consider the case when there is no space but special character like . as we found in an example. In that case one should separate that out
-            StringTokenizer st = new StringTokenizer(name, ".", false);
-            if (st.countTokens() > 1)
-                nameToContact.put(EmailUtils.normalizePersonNameForLookup(name), c);
+        String key = nameLookupKey(name);
+        if (key != null)
+            nameToContact.put(key, c);
+    }
 
-        }
+    /** the key of the (trimmed) name in nameToContact, null if it is not certain enough to go there */
+    private static String nameLookupKey(String name) {
+        if (Util.tokenize(name).size() > 1)
+            return EmailUtils.normalizePersonNameForLookup(name);
+        //consider the case when there is no space but special character like . as we found in an example. In that case one should separate that out
+        StringTokenizer st = new StringTokenizer(name, ".", false);
+        if (st.countTokens() > 1)
+            return EmailUtils.normalizePersonNameForLookup(name);
+        return null;
     }
 
     /**
@@ -375,7 +383,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         return contactForSelf;
     }
 
-    public void setContactForSelf(Contact own){contactForSelf=own;}
+    public void setContactForSelf(Contact own){contactForSelf=own; summaryEpoch++;}
     /**
      * return best name to display for owner of this address book. empty string if no names available.
      * warning: this overlaps with contact.pickbestname()
@@ -489,31 +497,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         name = Util.unescapeHTML(name);
         name = EmailUtils.cleanPersonName(name);
         String preservedName = name;//to store the name temporarily in case it gets wiped out either because of containing banned words or due to non-trusted association of name-email pair.
-
-        //region Check 1: Checks if name is a valid name or not.
-        if (!Util.nullOrEmpty(name)) {
-            // watch out for bad "names" and ignore them
-            if (name.toLowerCase().equals("'" + email.toLowerCase() + "'")) // sometimes the "name" field is just the same as the email address with quotes around it
-                name = "";
-            if (name.contains("@"))
-                name = ""; // name can't be an email address!
-        }
-        //endregion
-
-        //region Check 2: Checks if name contains banned words or not.
-        for (String s : DictUtils.bannedStartStringsForEmailAddresses) {
-            if (email.toLowerCase().startsWith(s)) {
-                log.info("not going to consider name-email pair. email: " + email + " name: " + name + " because email starts with " + s);
-                name = ""; // usually something like info@paypal.com or info@evite.com or invitations-noreply@linkedin.com -- we need to ignore the name part of such an email address, so it doesn't get merged with anything else.
-                break;
-            }
-        }
-        //endregion
-
-        //region Check 3: Checks if this is a trusted name-address association
-        if(!isTrustedAssociation)
-            name="";
-        //endregion
+        name = nameToUnifyOn(email, name, isTrustedAssociation);
 
         Contact c = unifyContact(email, name);
 
@@ -559,16 +543,48 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         return c;
     }
 
-    private boolean processContacts(List<Address> toCCBCCAddrs, Address fromAddrs[], String[] sentToMailingLists, boolean isTrustedAssociation) {
+    /** the (cleaned) name in an address that may be unified with its (cleaned) email address, "" if it may not */
+    private static String nameToUnifyOn(String email, String name, boolean isTrustedAssociation) {
+        //region Check 1: Checks if name is a valid name or not.
+        if (!Util.nullOrEmpty(name)) {
+            // watch out for bad "names" and ignore them
+            if (name.toLowerCase().equals("'" + email.toLowerCase() + "'")) // sometimes the "name" field is just the same as the email address with quotes around it
+                name = "";
+            if (name.contains("@"))
+                name = ""; // name can't be an email address!
+        }
+        //endregion
+
+        //region Check 2: Checks if name contains banned words or not.
+        for (String s : DictUtils.bannedStartStringsForEmailAddresses) {
+            if (email.toLowerCase().startsWith(s)) {
+                log.info("not going to consider name-email pair. email: " + email + " name: " + name + " because email starts with " + s);
+                name = ""; // usually something like info@paypal.com or info@evite.com or invitations-noreply@linkedin.com -- we need to ignore the name part of such an email address, so it doesn't get merged with anything else.
+                break;
+            }
+        }
+        //endregion
+
+        //region Check 3: Checks if this is a trusted name-address association
+        if(!isTrustedAssociation)
+            name="";
+        //endregion
+        return name;
+    }
+
+    /** registerAddresses is false if unifyContactsFromMessages has already set up the contacts for the addresses */
+    private boolean processContacts(List<Address> toCCBCCAddrs, Address fromAddrs[], String[] sentToMailingLists, boolean isTrustedAssociation, boolean registerAddresses) {
         // let's call registerAddress first just so that the name/email maps can be set up
-        if (toCCBCCAddrs != null)
-            for (Address a : toCCBCCAddrs)
-                if (a instanceof InternetAddress)
-                    registerAddress((InternetAddress) a,isTrustedAssociation);
-        if (fromAddrs != null)
-            for (Address a : fromAddrs)
-                if (a instanceof InternetAddress)
-                    registerAddress((InternetAddress) a,isTrustedAssociation);
+        if (registerAddresses) {
+            if (toCCBCCAddrs != null)
+                for (Address a : toCCBCCAddrs)
+                    if (a instanceof InternetAddress)
+                        registerAddress((InternetAddress) a, isTrustedAssociation);
+            if (fromAddrs != null)
+                for (Address a : fromAddrs)
+                    if (a instanceof InternetAddress)
+                        registerAddress((InternetAddress) a, isTrustedAssociation);
+        }
 
         Pair<Boolean, Boolean> p = isSentOrReceived(toCCBCCAddrs, fromAddrs);
         boolean sent = p.getFirst();
@@ -577,7 +593,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         // update mailing list state info
         MailingList.trackMailingLists(this, toCCBCCAddrs, sent, fromAddrs, sentToMailingLists,isTrustedAssociation);
 
-        if (sent && toCCBCCAddrs != null)
+        if (registerAddresses && sent && toCCBCCAddrs != null)
             for (Address a : toCCBCCAddrs) {
                 if (!(a instanceof InternetAddress))
                     continue;
@@ -588,7 +604,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         // note: it's pretty important we have the correct addrs for self.
         // otherwise, any email we *send* is going to get counted as received, and loses all the senders
         // while counting the user as "from"
-        if (!sent) {
+        if (registerAddresses && !sent) {
             if (fromAddrs != null)
                 for (Address a : fromAddrs) {
                     if (!(a instanceof InternetAddress))
@@ -610,6 +626,102 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
      * this method should be called with every email doc in the archive
      */
     public synchronized void processContactsFromMessage(EmailDocument ed, Collection<String> trustedAddrs) {
+        processContactsFromMessage(ed, trustedAddrs, true);
+    }
+
+    /**
+     * same as calling processContactsFromMessage for each of the docs, except that the names and email addresses in all the docs are
+     * first unified at once by unifyContactsFromMessages. Own addresses are then known before any message is classified as sent or received.
+     */
+    public synchronized void processContactsFromMessages(Collection<EmailDocument> docs, Collection<String> trustedAddrs) {
+        unifyContactsFromMessages(docs, trustedAddrs);
+        for (EmailDocument ed : docs)
+            processContactsFromMessage(ed, trustedAddrs, false);
+    }
+
+    /** true if the message is from one of the trusted addresses, so that all the name-email pairs in it can be trusted */
+    private static boolean isFromTrustedAddr(EmailDocument ed, Collection<String> trustedAddrs) {
+        if (ed.from != null)
+            for (Address a : ed.from) {
+                InternetAddress ia = (InternetAddress) a;
+                if (trustedAddrs.contains(ia.getAddress().toLowerCase()))
+                    return true;
+            }
+        return false;
+    }
+
+    /**
+     * unifies the (name, email) pairs in the to/cc/bcc and from addresses of all the docs, with the same checks and trust as registerAddress,
+     * and adds each resulting class of names and addresses to a contact. ContactUnifier collects the pairs as int edges and unifies them in
+     * one pass, so the contacts are not looked up and merged pair by pair. Existing contacts, e.g. the owner's, take in the classes they fall into.
+     */
+    private void unifyContactsFromMessages(Collection<EmailDocument> docs, Collection<String> trustedAddrs) {
+        ContactUnifier unifier = new ContactUnifier();
+        List<Contact> existing = allContacts();
+        int[] existingNodes = new int[existing.size()];
+        for (int i = 0; i < existing.size(); i++) {
+            Set<String> nameKeys = new LinkedHashSet<>();
+            for (String name : existing.get(i).getNames()) {
+                String key = nameLookupKey(name);
+                if (key != null)
+                    nameKeys.add(key);
+            }
+            existingNodes[i] = unifier.addContact(existing.get(i).getEmails(), nameKeys);
+        }
+
+        for (EmailDocument ed : docs) {
+            boolean trusted = isFromTrustedAddr(ed, trustedAddrs);
+            List<Address> addrs = new ArrayList<>();
+            if (ed.getToCCBCC() != null)
+                addrs.addAll(ed.getToCCBCC());
+            if (ed.from != null)
+                addrs.addAll(Arrays.asList(ed.from));
+            for (Address a : addrs) {
+                if (!(a instanceof InternetAddress))
+                    continue;
+                InternetAddress ia = (InternetAddress) a;
+                String email = EmailUtils.cleanEmailAddress(ia.getAddress());
+                if (Util.nullOrEmpty(email))
+                    continue;
+
+                String preservedName = EmailUtils.cleanPersonName(Util.unescapeHTML(ia.getPersonal()));
+                String name = nameToUnifyOn(email, preservedName, trusted);
+                if (!Util.nullOrEmpty(name) && !name.equals(email)) // as in unifyContact, a name that is just the email address has no content
+                    unifier.addPair(email, name.trim(), nameLookupKey(name.trim()), true);
+                else if (Util.nullOrEmpty(name) && !Util.nullOrEmpty(preservedName))
+                    unifier.addPair(email, preservedName.trim(), nameLookupKey(preservedName.trim()), false); // as in registerAddress, kept for search
+                else
+                    unifier.addPair(email, null, null, false);
+            }
+        }
+        unifier.resolve();
+
+        Contact[] contactForClass = new Contact[unifier.nNodes()];
+        for (int i = 0; i < existing.size(); i++) {
+            int cls = unifier.classOfContact(existingNodes[i]);
+            if (contactForClass[cls] == null)
+                contactForClass[cls] = existing.get(i);
+            else
+                contactForClass[cls].unify(existing.get(i)); // merged by organizeContacts
+        }
+        for (int p = 0; p < unifier.nPairs(); p++) {
+            int cls = unifier.classOfPair(p);
+            Contact c = contactForClass[cls];
+            if (c == null) {
+                c = contactForClass[cls] = new Contact();
+                contactIdMap.put(c, contactListForIds.size());
+                contactListForIds.add(c);
+            }
+            String email = unifier.email(p), name = unifier.name(p);
+            if (emailToContact.get(email) != c)
+                addEmailAddressForContact(email, c);
+            if (name != null && !c.getNames().contains(name))
+                addNameForContactAndUpdateMaps(name, c);
+        }
+        log.info("Unified " + unifier.nPairs() + " distinct name-email pairs from " + docs.size() + " messages into " + allContacts().size() + " contacts");
+    }
+
+    private void processContactsFromMessage(EmailDocument ed, Collection<String> trustedAddrs, boolean registerAddresses) {
         List<Address> toCCBCC = ed.getToCCBCC();
         boolean noToCCBCC = false;
         if (toCCBCC == null || toCCBCC.size() == 0) {
@@ -626,26 +738,14 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
         if (ed.date == null) {
             markDataError("No date for: " + ed);
         }
-        boolean fromTrustedAddr = false;
-        {
-            Address[] addrs = ed.from;
-            if (ed.from != null) {
-                for (Address a : addrs) {
-                    InternetAddress ia = (InternetAddress) a;
-                    if (trustedAddrs.contains(ia.getAddress().toLowerCase())) {
-                        fromTrustedAddr = true;
-                        break;
-                    }
-                }
-            }
-        }
+        boolean fromTrustedAddr = isFromTrustedAddr(ed, trustedAddrs);
         boolean b = false;
 
         if (fromTrustedAddr) {//if this message is from trusted sender then process all name-email pairs present in this message as trusted ones.
-            b = processContacts(ed.getToCCBCC(), ed.from, ed.sentToMailingLists,true);
+            b = processContacts(ed.getToCCBCC(), ed.from, ed.sentToMailingLists,true, registerAddresses);
             log.info("Processing trusted contacts from " + ((ed.from != null && ed.from.length > 0) ? ed.from[0] : ""));
         } else{
-            b = processContacts(ed.getToCCBCC(), ed.from, ed.sentToMailingLists,false);
+            b = processContacts(ed.getToCCBCC(), ed.from, ed.sentToMailingLists,false, registerAddresses);
             log.info("Processing non-trusted contacts from " + ((ed.from != null && ed.from.length > 0) ? ed.from[0] : ""));
         }
 
@@ -748,6 +848,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
      * unify contacts and recompute nameToContact and emailToContact, also sets up contact ids
      */
     private synchronized void recomputeUnifiedContacts(Set<Contact> allContacts) {
+        summaryEpoch++;
 
         // first set up representative contact -> List of contact that map to that rep (which means they are in the same eq class)
         Map<Contact, Set<Contact>> reps = new LinkedHashMap<>();
@@ -968,8 +1069,7 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
 
     public int getMsgsSentByOwner() {
         Contact owner = getContactForSelf();
-        Set<EmailDocument> docs =  L1_Summary_SentDocs.getOrDefault(owner,new LinkedHashSet<>());
-        return docs.size();
+        return L1_Summary.get(owner).sent.size;
 
     }
 
@@ -978,13 +1078,8 @@ private transient          Map<Contact, Set<EmailDocument>> L1_Summary_SentDocs
      */
     public Set<EmailDocument> getDocsFromSummary(Contact c) {
         //It will be sum of Sent + received docs. SHould we also add received from owner?
-        Set<EmailDocument> docs_sent = L1_Summary_SentDocs.getOrDefault(c,new LinkedHashSet<>());
-        Set<EmailDocument> docs_rec = L1_Summary_ReceivedDocs.getOrDefault(c,new LinkedHashSet<>());
-        Set<EmailDocument> doc_rec_from_owner = L1_Summary_RecFrmOwnerDocs.getOrDefault(c,new LinkedHashSet<>());
-        Set<EmailDocument> total = Util.setUnion(docs_sent,docs_rec);
-        total = Util.setUnion(total,doc_rec_from_owner);
-
-        return total;
+        ContactSummaries.Summary summary = L1_Summary.get(c);
+        return L1_Summary.docsFor(summary.sent, summary.received, summary.receivedFromOwner);
     }
 
     public class MergeResult{
@@ -1368,6 +1463,7 @@ mergeResult.newContacts.put(C2,savedC2)
     }
 
     private void fillTransientFields(){
+        summaryEpoch++;
         contactIdMap.clear();
         nameToContact.clear();
         emailToContact.clear();
@@ -1494,12 +1590,17 @@ mergeResult.newContacts.put(C2,savedC2)
 
     /*
     THis method fills in a JSON Array from the summary object that was updated during the last change in the addressbook (loading, recomputing, fresh build).
+    The rows are cached until the summary or the contacts change; callers get a copy, which they may modify.
      */
-    public JSONArray getCountsAsJSON(boolean exceptOwner, String archiveID){
+    public synchronized JSONArray getCountsAsJSON(boolean exceptOwner, String archiveID){
+        String cacheKey = summaryEpoch + "|" + exceptOwner + "|" + archiveID;
+        if (countsJSONCache != null && cacheKey.equals(countsJSONCacheKey))
+            return copyOfRows(countsJSONCache);
+
         JSONArray resultArray = new JSONArray();
-        Archive archive = ArchiveReaderWriter.getArchiveForArchiveID(archiveID);
         List<Contact> allContacts = allContacts();
         Contact ownContact = getContactForSelf();
+        SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
         int count = 0;
         for (Contact c : allContacts) {
             if (c == ownContact && exceptOwner)
@@ -1511,86 +1612,84 @@ mergeResult.newContacts.put(C2,savedC2)
             String bestNameForContact = c.pickBestName();
             String url = "browse?adv-search=1&contact=" + contactId+"&archiveID="+archiveID;
             String nameToPrint = Util.escapeHTML(Util.ellipsize(bestNameForContact, 50));
-            Integer recvCount = L1_Summary_ReceivedDocs.getOrDefault(c,new LinkedHashSet<>()).size(), sentCount = L1_Summary_SentDocs.getOrDefault(c,new LinkedHashSet<>()).size();
-            //mentionCount = L1_Summary_contactMentionDocs.getOrDefault(c,new LinkedHashSet<>()).size();
-           Integer recvFromOwnerCount = L1_Summary_RecFrmOwnerDocs.getOrDefault(c,new LinkedHashSet<>()).size();
-            /*if (inCount == null)
-                inCount = 0;
-            if (outCount == null)
-                outCount = 0;
-            if (mentionCount == null)
-                mentionCount = 0;*/
-            Set<EmailDocument> alldocs = Util.setUnion(L1_Summary_SentDocs.getOrDefault(c,new LinkedHashSet<>()),L1_Summary_ReceivedDocs.getOrDefault(c,new LinkedHashSet<>()));
-            alldocs=Util.setUnion(alldocs,L1_Summary_RecFrmOwnerDocs.getOrDefault(c,new LinkedHashSet<>()));
-            Pair<Date,Date> range = EmailUtils.getFirstLast(alldocs,true);
+            ContactSummaries.Summary summary = L1_Summary.get(c);
 
             JSONArray j = new JSONArray();
             j.put(0, Util.escapeHTML(nameToPrint));
             //j.put(1, totalCount);
 
-            j.put(1, sentCount);
-            j.put(2, recvCount);
-            j.put(3, recvFromOwnerCount);
+            j.put(1, summary.sent.size);
+            j.put(2, summary.received.size);
+            j.put(3, summary.receivedFromOwner.size);
             j.put(4, url);
             j.put(5, Util.escapeHTML(c.toTooltip()));
-            if(range.first!=null)
-                j.put(6,new SimpleDateFormat("MM/dd/yyyy").format(range.first));
+            if(summary.first!=null)
+                j.put(6,sdf.format(summary.first));
             else
-                j.put(6,range.first);
-            if(range.second!=null)
-                j.put(7,new SimpleDateFormat("MM/dd/yyyy").format(range.second));
+                j.put(6,summary.first);
+            if(summary.last!=null)
+                j.put(7,sdf.format(summary.last));
             else
-                j.put(7,range.second);
+                j.put(7,summary.last);
 
             resultArray.put(count++, j);
             // could consider putting another string which has more info about the contact such as all names and email addresses... this could be shown on hover
         }
 
-        return resultArray;
+        countsJSONCacheKey = cacheKey;
+        countsJSONCache = resultArray;
+        return copyOfRows(resultArray);
+    }
+
+    /** copies the outer array and each row; the values in the rows are strings and numbers, which can be shared */
+    private static JSONArray copyOfRows(JSONArray rows) {
+        JSONArray result = new JSONArray();
+        for (int i = 0; i < rows.length(); i++) {
+            JSONArray row = rows.getJSONArray(i), rowCopy = new JSONArray();
+            for (int j = 0; j < row.length(); j++)
+                rowCopy.put(j, row.opt(j));
+            result.put(i, rowCopy);
+        }
+        return result;
+    }
+
+    /** drops the JSON cached by getCountsAsJSON, e.g. when memory is low */
+    public synchronized void clearCountsCache() {
+        countsJSONCacheKey = null;
+        countsJSONCache = null;
+    }
+
+    /** rough heap footprint of the JSON cached by getCountsAsJSON: a row per contact, with a url, name and tooltip */
+    public long getCountsCacheBytes() {
+        JSONArray cache = countsJSONCache;
+        return cache == null ? 0 : 600L * cache.length();
     }
 
     public void fillL1_SummaryObject(Collection<Document> alldocs){
 
-        //clear the summary objects.
-        L1_Summary_SentDocs.clear();
-        L1_Summary_ReceivedDocs.clear();
-        L1_Summary_RecFrmOwnerDocs.clear();
-        //L1_Summary_totalInDocs.clear();
        // Archive archive = ArchiveReaderWriter.getArchiveForArchiveID(archiveID);
         AddressBook ab = this;
-        Contact ownContact = ab.getContactForSelf();
-        List<Contact> allContacts = ab.sortedContacts((Collection) alldocs);
-        List<EmailDocument> alldocslist = alldocs.stream().map(e->(EmailDocument)e).collect(Collectors.toList());
+        ContactSummaries.Builder summaryBuilder = new ContactSummaries.Builder();
         // compute counts
-        for (EmailDocument ed : alldocslist) {
+        for (Document doc : alldocs) {
+            EmailDocument ed = (EmailDocument) doc;
+            summaryBuilder.nextDoc(ed);
             String senderEmail = ed.getFromEmailAddress();
             Contact senderContact = ab.lookupByEmail(senderEmail);
             if (senderContact == null)
                 continue;
                 //senderContact = ownContact; // should never happen, we should always have a sender contact: Don't do this otherwise wrongly reporting a message sent by owner.
 
-            //L1_Summary_SentDocs store the email messages where this contact is a sender.
-
-            {
-                Set<EmailDocument> tmp = L1_Summary_SentDocs.get(senderContact);
-
-                if (tmp == null)
-                    tmp = new LinkedHashSet<>();
-                tmp.add(ed);
-                L1_Summary_SentDocs.put(senderContact, tmp);
-            }
+            //sent docs store the email messages where this contact is a sender.
+            summaryBuilder.addSent(senderContact);
 
             //get receiver of this mail.
             Collection<Contact> toContacts = ed.getToCCBCCContacts(ab);
             for (Contact c : toContacts) {
                 //add the info that all these contacts received this mail.
-                Set<EmailDocument> tmp = L1_Summary_ReceivedDocs.get(c);
-                if(tmp==null)
-                    tmp=new LinkedHashSet<>();
-                tmp.add(ed);
-                L1_Summary_ReceivedDocs.put(c, tmp);
+                summaryBuilder.addReceived(c);
             }
-            //if this mail was received from the owner then add it in the map L1_Summary_RecFrmOwner
+            //if this mail was received from the owner then add it in the received from owner docs
 
 
             //for filling other fields.
@@ -1599,14 +1698,8 @@ mergeResult.newContacts.put(C2,savedC2)
             if ((x & EmailDocument.SENT_MASK) != 0) {
                 // this is a sent email (sent by the owner), each to/cc/bcc gets +1 outcount.
                 // one of them could be own contact also.
-                 toContacts = ed.getToCCBCCContacts(ab);
-                for (Contact c : toContacts) {
-                    Set<EmailDocument> tmp = L1_Summary_RecFrmOwnerDocs.get(c);
-                    if(tmp==null)
-                        tmp=new LinkedHashSet<>();
-                    tmp.add(ed);
-                    L1_Summary_RecFrmOwnerDocs.put(c, tmp);
-                }
+                for (Contact c : toContacts)
+                    summaryBuilder.addReceivedFromOwner(c);
             }
 
            /* boolean received = (x & EmailDocument.RECEIVED_MASK) != 0 // explicitly received
@@ -1639,6 +1732,9 @@ mergeResult.newContacts.put(C2,savedC2)
             }*/
         }
 
-
+        synchronized (this) {
+            L1_Summary = summaryBuilder.build();
+            summaryEpoch++;
+        }
     }
 }
@@ -0,0 +1,173 @@
+package edu.stanford.muse.AddressBookManager;
+
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.email.EmailFetcherThread;
+import org.joda.time.DateTimeComparator;
+
+import java.util.*;
+
+/**
+ * Summary of the messages each contact sent, received and received from the owner, as computed by AddressBook.fillL1_SummaryObject.
+ * Messages are identified by their ordinal, i.e. their position in the collection of docs the summary was computed over,
+ * and the messages of a contact are kept as delta/varint compressed postings over these ordinals instead of sets of doc objects.
+ * The counts and the first/last dates that the correspondents listing needs are precomputed.
+ * Immutable once built; a new summary is built every time the address book or the docs change.
+ */
+class ContactSummaries {
+    private final EmailDocument[] docs; // ordinal -> doc
+    // contacts do not override equals, and their hashCode changes when names or addresses are added to them, so key by identity
+    private final Map<Contact, Summary> contactToSummary;
+
+    static class Summary {
+        final Postings sent, received, receivedFromOwner;
+        final Date first, last; // over all of the contact's messages, ignoring invalid dates. null if there are no valid dates
+
+        Summary(Postings sent, Postings received, Postings receivedFromOwner, Date first, Date last) {
+            this.sent = sent;
+            this.received = received;
+            this.receivedFromOwner = receivedFromOwner;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    private static final Summary EMPTY = new Summary(Postings.EMPTY, Postings.EMPTY, Postings.EMPTY, null, null);
+
+    private ContactSummaries(EmailDocument[] docs, Map<Contact, Summary> contactToSummary) {
+        this.docs = docs;
+        this.contactToSummary = contactToSummary;
+    }
+
+    Summary get(Contact c) {
+        Summary s = (c == null) ? null : contactToSummary.get(c);
+        return (s == null) ? EMPTY : s;
+    }
+
+    /** returns the docs with the given ordinals, in ordinal order */
+    Set<EmailDocument> docsFor(Postings... postings) {
+        // ordinals are small, so a bitmap is the simplest way to take the union
+        BitSet bits = new BitSet(docs.length);
+        for (Postings p : postings)
+            for (int ord : p.toArray())
+                bits.set(ord);
+        Set<EmailDocument> result = new LinkedHashSet<>();
+        for (int ord = bits.nextSetBit(0); ord >= 0; ord = bits.nextSetBit(ord + 1))
+            result.add(docs[ord]);
+        return result;
+    }
+
+    /** sorted, distinct ints stored as varint-encoded deltas */
+    static class Postings {
+        static final Postings EMPTY = new Postings(new byte[0], 0);
+
+        final byte[] bytes;
+        final int size;
+
+        private Postings(byte[] bytes, int size) {
+            this.bytes = bytes;
+            this.size = size;
+        }
+
+        int[] toArray() {
+            int[] result = new int[size];
+            for (int i = 0, ord = 0, pos = 0; i < size; i++) {
+                int delta = 0, shift = 0;
+                byte b;
+                do {
+                    b = bytes[pos++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                ord += delta;
+                result[i] = ord;
+            }
+            return result;
+        }
+
+        /** accumulates ordinals, which must be added in non-decreasing order. adding the last ordinal again is a no-op */
+        static class Builder {
+            private byte[] bytes = new byte[4];
+            private int nBytes, size, last = -1;
+
+            void add(int ord) {
+                if (ord == last)
+                    return;
+                int delta = ord - Math.max(last, 0);
+                last = ord;
+                size++;
+                if (nBytes + 5 > bytes.length)
+                    bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, nBytes + 5));
+                while ((delta & ~0x7f) != 0) {
+                    bytes[nBytes++] = (byte) ((delta & 0x7f) | 0x80);
+                    delta >>>= 7;
+                }
+                bytes[nBytes++] = (byte) delta;
+            }
+
+            Postings build() {
+                return (size == 0) ? EMPTY : new Postings(Arrays.copyOf(bytes, nBytes), size);
+            }
+        }
+    }
+
+    /** per-contact state while the summary is being built */
+    private static class ContactBuilder {
+        final Postings.Builder sent = new Postings.Builder(), received = new Postings.Builder(), receivedFromOwner = new Postings.Builder();
+        int lastOrd = -1;
+        Date first, last;
+
+        void seen(int ord, EmailDocument ed, boolean validDate) {
+            if (ord == lastOrd)
+                return;
+            lastOrd = ord;
+            if (validDate) {
+                if (first == null || ed.date.before(first))
+                    first = ed.date;
+                if (last == null || ed.date.after(last))
+                    last = ed.date;
+            }
+        }
+    }
+
+    /** collects the summary while going over the docs once, in order. the caller decides which contacts sent and received each doc */
+    static class Builder {
+        private final List<EmailDocument> docs = new ArrayList<>();
+        private final Map<Contact, ContactBuilder> builders = new IdentityHashMap<>();
+        private int ord = -1;
+        private EmailDocument current;
+        private boolean currentDateValid;
+
+        /** starts the next doc; the following add* calls are for this doc */
+        void nextDoc(EmailDocument ed) {
+            docs.add(ed);
+            ord++;
+            current = ed;
+            // same as EmailUtils.getFirstLast(docs, true /* ignore invalid dates */)
+            currentDateValid = ed.date != null && !ed.hackyDate && DateTimeComparator.getDateOnlyInstance().compare(ed.date, EmailFetcherThread.INVALID_DATE) != 0;
+        }
+
+        private ContactBuilder builderFor(Contact c) {
+            ContactBuilder cb = builders.computeIfAbsent(c, k -> new ContactBuilder());
+            cb.seen(ord, current, currentDateValid);
+            return cb;
+        }
+
+        void addSent(Contact c) {
+            builderFor(c).sent.add(ord);
+        }
+
+        void addReceived(Contact c) {
+            builderFor(c).received.add(ord);
+        }
+
+        void addReceivedFromOwner(Contact c) {
+            builderFor(c).receivedFromOwner.add(ord);
+        }
+
+        ContactSummaries build() {
+            Map<Contact, Summary> map = new IdentityHashMap<>(builders.size());
+            builders.forEach((c, cb) -> map.put(c, new Summary(cb.sent.build(), cb.received.build(), cb.receivedFromOwner.build(), cb.first, cb.last)));
+            return new ContactSummaries(docs.toArray(new EmailDocument[0]), map);
+        }
+    }
+}
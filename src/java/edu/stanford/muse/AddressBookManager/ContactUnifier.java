@@ -0,0 +1,169 @@
+package edu.stanford.muse.AddressBookManager;
+
+import java.util.*;
+
+/**
+ * Bulk unification of the (name, email) pairs seen in messages. Email addresses and name lookup keys are numbered as they are
+ * first seen, each distinct pair is recorded once as an edge between two ints, and when all the pairs are in, resolve() unifies
+ * the edges in one pass of a union-find over int arrays (path halving, union by size).
+ * A name joins the addresses it appears with in trusted pairs only. An untrusted pair unifies nothing: its name is just attached to the
+ * class of its address, for search, as registerAddress does. Otherwise a namesake of the owner, or a spoofed From, would merge its address
+ * into the owner's contact, and all mail from it would count as sent by the owner.
+ * Existing contacts (e.g. the owner's) can be added as well, so that the classes they fall into can be merged into them.
+ * AddressBook.unifyContactsFromMessages turns each class into a Contact.
+ */
+public class ContactUnifier {
+    private static final int NONE = -1;
+
+    private final Map<String, Integer> emailNodes = new HashMap<>(), nameKeyNodes = new HashMap<>(), nameIds = new HashMap<>();
+    private final List<String> emails = new ArrayList<>(); // by node, null for nodes that are not emails
+    private final List<String> names = new ArrayList<>(); // display names, by name id
+    private int nNodes;
+    private int[] parent = new int[16], size = new int[16];
+
+    // distinct pairs, in the order they were first seen. pairs are keyed by (email node, name id)
+    private final Map<Long, Integer> pairIds = new HashMap<>();
+    private int nPairs;
+    private int[] pairEmail = new int[16], pairName = new int[16], pairNameKey = new int[16];
+    private final BitSet trustedPairs = new BitSet();
+
+    private boolean resolved;
+
+    private int newNode(String email) {
+        if (nNodes == parent.length) {
+            parent = Arrays.copyOf(parent, 2 * nNodes);
+            size = Arrays.copyOf(size, 2 * nNodes);
+        }
+        parent[nNodes] = nNodes;
+        size[nNodes] = 1;
+        emails.add(email);
+        return nNodes++;
+    }
+
+    private int emailNode(String email) {
+        Integer node = emailNodes.get(email);
+        if (node == null) {
+            node = newNode(email);
+            emailNodes.put(email, node);
+        }
+        return node;
+    }
+
+    private int nameKeyNode(String nameKey) {
+        Integer node = nameKeyNodes.get(nameKey);
+        if (node == null) {
+            node = newNode(null);
+            nameKeyNodes.put(nameKey, node);
+        }
+        return node;
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    /**
+     * records that the name was seen with the email address. email must be cleaned and non-empty.
+     * name is the name to add to the address's contact, null if none. nameKey is the lookup key the pair unifies on, null if none.
+     * the pair unifies its address with the other addresses of nameKey only if it is trusted.
+     */
+    public void addPair(String email, String name, String nameKey, boolean trusted) {
+        if (resolved)
+            throw new IllegalStateException("Pairs added after resolve()");
+        int e = emailNode(email);
+        int n = name == null ? NONE : nameId(name);
+        long key = ((long) e << 32) | (n & 0xffffffffL);
+        Integer pair = pairIds.get(key);
+        if (pair == null) {
+            pair = nPairs++;
+            pairIds.put(key, pair);
+            if (pair == pairEmail.length) {
+                pairEmail = Arrays.copyOf(pairEmail, 2 * pair);
+                pairName = Arrays.copyOf(pairName, 2 * pair);
+                pairNameKey = Arrays.copyOf(pairNameKey, 2 * pair);
+            }
+            pairEmail[pair] = e;
+            pairName[pair] = n;
+            pairNameKey[pair] = NONE;
+        }
+        // a pair seen both with and without a key, or trusted and not, keeps the key and the trust
+        if (nameKey != null && pairNameKey[pair] == NONE)
+            pairNameKey[pair] = nameKeyNode(nameKey);
+        if (trusted && nameKey != null)
+            trustedPairs.set(pair);
+    }
+
+    /** adds an existing contact with the given emails and name lookup keys, which are all unified with each other, and returns its node */
+    public int addContact(Collection<String> contactEmails, Collection<String> nameKeys) {
+        if (resolved)
+            throw new IllegalStateException("Contacts added after resolve()");
+        int node = newNode(null);
+        for (String email : contactEmails)
+            union(node, emailNode(email));
+        for (String nameKey : nameKeys)
+            union(node, nameKeyNode(nameKey));
+        return node;
+    }
+
+    public int find(int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    private void union(int a, int b) {
+        int ra = find(a), rb = find(b);
+        if (ra == rb)
+            return;
+        if (size[ra] < size[rb]) {
+            int tmp = ra;
+            ra = rb;
+            rb = tmp;
+        }
+        parent[rb] = ra;
+        size[ra] += size[rb];
+    }
+
+    /** unifies the trusted pairs. untrusted pairs stay in the class of their address */
+    public void resolve() {
+        for (int p = trustedPairs.nextSetBit(0); p >= 0; p = trustedPairs.nextSetBit(p + 1))
+            union(pairEmail[p], pairNameKey[p]);
+        resolved = true;
+    }
+
+    /** number of nodes; the classes returned by classOf* are all less than this */
+    public int nNodes() {
+        return nNodes;
+    }
+
+    public int nPairs() {
+        return nPairs;
+    }
+
+    public String email(int pair) {
+        return emails.get(pairEmail[pair]);
+    }
+
+    /** the name of the pair, null if none */
+    public String name(int pair) {
+        return pairName[pair] == NONE ? null : names.get(pairName[pair]);
+    }
+
+    /** the class of the pair, after resolve() */
+    public int classOfPair(int pair) {
+        return find(pairEmail[pair]);
+    }
+
+    /** the class of a node returned by addContact, after resolve() */
+    public int classOfContact(int node) {
+        return find(node);
+    }
+}
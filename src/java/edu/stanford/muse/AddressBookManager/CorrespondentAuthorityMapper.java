@@ -12,16 +12,10 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 //import org.apache.commons.logging.Log;
 //import org.apache.commons.logging.LogFactory;
-import org.apache.lucene.document.Document;
-import org.apache.lucene.queryparser.classic.ParseException;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
-import static edu.stanford.muse.ie.FASTIndexer.FIELD_NAME_FAST_ID;
 import static edu.stanford.muse.ie.variants.EntityBook.canonicalize;
 
 /**
@@ -67,6 +61,9 @@ public class CorrespondentAuthorityMapper extends AuthorityMapper implements   j
     private void setupCandidatesAndCounts(Archive archive) {
         AddressBook ab = archive.getAddressBook();
 
+        // first collect the names to look up for each contact, then look them all up in one batch
+        List<Pair<Contact, String>> contactAndCnames = new ArrayList<>();
+        Set<String> allNames = new LinkedHashSet<>();
         List<Contact> contacts = ab.allContacts();
         for (Contact c : contacts) {
             try {
@@ -81,18 +78,12 @@ public class CorrespondentAuthorityMapper extends AuthorityMapper implements   j
                     continue; // only match when 2 or more words are present in the name
 
                 if (cnameToAuthority.get(cname) == null) {
+                    contactAndCnames.add(new Pair<>(c, cname));
                     for (String name : names) {
                         List<String> nameTokens = Util.tokenize(name);
                         if (nameTokens.size() < 2)
                             continue; // only match when 2 or more words are present in the name
-
-                        List<Document> hits = lookupNameInFastIndex(name);
-                        if (hits.size() > 20)
-                            log.warn ("Warning: many (" + hits.size() + ") hits for authority name=" + name + " (associated with contact " + contactName + ")");
-                        for (Document d : hits) {
-                            Long fastId = Long.parseLong(d.get(FIELD_NAME_FAST_ID));
-                            cnameToFastIdCandidates.put(cname, fastId);
-                        }
+                        allNames.add(name);
                     }
                 }
             } catch (Exception e) {
@@ -100,6 +91,28 @@ public class CorrespondentAuthorityMapper extends AuthorityMapper implements   j
             }
         }
 
+        Map<String, long[]> nameToFastIds;
+        try {
+            nameToFastIds = lookupNamesInFastIndex(allNames);
+        } catch (Exception e) {
+            Util.print_exception("Error looking up correspondent names in the FAST index", e, log);
+            nameToFastIds = new LinkedHashMap<>();
+        }
+
+        for (Pair<Contact, String> p : contactAndCnames) {
+            Contact c = p.getFirst();
+            String cname = p.getSecond();
+            for (String name : c.getNames()) {
+                long[] fastIds = nameToFastIds.get(name);
+                if (fastIds == null)
+                    continue;
+                if (fastIds.length > 20)
+                    log.warn ("Warning: many (" + fastIds.length + ") hits for authority name=" + name + " (associated with contact " + c.pickBestName() + ")");
+                for (long fastId : fastIds)
+                    cnameToFastIdCandidates.put(cname, fastId);
+            }
+        }
+
         List<Pair<Contact, Integer>> pairs = ab.sortedContactsAndCounts((Collection) archive.getAllDocs());
         for (Pair<Contact, Integer> p : pairs) {
             Contact c = p.getFirst();
@@ -0,0 +1,91 @@
+package edu.stanford.muse.AddressBookManager.test;
+
+import edu.stanford.muse.AddressBookManager.ContactUnifier;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ContactUnifierTest {
+
+    /** class of the first pair with the given email */
+    private static int classOf(ContactUnifier unifier, String email) {
+        for (int p = 0; p < unifier.nPairs(); p++)
+            if (unifier.email(p).equals(email))
+                return unifier.classOfPair(p);
+        throw new NoSuchElementException(email);
+    }
+
+    @Test
+    public void testTrustedAndUntrustedPairs() {
+        ContactUnifier unifier = new ContactUnifier();
+        unifier.addPair("a1@x.org", "Alice A", "a alice", true);
+        unifier.addPair("a2@x.org", "Alice A", "a alice", true);
+        // seen only in untrusted pairs: these names join nothing
+        unifier.addPair("b1@x.org", "Bob B", "b bob", false);
+        unifier.addPair("b2@x.org", "Bob B", "b bob", false);
+        // untrusted: joins nothing, even though trusted pairs have the name
+        unifier.addPair("a3@x.org", "A. Alice", "a alice", false);
+        // a name without a key unifies nothing, trusted or not
+        unifier.addPair("c1@x.org", "Carol", null, true);
+        unifier.addPair("c2@x.org", "Carol", null, true);
+        unifier.addPair("a1@x.org", "Alice A", "a alice", true); // repeated
+        unifier.resolve();
+
+        assertEquals(7, unifier.nPairs());
+        assertEquals(classOf(unifier, "a1@x.org"), classOf(unifier, "a2@x.org"));
+        assertNotEquals(classOf(unifier, "a1@x.org"), classOf(unifier, "a3@x.org"));
+        assertNotEquals(classOf(unifier, "b1@x.org"), classOf(unifier, "b2@x.org"));
+        assertNotEquals(classOf(unifier, "c1@x.org"), classOf(unifier, "c2@x.org"));
+        assertEquals("A. Alice", unifier.name(4));
+    }
+
+    @Test
+    public void testExistingContacts() {
+        ContactUnifier unifier = new ContactUnifier();
+        int self = unifier.addContact(Arrays.asList("me@x.org", "me@y.org"), Collections.singletonList("me myself"));
+        unifier.addPair("me@z.org", "Myself Me", "me myself", true); // e.g. in a message from one of the owner's addresses
+        unifier.addPair("me@y.org", null, null, false);
+        unifier.addPair("other@x.org", null, null, false);
+        unifier.resolve();
+
+        assertEquals(unifier.classOfContact(self), classOf(unifier, "me@z.org"));
+        assertEquals(unifier.classOfContact(self), classOf(unifier, "me@y.org"));
+        assertNotEquals(unifier.classOfContact(self), classOf(unifier, "other@x.org"));
+        assertNull(unifier.name(1));
+    }
+
+    @Test
+    public void testOwnerNamesake() {
+        // a message from someone else with the owner's name, e.g. a namesake, a spoofed From or a list relay
+        ContactUnifier unifier = new ContactUnifier();
+        int self = unifier.addContact(Collections.singletonList("me@x.org"), Collections.singletonList("me myself"));
+        unifier.addPair("namesake@y.org", "Me Myself", "me myself", false);
+        unifier.addPair("list@y.org", "Me Myself", "me myself", false);
+        unifier.resolve();
+
+        assertNotEquals(unifier.classOfContact(self), classOf(unifier, "namesake@y.org"));
+        assertNotEquals(unifier.classOfContact(self), classOf(unifier, "list@y.org"));
+        assertNotEquals(classOf(unifier, "namesake@y.org"), classOf(unifier, "list@y.org"));
+        // the name stays with the address, for search
+        assertEquals("Me Myself", unifier.name(0));
+    }
+
+    @Test
+    public void testLongChains() {
+        // a chain of 100k unifications in the worst order for a union-find without path compression or union by size
+        int n = 100000;
+        ContactUnifier unifier = new ContactUnifier();
+        for (int i = n - 1; i > 0; i--) {
+            unifier.addPair("c" + i + "@x.org", "Name " + i, "name " + i, true);
+            unifier.addPair("c" + (i - 1) + "@x.org", "Name " + i, "name " + i, true);
+        }
+        unifier.resolve();
+
+        Set<Integer> classes = new HashSet<>();
+        for (int p = 0; p < unifier.nPairs(); p++)
+            classes.add(unifier.classOfPair(p));
+        assertEquals(1, classes.size());
+    }
+}
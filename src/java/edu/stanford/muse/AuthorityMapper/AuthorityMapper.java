@@ -17,7 +17,7 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.LongPoint;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
@@ -67,9 +67,8 @@ public class AuthorityMapper implements java.io.Serializable {
 
     protected final Map<String, Integer> cnameToCount = new LinkedHashMap<>(); // name to count of # of times it appears in the archive. applicable only for correspondents currently.
 
-    transient private IndexSearcher indexSearcher;
     transient private QueryParser parser;
-    transient private IndexReader indexReader;
+    transient private StandardAnalyzer analyzer;
 
 
     /** returns a string with the confirmed authorities in a CSV format. */
@@ -161,29 +160,32 @@ public class AuthorityMapper implements java.io.Serializable {
         result.fastId = fastId;
         Query query =  LongPoint.newRangeQuery(FIELD_NAME_FAST_ID, fastId, fastId); // don't do a string query, must do a numeric range query
 
-        if (indexSearcher == null)
-            this.openFastIndex();
-
-        TopDocs docs = indexSearcher.search (query, 10000, Sort.RELEVANCE);
-
-        // there should be only 1 result
-        for (ScoreDoc scoreDoc: docs.scoreDocs) {
-            Document d = indexSearcher.doc(scoreDoc.doc);
-            result.viafId = d.get(FASTIndexer.FIELD_NAME_VIAF_ID);
-            result.lcshId = d.get(FASTIndexer.FIELD_NAME_LCSH_ID);
-            result.lcnafId = d.get(FASTIndexer.FIELD_NAME_LCNAF_ID);
-            result.wikipediaId = d.get(FASTIndexer.FIELD_NAME_WIKIPEDIA_ID);
-            result.localId = null; // Local Id won't be in the fast index
-            result.extent = d.get(FASTIndexer.FIELD_NAME_EXTENT);
-
-            String labels = d.get(FASTIndexer.FIELD_NAME_LABELS); // this has prefLabel followed by altLabels, all separated with labelSeparator
-            if (!Util.nullOrEmpty(labels)) {
-                String splitLabels[] = labels.split (labelSeparator, 2);
-                if (!Util.nullOrEmpty(splitLabels[0]))
-                    result.preferredLabel = splitLabels[0];
-                if (splitLabels.length > 1 && !Util.nullOrEmpty(splitLabels[1]))
-                    result.altLabels = splitLabels[1];
+        DirectoryReader reader = acquireFastIndexReader();
+        try {
+            IndexSearcher indexSearcher = new IndexSearcher(reader);
+            TopDocs docs = indexSearcher.search (query, 10000, Sort.RELEVANCE);
+
+            // there should be only 1 result
+            for (ScoreDoc scoreDoc: docs.scoreDocs) {
+                Document d = indexSearcher.doc(scoreDoc.doc);
+                result.viafId = d.get(FASTIndexer.FIELD_NAME_VIAF_ID);
+                result.lcshId = d.get(FASTIndexer.FIELD_NAME_LCSH_ID);
+                result.lcnafId = d.get(FASTIndexer.FIELD_NAME_LCNAF_ID);
+                result.wikipediaId = d.get(FASTIndexer.FIELD_NAME_WIKIPEDIA_ID);
+                result.localId = null; // Local Id won't be in the fast index
+                result.extent = d.get(FASTIndexer.FIELD_NAME_EXTENT);
+
+                String labels = d.get(FASTIndexer.FIELD_NAME_LABELS); // this has prefLabel followed by altLabels, all separated with labelSeparator
+                if (!Util.nullOrEmpty(labels)) {
+                    String splitLabels[] = labels.split (labelSeparator, 2);
+                    if (!Util.nullOrEmpty(splitLabels[0]))
+                        result.preferredLabel = splitLabels[0];
+                    if (splitLabels.length > 1 && !Util.nullOrEmpty(splitLabels[1]))
+                        result.altLabels = splitLabels[1];
+                }
             }
+        } finally {
+            releaseFastIndexReader(reader);
         }
         return result;
     }
@@ -235,28 +237,81 @@ public class AuthorityMapper implements java.io.Serializable {
         // so we simple replace any double quotes with nothing
         name = name.replaceAll ("\"", "");
 
+        if (parser == null)
+            this.openFastIndex();
         Query query = parser.parse("\"" + name + "\"");
-        TopDocs docs = indexSearcher.search (query, 10000,Sort.RELEVANCE);
-
-        for (ScoreDoc scoreDoc: docs.scoreDocs) {
-            Document d = indexSearcher.doc(scoreDoc.doc);
-            result.add (d);
+        DirectoryReader reader = acquireFastIndexReader();
+        try {
+            IndexSearcher indexSearcher = new IndexSearcher(reader);
+            TopDocs docs = indexSearcher.search (query, 10000,Sort.RELEVANCE);
+
+            for (ScoreDoc scoreDoc: docs.scoreDocs) {
+                Document d = indexSearcher.doc(scoreDoc.doc);
+                result.add (d);
+            }
+        } finally {
+            releaseFastIndexReader(reader);
         }
         return result;
     }
 
+    /** looks up all the given names in the fast index in one go, with the same hits (and in the same order) as lookupNameInFastIndex for each name.
+     * returns a map from each name to the fast ids of its hits; names that could not be looked up are left out. */
+    protected Map<String, long[]> lookupNamesInFastIndex(Collection<String> names) throws IOException {
+        if (analyzer == null)
+            this.openFastIndex();
+        DirectoryReader reader = acquireFastIndexReader();
+        try {
+            return new FastNameLookup(new IndexSearcher(reader), analyzer).lookup(names);
+        } finally {
+            releaseFastIndexReader(reader);
+        }
+    }
+
+    /* one reader of the FAST index is shared by all mappers. guarded by AuthorityMapper.class */
+    private static DirectoryReader fastIndexReader;
+
+    /**
+     * returns the current reader of the FAST index, with a reference taken for the caller, who must give it back with releaseFastIndexReader.
+     * the index is opened the first time it is needed. after that, once FASTIndexer has finished rebuilding it, the reader is reopened on the new
+     * build (the partial builds FASTIndexer commits along the way are skipped), and the old one is closed when the last search on it is over.
+     */
+    public static synchronized DirectoryReader acquireFastIndexReader() throws IOException {
+        if (fastIndexReader == null)
+            fastIndexReader = DirectoryReader.open(FSDirectory.open(new File(Config.FAST_INDEX_DIR).toPath()));
+        else {
+            try {
+                if (!fastIndexReader.isCurrent() && FASTIndexer.isCompleteBuild(SegmentInfos.readLatestCommit(fastIndexReader.directory()).getUserData())) {
+                    DirectoryReader newReader = DirectoryReader.openIfChanged(fastIndexReader);
+                    if (newReader != null) {
+                        log.info("FAST index in " + Config.FAST_INDEX_DIR + " has been rebuilt, switching to the new build");
+                        fastIndexReader.decRef();
+                        fastIndexReader = newReader;
+                    }
+                }
+            } catch (IOException e) {
+                Util.print_exception("Error checking the FAST index for a new build, staying with the current one", e, log);
+            }
+        }
+        fastIndexReader.incRef();
+        return fastIndexReader;
+    }
+
+    public static void releaseFastIndexReader(DirectoryReader reader) throws IOException {
+        reader.decRef();
+    }
+
+    /** opens the shared reader of the FAST index ahead of its first use */
+    public static void warmUpFastIndex() throws IOException {
+        releaseFastIndexReader(acquireFastIndexReader());
+    }
+
     public void openFastIndex () throws IOException {
-        String dir = Config.FAST_INDEX_DIR;
-        indexReader = DirectoryReader.open(FSDirectory.open (new File(dir).toPath()));
-        StandardAnalyzer analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true /* ignore case */));
-        indexSearcher = new IndexSearcher(indexReader);
+        warmUpFastIndex();
+        analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true /* ignore case */));
         parser = new QueryParser(FASTIndexer.FIELD_NAME_LABELS, analyzer);
     }
 
-    private void closeFastIndex () throws IOException {
-        if (indexReader != null)
-            indexReader.close();
-    }
 
 
 
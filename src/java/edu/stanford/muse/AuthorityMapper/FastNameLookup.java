@@ -0,0 +1,265 @@
+package edu.stanford.muse.AuthorityMapper;
+
+import edu.stanford.muse.Config;
+import edu.stanford.muse.ie.FASTIndexer;
+import edu.stanford.muse.util.CacheRegistry;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.StringHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Looks up many names in the FAST index at once, for AuthorityMapper.lookupNamesInFastIndex.
+ * Names are normalized (double quotes dropped, whitespace collapsed, lower-cased - none of which changes the phrase query the
+ * name turns into) and deduped, split into batches, and the batches are run in parallel against the one shared IndexSearcher,
+ * which is thread-safe. Each name is still its own phrase query, scored and ranked exactly as IndexSearcher.search(query, 10000, Sort.RELEVANCE) would.
+ * The FAST ids found for each normalized name are cached in Config.FAST_LOOKUP_CACHE_FILE, tagged with the segments of the
+ * FAST index they were computed from, so recomputing the candidates of an archive (or of another archive with the same correspondents)
+ * only has to search for names it has not seen before. The file is written once SAVE_BATCH new names have been found, and
+ * when the cache is evicted or the JVM shuts down, not after every lookup.
+ */
+class FastNameLookup {
+    private static final Logger log = LogManager.getLogger(FastNameLookup.class);
+
+    private static final int MAX_HITS = 10000;
+    private static final int BATCH_SIZE = 256;
+    private static final Set<String> FAST_ID_FIELD = Collections.singleton(FASTIndexer.FIELD_NAME_FAST_ID);
+    private static final int SAVE_BATCH = 5000;
+
+    /* normalized name -> fast ids in order of relevance. shared by all mappers, guarded by FastNameLookup.class */
+    private static Map<String, long[]> cache;
+    private static String cacheIndexVersion;
+    private static int nUnsaved; // names added to the cache since it was last written
+    private static boolean shutdownHookAdded;
+    private static final String CACHE_NAME = "authority.fast.lookups";
+
+    private final IndexSearcher searcher;
+    private final Analyzer analyzer;
+
+    FastNameLookup(IndexSearcher searcher, Analyzer analyzer) {
+        this.searcher = searcher;
+        this.analyzer = analyzer;
+    }
+
+    /** be careful, double quotes inside the name can mess things up and result in spurious hits (see AuthorityMapper.lookupNameInFastIndex), so they are dropped */
+    static String normalize(String name) {
+        return name.replaceAll("\"", "").replaceAll("\\s+", " ").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** returns a map from each of the given names to the fast ids of its hits, in order of relevance. names that fail to parse are left out */
+    Map<String, long[]> lookup(Collection<String> names) throws IOException {
+        Map<String, String> nameToNormalized = new LinkedHashMap<>();
+        for (String name : names)
+            nameToNormalized.put(name, normalize(name));
+
+        String indexVersion = indexVersion(searcher.getIndexReader());
+        Map<String, long[]> normalizedToIds = new LinkedHashMap<>();
+        Map<String, Query> toSearch = new LinkedHashMap<>();
+
+        // queries are parsed up front, on this thread, since QueryParser is not thread-safe
+        QueryParser parser = new QueryParser(FASTIndexer.FIELD_NAME_LABELS, analyzer);
+        synchronized (FastNameLookup.class) {
+            Map<String, long[]> c = getCache(indexVersion);
+            for (String normalized : nameToNormalized.values()) {
+                if (normalizedToIds.containsKey(normalized) || toSearch.containsKey(normalized))
+                    continue;
+                long[] ids = c.get(normalized);
+                if (ids != null) {
+                    normalizedToIds.put(normalized, ids);
+                    continue;
+                }
+                try {
+                    toSearch.put(normalized, parser.parse("\"" + normalized + "\""));
+                } catch (ParseException e) {
+                    Util.print_exception("Unable to parse authority name: " + normalized, e, log);
+                }
+            }
+        }
+
+        log.info("Looking up " + nameToNormalized.size() + " names in the FAST index: " + (normalizedToIds.size() + toSearch.size()) + " distinct after normalization, " + normalizedToIds.size() + " cached, " + toSearch.size() + " to search");
+        if (!toSearch.isEmpty()) {
+            Map<String, long[]> found = search(toSearch);
+            normalizedToIds.putAll(found);
+            synchronized (FastNameLookup.class) {
+                getCache(indexVersion).putAll(found);
+                nUnsaved += found.size();
+                if (nUnsaved >= SAVE_BATCH)
+                    saveCache();
+            }
+        }
+
+        Map<String, long[]> result = new LinkedHashMap<>();
+        nameToNormalized.forEach((name, normalized) -> {
+            long[] ids = normalizedToIds.get(normalized);
+            if (ids != null)
+                result.put(name, ids);
+        });
+        return result;
+    }
+
+    private Map<String, long[]> search(Map<String, Query> toSearch) throws IOException {
+        List<Map.Entry<String, Query>> entries = new ArrayList<>(toSearch.entrySet());
+        int nBatches = (entries.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        int nThreads = Math.max(1, Math.min(nBatches, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try {
+            List<Future<Map<String, long[]>>> futures = new ArrayList<>();
+            for (int start = 0; start < entries.size(); start += BATCH_SIZE) {
+                List<Map.Entry<String, Query>> batch = entries.subList(start, Math.min(entries.size(), start + BATCH_SIZE));
+                futures.add(pool.submit(() -> searchBatch(batch)));
+            }
+
+            Map<String, long[]> result = new LinkedHashMap<>();
+            for (Future<Map<String, long[]>> f : futures)
+                result.putAll(f.get());
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while looking up names in the FAST index", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error looking up names in the FAST index", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private Map<String, long[]> searchBatch(List<Map.Entry<String, Query>> batch) throws IOException {
+        Map<String, long[]> result = new LinkedHashMap<>();
+        List<ScoreDoc> hits = new ArrayList<>();
+        for (Map.Entry<String, Query> e : batch) {
+            hits.clear();
+            Weight weight = searcher.createNormalizedWeight(e.getValue(), true);
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                Scorer scorer = weight.scorer(leaf);
+                if (scorer == null)
+                    continue;
+                // unlike IndexSearcher.search, a bare scorer does not skip deleted docs
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                DocIdSetIterator it = scorer.iterator();
+                for (int doc = it.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = it.nextDoc())
+                    if (liveDocs == null || liveDocs.get(doc))
+                        hits.add(new ScoreDoc(leaf.docBase + doc, scorer.score()));
+            }
+            // same order as Sort.RELEVANCE: by score, ties broken by doc id
+            hits.sort((a, b) -> a.score != b.score ? Float.compare(b.score, a.score) : Integer.compare(a.doc, b.doc));
+
+            int n = Math.min(hits.size(), MAX_HITS);
+            long[] ids = new long[n];
+            for (int i = 0; i < n; i++)
+                ids[i] = Long.parseLong(searcher.doc(hits.get(i).doc, FAST_ID_FIELD).get(FASTIndexer.FIELD_NAME_FAST_ID));
+            result.put(e.getKey(), ids);
+        }
+        return result;
+    }
+
+    /**
+     * identifies the contents of the index: the ids of its segments, which Lucene generates at random for each segment it writes,
+     * with the generation of their deletions. unlike DirectoryReader.getVersion(), this differs for an index rebuilt from scratch
+     * in a fresh directory, even after the same number of commits.
+     */
+    private static String indexVersion(IndexReader reader) {
+        StringBuilder sb = new StringBuilder();
+        for (LeafReaderContext leaf : reader.leaves()) {
+            if (!(leaf.reader() instanceof SegmentReader))
+                return null; // cannot tell, so nothing is cached
+            SegmentCommitInfo info = ((SegmentReader) leaf.reader()).getSegmentInfo();
+            sb.append(StringHelper.idToString(info.info.getId())).append('/').append(info.getDelGen()).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /** returns the cache for the given index version, reading it from disk the first time. must be called while holding the lock on FastNameLookup.class */
+    @SuppressWarnings("unchecked")
+    private static Map<String, long[]> getCache(String indexVersion) {
+        if (cache == null) {
+            long startTime = System.currentTimeMillis();
+            cache = new HashMap<>();
+            nUnsaved = 0;
+            File f = new File(Config.FAST_LOOKUP_CACHE_FILE);
+            if (f.exists() && f.canRead()) {
+                try {
+                    Object[] o = (Object[]) Util.readObjectFromFile(f.getPath());
+                    // files written before the version was a string have a long there, which never matches
+                    cacheIndexVersion = (o[0] instanceof String) ? (String) o[0] : null;
+                    cache = (HashMap<String, long[]>) o[1];
+                    log.info("Read " + cache.size() + " cached FAST lookups from " + f);
+                } catch (Exception e) {
+                    Util.print_exception("Error reading FAST lookup cache: " + f, e, log);
+                }
+            }
+            registerCache(System.currentTimeMillis() - startTime);
+            if (!shutdownHookAdded) {
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                    synchronized (FastNameLookup.class) {
+                        if (cache != null && nUnsaved > 0)
+                            saveCache();
+                    }
+                }, "fast-lookup-cache-save"));
+                shutdownHookAdded = true;
+            }
+        }
+        CacheRegistry.touch(CACHE_NAME);
+
+        // the FAST index has been rebuilt since the cache was written, so the ids may have changed
+        if (indexVersion == null || !indexVersion.equals(cacheIndexVersion)) {
+            if (!cache.isEmpty())
+                log.info("FAST index changed since the cached lookups were made, dropping " + cache.size() + " of them");
+            cache = new HashMap<>();
+            cacheIndexVersion = indexVersion;
+            nUnsaved = 0;
+        }
+        return cache;
+    }
+
+    /** lets CacheRegistry drop the cache when memory is low. names not yet written to the file are written first, so nothing is lost */
+    private static void registerCache(long loadMillis) {
+        CacheRegistry.register(CACHE_NAME, new CacheRegistry.Evictable() {
+            public long estimatedBytes() {
+                synchronized (FastNameLookup.class) {
+                    // about 120 bytes per name with its map entry, and the ids
+                    long bytes = 0;
+                    if (cache != null)
+                        for (long[] ids : cache.values())
+                            bytes += 120 + 8L * ids.length;
+                    return bytes;
+                }
+            }
+            public long rebuildCostMillis() { return loadMillis; }
+            public boolean evict() {
+                synchronized (FastNameLookup.class) {
+                    if (cache != null && nUnsaved > 0)
+                        saveCache();
+                    cache = null;
+                    cacheIndexVersion = null;
+                }
+                return true;
+            }
+        });
+    }
+
+    /** must be called while holding the lock on FastNameLookup.class */
+    private static void saveCache() {
+        if (cacheIndexVersion == null)
+            return; // lookups on an index we cannot identify are not worth keeping
+        try {
+            Util.writeObjectToFile(Config.FAST_LOOKUP_CACHE_FILE, new Object[]{cacheIndexVersion, cache});
+            nUnsaved = 0;
+        } catch (IOException e) {
+            Util.print_exception("Error writing FAST lookup cache: " + Config.FAST_LOOKUP_CACHE_FILE, e, log);
+        }
+    }
+}
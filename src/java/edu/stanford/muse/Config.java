@@ -34,6 +34,7 @@ public class Config {
     public static  String	SETTINGS_DIR		= System.getProperty("user.home") + File.separator + "epadd-settings" + File.separator;
 
     public static  String 	FAST_INDEX_DIR;
+    public static  String 	FAST_LOOKUP_CACHE_FILE; // FAST ids found for names looked up in the FAST index, see AuthorityMapper.lookupNamesInFastIndex
     public static String AUTHORITIES_FILENAME;
     private static String AUTHORITIES_CSV_FILENAME;
     public static String AUTHORITY_ASSIGNER_FILENAME;
@@ -50,8 +51,23 @@ public class Config {
     public static   int		MAX_TRY_TO_RESOLVE_NAMES	= 10;
     public static   int		MAX_DOCS_PER_QUERY	= 10000;
     public static   int		MAX_TEXT_SIZE_TO_ANNOTATE	= 100000; // messages with bodies longer than this will not be annotated
+    // worker threads of the job scheduler for long-running operations (see JobScheduler), and the heap a memory-heavy job is assumed to need
+    public static   int		JOB_THREADS_CPU = 2, JOB_THREADS_IO = 2, JOB_THREADS_MEMORY = 1, JOB_THREADS_LOAD = 2;
+    public static   int		JOB_MEMORY_ESTIMATE_MB = 1024;
+    // if false, Metrics does not record anything
+    public static   boolean	METRICS_ENABLED = true;
+    // requests taking longer than this are logged with their params and a stack profile, sampled every SLOW_REQUEST_SAMPLE_MILLIS (see RequestProfiler)
+    public static   int		SLOW_REQUEST_MILLIS = 5000, SLOW_REQUEST_SAMPLE_MILLIS = 100;
+    // when the heap is above HEAP_BUDGET_PERCENT of the max after a GC, caches and idle archives are evicted to get it down to HEAP_TARGET_PERCENT (see CacheRegistry)
+    public static   int		HEAP_BUDGET_PERCENT = 85, HEAP_TARGET_PERCENT = 70;
+    // threads loading the models and indexes needed in the current mode at startup; with 0, everything is loaded on first use (see StartupResources)
+    public static   int		STARTUP_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+    // threads rendering messages when exporting to mbox; with 1, messages are rendered one after the other on the exporting thread (see MboxExporter)
+    public static   int		EXPORT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
 
     public static   Boolean 	OPENNLP_NER = false;
+    // if true, body_original is indexed but not stored; its value is derived from the stored body field when read back
+    public static   boolean 	DEDUP_BODY_ORIGINAL = false;
     public static   String DEFAULT_SETTINGS_DIR = System.getProperty("user.home") + File.separator + "epadd-settings";
     private static   String DEFAULT_BASE_DIR = System.getProperty("user.home");
     private static final String REPO_DETAIL_FNAME =  "epaddRepoDetails.txt";
@@ -105,6 +121,7 @@ public class Config {
             AUTHORITIES_CSV_FILENAME = props.getProperty("AUTHORITIES_CSV_FILENAME", "authorities.csv");
             AUTHORITY_ASSIGNER_FILENAME = props.getProperty("AUTHORITY_ASSIGNER_FILENAME", "InternalAuthorityAssigner.ser");
             FAST_INDEX_DIR = props.getProperty("fast.index.dir", SETTINGS_DIR + File.separator + "fast_index");
+            FAST_LOOKUP_CACHE_FILE = props.getProperty("fast.lookup.cache.file", SETTINGS_DIR + File.separator + "fast_lookup_cache.ser");
             String rsrcField = props.getProperty("NER_RESOURCE_FILE", "CONLL/lists/ePADD.ned.list.LOC:::CONLL/lists/ePADD.ned.list.PER:::CONLL/lists/ePADD.ned.list.ORG");
             if (rsrcField != null && rsrcField.length() > 0)
                 NER_RESOURCE_FILES = rsrcField.split(":::");
@@ -137,10 +154,29 @@ public class Config {
                 Util.print_exception(e, log);
             }
         }
+        JOB_THREADS_CPU = readIntProperty(props, "epadd.jobs.cpu.threads", JOB_THREADS_CPU);
+        JOB_THREADS_IO = readIntProperty(props, "epadd.jobs.io.threads", JOB_THREADS_IO);
+        JOB_THREADS_MEMORY = readIntProperty(props, "epadd.jobs.memory.threads", JOB_THREADS_MEMORY);
+        JOB_THREADS_LOAD = readIntProperty(props, "epadd.jobs.load.threads", JOB_THREADS_LOAD);
+        JOB_MEMORY_ESTIMATE_MB = readIntProperty(props, "epadd.jobs.memory.estimate.mb", JOB_MEMORY_ESTIMATE_MB);
+        s = props.getProperty("epadd.metrics.enabled");
+        if (!Util.nullOrEmpty(s))
+            METRICS_ENABLED = Boolean.parseBoolean(s);
+        SLOW_REQUEST_MILLIS = readIntProperty(props, "epadd.slow.request.millis", SLOW_REQUEST_MILLIS);
+        SLOW_REQUEST_SAMPLE_MILLIS = readIntProperty(props, "epadd.slow.request.sample.millis", SLOW_REQUEST_SAMPLE_MILLIS);
+        HEAP_BUDGET_PERCENT = readIntProperty(props, "epadd.heap.budget.percent", HEAP_BUDGET_PERCENT);
+        HEAP_TARGET_PERCENT = readIntProperty(props, "epadd.heap.target.percent", HEAP_TARGET_PERCENT);
+        STARTUP_THREADS = readIntProperty(props, "epadd.startup.threads", STARTUP_THREADS);
+        EXPORT_THREADS = readIntProperty(props, "epadd.export.threads", EXPORT_THREADS);
+
         s = props.getProperty("OPENNLP_NER");
         if (!Util.nullOrEmpty(s))
             OPENNLP_NER = Boolean.parseBoolean(s);
 
+        s = props.getProperty("DEDUP_BODY_ORIGINAL");
+        if (!Util.nullOrEmpty(s))
+            DEDUP_BODY_ORIGINAL = Boolean.parseBoolean(s);
+
         s = props.getProperty("epadd.default.lexicon", "general");
         if (s != null) {
             DEFAULT_LEXICON = s;
@@ -253,6 +289,19 @@ public class Config {
             return repoDetails.get("Not found");//this is a default info that will be returned to the user if no information found for the requested repo.
     }
 
+    /** the int value of the given property, or defaultValue if it is not set or not a number */
+    private static int readIntProperty(Properties props, String key, int defaultValue) {
+        String s = props.getProperty(key);
+        if (Util.nullOrEmpty(s))
+            return defaultValue;
+        try {
+            return Integer.parseInt(s.trim());
+        } catch (Exception e) {
+            Util.print_exception("Invalid value for " + key + ": " + s, e, log);
+            return defaultValue;
+        }
+    }
+
     // return properties set from epadd.properties file and/or system properties
     private static Properties readProperties() {
         Properties props = new Properties();
@@ -109,6 +109,11 @@ public boolean processedSuccessfully = false;
 		this.contentHash = contentHash;
 	}
 
+	/** digest of the blob's original content, computed as it was added to the blob store. null if not known */
+	public byte[] getContentHash() {
+		return contentHash;
+	}
+
 	// we currently store content hash both as byte array and string
 //@SuppressWarnings("unused")
 private byte[] contentHash;
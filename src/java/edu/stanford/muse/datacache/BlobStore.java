@@ -59,6 +59,8 @@ public class BlobStore implements Serializable {
     //transient because this can always be built from the normalziation info file (csv) present in session directory of the archive.
     private transient  Map<String,Pair<String,String>> normalizationMap = new LinkedHashMap<>();
     private transient  HashMap<String,String> executablePathMap = new LinkedHashMap();
+    // name of the file with each blob's original data -> the blob. built on first use, and dropped when blobs are added or removed
+    private transient Map<String, Blob> originalFilenameToBlob;
 
     public Multimap<Blob, String> getBlobToKeywords() {
         return blobToKeywords;
@@ -471,6 +473,21 @@ public class BlobStore implements Serializable {
         return uniqueBlobs.contains(b);
     }
 
+    /**
+     * the blob whose original data is in the file with the given name (as in full_filename_original), null if none, e.g. for a thumbnail.
+     * also null if the file has a cleaned up or normalized version, since it may not hold the original data then.
+     */
+    public synchronized Blob getBlobForOriginalFilename(String filename) {
+        if (normalizationMap != null && normalizationMap.containsKey(filename))
+            return null;
+        if (originalFilenameToBlob == null) {
+            originalFilenameToBlob = new HashMap<>();
+            for (Blob b : uniqueBlobs)
+                originalFilenameToBlob.put(full_filename_original(b), b);
+        }
+        return originalFilenameToBlob.get(filename);
+    }
+
     /** return the view for data d with the given key */
     private synchronized boolean hasView(Blob b, String view)
     {
@@ -490,6 +507,7 @@ public class BlobStore implements Serializable {
         id_map.put (b, next_data_id);
         views.put (b, new LinkedHashMap<>());
         next_data_id++;
+        originalFilenameToBlob = null;
     }
 
     /** remove a piece of data, has to be the last one added. */
@@ -500,6 +518,7 @@ public class BlobStore implements Serializable {
         id_map.remove(b); // leaves a hole in id_map, but that's ok
         views.remove (b);
         next_data_id--;
+        originalFilenameToBlob = null;
     }
 
     /** add o with the supplied key to the map of views for object d */
@@ -361,6 +361,13 @@ public class EmailFetcherThread implements Runnable, Serializable {
 */        // take a deep breath. This object is going to live longer than most of us.
         EmailDocument ed = new EmailDocument(id, email_source(), folder_name(), to, cc, bcc, from, m.getSubject(), m.getMessageID(), c.getTime());
 
+        // for threading (see ThreadIndex). In-Reply-To usually repeats the last of References, but some mailers only set In-Reply-To
+        List<String> references = ThreadIndex.parseMessageIDs(m.getHeader("References", " "));
+        if (references.isEmpty())
+            references = ThreadIndex.parseMessageIDs(m.getHeader("In-Reply-To", " "));
+        if (!references.isEmpty())
+            ed.references = references;
+
         String[] headers = m.getHeader("List-Post");
         if (headers != null && headers.length > 0) {
             // trim the headers because they usually look like: "<mailto:prpl-devel@lists.stanford.edu>"
@@ -23,6 +23,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import edu.stanford.epadd.util.JobScheduler;
 import edu.stanford.muse.datacache.BlobStore;
 //import org.apache.commons.logging.Log;
 //import org.apache.commons.logging.LogFactory;
@@ -182,6 +183,11 @@ public class MTEmailFetcher implements StatusProvider, Serializable {
 		// process each folders, read from a array copy because we sometimes see a concurrent modification exception here
 		for (FolderInfo fi : new ArrayList<>(folderInfos))
 		{
+			// the job this fetch runs on was cancelled; the fetcher threads don't see the job, so cancel them the usual way
+			if (JobScheduler.isCurrentJobCancelled())
+				cancel();
+			if (isCancelled)
+				return fetchedFolderInfos;
 			int totalMessagesInFolder = fi.messageCount;
 
 			int from = -1, to = -1;
@@ -225,7 +231,13 @@ public class MTEmailFetcher implements StatusProvider, Serializable {
 			for (int i = 0; i < N_THREADS; i++)
 				executorService.execute (threads[i]);
 			executorService.shutdown();
-			executorService.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+			try {
+				executorService.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+			} catch (InterruptedException ie) {
+				// the job was cancelled while waiting; stop the fetcher threads too, instead of leaving them running
+				cancel();
+				throw ie;
+			}
 
 			for (int i = 0; i < N_THREADS; i++)
 			{
@@ -0,0 +1,174 @@
+package edu.stanford.muse.email;
+
+import edu.stanford.epadd.util.JobScheduler;
+import edu.stanford.muse.Config;
+import edu.stanford.muse.datacache.BlobStore;
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.util.EmailUtils;
+import edu.stanford.muse.util.JSONUtils;
+import edu.stanford.muse.util.Metrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exports messages to an mbox file. Each message, including the base64 encoding of its attachments, is rendered by
+ * EmailUtils.printToMbox into a buffer of its own on a pool of Config.EXPORT_THREADS threads, and the buffers are written to the file
+ * in the order of the messages as they become ready. At most a few messages per thread are rendered ahead of the one being written,
+ * so memory use does not grow with the size of the export. The file is byte for byte the same as printing all the messages
+ * to a UTF-8 PrintWriter in order.
+ * The exporter is its own StatusProvider, so a long-running operation can report its progress and cancel it.
+ */
+public class MboxExporter implements StatusProvider {
+    private static final long serialVersionUID = 1L;
+    private static final Logger log = LogManager.getLogger(MboxExporter.class);
+    private static final int MESSAGES_AHEAD_PER_THREAD = 4;
+
+    private final transient Archive archive;
+    private final transient List<EmailDocument> docs = new ArrayList<>();
+    private final transient BlobStore blobStore;
+    private final boolean stripQuoted;
+
+    private volatile boolean cancelled;
+    private volatile int nWritten;
+    private volatile long bytesWritten, startMillis;
+
+    /** blobStore may be null, in which case attachments are not exported */
+    public MboxExporter(Archive archive, Collection<? extends Document> docs, BlobStore blobStore, boolean stripQuoted) {
+        this.archive = archive;
+        for (Document d : docs)
+            this.docs.add((EmailDocument) d);
+        this.blobStore = blobStore;
+        this.stripQuoted = stripQuoted;
+    }
+
+    private ByteBuffer render(EmailDocument ed) {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        EmailUtils.printToMbox(archive, ed, pw, blobStore, stripQuoted);
+        pw.flush();
+        return ByteBuffer.wrap(sw.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * writes the messages to the given file, replacing it if it exists. returns false if the export was cancelled, or the thread
+     * interrupted, in which case the partial file is deleted.
+     */
+    public boolean export(File file) throws IOException {
+        startMillis = System.currentTimeMillis();
+        nWritten = 0;
+        bytesWritten = 0;
+        int nThreads = Math.max(1, Math.min(Config.EXPORT_THREADS, docs.size()));
+
+        ExecutorService pool = null;
+        if (nThreads > 1) {
+            AtomicInteger threadNum = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(nThreads, runnable -> {
+                Thread t = new Thread(runnable, "mbox-export-" + threadNum.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+
+        boolean completed = false;
+        try (Metrics.Span s = Metrics.span("export.mbox");
+             FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            Iterator<EmailDocument> it = docs.iterator();
+            // messages being rendered, in the order they are to be written
+            ArrayDeque<Future<ByteBuffer>> ahead = new ArrayDeque<>();
+            int window = nThreads * MESSAGES_AHEAD_PER_THREAD;
+            while (!cancelled) {
+                if (Thread.interrupted())
+                    throw new InterruptedException();
+                // an interrupt can get lost in a channel write (which then fails), so check the job's flag as well
+                if (JobScheduler.isCurrentJobCancelled()) {
+                    cancelled = true;
+                    break;
+                }
+                while (pool != null && ahead.size() < window && it.hasNext()) {
+                    EmailDocument ed = it.next();
+                    ahead.add(pool.submit(() -> render(ed)));
+                }
+
+                ByteBuffer buf;
+                if (pool == null) {
+                    if (!it.hasNext())
+                        break;
+                    buf = render(it.next());
+                } else {
+                    Future<ByteBuffer> next = ahead.poll();
+                    if (next == null)
+                        break;
+                    buf = next.get();
+                }
+
+                int size = buf.remaining();
+                while (buf.hasRemaining())
+                    channel.write(buf);
+                bytesWritten += size;
+                nWritten++;
+            }
+            completed = !cancelled;
+        } catch (InterruptedException e) {
+            // the job running the export was cancelled
+            Thread.currentThread().interrupt();
+            cancelled = true;
+        } catch (ExecutionException e) {
+            throw new IOException("Error rendering a message for " + file, e.getCause());
+        } finally {
+            if (pool != null)
+                pool.shutdownNow();
+        }
+
+        if (!completed) {
+            log.info("Mbox export to " + file + " cancelled after " + nWritten + " of " + docs.size() + " messages");
+            if (!file.delete())
+                log.warn("Unable to delete partial mbox file " + file);
+            return false;
+        }
+        log.info("Exported " + nWritten + " messages (" + bytesWritten / 1024 + "KB) to " + file + " in " + (System.currentTimeMillis() - startMillis) + "ms on " + nThreads + " thread(s)");
+        return true;
+    }
+
+    public int getMessagesWritten() {
+        return nWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public String getStatusMessage() {
+        int total = docs.size(), done = nWritten;
+        if (startMillis == 0 || total == 0)
+            return JSONUtils.getStatusJSON("Exporting messages...");
+        long elapsedMillis = System.currentTimeMillis() - startMillis;
+        long secsRemaining = done == 0 ? -1 : (elapsedMillis * (total - done) / done) / 1000;
+        return JSONUtils.getStatusJSON("Exported " + done + " of " + total + " messages", (int) (done * 100L / total), elapsedMillis / 1000, secsRemaining);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
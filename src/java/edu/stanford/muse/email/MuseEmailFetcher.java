@@ -28,6 +28,7 @@ import edu.stanford.muse.index.Archive;
 import edu.stanford.muse.index.Document;
 import edu.stanford.muse.index.EmailDocument;
 import edu.stanford.muse.util.EmailUtils;
+import edu.stanford.muse.util.Metrics;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Util;
 import groovy.lang.Tuple2;
@@ -455,6 +456,14 @@ public class MuseEmailFetcher {
      * */
 	public void fetchAndIndexEmails(Archive archive, String[] selectedFolders, boolean useDefaultFolders, FetchConfig fetchConfig, HttpSession session, Consumer<StatusProvider> setStatusProvider)
 				throws InterruptedException, JSONException, NoDefaultFolderException, CancelledException
+	{
+		try (Metrics.Span s = Metrics.span("ingest.fetchAndIndex")) {
+			fetchAndIndex(archive, selectedFolders, useDefaultFolders, fetchConfig, session, setStatusProvider);
+		}
+	}
+
+	private void fetchAndIndex(Archive archive, String[] selectedFolders, boolean useDefaultFolders, FetchConfig fetchConfig, HttpSession session, Consumer<StatusProvider> setStatusProvider)
+				throws InterruptedException, JSONException, NoDefaultFolderException, CancelledException
 	{
 		setupFetchers(-1);
 
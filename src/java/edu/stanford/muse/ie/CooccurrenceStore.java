@@ -0,0 +1,482 @@
+package edu.stanford.muse.ie;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The features of EntityFeature: for each entity, the entities it co-occurs with and the email addresses on the messages it occurs in,
+ * with counts. Kept as two sparse matrices in CSR form (rows are entity ids, columns entity or address ids, sorted within a row, with
+ * float weights and the L2 norm of each row), plus the number of docs each entity occurs in and the entity and address strings.
+ * Written once to a side file of the features index and memory-mapped for reading, so looking up the features of an entity is a
+ * couple of offset computations, with nothing to parse or deserialize. Safe for use by multiple threads once opened.
+ *
+ * File layout (big-endian): header (MAGIC, VERSION, nEntities, nAddresses, totalEntities as a long), freq[nEntities],
+ * then for each of the 2 matrices rowPtr[nEntities+1], cols[nnz], weights[nnz], norms[nEntities],
+ * then the entity strings and the address strings, each as offsets[n+1] followed by the UTF-8 bytes.
+ */
+public class CooccurrenceStore {
+    private static final Logger log = LogManager.getLogger(CooccurrenceStore.class);
+
+    private static final int MAGIC = 0x45464353; // "EFCS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 4 + 4 + 8;
+
+    /** the matrices: co-occurring entities and email addresses */
+    public static final int CE = 0, EA = 1;
+
+    private final File file;
+    private final Object fileKey; // null where the file system has no file keys
+    private final long length, lastModified;
+    private final MappedByteBuffer buf;
+    private final int nEntities, nAddresses;
+    private final long totalEntities;
+    private final int freqOffset;
+    private final int[] rowPtrOffset = new int[2], colsOffset = new int[2], weightsOffset = new int[2], normsOffset = new int[2];
+    private final int[] stringsOffset = new int[2], stringCount = new int[2];
+
+    // string -> id, built on first use
+    private Map<String, Integer> entityIds, addressIds;
+
+    private CooccurrenceStore(File file) throws IOException {
+        this.file = file;
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // read while the file is open, so that these are of the file that is mapped
+            BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            fileKey = attrs.fileKey();
+            length = attrs.size();
+            lastModified = attrs.lastModifiedTime().toMillis();
+            if (ch.size() > Integer.MAX_VALUE)
+                throw new IOException("Co-occurrence store is too large to map: " + file + " (" + ch.size() + " bytes)");
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+            throw new IOException("Not a co-occurrence store, or of an unsupported version: " + file);
+        nEntities = buf.getInt(8);
+        nAddresses = buf.getInt(12);
+        totalEntities = buf.getLong(16);
+
+        int pos = HEADER_BYTES;
+        freqOffset = pos;
+        pos += 4 * nEntities;
+        for (int m = CE; m <= EA; m++) {
+            rowPtrOffset[m] = pos;
+            int nnz = buf.getInt(pos + 4 * nEntities);
+            pos += 4 * (nEntities + 1);
+            colsOffset[m] = pos;
+            pos += 4 * nnz;
+            weightsOffset[m] = pos;
+            pos += 4 * nnz;
+            normsOffset[m] = pos;
+            pos += 4 * nEntities;
+        }
+        stringCount[0] = nEntities;
+        stringCount[1] = nAddresses;
+        for (int t = 0; t < 2; t++) {
+            stringsOffset[t] = pos;
+            pos += 4 * (stringCount[t] + 1) + buf.getInt(pos + 4 * stringCount[t]);
+        }
+    }
+
+    public static CooccurrenceStore open(File file) throws IOException {
+        return new CooccurrenceStore(file);
+    }
+
+    /**
+     * true if f is still the file this was opened from. build() moves a new file into place, which gives it a new file key (inode),
+     * so a rebuild is noticed even if it leaves the length and modification time as they were; where there are no file keys,
+     * the length and modification time have to do.
+     */
+    public boolean isCurrent(File f) {
+        if (!file.equals(f))
+            return false;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+            return Objects.equals(attrs.fileKey(), fileKey) && attrs.size() == length && attrs.lastModifiedTime().toMillis() == lastModified;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public int getNEntities() {
+        return nEntities;
+    }
+
+    /** number of docs the entity occurs in */
+    int freq(int entity) {
+        return buf.getInt(freqOffset + 4 * entity);
+    }
+
+    /** fraction of all entity occurrences that are of this entity */
+    double prior(int entity) {
+        return totalEntities == 0 ? 0 : freq(entity) / (double) totalEntities;
+    }
+
+    /** row entity of matrix m is at positions [begin(m, entity), end(m, entity)) */
+    public int begin(int m, int entity) {
+        return buf.getInt(rowPtrOffset[m] + 4 * entity);
+    }
+
+    public int end(int m, int entity) {
+        return buf.getInt(rowPtrOffset[m] + 4 * (entity + 1));
+    }
+
+    int col(int m, int pos) {
+        return buf.getInt(colsOffset[m] + 4 * pos);
+    }
+
+    float weight(int m, int pos) {
+        return buf.getFloat(weightsOffset[m] + 4 * pos);
+    }
+
+    /** L2 norm of the weights of row entity of matrix m */
+    float norm(int m, int entity) {
+        return buf.getFloat(normsOffset[m] + 4 * entity);
+    }
+
+    /** weight of (entity, col) in matrix m, 0 if absent */
+    public float get(int m, int entity, int col) {
+        int lo = begin(m, entity), hi = end(m, entity) - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = col(m, mid);
+            if (c < col)
+                lo = mid + 1;
+            else if (c > col)
+                hi = mid - 1;
+            else
+                return weight(m, mid);
+        }
+        return 0;
+    }
+
+    /** sorted column ids of row entity of matrix m */
+    int[] cols(int m, int entity) {
+        int b = begin(m, entity), e = end(m, entity);
+        int[] result = new int[e - b];
+        for (int i = b; i < e; i++)
+            result[i - b] = col(m, i);
+        return result;
+    }
+
+    String entityName(int entity) {
+        return string(0, entity);
+    }
+
+    String address(int address) {
+        return string(1, address);
+    }
+
+    private String string(int t, int i) {
+        int offsets = stringsOffset[t], data = offsets + 4 * (stringCount[t] + 1);
+        int start = buf.getInt(offsets + 4 * i), end = buf.getInt(offsets + 4 * (i + 1));
+        byte[] b = new byte[end - start];
+        // absolute bulk get is not in Java 8, so go through a duplicate to keep this thread-safe
+        java.nio.ByteBuffer dup = buf.duplicate();
+        dup.position(data + start);
+        dup.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /** id of the entity, or -1 */
+    synchronized int entityId(String name) {
+        if (entityIds == null)
+            entityIds = stringIds(0);
+        return entityIds.getOrDefault(name, -1);
+    }
+
+    /** id of the address, or -1 */
+    synchronized int addressId(String address) {
+        if (addressIds == null)
+            addressIds = stringIds(1);
+        return addressIds.getOrDefault(address, -1);
+    }
+
+    private Map<String, Integer> stringIds(int t) {
+        Map<String, Integer> result = new HashMap<>();
+        for (int i = 0; i < stringCount[t]; i++)
+            result.put(string(t, i), i);
+        return result;
+    }
+
+    /**
+     * Builds the store from the entities and addresses of each doc, and writes it to file.
+     * docEntities.get(d) has the distinct ids of the entities in doc d, docAddresses.get(d) the ids of its addresses (repeats count again).
+     * The docs are split into nThreads ranges, each counted into sorted runs of its own, and all the runs are merged at the end.
+     * The file is written next to file and moved over it, so callers must have dropped any store they have open on file.
+     * Rows with more than maxPerRow columns keep the maxPerRow largest counts (ties go to the smaller id), so the result does not
+     * depend on the number of threads.
+     */
+    public static void build(File file, List<String> entities, List<String> addresses, List<int[]> docEntities, List<int[]> docAddresses, int maxPerRow, int nThreads) throws IOException {
+        int nEntities = entities.size(), nDocs = docEntities.size();
+        int[] freq = new int[nEntities];
+        long totalEntities = 0;
+        for (int[] ents : docEntities) {
+            for (int e : ents)
+                freq[e]++;
+            totalEntities += ents.length;
+        }
+
+        nThreads = Math.max(1, Math.min(nThreads, nDocs));
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        PairCounts ce, ea;
+        try {
+            List<Future<PairCounts[]>> futures = new ArrayList<>();
+            for (int t = 0; t < nThreads; t++) {
+                int from = (int) ((long) nDocs * t / nThreads), to = (int) ((long) nDocs * (t + 1) / nThreads);
+                futures.add(pool.submit(() -> {
+                    PairCounts pce = new PairCounts(), pea = new PairCounts();
+                    for (int d = from; d < to; d++) {
+                        int[] ents = docEntities.get(d), addrs = docAddresses.get(d);
+                        for (int e : ents) {
+                            for (int e2 : ents)
+                                pce.add(e, e2);
+                            for (int a : addrs)
+                                pea.add(e, a);
+                        }
+                    }
+                    pce.flush();
+                    pea.flush();
+                    return new PairCounts[]{pce, pea};
+                }));
+            }
+            List<PairCounts> ceParts = new ArrayList<>(), eaParts = new ArrayList<>();
+            for (Future<PairCounts[]> f : futures) {
+                PairCounts[] partial = f.get();
+                ceParts.add(partial[0]);
+                eaParts.add(partial[1]);
+            }
+            ce = PairCounts.merge(ceParts);
+            ea = PairCounts.merge(eaParts);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting co-occurrences", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error counting co-occurrences", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(nEntities);
+            out.writeInt(addresses.size());
+            out.writeLong(totalEntities);
+            for (int f : freq)
+                out.writeInt(f);
+            writeCSR(out, ce, nEntities, maxPerRow);
+            writeCSR(out, ea, nEntities, maxPerRow);
+            writeStrings(out, entities);
+            writeStrings(out, addresses);
+        }
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        log.info("Wrote co-occurrences of " + nEntities + " entities with " + ce.size + " entity pairs and " + ea.size + " entity-address pairs to " + file + " (" + file.length() / 1024 + "KB)");
+    }
+
+    private static void writeCSR(DataOutputStream out, PairCounts counts, int nRows, int maxPerRow) throws IOException {
+        // rows are contiguous runs of counts.keys, since the keys are sorted and the row is in the high bits
+        int[] rowStart = new int[nRows + 1];
+        for (int i = 0; i < counts.size; i++)
+            rowStart[(int) (counts.keys[i] >>> 32) + 1]++;
+        for (int r = 0; r < nRows; r++)
+            rowStart[r + 1] += rowStart[r];
+
+        int[] rowPtr = new int[nRows + 1];
+        for (int r = 0; r < nRows; r++)
+            rowPtr[r + 1] = rowPtr[r] + Math.min(maxPerRow, rowStart[r + 1] - rowStart[r]);
+        out.writeInt(0);
+        for (int r = 0; r < nRows; r++)
+            out.writeInt(rowPtr[r + 1]);
+
+        // positions in counts of the entries kept for each row, in column order
+        int[] kept = new int[rowPtr[nRows]];
+        for (int r = 0; r < nRows; r++) {
+            int b = rowStart[r], e = rowStart[r + 1];
+            if (e - b <= maxPerRow) {
+                for (int i = b; i < e; i++)
+                    kept[rowPtr[r] + i - b] = i;
+                continue;
+            }
+            Integer[] idx = new Integer[e - b];
+            for (int i = b; i < e; i++)
+                idx[i - b] = i;
+            // keys of a row are in column order, so on equal counts the smaller position is the smaller column
+            Arrays.sort(idx, (x, y) -> counts.counts[x] != counts.counts[y] ? Integer.compare(counts.counts[y], counts.counts[x]) : Integer.compare(x, y));
+            int[] top = new int[maxPerRow];
+            for (int i = 0; i < maxPerRow; i++)
+                top[i] = idx[i];
+            Arrays.sort(top);
+            System.arraycopy(top, 0, kept, rowPtr[r], maxPerRow);
+        }
+
+        for (int i : kept)
+            out.writeInt((int) counts.keys[i]);
+        for (int i : kept)
+            out.writeFloat(counts.counts[i]);
+        for (int r = 0; r < nRows; r++) {
+            double sumSq = 0;
+            for (int j = rowPtr[r]; j < rowPtr[r + 1]; j++)
+                sumSq += (double) counts.counts[kept[j]] * counts.counts[kept[j]];
+            out.writeFloat((float) Math.sqrt(sumSq));
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        List<byte[]> bytes = new ArrayList<>(strings.size());
+        int offset = 0;
+        out.writeInt(0);
+        for (String s : strings) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            bytes.add(b);
+            offset += b.length;
+            out.writeInt(offset);
+        }
+        for (byte[] b : bytes)
+            out.write(b);
+    }
+
+    /**
+     * Counts of (row, col) pairs. Pairs are appended to a buffer, and each time it fills up it is sorted and run-length encoded into
+     * a run, which is kept as is. merge() then combines the runs of any number of PairCounts in a single k-way merge into sorted unique
+     * keys (row in the high 32 bits, col in the low) with parallel counts, so each count is copied a fixed number of times,
+     * however many runs there are.
+     */
+    static class PairCounts {
+        private static final int BUFFER_SIZE = 1 << 20;
+
+        // the merged counts, set by merge()
+        long[] keys = new long[0];
+        int[] counts = new int[0];
+        int size;
+
+        private final List<long[]> runKeys = new ArrayList<>();
+        private final List<int[]> runCounts = new ArrayList<>();
+        private long[] buffer;
+        private int nBuffered;
+
+        void add(int row, int col) {
+            if (buffer == null)
+                buffer = new long[BUFFER_SIZE];
+            if (nBuffered == buffer.length)
+                flush();
+            buffer[nBuffered++] = ((long) row << 32) | (col & 0xffffffffL);
+        }
+
+        /** sorts and run-length encodes the buffered pairs into a new run */
+        void flush() {
+            if (nBuffered == 0)
+                return;
+            Arrays.sort(buffer, 0, nBuffered);
+            int n = 0;
+            for (int i = 0; i < nBuffered; i++)
+                if (i == 0 || buffer[i] != buffer[i - 1])
+                    n++;
+            long[] k = new long[n];
+            int[] c = new int[n];
+            n = 0;
+            for (int i = 0; i < nBuffered; i++) {
+                if (n > 0 && k[n - 1] == buffer[i])
+                    c[n - 1]++;
+                else {
+                    k[n] = buffer[i];
+                    c[n++] = 1;
+                }
+            }
+            runKeys.add(k);
+            runCounts.add(c);
+            nBuffered = 0;
+        }
+
+        /** merges the runs of all the given (flushed) parts, which are emptied, with a heap over the next key of each run */
+        static PairCounts merge(List<PairCounts> parts) {
+            List<long[]> keyList = new ArrayList<>();
+            List<int[]> countList = new ArrayList<>();
+            for (PairCounts part : parts) {
+                keyList.addAll(part.runKeys);
+                countList.addAll(part.runCounts);
+                part.runKeys.clear();
+                part.runCounts.clear();
+                part.buffer = null;
+            }
+            long[][] runKeys = keyList.toArray(new long[0][]);
+            int[][] runCounts = countList.toArray(new int[0][]);
+            int nRuns = runKeys.length;
+            long total = 0;
+            for (long[] k : runKeys)
+                total += k.length;
+            if (total > Integer.MAX_VALUE - 8)
+                throw new IllegalStateException("Too many distinct pairs to count: " + total);
+
+            int[] pos = new int[nRuns];
+            int[] heap = new int[nRuns];
+            int heapSize = 0;
+            for (int r = 0; r < nRuns; r++)
+                if (runKeys[r].length > 0)
+                    heap[heapSize++] = r;
+            for (int i = heapSize / 2 - 1; i >= 0; i--)
+                siftDown(heap, heapSize, i, runKeys, pos);
+
+            PairCounts result = new PairCounts();
+            result.keys = new long[(int) total];
+            result.counts = new int[(int) total];
+            int n = 0;
+            while (heapSize > 0) {
+                int r = heap[0];
+                long key = runKeys[r][pos[r]];
+                int count = runCounts[r][pos[r]++];
+                if (n > 0 && result.keys[n - 1] == key)
+                    result.counts[n - 1] += count;
+                else {
+                    result.keys[n] = key;
+                    result.counts[n++] = count;
+                }
+                if (pos[r] == runKeys[r].length) {
+                    // run exhausted, let it go
+                    runKeys[r] = null;
+                    runCounts[r] = null;
+                    heap[0] = heap[--heapSize];
+                }
+                siftDown(heap, heapSize, 0, runKeys, pos);
+            }
+            if (n < total) {
+                result.keys = Arrays.copyOf(result.keys, n);
+                result.counts = Arrays.copyOf(result.counts, n);
+            }
+            result.size = n;
+            return result;
+        }
+
+        private static void siftDown(int[] heap, int heapSize, int i, long[][] runKeys, int[] pos) {
+            while (true) {
+                int smallest = i, left = 2 * i + 1, right = left + 1;
+                if (left < heapSize && runKeys[heap[left]][pos[heap[left]]] < runKeys[heap[smallest]][pos[heap[smallest]]])
+                    smallest = left;
+                if (right < heapSize && runKeys[heap[right]][pos[heap[right]]] < runKeys[heap[smallest]][pos[heap[smallest]]])
+                    smallest = right;
+                if (smallest == i)
+                    return;
+                int tmp = heap[i];
+                heap[i] = heap[smallest];
+                heap[smallest] = tmp;
+                i = smallest;
+            }
+        }
+    }
+}
@@ -46,6 +46,8 @@ public class Entity extends EntityFeature {
 	int							cifreq				= 0;
 
 	private static final String				ENTITIES			= "entities";
+	private static final String				EAS					= "emailAddresses";
+	private static final String				CES					= "cooccurringEntities";
 	private static final Set<String>			sws					= new HashSet<>();
 	private static final EnglishAnalyzer		en_an				= new EnglishAnalyzer(new CharArraySet(Arrays.asList(edu.stanford.muse.util.Util.stopwords),true));
 	static QueryParser			parser				= new QueryParser("some_field", en_an);
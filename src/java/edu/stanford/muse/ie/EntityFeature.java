@@ -4,11 +4,9 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.*;
 
 import edu.stanford.muse.index.ArchiveReaderWriter;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import edu.stanford.muse.Config;
 import edu.stanford.muse.email.StatusProvider;
 import edu.stanford.muse.index.Archive;
@@ -19,7 +17,6 @@ import edu.stanford.muse.util.JSONUtils;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Span;
 import edu.stanford.muse.webapp.JSPHelper;
-import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 //import org.apache.commons.logging.Log;
@@ -29,6 +26,7 @@ import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
@@ -46,6 +44,9 @@ public class EntityFeature implements StatusProvider, Serializable {
 	 * Feature class to store co-occurring entities and (co-)occurring email
 	 * addresses for an entity. This is required for expandname.jsp and
 	 * sortsources.jsp.
+	 * The features of the entities in the archive are in a CooccurrenceStore next to the features index, and the index
+	 * only has the name, type and prior of each entity and its row in the store.
+	 * cooccuringEntities and emailAddresses are only filled in for features built in memory (see Entity).
 	 */
 
 	private static final long	serialVersionUID	= 1L;
@@ -56,6 +57,9 @@ public class EntityFeature implements StatusProvider, Serializable {
 
 	double				priorProbablity		= 0.0;
 	int					freq				= 0;
+	// row of this entity in the co-occurrence store it was read with, -1 if not read from the index
+	int					id					= -1;
+	private transient CooccurrenceStore	store;
 	//acronyms may overlap with ORG or PLACE acronyms are all capital letters
 	private static final short			PERSON				= 0;
     private static final short ORG = 1;
@@ -66,17 +70,19 @@ public class EntityFeature implements StatusProvider, Serializable {
 	private static final String		ID					= "id";
     private static final String TID = "tid";
     static final String NAME = "name";
-    static final String EAS = "emailAddresses";
-    static final String CES = "cooccurringEntities";
     static final String TYPE = "type";
     static final String PP = "priorProbablity";
+    private static final String EID = "eid";
 
-	private boolean						cancel				= false;
+    private static final int DOCS_PER_TASK = 1000;
+
+	private volatile boolean			cancel				= false;
 	private String						status;
 	private double						pctComplete			= 0.0;
 
 	private static IndexReader			reader				= null;
 	private static IndexSearcher		searcher			= null;
+	private static CooccurrenceStore	cooccurrenceStore	= null;
 
     private static final Logger log						= LogManager.getLogger(EntityFeature.class);
 
@@ -87,71 +93,60 @@ public class EntityFeature implements StatusProvider, Serializable {
     EntityFeature() {
 	}
 
-	private EntityFeature(String name, short type) {
+	private EntityFeature(String name, short type, int id, double priorProbablity) {
 		this.name = name;
-		this.cooccuringEntities = new HashMap<>();
-		this.emailAddresses = new HashMap<>();
 		this.type = type;
+		this.id = id;
+		this.priorProbablity = priorProbablity;
 	}
 
-	private EntityFeature(Document doc) {
+	private EntityFeature(Document doc, CooccurrenceStore store) {
 		name = doc.get(NAME);
 		try {
 			type = Short.parseShort(doc.get(TYPE));
-			priorProbablity = Double.parseDouble(doc.get(PP));
-		} catch (Exception e) {
-			System.err.println("Couldn't parse type:" + doc.get(TYPE) + ", pp: " + doc.get(PP));
-			e.printStackTrace();
-		}
-		Gson gson = new Gson();
-		String ce = doc.get(CES);
-		String ea = doc.get(EAS);
-		java.lang.reflect.Type mapT = new TypeToken<Map<String, Integer>>() {
-		}.getType();
-		try {
-			this.cooccuringEntities = gson.fromJson(ce, mapT);
-			this.emailAddresses = gson.fromJson(ea, mapT);
 		} catch (Exception e) {
+			System.err.println("Couldn't parse type:" + doc.get(TYPE));
 			e.printStackTrace();
-			log.warn("Parsing emailaddresses: " + ea);
-			log.warn("Parsing ce's: " + ce);
-			log.warn("Exception while reading: context back for id: " + doc.get(ID));
 		}
-	}
-
-	private void addCE(String entity) {
-		if (this.cooccuringEntities.size() >= Config.MAX_ENTITY_FEATURES)
-			return;
-		entity = StringEscapeUtils.escapeJava(entity);
-		if (!this.cooccuringEntities.containsKey(entity))
-			this.cooccuringEntities.put(entity, 0);
-		this.cooccuringEntities.put(entity, this.cooccuringEntities.get(entity) + 1);
-	}
-
-	private void addEA(String address) {
-		if (this.emailAddresses.size() >= Config.MAX_ENTITY_FEATURES)
-			return;
-		address = StringEscapeUtils.escapeJava(address);
-		if (!this.emailAddresses.containsKey(address))
-			this.emailAddresses.put(address, 0);
-		this.emailAddresses.put(address, this.emailAddresses.get(address) + 1);
+		IndexableField eid = doc.getField(EID);
+		if (eid != null) {
+			this.id = eid.numericValue().intValue();
+			this.store = store;
+			this.freq = store.freq(id);
+			this.priorProbablity = store.prior(id);
+		} else
+			log.warn("No features for: " + doc.get(ID) + ", the features index needs to be rebuilt");
 	}
 
 	/**
-	 * Should be called once per document
+	 * ids in store of the co-occurring entities (m = CooccurrenceStore.CE) or the email addresses (m = CooccurrenceStore.EA)
+	 * of this feature, sorted.
 	 */
-    private void accountForThis() {
-		this.freq++;
+	private int[] featureIds(CooccurrenceStore store, int m) {
+		if (id >= 0 && this.store == store)
+			return store.cols(m, id);
+		Map<String, Integer> features = (m == CooccurrenceStore.CE) ? cooccuringEntities : emailAddresses;
+		if (features == null)
+			return new int[0];
+		return features.keySet().stream()
+				.mapToInt(s -> (m == CooccurrenceStore.CE) ? store.entityId(s) : store.addressId(s))
+				.filter(i -> i >= 0).sorted().distinct().toArray();
 	}
 
-	private void addAllCE(Collection<String> entities) {
-		for (String entity : entities)
-			addCE(entity);
-	}
-
-	private void addAllEA(Collection<String> addresses) {
-		for (String address : addresses)
-			addEA(address);
+	private static int countCommon(int[] a, int[] b) {
+		int i = 0, j = 0, n = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else {
+				n++;
+				i++;
+				j++;
+			}
+		}
+		return n;
 	}
 
 	//TODO: this method is not complete, dont use
@@ -161,14 +156,17 @@ public class EntityFeature implements StatusProvider, Serializable {
 		// csore is based on cooccuring entities and escore is based on email
 		// addresses.
 		double cScore = 0, eScore = 0;
-		Set<String> targetCEs = ef.cooccuringEntities.keySet(), targetEAs = ef.emailAddresses.keySet();
-		for (String targetCE : targetCEs) {
-			if (this.cooccuringEntities.keySet().contains(targetCE))
-				cScore++;
-		}
-		for (String targetEA : targetEAs) {
-			if (this.emailAddresses.keySet().contains(targetEA))
-				eScore++;
+		CooccurrenceStore s = (store != null) ? store : ef.store;
+		if (s != null) {
+			cScore = countCommon(featureIds(s, CooccurrenceStore.CE), ef.featureIds(s, CooccurrenceStore.CE));
+			eScore = countCommon(featureIds(s, CooccurrenceStore.EA), ef.featureIds(s, CooccurrenceStore.EA));
+		} else {
+			for (String targetCE : ef.cooccuringEntities.keySet())
+				if (this.cooccuringEntities.containsKey(targetCE))
+					cScore++;
+			for (String targetEA : ef.emailAddresses.keySet())
+				if (this.emailAddresses.containsKey(targetEA))
+					eScore++;
 		}
 		return (cScore * 0.5 + eScore * 0.5);
 	}
@@ -180,21 +178,32 @@ public class EntityFeature implements StatusProvider, Serializable {
             efts = EntityFeature.getMatches(name.toLowerCase(),archive);
         else
             efts = EntityFeature.getAbbreviations(name.toLowerCase(),archive);
-        JSPHelper.log.info("Found expansions: "+efts.size()+" for "+name);
 
-        Set<String> ownAddr = archive.addressBook.getOwnAddrs();
         if(efts == null){
             JSPHelper.log.warn("Matching efs for: " + name + " are null.");
 //            result.put("result", "Never seen this name before");
 //            response.getWriter().write(result.toString(4));
             return null;
         }
+        JSPHelper.log.info("Found expansions: "+efts.size()+" for "+name);
+
+        CooccurrenceStore store;
+        try {
+            store = getCooccurrenceStore(archive);
+        } catch (IOException e) {
+            edu.stanford.muse.util.Util.print_exception("Unable to read the entity features of " + archive.baseDir, e, log);
+            return null;
+        }
+        // features of this entity, looked up once. own addresses do not say anything about the entity, so they are not scored
+        int[] ownCEs = featureIds(store, CooccurrenceStore.CE);
+        Set<Integer> ownAddrIds = new HashSet<>();
+        for (String addr : archive.addressBook.getOwnAddrs())
+            ownAddrIds.add(store.addressId(addr));
+        int[] ownEAs = Arrays.stream(featureIds(store, CooccurrenceStore.EA)).filter(ea -> !ownAddrIds.contains(ea)).toArray();
+
         for (EntityFeature eft : efts) {
-            Map<String, Integer> targetCE = eft.cooccuringEntities;
-            Map<String, Integer> targetEA = eft.emailAddresses;
             double cScore, eScore;
 
-
             if(type != EntityFeature.ACRONYM){
                 if (!eft.name.toLowerCase().matches(".*\\b" + name.toLowerCase() + "\\b.*")) {
                     scoresU.put(eft, 0.0);
@@ -214,37 +223,27 @@ public class EntityFeature implements StatusProvider, Serializable {
                 scoresU.put(eft, 0.0);
                 continue;
             }
+            if (eft.id < 0)
+                continue;
 
             cScore = 0;
             eScore = 0;
-            double targetEAMod = 0, targetCEMod = 0;
-            for (String ea : targetEA.keySet())
-                targetEAMod += Math.pow(targetEA.get(ea), 2);
-            for (String ce : targetCE.keySet())
-                targetCEMod += Math.pow(targetCE.get(ce), 2);
-            targetEAMod = Math.sqrt(targetEAMod);
-            targetCEMod = Math.sqrt(targetCEMod);
-
-            for (String ea : this.emailAddresses.keySet()) {
-                if (targetEA.containsKey(ea)) {
-                    if ((targetEA.get(ea) > 0)&&(!ownAddr.contains(ea))){
-                        if(JSPHelper.log.isDebugEnabled())
-                            JSPHelper.log.debug("Scoring with ea: "+ea);
-                        eScore += targetEA.get(ea);
-                    }
+            for (int ea : ownEAs) {
+                float w = store.get(CooccurrenceStore.EA, eft.id, ea);
+                if (w > 0) {
+                    if(JSPHelper.log.isDebugEnabled())
+                        JSPHelper.log.debug("Scoring with ea: "+store.address(ea));
+                    eScore += w;
                 }
             }
 
-            for (String ce : this.cooccuringEntities.keySet()) {
-                if (targetCE.containsKey(ce)) {
-                    if (targetCE.get(ce) > 0){
-                        EntityFeature efce = EntityFeature.getExactMatches(ce,archive);
-                        cScore += (targetCE.get(ce) / efce.priorProbablity);
-                    }
-                }
+            for (int ce : ownCEs) {
+                float w = store.get(CooccurrenceStore.CE, eft.id, ce);
+                if (w > 0)
+                    cScore += (w / store.prior(ce));
             }
-            cScore /= (targetCEMod);
-            eScore /= (targetEAMod);
+            cScore /= store.norm(CooccurrenceStore.CE, eft.id);
+            eScore /= store.norm(CooccurrenceStore.EA, eft.id);
 
             // csore is based on cooccuring entities and escore is based on email
             // addresses.
@@ -284,15 +283,9 @@ public class EntityFeature implements StatusProvider, Serializable {
 		probF = new StringField(PP, this.priorProbablity + "", Field.Store.YES);
 		doc.add(probF);
 
-		Gson gson = new Gson();
-		if (this.cooccuringEntities != null) {
-			String cEs = gson.toJson(this.cooccuringEntities);
-			doc.add(new StringField(CES, cEs, Field.Store.YES));
-		}
-		if (this.emailAddresses != null) {
-			String eAs = gson.toJson(this.emailAddresses);
-			doc.add(new StringField(EAS, eAs, Field.Store.YES));
-		}
+		// the features themselves are in the co-occurrence store
+		if (id >= 0)
+			doc.add(new StoredField(EID, id));
 		return doc;
 	}
 
@@ -304,12 +297,17 @@ public class EntityFeature implements StatusProvider, Serializable {
 			if (!f.delete())
 				log.warn ("Warning, delete failed: " + f.getAbsolutePath());
 		}
+		File cf = getCooccurrenceFile(archive);
+		dropCooccurrenceStore();
+		if (cf.exists() && !cf.delete())
+			log.warn ("Warning, delete failed: " + cf.getAbsolutePath());
 	}
 
 	/**
+	 * indexes the given entities, the id of each is its position in the list
 	 * @return true if successful
 	 */
-    private boolean index(Map<String, EntityFeature> features, Archive archive) {
+    private boolean index(List<String> entities, List<Short> types, CooccurrenceStore store, Archive archive) {
 		IndexWriter w = null;
 		try {
 			String iDir = getFeaturesDir(archive);
@@ -326,13 +324,13 @@ public class EntityFeature implements StatusProvider, Serializable {
 			return false;
 		}
 
-		int c = 0;
-		for (String key : features.keySet()) {
+		for (int c = 0; c < entities.size(); c++) {
 			if (cancel) {
 				clean(archive);
 				return false;
 			}
-			EntityFeature ef = features.get(key);
+			String key = entities.get(c);
+			EntityFeature ef = new EntityFeature(key, types.get(c), c, store.prior(c));
 			try {
 				Document doc = ef.getIndexerDoc();
 				doc.add(new StringField(ID, key, Field.Store.YES));
@@ -340,11 +338,10 @@ public class EntityFeature implements StatusProvider, Serializable {
 				doc.add(new TextField(TID, key, Field.Store.YES));
 				w.addDocument(doc);
 				if (c % 1000 == 0) {
-					JSPHelper.log.info("Extracted and wrote doc for: " + c + " of " + features.keySet().size());
-					status = "Indexed " + c + "/" + features.size() + " mixtures";
-					pctComplete = ((double) c * 50) / ((double) features.size()) + 50;
+					JSPHelper.log.info("Extracted and wrote doc for: " + c + " of " + entities.size());
+					status = "Indexed " + c + "/" + entities.size() + " mixtures";
+					pctComplete = ((double) c * 50) / ((double) entities.size()) + 50;
 				}
-				c++;
 			} catch (Exception e) {
 				log.warn("Exception while writing/closing (to) index");
 				e.printStackTrace();
@@ -365,6 +362,26 @@ public class EntityFeature implements StatusProvider, Serializable {
 		return archive.baseDir + File.separator + Config.FEATURES_INDEX;
 	}
 
+	private static File getCooccurrenceFile(Archive archive) {
+		return new File(getFeaturesDir(archive) + ".cooccurrence");
+	}
+
+	/**
+	 * lets go of the open co-occurrence store before its file is replaced or deleted. the mapping is only released when the store is
+	 * garbage collected, so where a mapped file cannot be replaced (Windows), a rebuild right after a lookup can still fail.
+	 */
+	private static synchronized void dropCooccurrenceStore() {
+		cooccurrenceStore = null;
+	}
+
+	/** the co-occurrence store of the archive, opened again if it has been rebuilt */
+	private static synchronized CooccurrenceStore getCooccurrenceStore(Archive archive) throws IOException {
+		File f = getCooccurrenceFile(archive);
+		if (cooccurrenceStore == null || !cooccurrenceStore.isCurrent(f))
+			cooccurrenceStore = CooccurrenceStore.open(f);
+		return cooccurrenceStore;
+	}
+
 	/**
 	 * @return true if feature index exists, false otherwise. Does not actually
 	 *         index.
@@ -372,170 +389,158 @@ public class EntityFeature implements StatusProvider, Serializable {
 	public static boolean indexExists(Archive archive) {
 		String iDir = getFeaturesDir(archive);
 		File f = new File(iDir);
-		return f.exists();
+		// an index from before the co-occurrence store has no features, and has to be rebuilt
+		return f.exists() && getCooccurrenceFile(archive).exists();
 	}
 
 	public boolean checkIndex(Archive archive) {
 		return checkIndex(archive, false);
 	}
 
+	/** canonical names in the doc -> type, and the addresses in its header. the type of a name is the last one it is seen with here */
+	private static Pair<Map<String, Short>, List<String>> getNamesAndAddresses(Archive archive, EmailDocument ed) {
+		Map<String, Short> goodNames = new LinkedHashMap<>();
+		List<String> addresses = ed.getAllAddrs();
+		if (addresses == null)
+			addresses = new ArrayList<>();
+
+		List<Span> names;
+		try {
+			names = Arrays.asList(archive.getAllNamesInDoc(ed, true));
+		} catch (IOException ioe) {
+			log.error("Problem accessing entities in " + ed.getUniqueId(), ioe);
+			return new Pair<>(goodNames, new ArrayList<>());
+		}
+
+		List<String> correspondents = ed.getAllNames();
+		if (correspondents != null)
+			for (String c : correspondents) {
+				if (c != null && c.contains(" ")) {
+					String n = IndexUtils.canonicalizeEntity(c);//EmailUtils.normalizePersonNameForLookup(c);
+					goodNames.put(n, PERSON);
+				}
+			}
+
+		for (Span n : names) {
+			String canonicalEntity = IndexUtils.canonicalizeEntity(n.text);
+			if (canonicalEntity == null)
+				continue;
+			if (n.type == NEType.Type.PERSON.getCode() && n.text.contains(" "))
+				goodNames.put(canonicalEntity, PERSON);
+		}
+		for (Span n : names) {
+			String canonicalEntity = IndexUtils.canonicalizeEntity(n.text);
+			if (canonicalEntity != null && n.type == NEType.Type.ORGANISATION.getCode())
+				goodNames.put(canonicalEntity, ORG);
+		}
+		for (Span n : names) {
+			String canonicalEntity = IndexUtils.canonicalizeEntity(n.text);
+			if (canonicalEntity != null && n.type == NEType.Type.PLACE.getCode())
+				goodNames.put(canonicalEntity, PLACE);
+		}
+		return new Pair<>(goodNames, addresses);
+	}
+
 	/**
 	 * @arg2 force creation of index irrespective of previous existence of the
 	 *       index.
 	 *       Checks and creates index if required.
+	 * The names in the docs are read in parallel, entity and address ids are given out in doc order, and the co-occurrences are
+	 * counted in parallel into the CooccurrenceStore, which does not depend on the number of threads.
 	 * @return true if successful
 	 */
     private boolean checkIndex(Archive archive, boolean force) {
-		Boolean exists = indexExists(archive);
-		int c1 = 0, c2 = 0, c3 = 0;
-		int g1 = 0, g2 = 0, g3 = 0;
-		int f1 = 0, f2 = 0, f3 = 0;
-		boolean istatus = true;
-		if (force || (!exists)) {
-			Map<String, EntityFeature> features = new HashMap<>();
-			Collection<EmailDocument> docs = (Collection) archive.getAllDocs();
-			int totalEntities = 0;
-			log.info("No feature index found..., starting to process and index. This can take a while.");
-			int di = 0;
-			for (EmailDocument ed : docs) {
-				if (cancel) {
-					clean(archive);
-					return false;
-				}
-
-				if (di % 1000 == 0) {
-					JSPHelper.log.info("Done analysing documents: " + di + " of: " + docs.size());
-					status = "Analyzed " + di + "/" + docs.size() + " email documents";
-					pctComplete = ((double) di * 50) / (double) docs.size();
-				}
-				di++;
+		if (!force && indexExists(archive))
+			return true;
 
-                List<Span> names;
-                try {
-                    names = Arrays.asList(archive.getAllNamesInDoc(ed, true));
-                }catch (IOException ioe){
-                    log.error("Problem accessing entities in "+ed.getUniqueId(), ioe);
-                    continue;
-                }
-                List<String> entities = names.stream()
-                        .filter(n -> n.type == NEType.Type.PERSON.getCode())
-                        .map(n -> n.text).collect(Collectors.toList());
-                List<String> places = names.stream()
-                        .filter(n-> n.type == NEType.Type.PLACE.getCode())
-                        .map(n -> n.text).collect(Collectors.toList());
-                List<String> orgs = names.stream()
-                        .filter(n-> n.type == NEType.Type.ORGANISATION.getCode())
-                        .map(n -> n.text).collect(Collectors.toList());
-				if (entities != null)
-					c1 += entities.size();
-				if (orgs != null)
-					c2 += orgs.size();
-				if (places != null)
-					c3 += places.size();
-
-				Map<String, String> goodNames = new HashMap<>();
-
-				List<String> correspondents = ed.getAllNames();
-				List<String> addresses = ed.getAllAddrs();
-				if (correspondents != null)
-					for (String c : correspondents) {
-						if (c != null && c.contains(" ")) {
-							String n = IndexUtils.canonicalizeEntity(c);//EmailUtils.normalizePersonNameForLookup(c);
-							goodNames.put(n, "person");
-						}
-					}
+		List<EmailDocument> docs = new ArrayList<>((Collection) archive.getAllDocs());
+		log.info("No feature index found..., starting to process and index. This can take a while.");
+		int nThreads = Runtime.getRuntime().availableProcessors();
 
-				for (String e : entities) {
-					if (e != null && e.contains(" ")) {
-						String canonicalEntity = IndexUtils.canonicalizeEntity(e);
-						if (canonicalEntity == null)
-							continue;
+		// ids are given out in the order of first occurrence, the type of an entity is the one it first has
+		Map<String, Integer> entityIds = new HashMap<>(), addressIds = new HashMap<>();
+		List<String> entities = new ArrayList<>(), addresses = new ArrayList<>();
+		List<Short> types = new ArrayList<>();
+		List<int[]> docEntities = new ArrayList<>(docs.size()), docAddresses = new ArrayList<>(docs.size());
 
-						goodNames.put(canonicalEntity, "person");
-						g1++;
+		ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+		try {
+			List<Future<List<Pair<Map<String, Short>, List<String>>>>> futures = new ArrayList<>();
+			for (int start = 0; start < docs.size(); start += DOCS_PER_TASK) {
+				List<EmailDocument> batch = docs.subList(start, Math.min(docs.size(), start + DOCS_PER_TASK));
+				futures.add(pool.submit(() -> {
+					List<Pair<Map<String, Short>, List<String>>> result = new ArrayList<>(batch.size());
+					for (EmailDocument ed : batch) {
+						if (cancel)
+							break;
+						result.add(getNamesAndAddresses(archive, ed));
 					}
-				}
-
-				for (String o : orgs) {
-					String canonicalEntity = IndexUtils.canonicalizeEntity(o);
-					if (canonicalEntity == null)
-						continue;
-
-					goodNames.put(canonicalEntity, "org");
-					g2++;
-				}
-
-				for (String p : places) {
-					String canonicalEntity = IndexUtils.canonicalizeEntity(p);
-					if (canonicalEntity == null)
-						continue;
-					goodNames.put(canonicalEntity, "places");
-					g3++;
-				}
+					return result;
+				}));
+			}
 
-				// O(goodNames.size())
-				for (String gn : goodNames.keySet()) {
-					if (features.get(gn) == null) {
-						if (goodNames.get(gn).equals("person")) {
-							features.put(gn, new EntityFeature(gn, EntityFeature.PERSON));
-							f1++;
-						}
-						else if (goodNames.get(gn).equals("org")) {
-							features.put(gn, new EntityFeature(gn, EntityFeature.ORG));
-							f2++;
+			int di = 0;
+			for (Future<List<Pair<Map<String, Short>, List<String>>>> f : futures) {
+				for (Pair<Map<String, Short>, List<String>> p : f.get()) {
+					int[] ents = new int[p.getFirst().size()];
+					int i = 0;
+					for (Map.Entry<String, Short> e : p.getFirst().entrySet()) {
+						Integer id = entityIds.get(e.getKey());
+						if (id == null) {
+							id = entities.size();
+							entityIds.put(e.getKey(), id);
+							entities.add(e.getKey());
+							types.add(e.getValue());
 						}
-						else if (goodNames.get(gn).equals("places")) {
-							features.put(gn, new EntityFeature(gn, EntityFeature.PLACE));
-							f3++;
+						ents[i++] = id;
+					}
+					int[] addrs = new int[p.getSecond().size()];
+					i = 0;
+					for (String a : p.getSecond()) {
+						Integer id = addressIds.get(a);
+						if (id == null) {
+							id = addresses.size();
+							addressIds.put(a, id);
+							addresses.add(a);
 						}
+						addrs[i++] = id;
 					}
-					features.get(gn).accountForThis();
-					features.get(gn).addAllCE(goodNames.keySet());
-					if (addresses != null)
-						features.get(gn).addAllEA(addresses);
-
-					features.get(gn).priorProbablity = features.get(gn).priorProbablity + 1.0;
-					totalEntities++;
+					docEntities.add(ents);
+					docAddresses.add(addrs);
 				}
+				if (cancel) {
+					clean(archive);
+					return false;
+				}
+				di += DOCS_PER_TASK;
+				JSPHelper.log.info("Done analysing documents: " + Math.min(di, docs.size()) + " of: " + docs.size());
+				status = "Analyzed " + Math.min(di, docs.size()) + "/" + docs.size() + " email documents";
+				pctComplete = ((double) Math.min(di, docs.size()) * 40) / (double) docs.size();
 			}
-			log.info("Found: " + c1 + " entities, " + c2 + " orgs and " + c3 + " places");
-			log.info("Gn: " + g1 + " entities, " + g2 + " orgs and " + g3 + " places");
-			log.info("Found goodfeatures: " + f1 + " entities, " + f2 + " orgs and " + f3 + " places");
-			for (String key : features.keySet())
-				features.get(key).priorProbablity = features.get(key).priorProbablity / (double) totalEntities;
-			log.info("Done analysing docs. Starting to index.");
-			istatus = index(features, archive);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			edu.stanford.muse.util.Util.print_exception("Error analysing documents for entity features", e.getCause(), log);
+			return false;
+		} finally {
+			pool.shutdownNow();
 		}
-		return istatus;
-	}
-
-	private static EntityFeature getExactMatches(String name, Archive archive) {
-		String iDir = getFeaturesDir(archive);
-		if (searcher == null || reader == null)
-			try {
-				reader = DirectoryReader.open(FSDirectory.open(new File(iDir).toPath()));
-				searcher = new IndexSearcher(reader);
-			} catch (Exception e) {
-				e.printStackTrace();
-			}
+		log.info("Found " + entities.size() + " entities and " + addresses.size() + " addresses in " + docs.size() + " docs");
 
+		status = "Counting co-occurrences";
+		pctComplete = 40;
+		CooccurrenceStore store;
 		try {
-			TermQuery q = new TermQuery(new Term(ID, name));
-			TopDocs td = searcher.search(q, 10);
-			if (td.scoreDocs.length > 1)
-                log.warn("Warn: There are more than one record with name:" + name);
-			if (td.scoreDocs.length > 0) {
-				ScoreDoc sd = td.scoreDocs[0];
-				return new EntityFeature(searcher.doc(sd.doc));
-			} else {
-				log.warn("Cannot find: " + name);
-				return null;
-			}
+			dropCooccurrenceStore();
+			CooccurrenceStore.build(getCooccurrenceFile(archive), entities, addresses, docEntities, docAddresses, Config.MAX_ENTITY_FEATURES, nThreads);
+			store = getCooccurrenceStore(archive);
 		} catch (IOException e) {
-			log.warn("Couldn't find/read index files.");
-			e.printStackTrace();
-			return null;
+			edu.stanford.muse.util.Util.print_exception("Error writing the co-occurrences of entities", e, log);
+			return false;
 		}
+		log.info("Done analysing docs. Starting to index.");
+		return index(entities, types, store, archive);
 	}
 
 	/** Not exact matches */
@@ -559,6 +564,7 @@ public class EntityFeature implements StatusProvider, Serializable {
 		try {
 			reader = DirectoryReader.open(FSDirectory.open(new File(iDir).toPath()));
 			searcher = new IndexSearcher(reader);
+			CooccurrenceStore store = getCooccurrenceStore(archive);
 			BooleanQuery.Builder internal = new BooleanQuery.Builder();
 			String[] names = name.split("\\s+");
 			CharArraySet stopWords = StopAnalyzer.ENGLISH_STOP_WORDS_SET;
@@ -573,7 +579,7 @@ public class EntityFeature implements StatusProvider, Serializable {
 			}
 			TopDocs td = searcher.search(internal.build(), Integer.MAX_VALUE);
 			for (ScoreDoc sd : td.scoreDocs) {
-				efs.add(new EntityFeature(searcher.doc(sd.doc)));
+				efs.add(new EntityFeature(searcher.doc(sd.doc), store));
 			}
 			return efs;
 		} catch (IOException e) {
@@ -613,6 +619,7 @@ public class EntityFeature implements StatusProvider, Serializable {
 		try {
 			reader = DirectoryReader.open(FSDirectory.open(new File(iDir).toPath()));
 			searcher = new IndexSearcher(reader);
+			CooccurrenceStore store = getCooccurrenceStore(archive);
 			String word = "[a-zA-Z0-9]", nonword = "[^a-zA-Z0-9]";
 			for (int i = 0; i < name.length(); i++) {
 				char ch = name.charAt(i);
@@ -627,7 +634,7 @@ public class EntityFeature implements StatusProvider, Serializable {
 
 			log.info("returned: " + td.scoreDocs.length);
 			for (ScoreDoc sd : td.scoreDocs) {
-				efs.add(new EntityFeature(searcher.doc(sd.doc)));
+				efs.add(new EntityFeature(searcher.doc(sd.doc), store));
 			}
 			return efs;
 		} catch (IOException e) {
@@ -649,8 +656,17 @@ public class EntityFeature implements StatusProvider, Serializable {
 		Set<EntityFeature> efts = EntityFeature.getMatches("florida", archive); //getAbbreviations("HPC", archive);
 		long end_time = System.currentTimeMillis();
 		System.err.println("Query completed in: " + (end_time - start_time));
-		for (EntityFeature eft : efts)
-            System.err.println(eft.cooccuringEntities.keySet());
+		try {
+			CooccurrenceStore store = getCooccurrenceStore(archive);
+			for (EntityFeature eft : efts) {
+				List<String> ces = new ArrayList<>();
+				for (int ce : eft.featureIds(store, CooccurrenceStore.CE))
+					ces.add(store.entityName(ce));
+				System.err.println(ces);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 
         try {
 
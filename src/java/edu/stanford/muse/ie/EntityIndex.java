@@ -0,0 +1,224 @@
+package edu.stanford.muse.ie;
+
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.DateIndex;
+import edu.stanford.muse.index.DatedDocument;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.ner.NER;
+import edu.stanford.muse.ner.model.NEType;
+import edu.stanford.muse.util.Span;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * In-memory index of the names in each doc of an archive, for resolving a name against the names around it without loading Lucene docs.
+ * Docs are numbered by their position in the archive's DateIndex, so the postings of a name (the docs it occurs in) are sorted by date,
+ * and the docs of a name in a date window are a slice of its postings found by binary search.
+ * For each doc it keeps the entities recognized in the body and in the subject (the NER.NAMES and NER.NAMES_TITLE fields)
+ * and the names of the people in the header. Each distinct name text is one entry, and is also indexed by each of its words and by its acronym.
+ * Built in one pass over the Lucene docs by Archive.getEntityIndex(), which rebuilds it when the docs or their names change.
+ * Immutable once built.
+ */
+public class EntityIndex {
+    private static final Logger log = LogManager.getLogger(EntityIndex.class);
+    private static final int[] EMPTY = new int[0];
+    private static final Set<String> FIELDS_TO_LOAD = new LinkedHashSet<>(Arrays.asList(NER.NAMES, NER.NAMES_TITLE));
+
+    private final DateIndex dateIndex;
+    // docs are identified by position in dateIndex. indexed by identity, since these are the archive's own doc objects
+    private final Map<Document, Integer> docToOrdinal = new IdentityHashMap<>();
+
+    // entity id -> the span it was first seen as. the type of a name is that of its first occurrence
+    private final List<Span> entities = new ArrayList<>();
+    private final Map<String, Integer> textToEntity = new HashMap<>();
+    // ordinal -> entity ids, in the order of the names in the doc
+    private final int[][] bodyEntities, titleEntities, headerEntities;
+    // entity id -> ordinals of the docs with the name in the body or header, ascending (i.e. by date)
+    private final int[][] postings;
+    private final Map<String, int[]> wordToEntities = new HashMap<>(), acronymToEntities = new HashMap<>();
+
+    /** where the index gets the names recognized in each doc from */
+    public interface NameSource {
+        /** returns {the names in the body, the names in the subject} of the doc */
+        Span[][] getNames(Document d);
+    }
+
+    /** indexes the names in the NER.NAMES and NER.NAMES_TITLE fields of the archive's Lucene docs */
+    public EntityIndex(Archive archive, DateIndex dateIndex) {
+        this(dateIndex, d -> {
+            org.apache.lucene.document.Document ldoc = null;
+            try {
+                ldoc = archive.getLuceneDoc(d.getUniqueId(), FIELDS_TO_LOAD);
+            } catch (IOException e) {
+                edu.stanford.muse.util.Util.print_exception("Failed to fetch lucene doc for doc id: " + d.getUniqueId(), e, log);
+            }
+            return new Span[][]{NER.getNames(ldoc, true), NER.getNames(ldoc, false)};
+        });
+    }
+
+    public EntityIndex(DateIndex dateIndex, NameSource nameSource) {
+        this.dateIndex = dateIndex;
+        int n = dateIndex.size();
+        bodyEntities = new int[n][];
+        titleEntities = new int[n][];
+        headerEntities = new int[n][];
+
+        List<IntList> postingLists = new ArrayList<>();
+        for (int ord = 0; ord < n; ord++) {
+            DatedDocument d = dateIndex.getDoc(ord);
+            docToOrdinal.put(d, ord);
+
+            Span[][] names = nameSource.getNames(d);
+            bodyEntities[ord] = ids(Arrays.asList(names[0]));
+            titleEntities[ord] = ids(Arrays.asList(names[1]));
+
+            List<Span> header = new ArrayList<>();
+            if (d instanceof EmailDocument)
+                for (String hp : ((EmailDocument) d).getAllNames()) {
+                    Span s = new Span(hp, -1, -1);
+                    s.setType(NEType.Type.PERSON.getCode(), 1.0f);
+                    header.add(s);
+                }
+            headerEntities[ord] = ids(header);
+
+            for (int[] ids : new int[][]{bodyEntities[ord], headerEntities[ord]})
+                for (int id : ids) {
+                    while (postingLists.size() <= id)
+                        postingLists.add(new IntList());
+                    postingLists.get(id).addIfNotLast(ord);
+                }
+        }
+
+        postings = new int[entities.size()][];
+        Map<String, IntList> wordLists = new HashMap<>(), acronymLists = new HashMap<>();
+        for (int id = 0; id < entities.size(); id++) {
+            postings[id] = id < postingLists.size() ? postingLists.get(id).toArray() : EMPTY;
+            String text = entities.get(id).text;
+            for (String word : new LinkedHashSet<>(Arrays.asList(text.split(" "))))
+                if (!word.isEmpty())
+                    wordLists.computeIfAbsent(word, k -> new IntList()).addIfNotLast(id);
+            acronymLists.computeIfAbsent(Util.getAcronym(text), k -> new IntList()).addIfNotLast(id);
+        }
+        wordLists.forEach((w, l) -> wordToEntities.put(w, l.toArray()));
+        acronymLists.forEach((a, l) -> acronymToEntities.put(a, l.toArray()));
+    }
+
+    /** ids of the given names, in order, without repeats */
+    private int[] ids(List<Span> names) {
+        IntList result = new IntList();
+        Set<Integer> seen = new HashSet<>();
+        for (Span s : names) {
+            if (s == null || s.text == null)
+                continue;
+            Integer id = textToEntity.get(s.text);
+            if (id == null) {
+                id = entities.size();
+                entities.add(s);
+                textToEntity.put(s.text, id);
+            }
+            if (seen.add(id))
+                result.add(id);
+        }
+        return result.toArray();
+    }
+
+    public DateIndex getDateIndex() {
+        return dateIndex;
+    }
+
+    public int getNEntities() {
+        return entities.size();
+    }
+
+    /**
+     * rough heap footprint, for CacheRegistry: the int arrays, plus about 150 bytes per name for its span, text and map entries,
+     * and 50 per doc for its entry in docToOrdinal
+     */
+    public long estimatedBytes() {
+        long ints = 0;
+        for (int[][] arrays : new int[][][]{bodyEntities, titleEntities, headerEntities, postings})
+            for (int[] a : arrays)
+                ints += 16 + (a == null ? 0 : a.length);
+        for (Map<String, int[]> map : Arrays.asList(wordToEntities, acronymToEntities))
+            for (int[] a : map.values())
+                ints += 16 + a.length;
+        return 4 * ints + 150L * entities.size() + 50L * docToOrdinal.size();
+    }
+
+    public Span getEntity(int id) {
+        return entities.get(id);
+    }
+
+    /** ids of the entities that have word as one of their (space separated) words */
+    public int[] getEntitiesWithWord(String word) {
+        return wordToEntities.getOrDefault(word, EMPTY);
+    }
+
+    /** ids of the entities whose acronym (see Util.getAcronym) is acronym */
+    public int[] getEntitiesWithAcronym(String acronym) {
+        return acronymToEntities.getOrDefault(acronym, EMPTY);
+    }
+
+    /** ordinals of the docs with the given entity in the body or header, and start <= date <= end. in date order */
+    public int[] getDocs(int entityId, Date start, Date end) {
+        int[] range = dateIndex.ordinalRange(start, end);
+        int[] p = postings[entityId];
+        int lo = lowerBound(p, range[0]), hi = lowerBound(p, range[1]);
+        return Arrays.copyOfRange(p, lo, hi);
+    }
+
+    private static int lowerBound(int[] a, int x) {
+        int i = Arrays.binarySearch(a, x);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    public EmailDocument getDoc(int ordinal) {
+        DatedDocument d = dateIndex.getDoc(ordinal);
+        return (d instanceof EmailDocument) ? (EmailDocument) d : null;
+    }
+
+    /** ids of the entities in the body of the doc, followed by those of the names in its header */
+    public int[] getBodyAndHeaderEntities(int ordinal) {
+        int[] body = bodyEntities[ordinal], header = headerEntities[ordinal];
+        int[] result = Arrays.copyOf(body, body.length + header.length);
+        System.arraycopy(header, 0, result, body.length, header.length);
+        return result;
+    }
+
+    /** same as NER.getNames(archive.getLuceneDoc(d), body), or null if d is not in the index (e.g. because it has no date) */
+    public Span[] getNamesInDoc(Document d, boolean body) {
+        Integer ord = docToOrdinal.get(d);
+        if (ord == null)
+            return null;
+        int[] ids = body ? bodyEntities[ord] : titleEntities[ord];
+        Span[] result = new Span[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            result[i] = entities.get(ids[i]);
+        return result;
+    }
+
+    /** growable int array */
+    private static class IntList {
+        int[] a = new int[4];
+        int size;
+
+        void add(int x) {
+            if (size == a.length)
+                a = Arrays.copyOf(a, 2 * size);
+            a[size++] = x;
+        }
+
+        void addIfNotLast(int x) {
+            if (size == 0 || a[size - 1] != x)
+                add(x);
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(a, size);
+        }
+    }
+}
@@ -2,6 +2,7 @@ package edu.stanford.muse.ie;
 
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
+import com.google.common.io.ByteStreams;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Util;
 import org.apache.logging.log4j.LogManager;
@@ -19,9 +20,14 @@ import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * This class takes a .fast nt file and converts it to a lucene index that can be searched for.
@@ -54,25 +60,186 @@ public class FASTIndexer {
     // <http://id.worldcat.org/fast/348231> <http://www.w3.org/2004/02/skos/core#prefLabel> "Obama, Barack" .
     // Note: it ends with space and period.
     private static final Pattern triplePattern = Pattern.compile("([^\\s]*)\\s+([^\\s]*)\\s+(.*) \\.");
-    private static IndexWriter indexWriter;
+
+    // the nt file is indexed in chunks of about this size, in parallel. each chunk is a unit of checkpointing
+    private static final long DEFAULT_CHUNK_BYTES = 64L * 1024 * 1024;
+    // indexed (not stored) with each doc, so that the docs of a chunk that was not finished can be removed when a build resumes
+    private static final String FIELD_NAME_CHUNK = "chunk";
+    // keys of the commit user data that record the progress of a build
+    private static final String COMMIT_SOURCE = "source", COMMIT_CHUNKS = "chunks", COMMIT_DONE_CHUNKS = "doneChunks", COMMIT_COMPLETE = "complete";
+
+    /** true if the commit with the given user data is a finished build, or an index built before builds were checkpointed. readers should not switch to other commits */
+    public static boolean isCompleteBuild(Map<String, String> commitUserData) {
+        return !commitUserData.containsKey(COMMIT_SOURCE) || "true".equals(commitUserData.get(COMMIT_COMPLETE));
+    }
 
     public static void index(String fastNTFile, String outputDir) throws IOException {
+        index(fastNTFile, outputDir, Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Indexes the nt file into outputDir. The file is split into chunks of about chunkBytes at entity boundaries, and the chunks are
+     * parsed on nThreads threads, all adding to one IndexWriter. The index is committed after each chunk, with the chunks done so far
+     * recorded in the commit, so if the build is interrupted, running it again on the same file resumes it: the docs of unfinished chunks are
+     * deleted and only those chunks are redone. The index is force merged to a single segment at the end.
+     */
+    public static void index(String fastNTFile, String outputDir, int nThreads, long chunkBytes) throws IOException {
 
         File outputFile = new File (outputDir);
         if (!outputFile.exists() && !outputFile.isFile()) {
             outputFile.mkdirs();
         }
 
+        File ntFile = new File(fastNTFile);
+        String source = ntFile.getAbsolutePath() + "|" + ntFile.length() + "|" + ntFile.lastModified() + "|" + chunkBytes;
 
         StandardAnalyzer analyzer = new StandardAnalyzer(new CharArraySet(new ArrayList<String>(), true /* ignore case */)); // empty chararrayset, so effectively no stop words
         Directory index = FSDirectory.open(new File(outputDir).toPath());
+
+        // see if there is an unfinished build of the same file to resume
+        Map<String, String> checkpoint = DirectoryReader.indexExists(index) ? SegmentInfos.readLatestCommit(index).getUserData() : Collections.emptyMap();
+        boolean resume = source.equals(checkpoint.get(COMMIT_SOURCE));
+        if (resume && "true".equals(checkpoint.get(COMMIT_COMPLETE))) {
+            log.info("FAST index in " + outputDir + " is already built from " + fastNTFile);
+            return;
+        }
+
         IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-        iwc.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
-        indexWriter = new IndexWriter(index, iwc);
+        iwc.setOpenMode(resume ? IndexWriterConfig.OpenMode.APPEND : IndexWriterConfig.OpenMode.CREATE);
+        // bulk load: flush large segments instead of many small ones, and don't pack them into compound files since they will be merged anyway
+        iwc.setRAMBufferSizeMB(256);
+        iwc.setUseCompoundFile(false);
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setNoCFSRatio(0.0);
+        iwc.setMergePolicy(mergePolicy);
+
+        long startMillis = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        try (IndexWriter indexWriter = new IndexWriter(index, iwc)) {
+            long[] bounds = resume ? parseLongs(checkpoint.get(COMMIT_CHUNKS)) : chunkBoundaries(ntFile, chunkBytes);
+            Set<Integer> doneChunks = new TreeSet<>();
+            if (resume)
+                for (long chunk : parseLongs(checkpoint.get(COMMIT_DONE_CHUNKS)))
+                    doneChunks.add((int) chunk);
+            log.info((resume ? "Resuming" : "Starting") + " FAST index build of " + fastNTFile + ": " + (bounds.length - 1) + " chunks, " + doneChunks.size() + " already done, " + nThreads + " threads");
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; i++) {
+                if (doneChunks.contains(i))
+                    continue;
+                // drop whatever an interrupted build had indexed from this chunk
+                if (resume)
+                    indexWriter.deleteDocuments(new Term(FIELD_NAME_CHUNK, Integer.toString(i)));
+                final int chunk = i;
+                futures.add(pool.submit(() -> {
+                    indexChunk(ntFile, bounds[chunk], bounds[chunk + 1], chunk, indexWriter);
+                    checkpoint(indexWriter, source, bounds, doneChunks, chunk);
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures)
+                f.get();
+
+            log.info("Parsed all chunks in " + Util.commatize(System.currentTimeMillis() - startMillis) + "ms, force merging");
+            indexWriter.forceMerge(1);
+            Map<String, String> data = new LinkedHashMap<>();
+            data.put(COMMIT_SOURCE, source);
+            data.put(COMMIT_CHUNKS, joinLongs(bounds));
+            data.put(COMMIT_COMPLETE, "true");
+            indexWriter.setLiveCommitData(data.entrySet());
+            indexWriter.commit();
+            log.info("FAST index built with " + indexWriter.numDocs() + " docs in " + Util.commatize(System.currentTimeMillis() - startMillis) + "ms");
+        } catch (Exception e){
+            Util.print_exception("Error parsing FAST file", e, log);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** records that the given chunk is done in a commit. the docs of chunks still in progress get committed too, but a resumed build deletes them */
+    private static synchronized void checkpoint(IndexWriter indexWriter, String source, long[] bounds, Set<Integer> doneChunks, int chunk) throws IOException {
+        doneChunks.add(chunk);
+        Map<String, String> data = new LinkedHashMap<>();
+        data.put(COMMIT_SOURCE, source);
+        data.put(COMMIT_CHUNKS, joinLongs(bounds));
+        data.put(COMMIT_DONE_CHUNKS, Util.join(doneChunks, ","));
+        indexWriter.setLiveCommitData(data.entrySet());
+        indexWriter.commit();
+    }
+
+    private static String joinLongs(long[] bounds) {
+        return Util.join(Arrays.stream(bounds).boxed().collect(Collectors.toList()), ",");
+    }
+
+    private static long[] parseLongs(String s) {
+        if (Util.nullOrEmpty(s))
+            return new long[0];
+        return Arrays.stream(s.split(",")).mapToLong(Long::parseLong).toArray();
+    }
 
-        try {
-            LineNumberReader lnr;
-            lnr = new LineNumberReader(new BufferedReader(new InputStreamReader(new FileInputStream(fastNTFile))));
+    /** returns the fast id of the subject of the given nt line, or -1 if it is not a line about a fast entity */
+    private static long fastIdOf(String subject) {
+        subject = Util.convertSlashUToUnicode (subject);
+        if (!subject.startsWith ("<http://id.worldcat.org/fast/"))
+            return -1L;
+
+        // sometimes we see lines like this, skip them:
+        //  <http://id.worldcat.org/fast/void/0.1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://rdfs.org/ns/void#Dataset> .
+        if (subject.startsWith ("<http://id.worldcat.org/fast/void"))
+            return -1L;
+
+        String fastIdStr = Util.baseName (subject); // "15615>"
+        fastIdStr = fastIdStr.substring(0, fastIdStr.length()-1); // "15615" (strip the trailing > char)
+        try { return Long.parseLong (fastIdStr); }
+        catch (Exception e) { err.println ("WARNING: Unable to parse fast id in subject " + subject); return -1L; }
+    }
+
+    /**
+     * returns the byte offsets at which the file is split into chunks, starting with 0 and ending with the file length.
+     * chunks start at a line boundary, and all the lines of a fast id are in the same chunk, since an entity is assembled from consecutive lines.
+     */
+    private static long[] chunkBoundaries(File ntFile, long chunkBytes) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        try (RandomAccessFile raf = new RandomAccessFile(ntFile, "r")) {
+            long length = raf.length();
+            for (long target = chunkBytes; target < length; target += chunkBytes) {
+                raf.seek(target);
+                raf.readLine(); // skip to the start of the next line
+
+                // move the boundary past the lines of the first fast id seen here, up to the line where the next fast id starts
+                long firstId = -1L, pos;
+                while (true) {
+                    pos = raf.getFilePointer();
+                    String line = raf.readLine(); // only the subject is needed, which is ascii, so the latin-1 decoding of readLine is ok
+                    if (line == null)
+                        break;
+                    Matcher m = triplePattern.matcher(line);
+                    long id = m.find() ? fastIdOf(m.group(1)) : -1L;
+                    if (id < 0)
+                        continue;
+                    if (firstId < 0)
+                        firstId = id;
+                    else if (id != firstId)
+                        break;
+                }
+                if (pos >= length)
+                    break;
+                bounds.add(pos);
+                target = pos;
+            }
+            bounds.add(length);
+        }
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /** parses the lines of the nt file in [start, end) and adds the entities in them to the index */
+    private static void indexChunk(File ntFile, long start, long end, int chunk, IndexWriter indexWriter) throws IOException {
+        String chunkId = Integer.toString(chunk);
+        int nDocs = 0;
+        try (FileInputStream fis = new FileInputStream(ntFile)) {
+            fis.getChannel().position(start);
+            LineNumberReader lnr = new LineNumberReader(new BufferedReader(new InputStreamReader(ByteStreams.limit(fis, end - start), StandardCharsets.UTF_8)));
             // sometimes lines in loc subject files starts like:
             int lineNum = 0;
             Multimap<String, String> predicateToObject = LinkedHashMultimap.create();
@@ -88,41 +255,27 @@ public class FASTIndexer {
                     break;
 
                 lineNum++;
-                if (lineNum % 100000 == 0)
-                    System.out.println("Line number: " + lineNum);
 
                 // sample line: <http://id.worldcat.org/fast/15615> <http://schema.org/name> "Boss, David" .
 
                 Matcher m = triplePattern.matcher(line);
 
                 if (!m.find() || m.groupCount() != 3) {
-                    err.println("WARNING: This is not an nt file! line#" + lineNum + ": " + line);
+                    err.println("WARNING: This is not an nt file! chunk " + chunk + " line#" + lineNum + ": " + line);
                     continue;
                 }
 
                 String subject = m.group(1), predicate = m.group(2), object = m.group(3);
-                subject = Util.convertSlashUToUnicode (subject);
-                if (!subject.startsWith ("<http://id.worldcat.org/fast/"))
-                    continue;
-
-                // sometimes we see lines like this, skip them:
-                //  <http://id.worldcat.org/fast/void/0.1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://rdfs.org/ns/void#Dataset> .
-                if (subject.startsWith ("<http://id.worldcat.org/fast/void"))
+                long fastId = fastIdOf(subject);
+                if (fastId < 0)
                     continue;
 
-                String fastIdStr = Util.baseName (subject); // "15615>"
-                fastIdStr = fastIdStr.substring(0, fastIdStr.length()-1); // "15615" (strip the trailing > char)
-
-                long fastId;
-                try { fastId = Long.parseLong (fastIdStr); }
-                catch (Exception e) { err.println ("WARNING: Unable to parse fast id on line " + line); continue; }
-
                 predicate = Util.convertSlashUToUnicode (predicate);
                 object = Util.convertSlashUToUnicode (object);
 
                 if (currentFastId != fastId) {
                     // done with all the lines for one fast id, process it now
-                    processFastEntity (currentFastId, predicateToObject);
+                    nDocs += addFastEntity(currentFastId, predicateToObject, chunkId, indexWriter);
 
                     // start a new fast id
                     currentFastId = fastId;
@@ -130,16 +283,24 @@ public class FASTIndexer {
                 }
                 predicateToObject.put (predicate, object);
             }
-            lnr.close();
 
             // just cleanup at the last line
             if (predicateToObject.size() > 0)
-                processFastEntity (currentFastId, predicateToObject);
-
-            indexWriter.close();
-        } catch (Exception e){
-            Util.print_exception("Error parsing FAST file", e, log);
+                nDocs += addFastEntity(currentFastId, predicateToObject, chunkId, indexWriter);
         }
+        log.info("FAST chunk " + chunk + " done: " + Util.commatize(end - start) + " bytes, " + nDocs + " docs");
+    }
+
+    /** returns the number of docs added (0 or 1) */
+    private static int addFastEntity(long fastId, Multimap<String, String> predToObject, String chunkId, IndexWriter indexWriter) throws IOException {
+        if (predToObject.isEmpty())
+            return 0;
+        Document luceneDoc = processFastEntity(fastId, predToObject);
+        if (luceneDoc == null)
+            return 0;
+        luceneDoc.add(new StringField(FIELD_NAME_CHUNK, chunkId, Field.Store.NO));
+        indexWriter.addDocument(luceneDoc);
+        return 1;
     }
 
     private static final Pattern prefNameAndExtentMatcher = Pattern.compile ("(.*), *([0-9\\-]*)"); // to match pref names like: Cooper, Dr. (Thomas), 1759-1839
@@ -165,8 +326,8 @@ public class FASTIndexer {
         return new Pair<>(name, extent);
     }
 
-    /** assembles a fast entity, given all the pred->objs for subject with the given fastid */
-    private static void processFastEntity(long fastId, Multimap<String, String> predToObject) throws IOException {
+    /** assembles a fast entity, given all the pred->objs for subject with the given fastid. returns null if it is not to be indexed */
+    private static Document processFastEntity(long fastId, Multimap<String, String> predToObject) {
 
         String wikipediaId = "?", viafId = "?", lcshId = "?", lcnafId = "?";
         String type = "?";
@@ -283,21 +444,22 @@ public class FASTIndexer {
 
         // we'll ignore anything non-Person
         if (!"Person".equals (type))
-            return;
+            return null;
 
         String alt = (altLabels.size() == 0) ? "" : ((altLabels.size() == 1) ? "alt: " + altLabels.get(0) : altLabels.size() + "alt: " + Util.join (altLabels, ";"));
-        out.println ("fast id: " + fastId + " pref name " + prefLabel + " "
+        if (log.isDebugEnabled())
+            log.debug ("fast id: " + fastId + " pref name " + prefLabel + " "
                 + (extent != null ? "" : "Extent: " + extent)
                 + " " + alt + " viaf: " + viafId + " lcsh id " + lcshId + " lcnaf id " + lcnafId + " wiki " + wikipediaId);
 
 
         if (Util.nullOrEmpty(prefLabel)) {
             err.println ("WARNING: prefLabel = null or empty for fast id " + fastId);
-            return;
+            return null;
         }
         if (fastId < 0) {
             err.println("WARNING: fast Id is not valid: " + fastId);
-            return;
+            return null;
         }
 
         String labels = prefLabel;
@@ -333,7 +495,7 @@ public class FASTIndexer {
             if (!Util.nullOrEmpty(extent))
                 luceneDoc.add(new StringField(FIELD_NAME_EXTENT, extent, Field.Store.YES));
 
-            indexWriter.addDocument(luceneDoc);
+            return luceneDoc;
         }
     }
 
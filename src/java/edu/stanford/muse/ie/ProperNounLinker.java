@@ -18,11 +18,9 @@ import org.apache.logging.log4j.Logger;
 //import org.apache.commons.logging.Log;
 //import org.apache.commons.logging.LogFactory;
 import java.io.File;
-import java.io.IOException;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * Created by vihari on 24/12/15.
@@ -387,120 +385,113 @@ public class ProperNounLinker {
         }
     }
 
-    /**Use this method with caution! Don't use this method for bulk resolutions by making repeated calls to the method.
-     * The response time of this method can be in the order of fraction of secs.
+    /**
      * Given an EmailMention, gets the closest possible resolutions in the archive.
-     * Uses EMailHierarchy to measure distance between email mentions.*/
+     * Uses EMailHierarchy to measure distance between email mentions.
+     * The candidate names and the docs they occur in within a year around the mention come from archive.getEntityIndex(),
+     * so only docs that have a matching name are looked at, and no Lucene docs are loaded.
+     * Docs closer in the hierarchy come first, and within a level, docs closer in time to the mention.*/
     public static List<Pair<EmailMention,Integer>> getNearestMatches(EmailMention mention, int maxMatches, Archive archive) {
         //maximum number of documents to consider before giving up on the search
         int MAX_DOCS = 1000;
         //Collect one year of docs
         long WINDOW = 365 * 24 * 3600 * 1000l;
         Date st = new Date(mention.date.getTime() - WINDOW / 2), et = new Date(mention.date.getTime() + WINDOW / 2);
-        Calendar scal = new GregorianCalendar(), ecal = new GregorianCalendar();
-        scal.setTime(st);
-        ecal.setTime(et);
-        Collection<DatedDocument> docs = (Collection) archive.getAllDocs();
-        List<DatedDocument> sdocs = IndexUtils.selectDocsByDateRange(docs, scal.get(Calendar.YEAR), scal.get(Calendar.MONTH), scal.get(Calendar.DATE),
-                ecal.get(Calendar.YEAR), ecal.get(Calendar.MONTH), ecal.get(Calendar.DATE));
-        Set<String> docIds = sdocs.stream().map(Document::getUniqueId).collect(Collectors.toSet());
-
-        Hierarchy hierarchy = new EmailHierarchy();
-        String[] vlevels = new String[hierarchy.getNumLevels()];
-        for(int i=0;i<hierarchy.getNumLevels();i++)
-            vlevels[i] = hierarchy.getValue(i, mention.ed);
 
-        boolean isAcronym = mention.entity.text.length()>2 && FeatureGeneratorUtil.tokenFeature(mention.entity.text).equals("ac");
         if(mention.entity.text.length()<=2)
             return new ArrayList<>();
+        String tText = mention.entity.text;
+        boolean isAcronym = FeatureGeneratorUtil.tokenFeature(tText).equals("ac");
 
-        long addingTime = 0, ldocTime = 0, pst = 0;
-        List<Pair<EmailMention, Integer>> matches = new ArrayList<>();
+        EntityIndex index = archive.getEntityIndex();
+        long st1 = System.currentTimeMillis();
+
+        //a name can only match if it has every word of tText as a word, so only the names with the rarest word of tText need to be checked
+        int[] candidates = null;
+        for (String word: tText.split(" ")) {
+            if (word.isEmpty())
+                continue;
+            int[] ids = index.getEntitiesWithWord(word);
+            if (candidates == null || ids.length < candidates.length)
+                candidates = ids;
+        }
+        BitSet matchingNames = new BitSet();
+        if (candidates == null) {
+            //tText is all spaces
+            for (int id = 0; id < index.getNEntities(); id++)
+                addIfMatches(index, id, tText, isAcronym, matchingNames);
+        } else {
+            for (int id : candidates)
+                addIfMatches(index, id, tText, isAcronym, matchingNames);
+        }
+        if (isAcronym)
+            for (int id: index.getEntitiesWithAcronym(tText))
+                addIfMatches(index, id, tText, isAcronym, matchingNames);
+
+        //docs in the window with a matching name
+        BitSet docs = new BitSet();
+        for (int id = matchingNames.nextSetBit(0); id >= 0; id = matchingNames.nextSetBit(id + 1))
+            for (int ord: index.getDocs(id, st, et))
+                docs.set(ord);
 
         //order the docs based on distance from the current doc
         //Under the assumption that the hierarchy would always impose distance between two email mentions at doc level granularity in the least
-        Map<Integer, List<String>> docDist = new LinkedHashMap<>();
-        for(String docId: docIds){
-            EmailDocument ed = archive.docForId(docId);
-            int dist = -1;
+        Hierarchy hierarchy = new EmailHierarchy();
+        String[] vlevels = new String[hierarchy.getNumLevels()];
+        for(int i=0;i<hierarchy.getNumLevels();i++)
+            vlevels[i] = hierarchy.getValue(i, mention.ed);
+
+        List<List<Integer>> docsByLevel = new ArrayList<>();
+        for(int i=0;i<hierarchy.getNumLevels();i++)
+            docsByLevel.add(new ArrayList<>());
+        for (int ord = docs.nextSetBit(0); ord >= 0; ord = docs.nextSetBit(ord + 1)) {
+            EmailDocument ed = index.getDoc(ord);
+            if (ed == null)
+                continue;
             for(int i=0;i<hierarchy.getNumLevels();i++)
                 if(vlevels[i]!=null && vlevels[i].equals(hierarchy.getValue(i, ed))) {
-                    dist = i;
+                    docsByLevel.get(i).add(ord);
                     break;
                 }
-            if(dist == -1)
-                continue;
-            if(!docDist.containsKey(dist))
-                docDist.put(dist, new ArrayList<>());
-            docDist.get(dist).add(docId);
         }
 
-        Set<String> fieldsToLoad = new LinkedHashSet<>();
-        fieldsToLoad.add(NER.NAMES);fieldsToLoad.add(NER.NAMES_TITLE);
-
-        //cache stuff
-        Map<String, Boolean> processed = new LinkedHashMap<>();
+        long mentionTime = mention.date.getTime();
+        List<Pair<EmailMention, Integer>> matches = new ArrayList<>();
         Set<String> considered = new LinkedHashSet<>();
-
         int docsProcessed = 0;
         outer:
-        for (Integer level=0;level<hierarchy.getNumLevels();level++) {
-            if(!docDist.containsKey(level))
-                continue;
-            for(String docId: docDist.get(level)) {
-                long st1 = System.currentTimeMillis();
-                org.apache.lucene.document.Document ldoc = null;
-                try {
-                    ldoc = archive.getLuceneDoc(docId, fieldsToLoad);
-                }catch(IOException e){
-                    edu.stanford.muse.util.Util.print_exception("Failed to fetch lucene doc for doc id: " + docId, e, log);
-                    continue;
-                }
-                ldocTime += System.currentTimeMillis() - st1;
-                st1 = System.currentTimeMillis();
-                Span[] entities = NER.getNames(ldoc, true);
-                pst += (System.currentTimeMillis() - st1);
-                st1 = System.currentTimeMillis();
-                List<Span> names = new ArrayList<>();
-                names.addAll(Arrays.asList(entities));
-                EmailDocument ed = archive.docForId(docId);
-                List<String> hpeople = ed.getAllNames();
-                for (String hp : hpeople) {
-                    Span s = new Span(hp, -1, -1);
-                    s.setType(NEType.Type.PERSON.getCode(), 1.0f);
-                    names.add(s);
-                }
-
-                for (Span name : names) {
-                    if (name == null || name.text == null)
+        for (int level=0;level<hierarchy.getNumLevels();level++) {
+            List<Integer> levelDocs = docsByLevel.get(level);
+            levelDocs.sort(Comparator.comparingLong(ord -> Math.abs(index.getDateIndex().getTime(ord) - mentionTime)));
+            for(int ord: levelDocs) {
+                EmailDocument ed = index.getDoc(ord);
+                for (int id: index.getBodyAndHeaderEntities(ord)) {
+                    if (!matchingNames.get(id))
                         continue;
-                    String tText = mention.entity.text;
-                    boolean match;
-                    Boolean pMatch = processed.get(name.text);
-                    if (pMatch == null) {
-                        match = (isAcronym && !name.text.equals(tText) && Util.getAcronym(name.text).equals(tText)) ||
-                                (name.text.contains(" " + tText + " ") || name.text.startsWith(tText + " ") || name.text.endsWith(" " + tText));
-                        processed.put(name.text, match);
-                    } else
-                        match = pMatch;
-                    if (match) {
-                        if (!considered.contains(name.text)) {
-                            considered.add(name.text);
-                            matches.add(new Pair<>(new EmailMention(name, ed, hierarchy), level));
-                            if(matches.size()>=maxMatches)
-                                return matches;
-                        }
+                    Span name = index.getEntity(id);
+                    if (considered.add(name.text)) {
+                        matches.add(new Pair<>(new EmailMention(name, ed, hierarchy), level));
+                        if(matches.size()>=maxMatches)
+                            break outer;
                     }
                 }
-                addingTime += (System.currentTimeMillis() - st1);
                 if(docsProcessed++>MAX_DOCS)
                     break outer;
             }
         }
-        System.out.println("Ldoc get time"+ldocTime+" -- Parsing time: "+pst+" -- Adding time: "+addingTime);
+        if (log.isDebugEnabled())
+            log.debug("Nearest matches for " + tText + ": " + matchingNames.cardinality() + " matching names in " + docs.cardinality() + " docs, " + (System.currentTimeMillis() - st1) + "ms");
         return matches;
     }
 
+    /** sets the bit of the given entity in matchingNames if it is a possible expansion of tText */
+    private static void addIfMatches(EntityIndex index, int id, String tText, boolean isAcronym, BitSet matchingNames) {
+        String text = index.getEntity(id).text;
+        if ((isAcronym && !text.equals(tText) && Util.getAcronym(text).equals(tText)) ||
+                (text.contains(" " + tText + " ") || text.startsWith(tText + " ") || text.endsWith(" " + tText)))
+            matchingNames.set(id);
+    }
+
     static void test() {
         BOWtest();
         Map<Pair<String,String>,Boolean> tps = new LinkedHashMap<>();
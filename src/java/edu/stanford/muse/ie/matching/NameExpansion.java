@@ -16,10 +16,18 @@ import java.util.stream.Stream;
 
 public class NameExpansion {
 
+    /** same as EntityBookManager.getEntitiesInDoc, but reads the names from the archive's entity index instead of the Lucene doc when it can */
+    private static Span[] getEntitiesInDoc(Archive archive, EmailDocument ed, boolean body) {
+        Span[] names = archive.getEntityIndex().getNamesInDoc(ed, body);
+        if (names == null)
+            return archive.getEntityBookManager().getEntitiesInDoc(ed, body);
+        return archive.getEntityBookManager().getEntitiesInEntityBooks(names);
+    }
+
     private static boolean matchAgainstEmailContent(Archive archive, EmailDocument ed, Matches matchResults, String messageType, float score) {
         Set<String> allNames = new LinkedHashSet();
-        Stream.of(archive.getEntityBookManager().getEntitiesInDoc(ed, false)).map(Span::getText).forEach(allNames::add);
-        Stream.of(archive.getEntityBookManager().getEntitiesInDoc(ed, true)).map(Span::getText).forEach(allNames::add);
+        Stream.of(getEntitiesInDoc(archive, ed, false)).map(Span::getText).forEach(allNames::add);
+        Stream.of(getEntitiesInDoc(archive, ed, true)).map(Span::getText).forEach(allNames::add);
         Iterator it = allNames.iterator();
 
         String name;
@@ -66,17 +74,14 @@ public class NameExpansion {
             return matches;
         }
 
-        synchronized (archive) {
-            if (ed.threadID == 0L) {
-                archive.assignThreadIds();
-            }
-        }
-
-        // check if s matches anywhere else in this thread
-        List<EmailDocument> messagesInThread = (List) archive.docsWithThreadId(ed.threadID);
-        for (EmailDocument messageInThread: messagesInThread) {
-            if (matchAgainstEmailContent(archive, messageInThread, matches, "Mentioned in this thread", 0.9F)) {
-                return matches;
+        // check if s matches anywhere else in this thread.
+        // thread ids are assigned when the archive is imported or loaded, a message without one has no thread to look in
+        if (ed.threadID != 0L) {
+            List<EmailDocument> messagesInThread = (List) archive.docsWithThreadId(ed.threadID);
+            for (EmailDocument messageInThread : messagesInThread) {
+                if (matchAgainstEmailContent(archive, messageInThread, matches, "Mentioned in this thread", 0.9F)) {
+                    return matches;
+                }
             }
         }
 
@@ -0,0 +1,106 @@
+package edu.stanford.muse.ie.test;
+
+import edu.stanford.muse.ie.CooccurrenceStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds a CooccurrenceStore from synthetic docs on 1 and 4 threads, checks that the files are identical, that the counts are those of a
+ * HashMap computed from the same docs, including rows cut down to maxPerRow, and that an open store notices when its file is rebuilt.
+ */
+public class CooccurrenceStoreTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int N_ENTITIES = 300, N_ADDRESSES = 50, N_DOCS = 5000;
+
+    private final List<String> entities = new ArrayList<>(), addresses = new ArrayList<>();
+    private final List<int[]> docEntities = new ArrayList<>(), docAddresses = new ArrayList<>();
+    // (entity << 32 | entity or address) -> count
+    private final Map<Long, Integer> entityCounts = new HashMap<>(), addressCounts = new HashMap<>();
+
+    private static long key(int row, int col) {
+        return ((long) row << 32) | col;
+    }
+
+    /** docs with a few distinct entities each, a few of them much more frequent than the others, and 1-3 addresses (which may repeat) */
+    private void makeDocs() {
+        Random r = new Random(1);
+        for (int i = 0; i < N_ENTITIES; i++)
+            entities.add("entity " + i);
+        for (int i = 0; i < N_ADDRESSES; i++)
+            addresses.add("a" + i + "@example.org");
+        for (int d = 0; d < N_DOCS; d++) {
+            Set<Integer> ents = new LinkedHashSet<>();
+            int k = 1 + r.nextInt(8);
+            while (ents.size() < k)
+                ents.add((int) (Math.abs(r.nextGaussian()) * 30) % N_ENTITIES);
+            int[] e = ents.stream().mapToInt(x -> x).toArray();
+            int[] a = new int[1 + r.nextInt(3)];
+            for (int i = 0; i < a.length; i++)
+                a[i] = r.nextInt(N_ADDRESSES);
+            docEntities.add(e);
+            docAddresses.add(a);
+            for (int x : e) {
+                for (int y : e)
+                    entityCounts.merge(key(x, y), 1, Integer::sum);
+                for (int y : a)
+                    addressCounts.merge(key(x, y), 1, Integer::sum);
+            }
+        }
+    }
+
+    private File build(String name, int maxPerRow, int nThreads) throws IOException {
+        File f = new File(tmp.getRoot(), name);
+        CooccurrenceStore.build(f, entities, addresses, docEntities, docAddresses, maxPerRow, nThreads);
+        return f;
+    }
+
+    private static void assertCounts(CooccurrenceStore store, int m, Map<Long, Integer> expected) {
+        int nnz = 0;
+        for (int e = 0; e < store.getNEntities(); e++)
+            nnz += store.end(m, e) - store.begin(m, e);
+        assertEquals(expected.size(), nnz);
+        for (Map.Entry<Long, Integer> en : expected.entrySet())
+            assertEquals((float) en.getValue(), store.get(m, (int) (en.getKey() >>> 32), (int) (long) en.getKey()), 0f);
+    }
+
+    @Test
+    public void sameStoreOnOneAndFourThreads() throws IOException {
+        makeDocs();
+        File f1 = build("1.bin", Integer.MAX_VALUE, 1), f4 = build("4.bin", Integer.MAX_VALUE, 4);
+        assertArrayEquals(Files.readAllBytes(f1.toPath()), Files.readAllBytes(f4.toPath()));
+
+        CooccurrenceStore store = CooccurrenceStore.open(f4);
+        assertCounts(store, CooccurrenceStore.CE, entityCounts);
+        assertCounts(store, CooccurrenceStore.EA, addressCounts);
+
+        // rows cut down to the largest counts, with ties going to the smaller id, do not depend on the threads either
+        assertArrayEquals(Files.readAllBytes(build("1-cut.bin", 5, 1).toPath()), Files.readAllBytes(build("4-cut.bin", 5, 4).toPath()));
+        CooccurrenceStore cut = CooccurrenceStore.open(new File(tmp.getRoot(), "4-cut.bin"));
+        for (int e = 0; e < N_ENTITIES; e++)
+            assertTrue(cut.end(CooccurrenceStore.CE, e) - cut.begin(CooccurrenceStore.CE, e) <= 5);
+    }
+
+    @Test
+    public void noticesRebuild() throws IOException {
+        makeDocs();
+        File f = build("store.bin", Integer.MAX_VALUE, 2);
+        CooccurrenceStore store = CooccurrenceStore.open(f);
+        assertTrue(store.isCurrent(f));
+        assertFalse(store.isCurrent(new File(tmp.getRoot(), "other.bin")));
+
+        // the same content, so the same length, written again
+        build("store.bin", Integer.MAX_VALUE, 4);
+        assertFalse(store.isCurrent(f));
+        assertTrue(CooccurrenceStore.open(f).isCurrent(f));
+    }
+}
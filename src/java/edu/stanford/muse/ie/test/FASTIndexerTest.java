@@ -0,0 +1,171 @@
+package edu.stanford.muse.ie.test;
+
+import edu.stanford.muse.AuthorityMapper.AuthorityMapper;
+import edu.stanford.muse.Config;
+import edu.stanford.muse.ie.FASTIndexer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Builds the FAST index from a synthetic nt file, checks that the parallel chunked build indexes the same entities as a build
+ * in a single chunk on a single thread, that an interrupted build resumes correctly, and that the shared reader of AuthorityMapper moves to a
+ * rebuilt index (but not to a partial build).
+ * main() reports the build time of a larger fixture for different numbers of threads.
+ */
+public class FASTIndexerTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final String[] FIRST = new String[]{"Barack", "Mohandas", "Ellen", "Karl", "Mary", "John", "Theoktistos", "Martha", "David"};
+    private static final String[] LAST = new String[]{"Obama", "Gandhi", "Langen", "Mueller", "Cruz", "Smith", "Stoudite", "Hasselborn", "Boss"};
+
+    /** writes n entities in the format of the FAST dump, about 3/4 of them persons, with some lines the indexer has to skip */
+    private static void writeFixture(File f, int n, long seed) throws IOException {
+        Random r = new Random(seed);
+        try (PrintWriter pw = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(f), StandardCharsets.UTF_8)))) {
+            pw.print("<http://id.worldcat.org/fast/void/0.1> <http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://rdfs.org/ns/void#Dataset> .\n");
+            for (int i = 1; i <= n; i++) {
+                String s = "<http://id.worldcat.org/fast/" + i + "> ";
+                String name = LAST[r.nextInt(LAST.length)] + ", " + FIRST[r.nextInt(FIRST.length)] + " x" + i;
+                pw.print(s + "<http://www.w3.org/1999/02/22-rdf-syntax-ns#type> <http://schema.org/" + (r.nextInt(4) == 0 ? "Organization" : "Person") + "> .\n");
+                pw.print(s + "<http://www.w3.org/2004/02/skos/core#prefLabel> \"" + name + (r.nextBoolean() ? ", " + (1800 + r.nextInt(150)) + "-" + (1900 + r.nextInt(100)) : "") + "\" .\n");
+                for (int j = r.nextInt(3); j > 0; j--)
+                    pw.print(s + "<http://www.w3.org/2004/02/skos/core#altLabel> \"" + name + " alt" + j + "\" .\n");
+                if (r.nextBoolean())
+                    pw.print(s + "<http://schema.org/sameAs> <https://viaf.org/viaf/" + (1000000 + i) + "> .\n");
+                if (r.nextInt(3) == 0)
+                    pw.print(s + "<http://xmlns.com/foaf/0.1/focus> <http://en.wikipedia.org/wiki/Page_" + i + "> .\n");
+                if (r.nextInt(50) == 0)
+                    pw.print("<http://example.org/other> <http://schema.org/name> \"not fast\" .\n");
+            }
+        }
+    }
+
+    /** fast id -> all stored fields of its doc */
+    private static Map<Long, String> readIndex(File dir) throws IOException {
+        Map<Long, String> result = new TreeMap<>();
+        try (Directory d = FSDirectory.open(dir.toPath()); DirectoryReader reader = DirectoryReader.open(d)) {
+            for (LeafReaderContext leaf : reader.leaves()) {
+                Bits liveDocs = leaf.reader().getLiveDocs();
+                for (int i = 0; i < leaf.reader().maxDoc(); i++) {
+                    if (liveDocs != null && !liveDocs.get(i))
+                        continue;
+                    Document doc = leaf.reader().document(i);
+                    StringBuilder sb = new StringBuilder();
+                    for (IndexableField f : doc.getFields())
+                        sb.append(f.name()).append('=').append(f.stringValue()).append(';');
+                    String prev = result.put(Long.parseLong(doc.get(FASTIndexer.FIELD_NAME_FAST_ID)), sb.toString());
+                    assertNull("duplicate doc", prev);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void testParallelBuildMatchesSerial() throws IOException {
+        File nt = tmp.newFile("fast.nt");
+        writeFixture(nt, 20000, 1);
+        File serialDir = tmp.newFolder("serial"), parallelDir = tmp.newFolder("parallel");
+        FASTIndexer.index(nt.getPath(), serialDir.getPath(), 1, Long.MAX_VALUE);
+        FASTIndexer.index(nt.getPath(), parallelDir.getPath(), 4, 32 * 1024);
+
+        Map<Long, String> serial = readIndex(serialDir), parallel = readIndex(parallelDir);
+        assertTrue(serial.size() > 10000);
+        assertEquals(serial, parallel);
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        File nt = tmp.newFile("fast.nt");
+        writeFixture(nt, 5000, 2);
+        File dir = tmp.newFolder("index");
+        FASTIndexer.index(nt.getPath(), dir.getPath(), 2, 16 * 1024);
+        Map<Long, String> expected = readIndex(dir);
+
+        // make it look like the build was interrupted after the first 2 chunks were done, with the docs of the others still in the index
+        try (Directory d = FSDirectory.open(dir.toPath())) {
+            Map<String, String> data = new LinkedHashMap<>(SegmentInfos.readLatestCommit(d).getUserData());
+            assertEquals("true", data.remove("complete"));
+            data.put("doneChunks", "0,1");
+            try (IndexWriter w = new IndexWriter(d, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+                w.setLiveCommitData(data.entrySet());
+                w.commit();
+            }
+        }
+        // the docs of chunks 2.. must be deleted and indexed again, without duplicates
+        FASTIndexer.index(nt.getPath(), dir.getPath(), 2, 16 * 1024);
+        assertEquals(expected, readIndex(dir));
+    }
+
+    @Test
+    public void testSharedReaderFollowsRebuild() throws IOException {
+        File nt = tmp.newFile("fast.nt");
+        writeFixture(nt, 2000, 4);
+        File dir = tmp.newFolder("index");
+        FASTIndexer.index(nt.getPath(), dir.getPath(), 2, 16 * 1024);
+        String savedDir = Config.FAST_INDEX_DIR;
+        Config.FAST_INDEX_DIR = dir.getPath();
+        try {
+            DirectoryReader first = AuthorityMapper.acquireFastIndexReader();
+            int nDocs = first.numDocs();
+            AuthorityMapper.releaseFastIndexReader(first);
+
+            // a build in progress commits after each chunk; the reader must not move to such a commit
+            try (Directory d = FSDirectory.open(dir.toPath())) {
+                Map<String, String> data = new LinkedHashMap<>(SegmentInfos.readLatestCommit(d).getUserData());
+                data.remove("complete");
+                data.put("doneChunks", "0");
+                try (IndexWriter w = new IndexWriter(d, new IndexWriterConfig().setOpenMode(IndexWriterConfig.OpenMode.APPEND))) {
+                    w.deleteAll();
+                    w.setLiveCommitData(data.entrySet());
+                    w.commit();
+                }
+            }
+            DirectoryReader reader = AuthorityMapper.acquireFastIndexReader();
+            assertSame(first, reader);
+            assertEquals(nDocs, reader.numDocs());
+            AuthorityMapper.releaseFastIndexReader(reader);
+
+            // a finished rebuild of a different file replaces the reader, and the old one is closed
+            File nt2 = tmp.newFile("fast2.nt");
+            writeFixture(nt2, 3000, 5);
+            FASTIndexer.index(nt2.getPath(), dir.getPath(), 2, 16 * 1024);
+            reader = AuthorityMapper.acquireFastIndexReader();
+            assertNotSame(first, reader);
+            assertEquals(readIndex(dir).size(), reader.numDocs());
+            assertEquals(0, first.getRefCount());
+            AuthorityMapper.releaseFastIndexReader(reader);
+        } finally {
+            Config.FAST_INDEX_DIR = savedDir;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        File nt = File.createTempFile("fast", ".nt");
+        writeFixture(nt, n, 3);
+        System.out.println("fixture: " + n + " entities, " + nt.length() / (1024 * 1024) + " MB");
+
+        for (int nThreads : new int[]{1, 2, 4, Runtime.getRuntime().availableProcessors()}) {
+            File dir = File.createTempFile("fast", "index");
+            dir.delete();
+            long start = System.currentTimeMillis();
+            FASTIndexer.index(nt.getPath(), dir.getPath(), nThreads, nThreads == 1 ? Long.MAX_VALUE : 16L * 1024 * 1024);
+            System.out.println(nThreads + " thread(s): " + (System.currentTimeMillis() - start) + "ms");
+        }
+        nt.delete();
+    }
+}
@@ -268,7 +268,11 @@ individual type entitybook (which involves expensive operation of lucene search
      * @return
      */
     public Span[] getEntitiesInDoc(Document document, boolean body){
-        Span[] names = getEntitiesInDocFromLucene(document,body);
+        return getEntitiesInEntityBooks(getEntitiesInDocFromLucene(document,body));
+    }
+
+    /** returns those of the given names that are present in the entitybooks, grouped by the type of the entitybook */
+    public Span[] getEntitiesInEntityBooks(Span[] names){
         Set<Span> res=new LinkedHashSet<>();
         for(NEType.Type t: NEType.Type.values()) {
             EntityBook ebook = this.getEntityBookForType(t.getCode());
@@ -19,6 +19,7 @@ import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.gson.Gson;
+import edu.stanford.epadd.util.JobScheduler;
 import edu.stanford.muse.Config;
 import edu.stanford.muse.ResultCacheManager.ResultCache;
 import edu.stanford.muse.datacache.Blob;
@@ -31,6 +32,7 @@ import edu.stanford.muse.LabelManager.Label;
 import edu.stanford.muse.LabelManager.LabelManager;
 import edu.stanford.muse.epaddpremis.EpaddEvent;
 import edu.stanford.muse.epaddpremis.EpaddPremis;
+import edu.stanford.muse.ie.EntityIndex;
 import edu.stanford.muse.ie.NameInfo;
 import edu.stanford.muse.ie.variants.EntityBookManager;
 import edu.stanford.muse.ner.NER;
@@ -104,6 +106,7 @@ import static edu.stanford.muse.index.Archive.Exportable_Assets.*;
 @Getter
 public class Archive implements Serializable {
     private static final Logger log =  LogManager.getLogger(Archive.class);
+    private static final Metrics.Counter DOCS_ADDED = Metrics.counter("ingest.docs");
     private static final long serialVersionUID = 1L;
 
     // the archive structure: the archive's top level dir has these subdirs
@@ -225,8 +228,15 @@ public class Archive implements Serializable {
     private List<Document> allDocs;                                                    // this is the equivalent of fullEmailDocs earlier
     transient private Set<Document> allDocsAsSet = null;
     transient private Map<Document,Document> allUniqueDocsMap=null;
+    transient private DateIndex dateIndex = null;                                     // lazily computed, see getDateIndex()
+    transient private List<Document> dateIndexDocs = null;                            // the allDocs list and its size when dateIndex was computed
+    transient private int dateIndexDocsSize = -1;
+    transient private EntityIndex entityIndex = null;                                 // lazily computed, see getEntityIndex()
+    transient private long derivedDataBuildMillis = 0;                                // time taken to compute the date and entity indexes, for CacheRegistry
+    transient private String derivedDataCacheName = null;                             // name of the registered derived data, see registerDerivedData()
     private transient Multimap<Document, Tuple2<String,String>> dupMessageInfo = LinkedListMultimap.create();//added to support more informative messages when finding duplicate mails..
-    private transient Map<Long,List<Document>> threadIDToDocs = new LinkedHashMap<>();
+    private transient volatile Map<Long,List<Document>> threadIDToDocs = new LinkedHashMap<>();
+    private ThreadIndex threadIndex;                                                  // saved with the archive, updated by assignThreadIds()
 
     private final Set<FolderInfo> fetchedFolderInfos = new LinkedHashSet<>();    // keep this private since its updated in a controlled way
     transient private LinkedHashMap<String, FolderInfo> fetchedFolderInfosMap = null;
@@ -452,6 +462,12 @@ int errortype=0;
 
     public Set<Blob> blobsForQuery(String term){return indexer.blobsForQuery(term);}
 
+    /** evaluates several queries together, see Indexer.docsForQueries */
+    public Map<String, Set<Document>> docsForQueries(Map<String, String> keyToQuery, Indexer.QueryType qt){return indexer.docsForQueries(keyToQuery, qt);}
+
+    /** evaluates several queries together on the attachments index, see Indexer.blobsForQueries */
+    public Map<String, Set<Blob>> blobsForQueries(Map<String, String> keyToQuery){return indexer.blobsForQueries(keyToQuery);}
+
     public Collection<edu.stanford.muse.index.Document> docsForQuery(String term, int cluster, int threshold, Indexer.QueryType qt){
         Indexer.QueryOptions options = new Indexer.QueryOptions();
         options.setQueryType(qt);
@@ -955,15 +971,109 @@ int errortype=0;
         return allDocsAsSet;
     }
 
+    /**
+     * returns an index of all docs sorted by date, for selecting docs in a date range and computing date histograms without scanning all docs.
+     * allDocs is updated in place in several places, so the index is recomputed if allDocs has been replaced or its size has changed since it was computed.
+     */
+    public DateIndex getDateIndex() {
+        List<Document> docs = getAllDocs();
+        synchronized (this) {
+            if (dateIndex == null || dateIndexDocs != docs || dateIndexDocsSize != docs.size()) {
+                long startTime = System.currentTimeMillis();
+                dateIndex = new DateIndex(docs);
+                dateIndexDocs = docs;
+                dateIndexDocsSize = docs.size();
+                derivedDataBuildMillis = System.currentTimeMillis() - startTime;
+                log.info("Date index computed for " + dateIndex.size() + " docs in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            if (derivedDataCacheName != null)
+                CacheRegistry.touch(derivedDataCacheName);
+            return dateIndex;
+        }
+    }
+
+    /**
+     * returns an index of the names in each doc, for looking up the docs a name occurs in around a date without going to Lucene.
+     * computed on first use, which takes a pass over the Lucene docs, and recomputed if the date index has changed or invalidateEntityIndex() has been called since.
+     */
+    public EntityIndex getEntityIndex() {
+        DateIndex di = getDateIndex();
+        synchronized (this) {
+            if (entityIndex == null || entityIndex.getDateIndex() != di) {
+                long startTime = System.currentTimeMillis();
+                entityIndex = new EntityIndex(this, di);
+                derivedDataBuildMillis += System.currentTimeMillis() - startTime;
+                log.info("Entity index computed for " + di.size() + " docs, " + entityIndex.getNEntities() + " names in " + (System.currentTimeMillis() - startTime) + " ms");
+            }
+            return entityIndex;
+        }
+    }
+
+    /** drops the entity index, so that it is recomputed on next use. to be called after the names in the docs have been updated, e.g. by NER */
+    public synchronized void invalidateEntityIndex() {
+        entityIndex = null;
+    }
+
+    /** registers the structures that evictDerivedData() drops with CacheRegistry, under the given name */
+    public void registerDerivedData(String name) {
+        derivedDataCacheName = name;
+        CacheRegistry.register(name, new CacheRegistry.Evictable() {
+            public long estimatedBytes() { return estimateDerivedDataBytes(); }
+            public long rebuildCostMillis() { return derivedDataBuildMillis; }
+            public boolean evict() { evictDerivedData(); return true; }
+        });
+    }
+
+    /** rough heap footprint of the structures that evictDerivedData() drops. not synchronized, since it only reads sizes */
+    public long estimateDerivedDataBytes() {
+        Set<Document> docsAsSet = allDocsAsSet;
+        Map<Document, Document> uniqueDocsMap = allUniqueDocsMap;
+        DateIndex di = dateIndex;
+        EntityIndex ei = entityIndex;
+        long bytes = 0;
+        // about 50 bytes for an entry of a LinkedHashSet/Map, 80 for a short string with its entry
+        if (docsAsSet != null)
+            bytes += 50L * docsAsSet.size();
+        if (uniqueDocsMap != null)
+            bytes += 50L * uniqueDocsMap.size();
+        if (di != null)
+            bytes += di.estimatedBytes();
+        if (ei != null)
+            bytes += ei.estimatedBytes();
+        for (Set<String> set : Arrays.asList(allEntities, allBlobNames, allAnnotations, allFolders, allEmailSources))
+            if (set != null)
+                bytes += 80L * set.size();
+        if (addressBook != null)
+            bytes += addressBook.getCountsCacheBytes();
+        return bytes;
+    }
+
+    /**
+     * drops the structures computed from the docs: the doc set and map, the date and entity indexes, the sets of all entities, blob names etc.,
+     * and the address book's counts JSON. all of them are computed again on next use.
+     */
+    public synchronized void evictDerivedData() {
+        allDocsAsSet = null;
+        allUniqueDocsMap = null;
+        dateIndex = null;
+        dateIndexDocs = null;
+        dateIndexDocsSize = -1;
+        entityIndex = null;
+        allEntities = allBlobNames = allAnnotations = allFolders = allEmailSources = null;
+        if (addressBook != null)
+            addressBook.clearCountsCache();
+    }
+
     public Map<Document,Document> getAllUniqueDocsMap(){
         // allUniqueDocsMap is lazily computed
         if (allUniqueDocsMap == null) {
             synchronized (this) {
                 if (allUniqueDocsMap == null) {
                     allUniqueDocsMap = new LinkedHashMap<>();
-                    for(Document doc: allDocsAsSet)
+                    Set<Document> docsAsSet = getAllDocsAsSet(); // may have been evicted, see evictDerivedData()
+                    for(Document doc: docsAsSet)
                         allUniqueDocsMap.put(doc,doc);
-                    Util.softAssert(allUniqueDocsMap.size() == allDocsAsSet.size(),log);
+                    Util.softAssert(allUniqueDocsMap.size() == docsAsSet.size(),log);
                 }
             }
         }
@@ -1123,7 +1233,10 @@ int errortype=0;
 
         String subject = doc.getSubjectWithoutTitle();
         subject = EmailUtils.cleanupSubjectLine(subject);
-        indexer.indexSubdoc(subject, contents, header, doc, blobStore, textHtmlPart);
+        try (Metrics.Span s = Metrics.span("ingest.index")) {
+            indexer.indexSubdoc(subject, contents, header, doc, blobStore, textHtmlPart);
+        }
+        DOCS_ADDED.inc();
 
         if (getAllDocs().size() % 100 == 0)
             log.info("Memory status after " + getAllDocs().size() + " emails: " + Util.getMemoryStats());
@@ -1394,6 +1507,12 @@ int errortype=0;
      * @throws Exception
      */
     public synchronized String export(Collection<? extends Document> retainedDocs, Export_Mode export_mode, String out_dir, String name, Consumer<StatusProvider> setStatusProvider) throws Exception {
+        try (Metrics.Span s = Metrics.span("export." + export_mode.name().toLowerCase())) {
+            return exportDocs(retainedDocs, export_mode, out_dir, name, setStatusProvider);
+        }
+    }
+
+    private String exportDocs(Collection<? extends Document> retainedDocs, Export_Mode export_mode, String out_dir, String name, Consumer<StatusProvider> setStatusProvider) throws Exception {
         if (Util.nullOrEmpty(out_dir))
             return null;
         File dir = new File(out_dir);
@@ -1434,9 +1553,18 @@ int errortype=0;
             FileUtils.copyFile(new File(baseDir + File.separator + Archive.BAG_DATA_FOLDER + File.separator + EpaddPremis.XML_FILE_NAME),
                     new File(out_dir + File.separator + Archive.BAG_DATA_FOLDER + File.separatorChar + EpaddPremis.XML_FILE_NAME));
 
+        // last point at which a cancel of the export job leaves this archive as it was; from here on its state is swapped out until the end
+        if (JobScheduler.isCurrentJobCancelled())
+            throw new edu.stanford.muse.exceptions.CancelledException();
+
         // save the states that may get modified
         List<Document> savedAllDocs = allDocs;
         LabelManager oldLabelManager= getLabelManager();
+        // the exported archive gets a thread index of just the exported docs, with the same thread ids, so that it is not threaded again when loaded.
+        // subjects are redacted in a public export, so its thread index must not carry them either
+        ThreadIndex savedThreadIndex = threadIndex;
+        if (threadIndex != null)
+            threadIndex = threadIndex.subset(retainedDocs, !exportInPublicMode);
         /////////////////saving done//////////////////////////////////
         //change state of the current archive -temporarily//////////
         if (exportInPublicMode){
@@ -1461,7 +1589,10 @@ int errortype=0;
             docIdSet.add(d.getUniqueId());
         final Set<String> retainedDocIds = docIdSet;*/
         Indexer.FilterFunctor emailFilter = doc -> {
-            if (!retainedDocIDs.contains(doc.get("docId")))
+            if (!retainedDocIDs.contains(Indexer.getDocIdOrParentId(doc)))
+                return false;
+            // body chunks of long messages have nothing but body text, which is not exported in public mode
+            if (exportInPublicMode && doc.get("docId") == null)
                 return false;
 
             if (exportInPublicMode) {
@@ -1471,6 +1602,7 @@ int errortype=0;
                 }
                 doc.removeFields("body");
                 doc.removeFields("body_original");
+                doc.removeFields(Indexer.BODY_ORIGINAL_REF_FIELD);
 
                 if (text != null) {
                     String redacted_text = IndexUtils.retainOnlyNames(text, doc);
@@ -1575,6 +1707,7 @@ after maskEmailDomain.
         setBaseDir(oldBaseDir);
         allDocs = savedAllDocs;
         setLabelManager(oldLabelManager);
+        threadIndex = savedThreadIndex;
         return out_dir;
     }
 
@@ -1583,21 +1716,18 @@ after maskEmailDomain.
 
 
     /*
-    Here invariant is that the cached map 'threadIDToDocs' does not get invalidated once an archive is indexed.
+    The cached map 'threadIDToDocs' is replaced by assignThreadIds() whenever it threads new docs.
+    It is built locally and then published, so concurrent readers see either the old map or the complete new one.
      */
     public List<Document> docsWithThreadId(long threadID) {
-
-        if(threadIDToDocs!=null && threadIDToDocs.size()!=0){
-            return threadIDToDocs.get(threadID);
-        }
-        threadIDToDocs=new LinkedHashMap<>();
-        List<Document> result = new ArrayList<>();
-        for (Document ed : allDocs) {
-            List<Document> doclist = threadIDToDocs.getOrDefault(((EmailDocument)ed).threadID,new ArrayList<>());
-            doclist.add(ed);
-            threadIDToDocs.put(((EmailDocument)ed).threadID,doclist);
+        Map<Long, List<Document>> map = threadIDToDocs;
+        if (map == null || map.isEmpty()) {
+            map = new LinkedHashMap<>();
+            for (Document ed : getAllDocs())
+                map.computeIfAbsent(((EmailDocument) ed).threadID, k -> new ArrayList<>()).add(ed);
+            threadIDToDocs = map;
         }
-        return threadIDToDocs.getOrDefault(threadID,new ArrayList<>());
+        return map.getOrDefault(threadID, new ArrayList<>());
     }
 
     public String getStats() {
@@ -1882,20 +2012,37 @@ after maskEmailDomain.
     }
 
     /**
-     * Assign Ids to threads, can help in making out if two emails belong to the same thread
-     * Subject/Title of the a message can also be used for the same purpose
-     * @return the maximum thread id value assignbed to any thread in th arhchive*/
-    public int assignThreadIds() {
-        Collection<Collection<EmailDocument>> threads = EmailUtils.threadEmails((Collection) allDocs);
-        int thrId = 1; // note: valid thread ids must be > 1
-        for (Collection<EmailDocument> thread : threads) {
-            for (EmailDocument doc : thread)
-                doc.threadID = thrId;
-            thrId++;
+     * Assign Ids to threads, can help in making out if two emails belong to the same thread.
+     * Messages are threaded by their Message-ID and References headers, falling back on subject and participants (see ThreadIndex).
+     * Only docs that are not in the thread index yet are threaded, so this is cheap for an archive that has been threaded before,
+     * e.g. when it is loaded again or an accession is merged into it. Archives saved before the thread index existed are threaded in full, once.
+     * @return the number of docs threaded */
+    public synchronized int assignThreadIds() {
+        if (threadIndex == null)
+            threadIndex = new ThreadIndex();
+
+        Map<Long, Long> merges = new LinkedHashMap<>();
+        int count = 0;
+        for (Document doc : getAllDocs()) {
+            EmailDocument ed = (EmailDocument) doc;
+            if (ed.threadID != 0 && threadIndex.contains(ed))
+                continue;
+            ed.threadID = threadIndex.add(ed, merges);
+            count++;
         }
+        // new messages may have joined threads that were separate
+        if (!merges.isEmpty()) {
+            for (Document doc : getAllDocs()) {
+                EmailDocument ed = (EmailDocument) doc;
+                ed.threadID = threadIndex.currentThreadID(ed.threadID);
+            }
+            log.info(merges.size() + " threads merged into others");
+        }
+        if (count > 0)
+            threadIDToDocs = null;
         //also do the caching here only.
         docsWithThreadId(1);//to trigger caching of doctothreadid map
-        return thrId;
+        return count;
     }
 
     public void postDeserialized(String baseDir, boolean readOnly) throws IOException {
@@ -1995,6 +2142,8 @@ after maskEmailDomain.
         } catch (IOException e) {
             log.warn("Some exception in committing the index after merging");
         }
+        // thread the new docs into the existing threads
+        assignThreadIds();
 
         //indexer.close();//to commit the changes to disc so that the next time indexer is read the updated stuff is read
         /*//pack destbloblstore.
@@ -2207,7 +2356,8 @@ after maskEmailDomain.
         return result;
     }
 
-    /**Replaces the document in the index with the supplied document*/
+    /**Replaces the document in the index with the supplied document.
+     * If this changes the names in the doc, call invalidateEntityIndex() once done updating. */
     public void updateDocument(org.apache.lucene.document.Document doc) {
         indexer.updateDocument(doc);
     }
@@ -2633,15 +2783,13 @@ after maskEmailDomain.
                 // MBOX files would be reproduced with the same filenames of imported raw files
                 String pathToFile = targetExportableAssetsFolder + File.separatorChar + Util.filePathTail(aSourceFolder);
 
-                PrintWriter pw = null;
                 try {
-                    pw = new PrintWriter(pathToFile, "UTF-8");
-
+                    List<Document> docsToExport = new ArrayList<>();
                     for (Document d : searchResult.first) {
                         EmailDocument ed = (EmailDocument) d;
                         // if includeRestricted is set to false, need filter out those labelled with DNT labels
                         if (includeRestricted || !getLabelIDs(ed).contains(LabelManager.LABELID_DNT))
-                            EmailUtils.printToMbox(this, ed, pw, getBlobStore(), false);
+                            docsToExport.add(ed);
 
                     }
                     // if includeDuplicated is set to true, need perform deduplication
@@ -2652,12 +2800,12 @@ after maskEmailDomain.
 
                             if (aSourceFolder.equals(s.getFirst())){
                                 System.out.println("generateExportableAssetsNormalizedMbox: Deduplicate for this email document: "+ deduplicate.getUniqueId());
-                                EmailUtils.printToMbox(this, (EmailDocument) deduplicate, pw, getBlobStore(), false);
+                                docsToExport.add(deduplicate);
                             }
                         }
                     }
 
-                    pw.close();
+                    new MboxExporter(this, docsToExport, getBlobStore(), false).export(new File(pathToFile));
 
                 } catch (Exception e) {
                     e.printStackTrace();
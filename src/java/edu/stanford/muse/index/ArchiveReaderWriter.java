@@ -13,6 +13,7 @@ import edu.stanford.muse.email.MuseEmailFetcher;
 import edu.stanford.muse.epaddpremis.EpaddPremis;
 import edu.stanford.muse.ie.variants.EntityBookManager;
 import edu.stanford.muse.ner.model.NEType;
+import edu.stanford.muse.util.CacheRegistry;
 import edu.stanford.muse.util.Util;
 import edu.stanford.muse.webapp.JSPHelper;
 import edu.stanford.muse.webapp.ModeConfig;
@@ -36,6 +37,7 @@ import java.lang.ref.WeakReference;
 import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -63,6 +65,112 @@ public class ArchiveReaderWriter{
     private static final LinkedHashMap<String, WeakReference<Archive>> globaldirToArchiveMap = new LinkedHashMap<>();
     private static final LinkedHashMap<String,Archive> globalArchiveIDToArchiveMap = new LinkedHashMap<>();
     private static final LinkedHashMap<Archive,String> globalArchiveToArchiveIDMap = new LinkedHashMap<>();
+    // archives unloaded by CacheRegistry when memory was low, by archive ID. they are loaded again on their next lookup, see getArchiveForArchiveID
+    private static final Map<String, LoadedArchive> evictedArchives = new ConcurrentHashMap<>();
+
+    // a loaded archive takes roughly this many times the size of its session file on the heap
+    private static final int HEAP_BYTES_PER_SESSION_FILE_BYTE = 3;
+    // an archive is not unloaded unless it has not been looked up for this long, even if no request or job is using it right now
+    private static final long MIN_IDLE_MILLIS_TO_UNLOAD = 5 * 60 * 1000L;
+    // number of requests and jobs using each archive, by archive ID. an archive is never unloaded while it is in use. guarded by globaldirToArchiveMap
+    private static final Map<String, Integer> useCounts = new HashMap<>();
+    // IDs of the archives looked up by the request or job running on this thread, each counted once in useCounts. null outside beginUse/endUse
+    private static final ThreadLocal<Set<String>> archivesUsedByThread = new ThreadLocal<>();
+
+    /**
+     * an archive loaded from disk, registered with CacheRegistry. when memory is low, it can be unloaded and is then loaded again on its next lookup.
+     * only in discovery and delivery modes, in which archives are not modified, so that unloading loses nothing.
+     */
+    private static class LoadedArchive implements CacheRegistry.Evictable {
+        final String archiveID, dir;
+        final ModeConfig.Mode mode;
+        final long estimatedBytes, loadMillis;
+
+        LoadedArchive(String archiveID, String dir, ModeConfig.Mode mode, long estimatedBytes, long loadMillis) {
+            this.archiveID = archiveID;
+            this.dir = dir;
+            this.mode = mode;
+            this.estimatedBytes = estimatedBytes;
+            this.loadMillis = loadMillis;
+        }
+
+        public long estimatedBytes() {
+            return estimatedBytes;
+        }
+
+        public long rebuildCostMillis() {
+            return loadMillis;
+        }
+
+        public boolean evict() {
+            if (!ModeConfig.isDiscoveryMode() && !ModeConfig.isDeliveryMode())
+                return false;
+            synchronized (globaldirToArchiveMap) {
+                // checked under the lock that lookups acquire the archive under, so that no lookup can hand it out as it is closed
+                if (useCounts.containsKey(archiveID) || CacheRegistry.idleMillis(archiveCacheName(archiveID)) < MIN_IDLE_MILLIS_TO_UNLOAD)
+                    return false;
+                Archive archive = globalArchiveIDToArchiveMap.get(archiveID);
+                if (archive == null)
+                    return false;
+                evictedArchives.put(archiveID, this);
+                removeFromGlobalArchiveMap(dir, archive);
+                archive.close();
+            }
+            log.info("Unloaded archive " + archiveID + " from " + dir + " to free memory");
+            return true;
+        }
+    }
+
+    private static String archiveCacheName(String archiveID) {
+        return "archive." + archiveID;
+    }
+
+    /**
+     * starts counting the archives looked up on this thread with getArchiveForArchiveID as in use, until endUse is called.
+     * called at the start of each request and job.
+     */
+    public static void beginUse() {
+        archivesUsedByThread.set(new LinkedHashSet<>());
+    }
+
+    /** releases the archives looked up on this thread since beginUse */
+    public static void endUse() {
+        Set<String> archiveIDs = archivesUsedByThread.get();
+        archivesUsedByThread.remove();
+        if (archiveIDs != null)
+            release(archiveIDs);
+    }
+
+    /**
+     * counts the archives looked up on this thread since beginUse as in use once more, and returns their IDs, to be passed to release.
+     * for work that outlives the request, e.g. a job it submits.
+     */
+    public static Set<String> acquireArchivesInUse() {
+        Set<String> archiveIDs = archivesUsedByThread.get();
+        if (archiveIDs == null || archiveIDs.isEmpty())
+            return Collections.emptySet();
+        Set<String> result = new LinkedHashSet<>(archiveIDs);
+        synchronized (globaldirToArchiveMap) {
+            for (String archiveID : result)
+                useCounts.merge(archiveID, 1, Integer::sum);
+        }
+        return result;
+    }
+
+    /** releases archives acquired with acquireArchivesInUse */
+    public static void release(Collection<String> archiveIDs) {
+        synchronized (globaldirToArchiveMap) {
+            for (String archiveID : archiveIDs)
+                useCounts.computeIfPresent(archiveID, (id, n) -> n > 1 ? n - 1 : null);
+        }
+    }
+
+    /** counts the archive as in use by the request or job on this thread, if it is not already. called with the globaldirToArchiveMap lock held */
+    private static void acquireForThread(String archiveID) {
+        Set<String> archiveIDs = archivesUsedByThread.get();
+        if (archiveIDs != null && archiveIDs.add(archiveID))
+            useCounts.merge(archiveID, 1, Integer::sum);
+    }
 
     //#############################################End: Weak reference cache for the archive object and archive#####################################
 
@@ -237,9 +345,9 @@ public class ArchiveReaderWriter{
             /////////////////////////////Done reading//////////////////////////////////////////////////////
             // most of this code should probably move inside Archive, maybe a function called "postDeserialized()"
             result.put("emailDocs", archive.getAllDocs());
-            log.info("Assigning thread IDs");
-            archive.assignThreadIds();
-            log.info("Thread IDs assigned successfully");
+            // only threads docs that are not in the archive's thread index yet, normally none
+            int threaded = archive.assignThreadIds();
+            log.info("Thread IDs assigned to " + threaded + " docs");
             log.info("Total time spent in archive loading is "+(System.currentTimeMillis()-startTime)+" milliseconds");
         }
 
@@ -838,7 +946,7 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
             return null;
 
         //else, the bag has been verified.. now load the content.
-        String archiveFile = baseDir + File.separator +  Archive.BAG_DATA_FOLDER+ File.separator + Archive.SESSIONS_SUBDIR + File.separator + "default" + SESSION_SUFFIX;
+        String archiveFile = sessionFile(baseDir);
         if (!new File(archiveFile).exists()) {
             return null;
         }
@@ -850,6 +958,9 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
             log.info ("Since server start, the archive: " + archiveFile + " has been (attempted to be) loaded " + Util.pluralize(newCount, "time"));
         }*/
 
+        // make room for the archive before taking the lock, since evicting another archive needs it too
+        CacheRegistry.ensureHeadroom(new File(archiveFile).length() * HEAP_BYTES_PER_SESSION_FILE_BYTE);
+
         try {
             // locking the global dir might be inefficient if many people are loading different archives at the same time.
             // not a concern right now. it it does become one, locking a small per-dir object like archiveFile.intern(), along with a ConcurrenctHashMap might handle it.
@@ -866,6 +977,7 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
                 }
 
                 log.info("Archive not already loaded, reading from dir: " + archiveFile);
+                long loadStartTime = System.currentTimeMillis();
                 Map<String, Object> map = loadSessionAsMap(archiveFile, baseDir, true,mode);
                 // read the session map, but only use archive
                 Archive a = (Archive) map.get("archive");
@@ -896,6 +1008,9 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
                     JSPHelper.log.info("Lexicons summary computed successfully in "+ (System.currentTimeMillis()-startTime) + " milliseconds");
 
                 }
+                String archiveID = getArchiveIDForArchive(a);
+                CacheRegistry.register(archiveCacheName(archiveID), new LoadedArchive(archiveID, baseDir, mode,
+                        new File(archiveFile).length() * HEAP_BYTES_PER_SESSION_FILE_BYTE, System.currentTimeMillis() - loadStartTime));
                 return a;
 
             }
@@ -919,7 +1034,7 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
         globalArchiveIDToArchiveMap.put(archiveID,archive);
         //for reverse mapping
         globalArchiveToArchiveIDMap.put(archive,archiveID);
-
+        archive.registerDerivedData(archiveCacheName(archiveID) + ".derived");
     }
 
     public static void removeFromGlobalArchiveMap(String archiveDir, Archive archive){
@@ -929,8 +1044,41 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
         String archiveID = globalArchiveToArchiveIDMap.get(archive);
         globalArchiveToArchiveIDMap.remove(archive);
         //remove from archiveID to archive mapping.
-        if(!Util.nullOrEmpty(archiveID))
+        if(!Util.nullOrEmpty(archiveID)) {
             globalArchiveIDToArchiveMap.remove(archiveID);
+            CacheRegistry.unregister(archiveCacheName(archiveID));
+            CacheRegistry.unregister(archiveCacheName(archiveID) + ".derived");
+        }
+    }
+
+    private static String sessionFile(String baseDir) {
+        return baseDir + File.separator +  Archive.BAG_DATA_FOLDER+ File.separator + Archive.SESSIONS_SUBDIR + File.separator + "default" + SESSION_SUFFIX;
+    }
+
+    /**
+     * roughly the heap it takes to get the archive in the given dir loaded: nothing if it is loaded already, else a multiple of the size of its
+     * session file (nothing if there is none). for the memory estimates of jobs that load the archive.
+     */
+    public static long estimateLoadBytes(String baseDir) {
+        synchronized (globaldirToArchiveMap) {
+            WeakReference<Archive> ref = getArchiveFromGlobalArchiveMap(baseDir);
+            if (ref != null && ref.get() != null)
+                return 0;
+        }
+        return new File(sessionFile(baseDir)).length() * HEAP_BYTES_PER_SESSION_FILE_BYTE;
+    }
+
+    /** roughly the heap the archive with the given ID takes when loaded, whether it is loaded right now or not. 0 if there is no such archive */
+    public static long estimateHeapBytes(String archiveID) {
+        if (archiveID == null)
+            return 0;
+        synchronized (globaldirToArchiveMap) {
+            Archive archive = globalArchiveIDToArchiveMap.get(archiveID);
+            if (archive != null)
+                return new File(sessionFile(archive.baseDir)).length() * HEAP_BYTES_PER_SESSION_FILE_BYTE;
+        }
+        LoadedArchive evicted = evictedArchives.get(archiveID);
+        return evicted == null ? 0 : evicted.estimatedBytes;
     }
 
     public static WeakReference<Archive> getArchiveFromGlobalArchiveMap(String archiveFile){
@@ -954,8 +1102,31 @@ public static void saveCollectionMetadata(Archive archive, Archive.Save_Archive_
     }
 
     //This function returns the archive for the given archiveID
+    //If the archive has been unloaded to free memory, it is loaded again.
+    //The archive counts as in use by the request or job on this thread until its endUse.
     public static Archive getArchiveForArchiveID(String archiveID){
-        return globalArchiveIDToArchiveMap.getOrDefault(archiveID,null);
+        Archive archive = lookupAndAcquire(archiveID);
+        if (archive == null && archiveID != null) {
+            LoadedArchive evicted = evictedArchives.get(archiveID);
+            if (evicted != null) {
+                log.info("Archive " + archiveID + " was unloaded to free memory, loading it again from " + evicted.dir);
+                if (readArchiveIfPresent(evicted.dir, evicted.mode) != null)
+                    evictedArchives.remove(archiveID);
+                archive = lookupAndAcquire(archiveID);
+            }
+        }
+        return archive;
+    }
+
+    private static Archive lookupAndAcquire(String archiveID) {
+        synchronized (globaldirToArchiveMap) {
+            Archive archive = globalArchiveIDToArchiveMap.get(archiveID);
+            if (archive != null) {
+                acquireForThread(archiveID);
+                CacheRegistry.touch(archiveCacheName(archiveID));
+            }
+            return archive;
+        }
     }
 
     /**
@@ -16,10 +16,12 @@
 package edu.stanford.muse.index;
 
 import com.google.common.collect.Multimap;
+import edu.stanford.muse.AnnotationManager.AnnotationManager;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Util;
 import edu.stanford.muse.webapp.EmailRenderer;
 import edu.stanford.muse.webapp.JSPHelper;
+import org.json.JSONArray;
 
 import java.util.*;
 
@@ -68,6 +70,19 @@ public class DataSet {
         return "Data set with " + size() + " documents";
     }
 
+    /** returns the browse page metadata (see EmailRenderer.metadataForDocument) of up to count docs from start on, in order */
+    public JSONArray getMetadataForMessages(int start, int count) {
+        JSONArray result = new JSONArray();
+        int end = Math.min(docs.size(), start + count);
+        if (start < 0 || start >= end)
+            return result;
+        Archive archive = searchResult.getArchive();
+        AnnotationManager annotationManager = archive.getAnnotationManager();
+        for (int i = start; i < end; i++)
+            result.put(i - start, EmailRenderer.metadataForDocument(docs.get(i), archive, annotationManager));
+        return result;
+    }
+
     /* returns message browsing html for doc i.
     Caches the html once computed (Removed during refactoring. It was done in variable called pages).
      In the front end jog plugin also does caching so removed server sided caching for simplicity*/
@@ -0,0 +1,154 @@
+package edu.stanford.muse.index;
+
+import edu.stanford.muse.email.EmailFetcherThread;
+
+import java.util.*;
+
+/**
+ * A date-sorted view of a collection of docs. Docs in a date range are found by binary search over the sorted times,
+ * instead of a scan over all the docs, and histograms over date intervals are computed from the sorted times in O(#intervals * log n).
+ * The index is immutable; Archive.getDateIndex() rebuilds it when the archive's docs change.
+ * Docs without a date are not part of the index.
+ */
+public class DateIndex {
+    private final DatedDocument[] docs; // sorted by date
+    private final long[] times; // times[i] == docs[i].date.getTime()
+
+    // excluded[i] is the # of docs among docs[0..i) that histograms ignore: those with EmailFetcherThread.INVALID_DATE (date only), and those with a hacky date,
+    // which EmailUtils.datesForDocs leaves out
+    private final int[] excluded;
+
+    public DateIndex(Collection<? extends Document> c) {
+        List<DatedDocument> list = new ArrayList<>(c.size());
+        for (Document d : c)
+            if (d instanceof DatedDocument && ((DatedDocument) d).date != null)
+                list.add((DatedDocument) d);
+        list.sort(Comparator.comparing(d -> d.date));
+
+        docs = list.toArray(new DatedDocument[0]);
+        times = new long[docs.length];
+        for (int i = 0; i < docs.length; i++)
+            times[i] = docs[i].date.getTime();
+
+        Calendar c1 = new GregorianCalendar();
+        c1.setTime(EmailFetcherThread.INVALID_DATE);
+        Calendar invalidDayStart = new GregorianCalendar(c1.get(Calendar.YEAR), c1.get(Calendar.MONTH), c1.get(Calendar.DATE));
+        Calendar invalidDayEnd = (Calendar) invalidDayStart.clone();
+        invalidDayEnd.add(Calendar.DATE, 1);
+        int invalidStart = lowerBound(invalidDayStart.getTimeInMillis());
+        int invalidEnd = lowerBound(invalidDayEnd.getTimeInMillis());
+
+        excluded = new int[docs.length + 1];
+        for (int i = 0; i < docs.length; i++)
+            excluded[i + 1] = excluded[i] + ((docs[i].hackyDate || (i >= invalidStart && i < invalidEnd)) ? 1 : 0);
+    }
+
+    public int size() {
+        return docs.length;
+    }
+
+    /** rough heap footprint, for CacheRegistry: a reference, a long and an int per doc */
+    public long estimatedBytes() {
+        return 20L * docs.length + 64;
+    }
+
+    /** returns the # of docs with time < t */
+    private int lowerBound(long t) {
+        int lo = 0, hi = times.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < t)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /** returns the # of docs with time <= t */
+    private int upperBound(long t) {
+        return t == Long.MAX_VALUE ? times.length : lowerBound(t + 1);
+    }
+
+    /** the doc at the given position in date order, 0 <= ordinal < size() */
+    public DatedDocument getDoc(int ordinal) {
+        return docs[ordinal];
+    }
+
+    public long getTime(int ordinal) {
+        return times[ordinal];
+    }
+
+    /** returns {lo, hi} such that the docs with ordinals in [lo, hi) are those with start <= date <= end. a null start or end means unbounded on that side */
+    public int[] ordinalRange(Date start, Date end) {
+        int lo = (start == null) ? 0 : lowerBound(start.getTime());
+        int hi = (end == null) ? times.length : upperBound(end.getTime());
+        return new int[]{lo, Math.max(lo, hi)};
+    }
+
+    /** returns docs with start <= date <= end, sorted by date. a null start or end means unbounded on that side */
+    public List<DatedDocument> selectDocs(Date start, Date end) {
+        int lo = (start == null) ? 0 : lowerBound(start.getTime());
+        int hi = (end == null) ? times.length : upperBound(end.getTime());
+        if (hi <= lo)
+            return new ArrayList<>();
+        return new ArrayList<>(Arrays.asList(docs).subList(lo, hi));
+    }
+
+    /**
+     * returns those docs of among that have start <= date <= end (both inclusive).
+     * walks whichever is smaller: the slice of this index in the range, or among.
+     * docs in among that are not in this index are only considered when among is walked, so among should be a subset of the indexed docs.
+     */
+    public <D extends Document> Set<D> selectDocs(Set<D> among, Date start, Date end) {
+        long s = (start == null) ? Long.MIN_VALUE : start.getTime();
+        long e = (end == null) ? Long.MAX_VALUE : end.getTime();
+        int lo = lowerBound(s), hi = upperBound(e);
+
+        Set<D> result = new LinkedHashSet<>();
+        if (hi - lo < among.size()) {
+            for (int i = lo; i < hi; i++)
+                //noinspection SuspiciousMethodCalls
+                if (among.contains(docs[i]))
+                    result.add((D) docs[i]);
+        } else {
+            for (D d : among) {
+                if (!(d instanceof DatedDocument) || ((DatedDocument) d).date == null)
+                    continue;
+                long t = ((DatedDocument) d).date.getTime();
+                if (t >= s && t <= e)
+                    result.add(d);
+            }
+        }
+        return result;
+    }
+
+    /** # of docs with time <= t, not counting docs with an invalid or hacky date */
+    private int validCountUpTo(long t) {
+        int n = upperBound(t);
+        return n - excluded[n];
+    }
+
+    /**
+     * same as CalendarUtil.computeHistogram(EmailUtils.datesForDocs(all indexed docs), intervals, true), i.e. ignores hacky and invalid dates,
+     * and bin i counts dates in (intervals[i], intervals[i+1]], except that the first bin also includes intervals[0].
+     * intervals must be sorted. unlike CalendarUtil.computeHistogram, docs outside the intervals are ignored rather than being an error.
+     */
+    public int[] computeHistogram(List<Date> intervals) {
+        if (intervals == null || intervals.size() == 0)
+            return new int[0];
+
+        int[] counts = new int[intervals.size() - 1];
+        if (counts.length == 0)
+            return counts;
+
+        // prefix counts at each interval boundary
+        int prev = validCountUpTo(intervals.get(0).getTime() - 1); // docs strictly before the first boundary are not counted
+        for (int i = 0; i < counts.length; i++) {
+            int next = validCountUpTo(intervals.get(i + 1).getTime());
+            counts[i] = next - prev;
+            prev = next;
+        }
+        return counts;
+    }
+}
@@ -58,6 +58,7 @@ public class EmailDocument extends DatedDocument implements Serializable
 	public Set<String> folderNames = new LinkedHashSet<>(), emailSources = new LinkedHashSet<>(); // email can now belong to multiple folders, folderName field also maintained for backward compatibility
 	public Address[] to, from, cc, bcc; // note: for some reason from[] is an array in JavaMail, because it was supposed to be possible for a message to have multiple senders.
 	public String messageID;
+	public List<String> references; // ids of the messages this one follows up on, from its References header (or In-Reply-To without one), oldest first. null for messages imported before these were kept
 	private String uniqueID=null;
 	public String sentToMailingLists[];
 	public List<Blob> attachments;
@@ -233,7 +234,7 @@ public class EmailDocument extends DatedDocument implements Serializable
 			String messagebody=null;
 			String headersOriginal = null;
 			if(doc!=null) {
-				messagebody = doc.get("body_original");
+				messagebody = archive.indexer.getOriginalBody(doc);
 				headersOriginal = doc.get("headers_original");
 			}
 			else
@@ -809,23 +810,9 @@ public class EmailDocument extends DatedDocument implements Serializable
 
 	private static void fillAddressBookFromTrustedAddresses(Collection<EmailDocument> docs, Set<String> trustedAddrs, AddressBook addressBook) {
 
-		// 2 passes here: first pass just to unify and find all own email addrs
-		for (EmailDocument ed: docs)
-			addressBook.processContactsFromMessage (ed, trustedAddrs);
-		addressBook.organizeContacts();
-		//		ownAddrs = addressBook.computeAllAddrsFor(ownAddrs);
-
-		//		log.info ("All my email addrs: ");
-		//		for (String s: ownAddrs)
-		//			log.info (s);
-
-		// now look for the real contacts, creating a new contacts set object
-		// reporcess all messages because we may have misclassified messages wrt sent/received in the first round
-		EmailFetcherThread.log.debug ("Second pass processing contacts for " + docs.size() + " messages");
-		//		AddressBook newCS = addressBook.deepClone();
-		addressBook.resetCounts();
-		for (EmailDocument ed: docs)
-			addressBook.processContactsFromMessage(ed, trustedAddrs);
+		// the names and email addrs in all messages are unified at once, which also finds all own email addrs, before any message
+		// is classified as sent/received. so there is no need for a second pass to fix up messages misclassified in a first one.
+		addressBook.processContactsFromMessages(docs, trustedAddrs);
 		addressBook.organizeContacts();
 		//now fill summary object inside that addressbook.
 		Collection<Document> alldocs = new ArrayList<>(docs);
@@ -0,0 +1,13 @@
+package edu.stanford.muse.index;
+
+import org.apache.lucene.document.FieldType;
+
+/** same as FieldTypeStoredAnalysedTokenized, but the value is not stored. used for fields whose stored value can be derived from another stored field. */
+public class FieldTypeAnalysedTokenized extends FieldType {
+    FieldTypeAnalysedTokenized() {
+        super();
+        this.setStored(false);
+        this.setIndexOptions(org.apache.lucene.index.IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        this.freeze();
+    }
+}
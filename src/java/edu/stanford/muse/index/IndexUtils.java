@@ -1080,6 +1080,13 @@ public class IndexUtils {
 
 	/** Compute facet list for message browsing screen.*/
 	public static Map<String, Collection<DetailedFacetItem>> computeDetailedFacetsForMessageBrowsing(Collection<Document> docs, Archive archive)
+	{
+		try (Metrics.Span s = Metrics.span("facets.messages")) {
+			return computeMessageFacets(docs, archive);
+		}
+	}
+
+	private static Map<String, Collection<DetailedFacetItem>> computeMessageFacets(Collection<Document> docs, Archive archive)
 	{
 		AddressBook addressBook = archive.addressBook;
 
@@ -1221,6 +1228,13 @@ public class IndexUtils {
 	attachment specific.
 	 */
 	public static Map<String, Collection<DetailedFacetItem>> computeDetailedFacetsForAttachmentBrowsing(Multimap<String, String> request, Collection<Document> docs, Archive archive)
+	{
+		try (Metrics.Span s = Metrics.span("facets.attachments")) {
+			return computeAttachmentFacets(request, docs, archive);
+		}
+	}
+
+	private static Map<String, Collection<DetailedFacetItem>> computeAttachmentFacets(Multimap<String, String> request, Collection<Document> docs, Archive archive)
 	{
 		AddressBook addressBook = archive.addressBook;
 
@@ -1382,13 +1396,22 @@ public class IndexUtils {
 	public static List<DatedDocument> selectDocsByDateRange(Collection<DatedDocument> c, int startY, int startM, int startD, int endY, int endM, int endD)
 	{
 		Pair<Date, Date> p = CalendarUtil.getDateRange(startY, startM - 1, startD, endY, endM - 1, endD);
-		Date startDate = p.getFirst(), endDate = p.getSecond();
+		return selectDocsByDateRange(c, p.getFirst(), p.getSecond());
+	}
 
+	/** same as above, but uses the archive's date index: docs in c that are in the given date range (inclusive). c should be a subset of the archive's docs */
+	public static <D extends Document> Set<D> selectDocsByDateRange(Archive archive, Set<D> c, int startY, int startM, int startD, int endY, int endM, int endD)
+	{
+		Pair<Date, Date> p = CalendarUtil.getDateRange(startY, startM - 1, startD, endY, endM - 1, endD);
+		return archive.getDateIndex().selectDocs(c, p.getFirst(), p.getSecond());
+	}
+
+	private static List<DatedDocument> selectDocsByDateRange(Collection<DatedDocument> c, Date startDate, Date endDate)
+	{
 		List<DatedDocument> result = new ArrayList<>();
 		for (DatedDocument d : c)
 		{
             //we want docs with the same date (year, month, date) or after start date
-            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
 			if (!startDate.after(d.date) && !endDate.before(d.date))
 				result.add(d);
 		}
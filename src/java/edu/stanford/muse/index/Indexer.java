@@ -46,7 +46,9 @@ import org.apache.lucene.search.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BitSetIterator;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.Version;
 import org.apache.lucene.util.automaton.RegExp;
 
@@ -82,6 +84,9 @@ import java.util.regex.Pattern;
 @Getter
 public class Indexer implements StatusProvider, java.io.Serializable {
 	static final Logger					log					= LogManager.getLogger(Indexer.class);
+	private static final Metrics.Counter	LUCENE_HITS			= Metrics.counter("search.lucene.hits");
+	private static final Metrics.Counter	BATCH_QUERIES		= Metrics.counter("search.lucene.batch.queries");
+	private static final Metrics.Histogram	BATCH_MILLIS		= Metrics.histogram("search.lucene.batch.millis");
 	private static final long	serialVersionUID	= 1L;
 
 	/** these enums should move out of this class if Indexer is to be made protected because they are part of the API -sgh */
@@ -102,6 +107,13 @@ public class Indexer implements StatusProvider, java.io.Serializable {
 	private static final String	INDEX_BASE_DIR_NAME			= Archive.INDEXES_SUBDIR;
 	private static final String	INDEX_NAME_EMAILS			= "emails";
 	private static final String	INDEX_NAME_ATTACHMENTS		= "attachments";
+	// stored marker on a lucene doc meaning that body_original was not stored, but has to be derived from the stored body field
+	static final String			BODY_ORIGINAL_REF_FIELD		= "body_original_ref";
+	// message bodies longer than this are split; the first part goes into the message's own lucene doc, the rest into chunk docs
+	// that carry the message's id in PARENT_DOCID_FIELD (and no docId field), so they are collapsed back to the message on search.
+	static final int			MAX_BODY_CHUNK_SIZE			= 32766;
+	static final String			PARENT_DOCID_FIELD			= "parent_docId";
+	private static final String	CHUNK_NUM_FIELD				= "chunk";
     //I dont see why the presetQueries cannot be static. As we read these from a file, there cannot be two set of preset queries for two (or more) archives in session
 	static String[]		presetQueries				= null;
 
@@ -130,6 +142,7 @@ public class Indexer implements StatusProvider, java.io.Serializable {
 	final transient private static FieldType storeOnly_ft = new FieldTypeStoredOnly();
 	private static final transient FieldTypeStoredAnalyzed ft = new FieldTypeStoredAnalyzed();
 	static final transient FieldType full_ft = new FieldTypeStoredAnalysedTokenized();
+	private static final transient FieldType indexOnly_full_ft = new FieldTypeAnalysedTokenized();					// like full_ft, but not stored. used for body_original when Config.DEDUP_BODY_ORIGINAL is on
 	static transient FieldType unanalyzed_full_ft;													// unanalyzed_full_ft for regex search
 	private static final CharArraySet MUSE_STOP_WORDS_SET = StopWords.getCharArraySet();
 
@@ -429,7 +442,7 @@ public class Indexer implements StatusProvider, java.io.Serializable {
 			// Util.commatize(stats.processedTextLength_blob/1024) +
 			// "K chars of attachments processed, " + stats.nProcessedNames_blob
 			// + " names in attachments\n" +
-			result += Util.commatize(InternTable.getSizeInChars()) + " chars in " + Util.commatize(InternTable.getNEntries()) + " entries in intern table\n";
+			result += InternTable.getStats() + "\n";
 		}
 		Util.getMemoryStats();
 
@@ -735,7 +748,7 @@ public class Indexer implements StatusProvider, java.io.Serializable {
                     log.warn ("!!!!!!!\nIndex reader has " + ireader.numDocs() + " doc(s) of which " + ireader.numDeletedDocs() + " are deleted)\n!!!!!!!!!!");
 				isearcher = new IndexSearcher(ireader);
 				contentDocIds = new LinkedHashMap<>();
-                numContentDocs = ireader.numDocs();
+                numContentDocs = numMessageDocs(ireader); // not the chunk docs of long messages
                 numContentDeletedDocs = ireader.numDeletedDocs();
 
                 Bits liveDocs = MultiFields.getLiveDocs(ireader);
@@ -1045,6 +1058,7 @@ is what we want.
 		org.apache.lucene.document.Document doc = new org.apache.lucene.document.Document(); // not to be confused with edu.stanford.muse.index.Document
 
 		String id = d.getUniqueId();
+		String fullContent = null; // set only for email docs, before the body is truncated
 		//		softAssertDocIdNotPresent(id);
 
 		// imp: for id, should use Field.Index.NOT_ANALYZED field should be http://vuknikolic.wordpress.com/2011/01/03/lucenes-field-options-store-and-index-aka-rtfm/
@@ -1099,11 +1113,11 @@ is what we want.
 
 			//IMP: Field body sometimes wrongly include the attachment binary resulting in large size of this term. This further results in throwing an
 			//exception when adding this document in the index. Therefore truncate the size of body upto 32766.
-			int len = content.length()>32766?32766:content.length();
+			//the remainder is not dropped, but indexed in chunk docs below (see makeBodyChunkDocs)
+			//the body is cut at the end of a line where possible, so that the original content of the body and of each chunk is the same as in the full text
+			fullContent = content;
+			int len = chunkEnd(content, 0, MAX_BODY_CHUNK_SIZE);
 			content = content.substring(0,len);
-			if(len!=content.length()){
-			    //mark dataerror to record this truncation.@TODO
-            }
 
 			storeHeaders(doc, headerList);
 			storeTextHtmlPart(doc, textHtmlPart);
@@ -1118,8 +1132,14 @@ is what we want.
 		// doc.add(new Field("body", body, Field.Store.YES, Field.Index.ANALYZED));
 
 		// body original is the original content in the message. (i.e. non-quoted, non-forwarded, etc.)
+		// in dedup mode, it is only indexed, not stored, since the stored value is fully determined by the body field.
+		// this avoids storing the (often largely quoted) text twice.
 		String bodyOriginal = EmailUtils.getOriginalContent(content);
-		doc.add(new Field("body_original", bodyOriginal, full_ft));
+		if (Config.DEDUP_BODY_ORIGINAL && d instanceof EmailDocument) {
+			doc.add(new Field("body_original", bodyOriginal, indexOnly_full_ft));
+			doc.add(new Field(BODY_ORIGINAL_REF_FIELD, "body", storeOnly_ft));
+		} else
+			doc.add(new Field("body_original", bodyOriginal, full_ft));
 		int originalTextLength = bodyOriginal.length();
 		Set<String> namesOriginal;
 
@@ -1154,8 +1174,15 @@ is what we want.
 			doc.add(new Field("names_original", namesOriginalString, full_ft));
 		}
 
+		List<org.apache.lucene.document.Document> chunkDocs = makeBodyChunkDocs(id, fullContent, content);
 		try {
-			iwriter.addDocument(doc);
+			if (chunkDocs.isEmpty())
+				iwriter.addDocument(doc);
+			else {
+				// add the chunks and the message as one block so they stay adjacent in the index
+				chunkDocs.add(doc);
+				iwriter.addDocuments(chunkDocs);
+			}
 		}catch(IllegalArgumentException exception){
 			exception.printStackTrace(); //There were few instances where add Document failed. This catch is to detect those cases which will otherwise ripple to ner recognition phase
 			//because the document will not be found in lucene index if addDocument failed.
@@ -1171,6 +1198,80 @@ is what we want.
 		}
 	}
 
+	/**
+	 * returns lucene docs (possibly empty list, never null) for the parts of fullContent that did not fit into the truncated body of the message.
+	 * the tail is split like the body was, at the end of a line where possible, otherwise at whitespace, so that words are not broken across chunks.
+	 * the body_original of a chunk is the original content of its own body text, up to where the original content of the full text ends;
+	 * since original content is worked out line by line, this gives the same lines as the original content of the full text.
+	 * in dedup mode, it is only indexed, and can be derived again from the chunk's body like for the message itself.
+	 * chunk docs have no docId field, so that lookups by docId always find the message's own lucene doc.
+	 */
+	private List<org.apache.lucene.document.Document> makeBodyChunkDocs(String parentId, String fullContent, String truncatedContent) {
+		List<org.apache.lucene.document.Document> result = new ArrayList<>();
+		if (fullContent == null || fullContent.length() <= truncatedContent.length())
+			return result;
+
+		int originalEnd = EmailUtils.originalContentEnd(fullContent);
+		int start = truncatedContent.length();
+		while (start < fullContent.length()) {
+			int end = chunkEnd(fullContent, start, MAX_BODY_CHUNK_SIZE);
+			String body = fullContent.substring(start, end);
+			org.apache.lucene.document.Document chunk = new org.apache.lucene.document.Document();
+			chunk.add(new Field(PARENT_DOCID_FIELD, parentId, ft));
+			chunk.add(new Field(CHUNK_NUM_FIELD, Integer.toString(result.size() + 1), storeOnly_ft));
+			chunk.add(new Field("body", body, full_ft));
+			// chunks past the end of the original content have no body_original
+			if (start < originalEnd) {
+				String bodyOriginal = EmailUtils.getOriginalContent(body);
+				if (Config.DEDUP_BODY_ORIGINAL) {
+					chunk.add(new Field("body_original", bodyOriginal, indexOnly_full_ft));
+					chunk.add(new Field(BODY_ORIGINAL_REF_FIELD, "body", storeOnly_ft));
+				} else
+					chunk.add(new Field("body_original", bodyOriginal, full_ft));
+			}
+			result.add(chunk);
+			start = end;
+		}
+		log.info("Indexed body of message " + parentId + " (" + fullContent.length() + " chars) with " + result.size() + " additional chunk(s)");
+		return result;
+	}
+
+	/**
+	 * returns where the chunk of s starting at start and at most maxSize chars long should end: just after a line break if there is one in the second half of the chunk,
+	 * otherwise just after a whitespace char in the second half, otherwise at maxSize.
+	 */
+	static int chunkEnd(String s, int start, int maxSize) {
+		int end = Math.min(start + maxSize, s.length());
+		if (end == s.length())
+			return end;
+		int min = start + maxSize / 2;
+		for (int i = end; i > min; i--)
+			if (s.charAt(i - 1) == '\n')
+				return i;
+		for (int i = end; i > min; i--)
+			if (Character.isWhitespace(s.charAt(i - 1)))
+				return i;
+		return end;
+	}
+
+	/** returns the docId of the message a lucene doc belongs to, i.e. its own docId, or for a body chunk doc, the docId of its parent message */
+	static String getDocIdOrParentId(org.apache.lucene.document.Document ldoc) {
+		String docId = ldoc.get("docId");
+		return docId != null ? docId : ldoc.get(PARENT_DOCID_FIELD);
+	}
+
+	/** returns the body chunk docs of the given message (empty if the body was not chunked) in chunk order */
+	private List<org.apache.lucene.document.Document> getBodyChunkLDocs(String docId) throws IOException {
+		List<org.apache.lucene.document.Document> result = new ArrayList<>();
+		if (isearcher == null)
+			return result;
+		TopDocs td = isearcher.search(new TermQuery(new Term(PARENT_DOCID_FIELD, docId)), Integer.MAX_VALUE);
+		for (ScoreDoc sd : td.scoreDocs)
+			result.add(isearcher.doc(sd.doc));
+		result.sort(Comparator.comparingInt(ldoc -> Integer.parseInt(ldoc.get(CHUNK_NUM_FIELD))));
+		return result;
+	}
+
 	void updateDocument(org.apache.lucene.document.Document doc) {
 		try {
 			iwriter.updateDocument(new Term("docId", doc.get("docId")), doc);
@@ -1252,7 +1353,7 @@ is what we want.
         if(attachmentType)
             fieldsArray = new String[]{"body","meta","fileName","docId","emailDocId","languages"};
         else
-            fieldsArray = new String[]{"body","headers_original","body_original","docId","title","to_emails","from_emails","cc_emails","bcc_emails","to_names","from_names",
+            fieldsArray = new String[]{"body","headers_original","body_original",BODY_ORIGINAL_REF_FIELD,PARENT_DOCID_FIELD,CHUNK_NUM_FIELD,"docId","title","to_emails","from_emails","cc_emails","bcc_emails","to_names","from_names",
                     "cc_names","bcc_names","languages","names","names_original","en_names_title"};
 
         Set<String> fieldsToLoad = new HashSet<String>();
@@ -1266,7 +1367,7 @@ is what we want.
             if(liveDocs!=null && !liveDocs.get(i))
                 continue;
 
-            if(doc == null || doc.get("docId") == null)
+            if(doc == null || getDocIdOrParentId(doc) == null)
                 continue;
             result.add(doc);
             //contentDocIds.put(i, doc.get("docId"));
@@ -1416,6 +1517,209 @@ is what we want.
 		return result;
 	}
 
+	/**
+	 * like docsForQuery with default options except for the query type, but for several queries at once: returns key -> docs matching the query for that key.
+	 * keys whose query has no hits are not in the result.
+	 * see luceneLookupAsDocIdsForQueries for how the queries are evaluated together.
+	 */
+	Map<String, Set<edu.stanford.muse.index.Document>> docsForQueries(Map<String, String> keyToQuery, QueryType qt)
+	{
+		Map<String, Set<edu.stanford.muse.index.Document>> result = new LinkedHashMap<>();
+		try {
+			Map<String, Set<String>> keyToDocIds = luceneLookupAsDocIdsForQueries(keyToQuery, isearcher, qt);
+			for (String key : keyToDocIds.keySet()) {
+				Set<edu.stanford.muse.index.Document> docs = new LinkedHashSet<>();
+				for (String d : keyToDocIds.get(key)) {
+					EmailDocument ed = docIdToEmailDoc.get(d);
+					if (ed != null)
+						docs.add(ed);
+					else
+						log.warn("Index hit for doc id " + d + " but doc does not exist!");
+				}
+				if (!docs.isEmpty())
+					result.put(key, docs);
+			}
+		} catch (Exception e) {
+			Util.print_exception(e, log);
+		}
+		return result;
+	}
+
+	/** like blobsForQuery, but for several queries at once: returns key -> blobs matching the query for that key. */
+	Map<String, Set<Blob>> blobsForQueries(Map<String, String> keyToQuery)
+	{
+		Map<String, Set<Blob>> result = new LinkedHashMap<>();
+		if (isearcher_blob == null)
+			return result;
+		try {
+			Map<String, Set<String>> keyToDocIds = luceneLookupAsDocIdsForQueries(keyToQuery, isearcher_blob, QueryType.FULL);
+			for (String key : keyToDocIds.keySet()) {
+				Set<Blob> blobs = new LinkedHashSet<>();
+				for (String d : keyToDocIds.get(key)) {
+					Blob b = attachmentDocIdToBlob.get(d);
+					if (b != null)
+						blobs.add(b);
+					else
+						log.warn("Index hit for blob id " + d + " but blob does not exist in map!");
+				}
+				if (!blobs.isEmpty())
+					result.put(key, blobs);
+			}
+		} catch (Exception e) {
+			Util.print_exception(e, log);
+		}
+		return result;
+	}
+
+	private QueryParser getParserForQueryType(QueryType qt) {
+		switch (qt) {
+			case ORIGINAL:
+				return parserOriginal;
+			case SUBJECT:
+				return parserSubject;
+			case CORRESPONDENTS:
+				return parserCorrespondents;
+			case META:
+				return parserMeta;
+			case FULL:
+				return parser;
+			default:
+				throw new IllegalArgumentException("Query type " + qt + " can not be evaluated with a query parser");
+		}
+	}
+
+	/**
+	 * evaluates several queries together, and returns key -> docIds matching the query for that key (with body chunks collapsed to their message).
+	 * each query is parsed as in luceneLookupAsDocIdsWithTotalHits and flattened into its OR'ed clauses.
+	 * clauses shared between queries are evaluated only once, and all the single term clauses are evaluated in one walk over the terms dictionary
+	 * of each field, reading the postings of each distinct term once. other clauses (e.g. phrases) are evaluated as separate searches.
+	 * This is much cheaper than a full search per query when there are many queries made up of many terms (e.g. the categories of a lexicon).
+	 * Unlike luceneLookupAsDocIds, the number of hits is not capped at Config.MAX_DOCS_PER_QUERY.
+	 */
+	private Map<String, Set<String>> luceneLookupAsDocIdsForQueries(Map<String, String> keyToQuery, IndexSearcher searcher, QueryType qt) throws IOException, ParseException {
+		long startTime = System.currentTimeMillis();
+		QueryParser queryParser = getParserForQueryType(qt);
+
+		// clause -> clause #, and key -> clause #s of its query
+		Map<Query, Integer> clauseToNum = new LinkedHashMap<>();
+		Map<String, List<Integer>> keyToClauseNums = new LinkedHashMap<>();
+		for (String key : keyToQuery.keySet()) {
+			String q = keyToQuery.get(key);
+			if (Util.nullOrEmpty(q))
+				continue;
+			List<Query> clauses = new ArrayList<>();
+			flattenDisjunction(queryParser.parse(q), clauses);
+			List<Integer> nums = new ArrayList<>();
+			for (Query clause : clauses)
+				nums.add(clauseToNum.computeIfAbsent(clause, c -> clauseToNum.size()));
+			keyToClauseNums.put(key, nums);
+		}
+
+		IndexReader reader = searcher.getIndexReader();
+		int maxDoc = reader.maxDoc();
+		FixedBitSet[] clauseHits = new FixedBitSet[clauseToNum.size()];
+
+		// term clauses, grouped by field, with terms sorted so that each field's terms dictionary is walked only forward
+		Map<String, TreeMap<BytesRef, List<Integer>>> fieldToTerms = new LinkedHashMap<>();
+		for (Map.Entry<Query, Integer> e : clauseToNum.entrySet()) {
+			clauseHits[e.getValue()] = new FixedBitSet(maxDoc);
+			if (e.getKey() instanceof TermQuery) {
+				Term t = ((TermQuery) e.getKey()).getTerm();
+				fieldToTerms.computeIfAbsent(t.field(), f -> new TreeMap<>()).computeIfAbsent(t.bytes(), b -> new ArrayList<>()).add(e.getValue());
+			}
+		}
+
+		int nTerms = 0;
+		for (LeafReaderContext ctx : reader.leaves()) {
+			LeafReader leafReader = ctx.reader();
+			Bits liveDocs = leafReader.getLiveDocs();
+			for (Map.Entry<String, TreeMap<BytesRef, List<Integer>>> fe : fieldToTerms.entrySet()) {
+				Terms terms = leafReader.terms(fe.getKey());
+				if (terms == null)
+					continue;
+				TermsEnum termsEnum = terms.iterator();
+				PostingsEnum postings = null;
+				for (Map.Entry<BytesRef, List<Integer>> te : fe.getValue().entrySet()) {
+					if (!termsEnum.seekExact(te.getKey()))
+						continue;
+					nTerms++;
+					postings = termsEnum.postings(postings, PostingsEnum.NONE);
+					// all clauses for this term get the same hits, so collect into the first and copy to the rest
+					FixedBitSet hits = clauseHits[te.getValue().get(0)];
+					for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+						if (liveDocs == null || liveDocs.get(doc))
+							hits.set(ctx.docBase + doc);
+					for (int i = 1; i < te.getValue().size(); i++)
+						clauseHits[te.getValue().get(i)].or(hits);
+				}
+			}
+		}
+
+		// the other clauses, one search each
+		for (Map.Entry<Query, Integer> e : clauseToNum.entrySet()) {
+			if (e.getKey() instanceof TermQuery)
+				continue;
+			FixedBitSet hits = clauseHits[e.getValue()];
+			searcher.search(e.getKey(), new SimpleCollector() {
+				int docBase;
+				@Override
+				protected void doSetNextReader(LeafReaderContext context) { docBase = context.docBase; }
+				@Override
+				public void collect(int doc) { hits.set(docBase + doc); }
+				@Override
+				public boolean needsScores() { return false; }
+			});
+		}
+
+		// now OR the clauses of each query, and map lucene doc ids to our doc ids (once per lucene doc)
+		Map<Integer, String> ldocIdToDocId = new HashMap<>();
+		Set<String> fieldsToLoad = new HashSet<>(Arrays.asList("docId", PARENT_DOCID_FIELD));
+		Map<String, Set<String>> result = new LinkedHashMap<>();
+		for (String key : keyToClauseNums.keySet()) {
+			FixedBitSet queryHits = new FixedBitSet(maxDoc);
+			for (int num : keyToClauseNums.get(key))
+				queryHits.or(clauseHits[num]);
+
+			Set<String> docIds = new LinkedHashSet<>();
+			BitSetIterator it = new BitSetIterator(queryHits, 0 /* cost, not used */);
+			for (int ldocId = it.nextDoc(); ldocId != DocIdSetIterator.NO_MORE_DOCS; ldocId = it.nextDoc()) {
+				String docId = ldocIdToDocId.get(ldocId);
+				if (docId == null) {
+					docId = getDocIdOrParentId(searcher.doc(ldocId, fieldsToLoad));
+					if (docId == null)
+						continue;
+					ldocIdToDocId.put(ldocId, docId);
+				}
+				docIds.add(docId);
+			}
+			result.put(key, docIds);
+		}
+		log.info("Evaluated " + keyToClauseNums.size() + " queries with " + clauseToNum.size() + " distinct clauses (" + nTerms + " term postings read) in " + (System.currentTimeMillis() - startTime) + " ms");
+		BATCH_QUERIES.add(keyToClauseNums.size());
+		BATCH_MILLIS.record(System.currentTimeMillis() - startTime);
+		return result;
+	}
+
+	/** adds the OR'ed clauses of q to result, looking into nested pure disjunctions. boosts are dropped since they don't affect which docs match. */
+	private static void flattenDisjunction(Query q, List<Query> result) {
+		while (q instanceof BoostQuery)
+			q = ((BoostQuery) q).getQuery();
+
+		if (q instanceof BooleanQuery) {
+			BooleanQuery bq = (BooleanQuery) q;
+			boolean pureDisjunction = bq.getMinimumNumberShouldMatch() == 0 && !bq.clauses().isEmpty();
+			for (BooleanClause clause : bq.clauses())
+				if (clause.getOccur() != BooleanClause.Occur.SHOULD)
+					pureDisjunction = false;
+			if (pureDisjunction) {
+				for (BooleanClause clause : bq.clauses())
+					flattenDisjunction(clause.getQuery(), result);
+				return;
+			}
+		}
+		result.add(q);
+	}
+
     int countHitsForQuery(String q, QueryType qt) {
     	/*
 		if (Util.nullOrEmpty(q)) {
@@ -1515,6 +1819,7 @@ is what we want.
 
 		//copy fields from dsrc to newdoc
 		dsrc.getFields().forEach(newdoc::add);
+		restoreDerivedFields(newdoc);
 		//add to map docIDtoEmailDoc
 		docIdToEmailDoc.put(edoc.getUniqueId(), edoc);
 
@@ -1545,8 +1850,22 @@ is what we want.
 			attachmentDocIdToBlob.put(newid,b);
 		}
 
+		//body chunks (if any) go along with the message, as in add1DocToIndex
+		List<org.apache.lucene.document.Document> newChunkDocs = new ArrayList<>();
+		for (org.apache.lucene.document.Document chunksrc : srcindexer.getBodyChunkLDocs(edoc.getUniqueId())) {
+			org.apache.lucene.document.Document newchunkdoc = new org.apache.lucene.document.Document();
+			chunksrc.getFields().forEach(newchunkdoc::add);
+			restoreDerivedFields(newchunkdoc);
+			newChunkDocs.add(newchunkdoc);
+		}
+
 		//add newdoc to iwriter and all docattachments present in dattachments list to iwriter_blob.
-		iwriter.addDocument(newdoc);
+		if (newChunkDocs.isEmpty())
+			iwriter.addDocument(newdoc);
+		else {
+			newChunkDocs.add(newdoc);
+			iwriter.addDocuments(newChunkDocs);
+		}
 		for(org.apache.lucene.document.Document d: dattachments){
 			iwriter_blob.addDocument(d);
 		}
@@ -1611,7 +1930,11 @@ is what we want.
 		int totalHits = 0;
 		ScoreDoc[] hits = null;
 		if(query!=null) {
-			TopDocs tds = searcher.search(query,  lt, Sort.RELEVANCE);
+			TopDocs tds;
+			try (Metrics.Span s = Metrics.span("search.lucene")) {
+				tds = searcher.search(query, lt, Sort.RELEVANCE);
+			}
+			LUCENE_HITS.add(tds.totalHits);
 			log.info("Took: " + (System.currentTimeMillis() - st) + "ms for query:" + query);
 			hits = tds.scoreDocs;
 			totalHits = (int)tds.totalHits;
@@ -1638,12 +1961,17 @@ is what we want.
 
 		int n_added = 0;
 		log.info("Found: " + hits.length + " hits for query: " + q);
+		Set<String> seenDocIds = new HashSet<>(); // a message may hit more than once if its body has been indexed in chunks
 		for (ScoreDoc hit : hits) {
 			int ldocId = hit.doc; // this is the lucene doc id, we need to map it to our doc id.
 
 			String docId; // this will be our doc id
 			org.apache.lucene.document.Document ldoc = searcher.doc(ldocId);
-			docId = ldoc.get("docId");
+			docId = getDocIdOrParentId(ldoc);
+			if (docId == null || !seenDocIds.add(docId)) {
+				totalHits--;
+				continue;
+			}
 			// try to use the new fieldcache id's
 			// if this works, we can get rid of the dirNameToDocIdMap
 			/*try {
@@ -1780,6 +2108,27 @@ is what we want.
 		}
 	}
 
+	/** returns the original (non-quoted) body of the given lucene doc, deriving it from the body field if it was not stored. */
+	String getOriginalBody(org.apache.lucene.document.Document doc) {
+		String bodyOriginal = doc.get("body_original");
+		if (bodyOriginal != null || doc.get(BODY_ORIGINAL_REF_FIELD) == null)
+			return bodyOriginal;
+
+		String body = doc.get("body");
+		if (body == null)
+			return null;
+		return EmailUtils.getOriginalContent(body);
+	}
+
+	/** fields which are indexed but not stored are lost when a doc is read back and rewritten to another index. add them back, if they can be derived. */
+	private void restoreDerivedFields(org.apache.lucene.document.Document doc) {
+		if (doc.get(BODY_ORIGINAL_REF_FIELD) == null || doc.get("body_original") != null)
+			return;
+		String bodyOriginal = getOriginalBody(doc);
+		if (bodyOriginal != null)
+			doc.add(new Field("body_original", bodyOriginal, indexOnly_full_ft));
+	}
+
 	// since we may need to rebuild the index in a new directory, the analyzer needs to have been initialized apriori
 	private synchronized Directory copyDirectoryExcludeFields(boolean attachmentType, String out_basedir, String out_name, String... fields_to_be_removed) throws IOException
 	{
@@ -1791,6 +2140,7 @@ is what we want.
 		//log.info("Removing field(s) " + Util.join(fields_to_be_removed, ", ") + " from index.");
 
 		for(org.apache.lucene.document.Document doc: allDocsLive){
+			restoreDerivedFields(doc);
 			for (String field : fields_to_be_removed)
 				doc.removeFields(field);
 			writer.addDocument(doc);
@@ -1829,7 +2179,7 @@ is what we want.
 		if(attachmentType)
 			fieldsArray = new String[]{"body","meta","fileName","docId","emailDocId","languages"};
 		else
-			fieldsArray = new String[]{"body","headers_original","body_original","docId","title","to_emails","from_emails","cc_emails","bcc_emails","to_names","from_names",
+			fieldsArray = new String[]{"body","headers_original","body_original",BODY_ORIGINAL_REF_FIELD,PARENT_DOCID_FIELD,CHUNK_NUM_FIELD,"docId","title","to_emails","from_emails","cc_emails","bcc_emails","to_names","from_names",
 					"cc_names","bcc_names","languages","names","names_original","en_names_title"};
 
 		Set<String> fieldsToLoad = new HashSet<String>();
@@ -1844,8 +2194,9 @@ is what we want.
 			if(liveDocs!=null && !liveDocs.get(i))
 				continue;
 
-			if(doc == null || doc.get("docId") == null)
+			if(doc == null || getDocIdOrParentId(doc) == null)
 				continue;
+			restoreDerivedFields(doc);
 			if (filter_func == null || filter_func.filter(doc))
 			{
 				writer.addDocument(doc);
@@ -1947,6 +2298,32 @@ is what we want.
 		directory_blob = tmpdirecotry_blob;
 	}
 
+	/** number of live message docs in the index, i.e. docs with a docId. the chunk docs of long messages have none, and are not counted */
+	private static int numMessageDocs(IndexReader reader) throws IOException
+	{
+		Terms terms = MultiFields.getTerms(reader, "docId");
+		if (terms == null)
+			return 0;
+		Bits liveDocs = MultiFields.getLiveDocs(reader);
+		TermsEnum te = terms.iterator();
+		PostingsEnum postings = null;
+		int count = 0;
+		while (te.next() != null) {
+			postings = te.postings(postings, PostingsEnum.NONE);
+			for (int d = postings.nextDoc(); d != DocIdSetIterator.NO_MORE_DOCS; d = postings.nextDoc())
+				if (liveDocs == null || liveDocs.get(d))
+					count++;
+		}
+		return count;
+	}
+
+	private static int numMessageDocs(IndexWriter writer) throws IOException
+	{
+		try (DirectoryReader reader = DirectoryReader.open(writer)) {
+			return numMessageDocs(reader);
+		}
+	}
+
 	// CAUTION: permanently change the index!
 	private synchronized int removeEmailDocs(Collection<? extends edu.stanford.muse.index.Document> docs) throws IOException
 	{
@@ -1966,7 +2343,7 @@ is what we want.
 		IndexWriterConfig cfg = new IndexWriterConfig( analyzer);
 		IndexWriter writer = new IndexWriter(directory, cfg);
 		//IndexWriter writer = new IndexWriter(directory, analyzer, false, new IndexWriter.MaxFieldLength(250000));
-		assert (writer.numDocs() == docIdToEmailDoc.size());
+		assert (numMessageDocs(writer) == docIdToEmailDoc.size());
 
 		for (edu.stanford.muse.index.Document d : docs) {
 			String id = d.getUniqueId();
@@ -1974,12 +2351,13 @@ is what we want.
 			assert (d == ed);
 			docIdToEmailDoc.remove(id);
 			writer.deleteDocuments(new TermQuery(new Term("docId", id)));
+			writer.deleteDocuments(new TermQuery(new Term(PARENT_DOCID_FIELD, id)));
 			log.info("Removed doc " + id + " from index");
 		}
 
 		writer.commit();
 
-		assert (writer.numDocs() == docIdToEmailDoc.size());
+		assert (numMessageDocs(writer) == docIdToEmailDoc.size());
 
 		writer.close();
 
@@ -2099,7 +2477,7 @@ is what we want.
         String contents;
         try {
             if (originalContentOnly)
-                contents = doc.get("body_original");
+                contents = getOriginalBody(doc);
             else
                 contents = doc.get("body");
         } catch (Exception e) {
@@ -15,60 +15,77 @@
 */
 package edu.stanford.muse.index;
 
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-/** intern table, not shared with RoW. not thread safe */
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * intern table, not shared with RoW. thread safe, since several fetcher threads intern addresses and names at the same time.
+ * strings are held weakly, so entries that are no longer referenced from anywhere else (e.g. after an archive is closed)
+ * are collected instead of staying in the table forever.
+ */
 public class InternTable {
-	// normally i always use LinkedHashMap, but this one appears to be memory critical.
-	// not sure if it saves too much, but probably around 10% ?
-	private final static Map<String,String> internTable = new HashMap<>(10000, 0.75f);
-	private static int internTableChars = 0;
+	private static volatile Interner<String> internTable = Interners.newWeakInterner();
+
+	// stats. LongAdder instead of AtomicLong so that counting does not become the contention point under concurrent ingest
+	private static final LongAdder nLookups = new LongAdder(), nNewEntries = new LongAdder(), newEntryChars = new LongAdder();
+
 	public static String intern(String s)
 	{
+		if (s == null)
+			return null;
+
 		if (Trace.isEnabled)
 			Trace.trace("interning", s);
 
-		String x = internTable.get(s);
-		if (x != null)
-			return x;
+		String x = internTable.intern(s);
+		nLookups.increment();
+		// the interner returns s itself only when it was not already present (or when s was the canonical copy to begin with)
+		if (x == s) {
+			if (Trace.isEnabled)
+				Trace.trace("new term in intern table", s);
+			nNewEntries.increment();
+			newEntryChars.add(s.length());
+		}
+		return x;
+	}
 
-		if (Trace.isEnabled)
-			Trace.trace("new term in intern table", s);
+	/** # of chars in strings added to the table since the last clear. an upper bound on the live size, since unreferenced entries get collected */
+	public static long getSizeInChars()
+	{
+		return newEntryChars.sum();
+	}
 
-		internTable.put (s, s);
-		internTableChars += s.length();
-		return s;
+	/** # of strings added to the table since the last clear. an upper bound on the live # of entries, since unreferenced entries get collected */
+	public static long getNEntries()
+	{
+		return nNewEntries.sum();
 	}
 
-	public static int getSizeInChars()
+	public static long getNLookups()
 	{
-		return internTableChars;
+		return nLookups.sum();
 	}
 
-	public static int getNEntries()
+	/** fraction of lookups that found an existing entry */
+	public static double getHitRate()
 	{
-		return internTable.size();
+		long lookups = nLookups.sum();
+		return (lookups == 0) ? 0.0 : (lookups - nNewEntries.sum()) / (double) lookups;
 	}
 
+	/** drops all entries and resets the stats. strings interned earlier stay valid, they are just not canonical w.r.t. strings interned after this */
 	public static void clear()
 	{
-		internTable.clear();
-		internTableChars = 0;
+		internTable = Interners.newWeakInterner();
+		nLookups.reset();
+		nNewEntries.reset();
+		newEntryChars.reset();
 	}
 
-	public static void dump(String filename) throws IOException
+	public static String getStats()
 	{
-		List<String> list = new ArrayList<>(internTable.keySet());
-		//Collections.sort(list);
-		PrintWriter pw = new PrintWriter(new FileOutputStream(filename));
-		for (String s: list)
-			pw.println (s);
-		pw.close();
+		return String.format("%,d chars in %,d entries in intern table, %,d lookups, hit rate %.1f%%", getSizeInChars(), getNEntries(), getNLookups(), 100 * getHitRate());
 	}
 }
@@ -20,6 +20,7 @@ import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 import edu.stanford.muse.AddressBookManager.Contact;
 import edu.stanford.muse.Config;
+import edu.stanford.muse.datacache.Blob;
 import edu.stanford.muse.util.EmailUtils;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Util;
@@ -478,6 +479,19 @@ public class Lexicon implements Serializable {
 		}
 
 		//If control reaches here then construct the L1_Summary_category_count object by querying the index.
+		//for term based lexicons, all the categories are evaluated together in a single pass over the index.
+		//the regex lexicon can't be evaluated that way, so it goes through a search result per category, as before.
+		if (!REGEX_LEXICON_NAME.equals(lexiconName)) {
+			fillL1_SummaryInSinglePass(archive, originalContentOnly);
+			try {
+				writeLexiconSummaryToFile(archive,lexiconName);
+			} catch (IOException e) {
+				log.warn("Unable to store lexicon summary object in the disc. Please check as it will impact the loading time of this archive by constructing the summary using index query");
+				e.printStackTrace();
+			}
+			return;
+		}
+
 		//call searchresult from here...
 		List<Document> docs = archive.indexer.docs;
 
@@ -513,6 +527,47 @@ public class Lexicon implements Serializable {
 		}
 
 	}
+	/**
+	 * fills L1_Summary_category_count with the same counts as searching for each category with SearchResult.filterForLexicons
+	 * (i.e. docs whose body/original body or subject, or one of whose attachments, matches the category query),
+	 * but with all the categories' queries evaluated together by Archive.docsForQueries and Archive.blobsForQueries.
+	 */
+	private void fillL1_SummaryInSinglePass(Archive archive, boolean originalContentOnly) {
+		long startTime = System.currentTimeMillis();
+		Collection<Lexicon1Lang> lexicons = languageToLexicon.values();
+
+		// blob -> docs that have it as an attachment, needed to map attachment hits back to messages
+		Map<Blob, List<Document>> blobToDocs = null;
+
+		for (Lexicon1Lang lex : lexicons) {
+			// categories used only inside other categories have no expanded query, and so no hits (as in filterForLexicons)
+			Map<String, String> categoryToQuery = new LinkedHashMap<>();
+			for (String category : lex.captionToRawQuery.keySet()) {
+				String query = lex.captionToExpandedQuery.get(category.trim());
+				if (query != null)
+					categoryToQuery.put(category, query);
+			}
+
+			Map<String, Set<Document>> categoryToDocs = archive.docsForQueries(categoryToQuery, originalContentOnly ? Indexer.QueryType.ORIGINAL : Indexer.QueryType.FULL);
+			Map<String, Set<Blob>> categoryToBlobs = archive.blobsForQueries(categoryToQuery);
+			if (!categoryToBlobs.isEmpty() && blobToDocs == null) {
+				blobToDocs = new LinkedHashMap<>();
+				for (Document d : archive.getAllDocs())
+					if (d instanceof EmailDocument && ((EmailDocument) d).attachments != null)
+						for (Blob b : ((EmailDocument) d).attachments)
+							blobToDocs.computeIfAbsent(b, k -> new ArrayList<>()).add(d);
+			}
+
+			for (String category : lex.captionToRawQuery.keySet()) {
+				Set<Document> docsForCategory = new LinkedHashSet<>(categoryToDocs.getOrDefault(category, Collections.emptySet()));
+				for (Blob b : categoryToBlobs.getOrDefault(category, Collections.emptySet()))
+					docsForCategory.addAll(blobToDocs.getOrDefault(b, Collections.emptyList()));
+				L1_Summary_category_count.put(category, docsForCategory.size());
+			}
+		}
+		log.info("Lexicon summary for " + name + " with " + L1_Summary_category_count.size() + " categories computed in " + (System.currentTimeMillis() - startTime) + " ms");
+	}
+
 	/*
 	This method constructs the JSON object from the summary data and return it.
 	 */
@@ -792,7 +792,7 @@ public class SearchResult {
 
 
         //keep those documents from inputSet.matchedDocuments.keySet() which satisfy the filter conditions.
-        Set<Document> filtered = new HashSet<>(IndexUtils.selectDocsByDateRange((Collection)inputSet.matchedDocs.keySet(), startYear, startMonth, startDate, endYear, endMonth, endDate));
+        Set<Document> filtered = IndexUtils.selectDocsByDateRange(inputSet.archive, inputSet.matchedDocs.keySet(), startYear, startMonth, startDate, endYear, endMonth, endDate);
         //now keep only those docs in inputSet which are present in allDocs set.
         inputSet.matchedDocs.keySet().retainAll(filtered);
         return inputSet;
@@ -830,7 +830,7 @@ public class SearchResult {
         }
 
         //keep those documents from allDocs which satisfy the filter conditions.
-        Set<Document> filtered = new HashSet<>(IndexUtils.selectDocsByDateRange((Collection) inputSet.matchedDocs.keySet(), startYear, startMonth, startDate, endYear, endMonth, endDate));
+        Set<Document> filtered = IndexUtils.selectDocsByDateRange(inputSet.archive, inputSet.matchedDocs.keySet(), startYear, startMonth, startDate, endYear, endMonth, endDate);
         //now keep only those docs in inputSet which are present in allDocs set.
         inputSet.matchedDocs.keySet().retainAll(filtered);
         return inputSet;
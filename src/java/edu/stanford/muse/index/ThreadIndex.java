@@ -0,0 +1,226 @@
+package edu.stanford.muse.index;
+
+import edu.stanford.muse.util.EmailUtils;
+import edu.stanford.muse.util.Util;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * Threads of an archive's messages, JWZ style (https://www.jwz.org/doc/threading.html): a message's parent is the last message id
+ * in its References/In-Reply-To headers, and the earlier ids in References are linked up as a chain of ancestors, unless that would make a loop.
+ * Messages connected this way, including through ancestors the archive does not have, are in the same thread. A message not connected
+ * to any thread by its headers falls back to the thread of an earlier message with the same cleaned up subject and participants, as before.
+ * The index is saved with the archive and updated one message at a time, so threading the docs of a new accession, or of an archive
+ * as it is loaded, only looks at the docs that are not in it yet. When a new message connects two existing threads, they are merged into the
+ * one with the smaller id, and add() reports the merge so the thread ids of the docs already in the archive can be updated.
+ * Not thread-safe; Archive updates it under its own lock.
+ */
+public class ThreadIndex implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int MAX_DEPTH = 10000; // guard against pathological chains when checking for loops
+
+    /** a message, either one of the archive's docs or one only seen in the headers of a doc */
+    private static class Node implements Serializable {
+        private static final long serialVersionUID = 1L;
+        String parent; // key of the parent message, null for a root
+        long threadID;
+        boolean isDoc;
+    }
+
+    private final Map<String, Node> nodes = new HashMap<>();
+    private final Map<String, Long> subjectThreads = new HashMap<>(); // fallback for messages not linked by headers
+    private final Map<Long, Long> mergedThreads = new HashMap<>(); // thread id -> the thread it was merged into
+    private long nextThreadID = 1; // note: valid thread ids are >= 1, 0 means not threaded yet
+
+    /** the key of a message: its message id, or for messages without one, its unique id */
+    private static String key(EmailDocument ed) {
+        String id = normalizeMessageID(ed.messageID);
+        return id != null ? id : "uid:" + ed.getUniqueId();
+    }
+
+    /** strips the angle brackets and whitespace around a message id. returns null for a missing id */
+    static String normalizeMessageID(String id) {
+        if (id == null)
+            return null;
+        id = id.trim();
+        if (id.startsWith("<") && id.endsWith(">"))
+            id = id.substring(1, id.length() - 1).trim();
+        return id.isEmpty() ? null : id;
+    }
+
+    /** the message ids in the value of a References or In-Reply-To header, in order */
+    public static List<String> parseMessageIDs(String header) {
+        List<String> result = new ArrayList<>();
+        if (Util.nullOrEmpty(header))
+            return result;
+        int start;
+        int end = 0;
+        while ((start = header.indexOf('<', end)) >= 0 && (end = header.indexOf('>', start)) >= 0) {
+            String id = normalizeMessageID(header.substring(start, end + 1));
+            if (id != null)
+                result.add(id);
+        }
+        // some mailers leave out the angle brackets
+        if (result.isEmpty())
+            for (String s : header.trim().split("\\s+"))
+                if (s.contains("@"))
+                    result.add(s);
+        return result;
+    }
+
+    private long resolve(long threadID) {
+        Long into;
+        while ((into = mergedThreads.get(threadID)) != null)
+            threadID = into;
+        return threadID;
+    }
+
+    /** true if making parent the parent of child would make a loop */
+    private boolean isAncestorOrSelf(String child, String parent) {
+        String k = parent;
+        for (int depth = 0; k != null && depth < MAX_DEPTH; depth++) {
+            if (k.equals(child))
+                return true;
+            Node n = nodes.get(k);
+            k = n == null ? null : n.parent;
+        }
+        return k != null;
+    }
+
+    public boolean contains(EmailDocument ed) {
+        Node n = nodes.get(key(ed));
+        return n != null && n.isDoc;
+    }
+
+    /**
+     * adds the message to the index and returns its thread id.
+     * if the message joins threads that were separate, all but one of them are merged into the other, and each merge is put into merges
+     * as old thread id -> new thread id.
+     */
+    public long add(EmailDocument ed, Map<Long, Long> merges) {
+        String key = key(ed);
+        Node node = nodes.computeIfAbsent(key, k -> new Node());
+        if (node.isDoc)
+            return resolve(node.threadID); // another copy of the same message
+        node.isDoc = true;
+
+        // link up the references as a chain of ancestors, keeping existing links, and make the last one the parent of this message
+        List<String> refs = ed.references == null ? Collections.emptyList() : ed.references;
+        String prev = null;
+        for (String ref : refs) {
+            if (ref.equals(key))
+                continue;
+            Node n = nodes.computeIfAbsent(ref, k -> new Node());
+            if (prev != null && n.parent == null && !isAncestorOrSelf(ref, prev))
+                n.parent = prev;
+            prev = ref;
+        }
+        if (prev != null && !isAncestorOrSelf(key, prev))
+            node.parent = prev;
+
+        // the threads this message is now connected to
+        long threadID = 0;
+        Set<Long> threads = new LinkedHashSet<>();
+        if (node.threadID != 0)
+            threads.add(resolve(node.threadID));
+        for (String ref : refs) {
+            Node n = nodes.get(ref);
+            if (n != null && n.threadID != 0)
+                threads.add(resolve(n.threadID));
+        }
+        String subjectKey = EmailUtils.subjectThreadKey(ed);
+        if (threads.isEmpty()) {
+            Long t = subjectThreads.get(subjectKey);
+            threadID = t != null ? resolve(t) : nextThreadID++;
+        } else {
+            threadID = Collections.min(threads);
+            for (long t : threads) {
+                if (t != threadID) {
+                    mergedThreads.put(t, threadID);
+                    if (merges != null)
+                        merges.put(t, threadID);
+                }
+            }
+        }
+        subjectThreads.putIfAbsent(subjectKey, threadID);
+
+        node.threadID = threadID;
+        for (String ref : refs) {
+            Node n = nodes.get(ref);
+            if (n != null && n.threadID == 0)
+                n.threadID = threadID;
+        }
+        return threadID;
+    }
+
+    /** current thread id of the given thread, which may have been merged into another one since */
+    public long currentThreadID(long threadID) {
+        return resolve(threadID);
+    }
+
+    /** message id of the closest ancestor of this message that is in the archive, null if it has none */
+    public String getParentMessageID(EmailDocument ed) {
+        Node n = nodes.get(key(ed));
+        for (int depth = 0; n != null && n.parent != null && depth < MAX_DEPTH; depth++) {
+            String parent = n.parent;
+            n = nodes.get(parent);
+            if (n != null && n.isDoc)
+                return parent;
+        }
+        return null;
+    }
+
+    /**
+     * a copy of the index with only the given messages in it, with the same thread ids, e.g. for an export of some of the archive's docs.
+     * of the other messages, only those in the headers of the given ones are kept, as messages the archive does not have. if keepSubjects, the
+     * subjects of the given messages are kept for the subject fallback; otherwise (e.g. for a public export, in which subjects are redacted)
+     * no subject text is kept, and messages added later are threaded by their headers only.
+     */
+    public ThreadIndex subset(Collection<? extends Document> docs, boolean keepSubjects) {
+        ThreadIndex result = new ThreadIndex();
+        for (Document doc : docs) {
+            EmailDocument ed = (EmailDocument) doc;
+            List<String> keys = new ArrayList<>();
+            keys.add(key(ed));
+            if (ed.references != null)
+                keys.addAll(ed.references);
+            for (String k : keys) {
+                Node n = nodes.get(k);
+                if (n == null || result.nodes.containsKey(k))
+                    continue;
+                Node copy = new Node();
+                copy.parent = n.parent;
+                copy.threadID = n.threadID;
+                result.nodes.put(k, copy);
+            }
+            if (!keepSubjects)
+                continue;
+            String subjectKey = EmailUtils.subjectThreadKey(ed);
+            Long t = subjectThreads.get(subjectKey);
+            if (t != null)
+                result.subjectThreads.put(subjectKey, t);
+        }
+        for (Document doc : docs) {
+            Node n = result.nodes.get(key((EmailDocument) doc));
+            if (n != null)
+                n.isDoc = nodes.get(key((EmailDocument) doc)).isDoc;
+        }
+        // links to messages that are not kept are dropped
+        for (Node n : result.nodes.values())
+            if (n.parent != null && !result.nodes.containsKey(n.parent))
+                n.parent = null;
+        result.mergedThreads.putAll(mergedThreads);
+        result.nextThreadID = nextThreadID;
+        return result;
+    }
+
+    /** # of messages in the archive that are in the index */
+    public int size() {
+        int count = 0;
+        for (Node n : nodes.values())
+            if (n.isDoc)
+                count++;
+        return count;
+    }
+}
@@ -0,0 +1,97 @@
+package edu.stanford.muse.index.test;
+
+import edu.stanford.muse.ie.EntityIndex;
+import edu.stanford.muse.index.DateIndex;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.ner.model.NEType;
+import edu.stanford.muse.util.Span;
+import org.junit.Test;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * EntityIndex over a few messages a day apart: names are looked up by word and acronym, the docs of a name in a date window come
+ * back in date order, header names are indexed along with body names, and docs without a date are not in the index.
+ */
+public class EntityIndexTest {
+    private static final long DAY = 24L * 3600 * 1000;
+    private static final long START = 1000000000000L;
+
+    private final Map<Document, Span[][]> names = new IdentityHashMap<>();
+    private final List<EmailDocument> docs = new ArrayList<>();
+
+    private static Span person(String text) {
+        return new Span(text, 0, text.length(), NEType.Type.PERSON.getCode());
+    }
+
+    /** adds a message on the given day (null for no date) from the given sender, with the given names in the body and subject */
+    private EmailDocument message(Integer day, String from, Span[] body, Span[] title) throws UnsupportedEncodingException {
+        Address[] fromAddrs = from == null ? null : new Address[]{new InternetAddress("x" + docs.size() + "@example.org", from)};
+        EmailDocument ed = new EmailDocument(Integer.toString(docs.size()), "test", "inbox", null, null, null, fromAddrs, "subject", "<" + docs.size() + "@x>", day == null ? null : new Date(START + day * DAY));
+        docs.add(ed);
+        names.put(ed, new Span[][]{body, title});
+        return ed;
+    }
+
+    private EntityIndex index() {
+        return new EntityIndex(new DateIndex(docs), d -> names.get(d));
+    }
+
+    private static int entityWithText(EntityIndex index, String text) {
+        for (int id = 0; id < index.getNEntities(); id++)
+            if (index.getEntity(id).text.equals(text))
+                return id;
+        fail("no entity " + text);
+        return -1;
+    }
+
+    @Test
+    public void looksUpNamesByWordAndAcronym() throws UnsupportedEncodingException {
+        message(0, null, new Span[]{person("Robert Frost"), person("National Park Service")}, new Span[0]);
+        message(1, null, new Span[]{person("Robert Lowell")}, new Span[]{person("Frost")});
+        EntityIndex index = index();
+
+        int frost = entityWithText(index, "Robert Frost"), lowell = entityWithText(index, "Robert Lowell");
+        Set<Integer> roberts = new HashSet<>();
+        for (int id : index.getEntitiesWithWord("Robert"))
+            roberts.add(id);
+        assertEquals(new HashSet<>(Arrays.asList(frost, lowell)), roberts);
+        assertArrayEquals(new int[]{entityWithText(index, "National Park Service")}, index.getEntitiesWithAcronym("NPS"));
+        assertEquals(0, index.getEntitiesWithWord("Nobody").length);
+    }
+
+    @Test
+    public void returnsDocsInDateWindowsInDateOrder() throws UnsupportedEncodingException {
+        // added out of date order, and one of them only has the name in its header
+        EmailDocument d3 = message(3, null, new Span[]{person("Ada Lovelace")}, new Span[0]);
+        EmailDocument d1 = message(1, null, new Span[]{person("Ada Lovelace")}, new Span[0]);
+        EmailDocument d2 = message(2, "Ada Lovelace", new Span[0], new Span[0]);
+        EmailDocument d5 = message(5, null, new Span[]{person("Ada Lovelace")}, new Span[0]);
+        // in the subject only: subjects are not part of the postings
+        message(4, null, new Span[0], new Span[]{person("Ada Lovelace")});
+        EmailDocument undated = message(null, null, new Span[]{person("Ada Lovelace")}, new Span[0]);
+        EntityIndex index = index();
+
+        int ada = entityWithText(index, "Ada Lovelace");
+        List<Document> all = new ArrayList<>();
+        for (int ord : index.getDocs(ada, null, null))
+            all.add(index.getDoc(ord));
+        assertEquals(Arrays.asList(d1, d2, d3, d5), all);
+
+        List<Document> window = new ArrayList<>();
+        for (int ord : index.getDocs(ada, new Date(START + 2 * DAY), new Date(START + 4 * DAY)))
+            window.add(index.getDoc(ord));
+        assertEquals(Arrays.asList(d2, d3), window);
+        assertEquals(0, index.getDocs(ada, new Date(START + 6 * DAY), null).length);
+
+        assertEquals("Ada Lovelace", index.getNamesInDoc(d3, true)[0].text);
+        assertEquals(0, index.getNamesInDoc(d3, false).length);
+        assertNull(index.getNamesInDoc(undated, true));
+    }
+}
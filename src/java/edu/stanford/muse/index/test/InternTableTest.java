@@ -0,0 +1,127 @@
+package edu.stanford.muse.index.test;
+
+import edu.stanford.muse.index.InternTable;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.UnaryOperator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that InternTable hands out one canonical copy per string when many threads intern the same strings at once.
+ * main() is a throughput benchmark of the intern table against the earlier unsynchronized HashMap (made safe with a lock)
+ * for 1, 2, 4, ... threads doing an ingest-like mix of mostly repeated addresses and names.
+ */
+public class InternTableTest {
+    private static final int NTHREADS = 16;
+
+    /** ingest-like workload: a pool of distinct strings, looked up with a skewed distribution so that most lookups are repeats */
+    private static String[][] makeWorkload(int nThreads, int nDistinct, int nOpsPerThread) {
+        Random r = new Random(42);
+        String[][] work = new String[nThreads][nOpsPerThread];
+        for (int t = 0; t < nThreads; t++)
+            for (int i = 0; i < nOpsPerThread; i++) {
+                // squaring a uniform random number skews picks towards the start of the pool, like frequent correspondents
+                double u = r.nextDouble();
+                int k = (int) (u * u * nDistinct);
+                // a fresh String object each time, as a parser would produce
+                work[t][i] = new String(("person" + k + "@example.com").toCharArray());
+            }
+        return work;
+    }
+
+    @Test
+    public void testCanonicalUnderConcurrency() throws Exception {
+        InternTable.clear();
+        String[][] work = makeWorkload(NTHREADS, 5000, 50000);
+
+        ExecutorService pool = Executors.newFixedThreadPool(NTHREADS);
+        List<Future<Map<String, String>>> futures = new ArrayList<>();
+        for (int t = 0; t < NTHREADS; t++) {
+            final String[] mine = work[t];
+            futures.add(pool.submit(() -> {
+                Map<String, String> result = new HashMap<>();
+                for (String s : mine) {
+                    String x = InternTable.intern(s);
+                    assertEquals(s, x);
+                    result.put(x, x);
+                }
+                return result;
+            }));
+        }
+        pool.shutdown();
+
+        // all threads must have got the very same object for equal strings
+        Map<String, String> canonical = new HashMap<>();
+        for (Future<Map<String, String>> f : futures)
+            for (String x : f.get().values()) {
+                String prev = canonical.putIfAbsent(x, x);
+                assertTrue("two different copies handed out for " + x, prev == null || prev == x);
+            }
+
+        assertEquals((long) NTHREADS * 50000, InternTable.getNLookups());
+        assertEquals(canonical.size(), InternTable.getNEntries());
+        assertTrue(InternTable.getHitRate() > 0.9);
+
+        InternTable.clear();
+        assertEquals(0, InternTable.getNEntries());
+        assertNull(InternTable.intern(null));
+    }
+
+    /** returns ops/ms for nThreads threads running intern over their share of the workload */
+    private static double run(UnaryOperator<String> intern, String[][] work, int nThreads) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            final String[] mine = work[t];
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (String s : mine)
+                    intern.apply(s);
+                return null;
+            }));
+        }
+        long startNanos = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : futures)
+            f.get();
+        long elapsedNanos = System.nanoTime() - startNanos;
+        pool.shutdown();
+        return (nThreads * (double) work[0].length) / (elapsedNanos / 1_000_000.0);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        int nOps = 200_000;
+        String[][] work = makeWorkload(maxThreads, 50_000, nOps);
+
+        for (int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+            // the previous implementation, with the lock it would have needed to be correct
+            Map<String, String> map = new HashMap<>(10000, 0.75f);
+            UnaryOperator<String> locked = s -> {
+                synchronized (map) {
+                    String x = map.get(s);
+                    if (x != null)
+                        return x;
+                    map.put(s, s);
+                    return s;
+                }
+            };
+
+            // warm up, then measure
+            run(locked, work, nThreads);
+            InternTable.clear();
+            run(InternTable::intern, work, nThreads);
+            InternTable.clear();
+            map.clear();
+
+            double lockedRate = run(locked, work, nThreads);
+            double internTableRate = run(InternTable::intern, work, nThreads);
+            System.out.println(String.format("%2d threads: synchronized HashMap %,10.0f ops/ms, InternTable %,10.0f ops/ms (%s)", nThreads, lockedRate, internTableRate, InternTable.getStats()));
+            InternTable.clear();
+        }
+    }
+}
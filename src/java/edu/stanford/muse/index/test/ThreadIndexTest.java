@@ -0,0 +1,162 @@
+package edu.stanford.muse.index.test;
+
+import edu.stanford.muse.index.EmailDocument;
+import edu.stanford.muse.index.ThreadIndex;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Threading by References/In-Reply-To with ThreadIndex: replies join the thread of what they reply to whatever their subject and
+ * whatever order they are added in, a message linking two threads merges them, and messages without headers fall back to their subject.
+ * A subset for a public export keeps the thread ids but no subject text.
+ */
+public class ThreadIndexTest {
+    private final ThreadIndex index = new ThreadIndex();
+    private final Map<Long, Long> merges = new LinkedHashMap<>();
+    private int nextId = 0;
+
+    private EmailDocument message(String messageID, String subject, String... references) {
+        EmailDocument ed = new EmailDocument(Integer.toString(nextId++), "test", "inbox", null, null, null, null, subject, messageID, new Date(1000000000000L + nextId * 60000L));
+        if (references.length > 0)
+            ed.references = new ArrayList<>(Arrays.asList(references));
+        return ed;
+    }
+
+    private long add(EmailDocument ed) {
+        return index.add(ed, merges);
+    }
+
+    @Test
+    public void parsesMessageIDs() {
+        assertEquals(Arrays.asList("a@x", "b@x"), ThreadIndex.parseMessageIDs(" <a@x>\n\t<b@x> "));
+        assertEquals(Collections.singletonList("a@x"), ThreadIndex.parseMessageIDs("a@x"));
+        assertTrue(ThreadIndex.parseMessageIDs(null).isEmpty());
+    }
+
+    @Test
+    public void repliesJoinTheirThread() {
+        long t1 = add(message("<a@x>", "lunch?"));
+        long t2 = add(message("<b@x>", "Re: lunch?", "a@x"));
+        long t3 = add(message("<c@x>", "change of plans", "a@x", "b@x"));
+        long other = add(message("<d@x>", "something else"));
+
+        assertEquals(t1, t2);
+        assertEquals(t1, t3);
+        assertNotEquals(t1, other);
+        assertEquals("b@x", index.getParentMessageID(message("<c@x>", "")));
+        assertNull(index.getParentMessageID(message("<a@x>", "")));
+    }
+
+    @Test
+    public void orderDoesNotMatter() {
+        EmailDocument a = message("<a@x>", "one"), b = message("<b@x>", "two", "a@x"), c = message("<c@x>", "three", "a@x", "b@x");
+        long tc = add(c);
+        long tb = add(b);
+        long ta = add(a);
+        assertEquals(tc, tb);
+        assertEquals(tc, ta);
+        assertTrue(merges.isEmpty());
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void linkingMessageMergesThreads() {
+        // two replies whose common parent is not there yet, with no references between them, start out in different threads
+        long t1 = add(message("<b@x>", "first", "a@x"));
+        long t2 = add(message("<c@x>", "second", "z@x"));
+        assertNotEquals(t1, t2);
+
+        // a reply referencing both ancestors connects them
+        long t3 = add(message("<d@x>", "third", "a@x", "z@x"));
+        assertEquals(Math.min(t1, t2), t3);
+        assertEquals(1, merges.size());
+        long merged = Math.max(t1, t2);
+        assertEquals(t3, (long) merges.get(merged));
+        assertEquals(t3, index.currentThreadID(merged));
+    }
+
+    @Test
+    public void fallsBackToSubject() {
+        long t1 = add(message("<a@x>", "budget"));
+        long t2 = add(message("<b@x>", "Re: budget"));
+        long t3 = add(message(null, "RE: budget"));
+        long t4 = add(message(null, "travel"));
+        assertEquals(t1, t2);
+        assertEquals(t1, t3);
+        assertNotEquals(t1, t4);
+    }
+
+    @Test
+    public void subsetKeepsThreadIDs() {
+        EmailDocument a = message("<a@x>", "plans"), b = message("<b@x>", "Re: plans", "a@x"), c = message("<c@x>", "Re: plans", "a@x", "b@x");
+        EmailDocument other = message("<d@x>", "private");
+        long t = add(a);
+        add(b);
+        add(c);
+        add(other);
+
+        ThreadIndex exported = index.subset(Arrays.asList(a, c), true);
+        assertTrue(exported.contains(a));
+        assertTrue(exported.contains(c));
+        assertFalse(exported.contains(b));
+        assertFalse(exported.contains(other));
+        assertEquals(2, exported.size());
+        // b is not exported, so c's closest ancestor in the export is a
+        assertEquals("a@x", exported.getParentMessageID(c));
+        // a new reply to b still joins the exported thread, and new threads do not reuse ids
+        assertEquals(t, exported.add(message("<e@x>", "late reply", "b@x"), merges));
+        assertTrue(exported.add(message("<f@x>", "new"), merges) > t + 1);
+    }
+
+    @Test
+    public void publicSubsetHasNoSubjects() throws IOException {
+        EmailDocument a = message("<a@x>", "Confidential merger terms"), b = message("<b@x>", "Re: Confidential merger terms", "a@x");
+        EmailDocument noID = message(null, "Salary of Jane Roe");
+        long t = add(a);
+        add(b);
+        long tNoID = add(noID);
+
+        ThreadIndex exported = index.subset(Arrays.asList(a, b, noID), false);
+        String serialized = new String(serialize(exported), StandardCharsets.ISO_8859_1).toLowerCase();
+        assertFalse(serialized.contains("merger"));
+        assertFalse(serialized.contains("salary"));
+        assertFalse(serialized.contains("jane roe"));
+        // thread ids are kept, and replies are still threaded by their headers
+        assertTrue(exported.contains(noID));
+        assertEquals(t, exported.add(message("<c@x>", "x", "b@x"), merges));
+        // but not by subject
+        assertNotEquals(tNoID, exported.add(message(null, "Re: Salary of Jane Roe"), merges));
+
+        // the same subset kept for a non-public export does have them
+        assertTrue(new String(serialize(index.subset(Arrays.asList(a, b, noID), true)), StandardCharsets.ISO_8859_1).toLowerCase().contains("merger"));
+    }
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(o);
+        }
+        return bos.toByteArray();
+    }
+
+    @Test
+    public void ignoresLoopsAndDuplicates() {
+        EmailDocument a = message("<a@x>", "x", "b@x"), b = message("<b@x>", "y", "a@x");
+        long ta = add(a);
+        long tb = add(b);
+        assertEquals(ta, tb);
+        // one of them must be the root, or the parent chain would loop
+        assertTrue(index.getParentMessageID(a) == null || index.getParentMessageID(b) == null);
+
+        assertTrue(index.contains(a));
+        assertEquals(ta, add(message("<a@x>", "copy of a")));
+        assertEquals(2, index.size());
+    }
+}
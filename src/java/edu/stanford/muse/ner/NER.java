@@ -1,5 +1,6 @@
 package edu.stanford.muse.ner;
 
+import edu.stanford.epadd.util.JobScheduler;
 import edu.stanford.muse.email.StatusProvider;
 import edu.stanford.muse.exceptions.CancelledException;
 import edu.stanford.muse.ie.KillPhrases;
@@ -187,18 +188,27 @@ public class NER implements StatusProvider {
 
     //main method trains the model, recognizes the entities and updates the doc.
     public void recognizeArchive() throws CancelledException, IOException {
+        try (Metrics.Span s = Metrics.span("ner.archive")) {
+            recognizeAllDocs();
+        } finally {
+            // the names in the docs have changed, even if only some of them were updated before a cancel
+            archive.invalidateEntityIndex();
+        }
+    }
+
+    private void recognizeAllDocs() throws CancelledException, IOException {
         time = 0;
         archive.openForRead();
         archive.setupForWrite();
 
-        if (cancelled) {
+        if (cancelled || JobScheduler.isCurrentJobCancelled()) {
             status = "Cancelling...";
             throw new CancelledException();
         }
 
         List<Document> docs = archive.getAllDocs();
 
-        if (cancelled) {
+        if (cancelled || JobScheduler.isCurrentJobCancelled()) {
             status = "Cancelling...";
             throw new CancelledException();
         }
@@ -286,7 +296,7 @@ public class NER implements StatusProvider {
                 log.info(status);
             time += System.currentTimeMillis() - st;
 
-            if (cancelled) {
+            if (cancelled || JobScheduler.isCurrentJobCancelled()) {
                 status = "Cancelling...";
                 throw new CancelledException();
             }
@@ -27,8 +27,10 @@ import java.util.regex.Pattern;
 public class CICTokenizer implements Tokenizer, Serializable {
     private static final Logger log						= LogManager.getLogger(CICTokenizer.class);
 
-    private static Pattern	entityPattern;
     private static Pattern multipleStopWordPattern;
+    //snapshot of stopWords as an array, for the candidate scanner
+    private static volatile String[] stopWordsArray;
+    private static final Pattern edgeNonWordPattern = Pattern.compile("^\\W+|\\W+$");
     //NOTE: All the string lists below namely commonStartWords, commonEndWords, badSubstrings are case-insensitive
     //strips these words from the emitted token if they are seen in the start
     //Checks and strips if a phrase contains {[common start word]+" "}
@@ -92,14 +94,10 @@ public class CICTokenizer implements Tokenizer, Serializable {
         //Hence we do another level of tokenisation with the pattern below
         multipleStopWordPattern = Pattern.compile("(\\s|^)("+stopWordsPattern+"["+allowedCharsOther+"]"+recur+"){2,}|(['-.]{2,})|'s(\\s|$)");
 
-        //[\"'_:\\s]*
-        //number of times special chars between words can recur
-        String nps = "(" + nameP + "([" + allowedCharsOther + "]" + recur + "(" + nameP + "[" + allowedCharsOther + "]" + recur + "|(" + stopWordsPattern + "[" + allowedCharsOther + "]" + recur + "))*" + nameP + ")?)";
-        entityPattern = Pattern.compile(nps);
-        log.info("EP: " + nps);
-        //allow comma only once after the first word
-        //nps = "(" + nameP + "([" + allowedCharsPerson + ",]" + recur + "(" + nameP + "[" + allowedCharsPerson + "]" + recur + ")*" + nameP + ")?)";
-        //personNamePattern = Pattern.compile(nps);
+        //the candidates themselves are found by findCandidatePhrases, a hand-written scanner for the pattern:
+        //(nameP([allowedCharsOther]{1,3}(nameP[allowedCharsOther]{1,3}|(stopWordsPattern[allowedCharsOther]{1,3}))*nameP)?)
+        //matching that pattern with java.util.regex backtracks heavily on long sentences
+        stopWordsArray = stopWords.toArray(new String[0]);
     }
 
     public static void setStopWords(List<String> stopWords){
@@ -116,22 +114,22 @@ public class CICTokenizer implements Tokenizer, Serializable {
         if (content == null)
             return matches;
 
-        if (entityPattern == null) {
+        if (stopWordsArray == null) {
             initPattern();
         }
-        Pattern namePattern = entityPattern;
 
         //we need a proper sentence splitter, as some of the names can contain period.
         String[] lines = content.split("\\n");
         //don't change the length of the content, so that the offsets are not messed up.
-        content = "";
+        StringBuilder sb = new StringBuilder(content.length() + 1);
         for (String line : lines) {
             //for very short lines, new line is used as a sentence breaker.
             if (line.length() < 40)
-                content += line + "%";
+                sb.append(line).append('%');
             else
-                content += line + " ";
+                sb.append(line).append(' ');
         }
+        content = sb.toString();
 
         Span[] sentenceSpans = NLPUtils.tokenizeSentenceAsSpan(content);
         assert sentenceSpans != null;
@@ -146,45 +144,43 @@ public class CICTokenizer implements Tokenizer, Serializable {
             if (sent.length() >= 2000)
                 continue;
 
-            Matcher m = namePattern.matcher(sent);
-            while (m.find()) {
-                if (m.groupCount() > 0) {
-                    String name = m.group(1);
-                    int start = m.start(1) + sentenceStartOffset, end = m.end(1) + sentenceStartOffset;
-                    //if the length is less than 3, accept only if it is all capitals.
-                    if (name.length() < 3) {
-                        String tt = FeatureGeneratorUtil.tokenFeature(name);
-                        if (tt.equals("ac")) {
-                            //this list contains many single-word bad names like Jan, Feb, Mon, Tue, etc.
-                            if (DictUtils.tabooNames.contains(name.toLowerCase())) {
-                                continue;
-                            }
-                            matches.add(new Triple<>(name, start, end));
+            int[] phrases = findCandidatePhrases(sent);
+            for (int pi = 0; pi < phrases.length; pi += 2) {
+                String name = sent.substring(phrases[pi], phrases[pi + 1]);
+                int start = phrases[pi] + sentenceStartOffset, end = phrases[pi + 1] + sentenceStartOffset;
+                //if the length is less than 3, accept only if it is all capitals.
+                if (name.length() < 3) {
+                    String tt = FeatureGeneratorUtil.tokenFeature(name);
+                    if (tt.equals("ac")) {
+                        //this list contains many single-word bad names like Jan, Feb, Mon, Tue, etc.
+                        if (DictUtils.tabooNames.contains(name.toLowerCase())) {
+                            continue;
                         }
-                    } else {
-                        //further cleaning to remove "'s" pattern
-                        //@TODO: Can these "'s" be put to a good use? Right now, we are just tokenizing on them
-                        String[] tokens = clean(name);
-                        outer:
-                        for (String token : tokens) {
-                            int s = name.indexOf(token);
-                            if (s < 0) {
-                                log.error("Did not find " + token + " extracted and cleaned from " + name);
-                                continue;
-                            }
-                            String lc = token.toLowerCase();
-                            for (String bs : badSubstrings) {
-                                String lbs = bs.toLowerCase();
-                                if (lc.equals(lbs) || lc.contains(" " + lbs + " ") || lc.startsWith(lbs + " ") || lc.endsWith(" " + lbs))
-                                    continue outer;
-                            }
-                            //this list contains many single word bad names like Jan, Feb, Mon, Tue, etc.
-                            if (DictUtils.tabooNames.contains(token.toLowerCase())) {
-                                continue;
-                            }
-                            String ct = canonicalize(token);
-                            matches.add(new Triple<>(ct, start + name.indexOf(token), start + name.indexOf(token) + token.length()));
+                        matches.add(new Triple<>(name, start, end));
+                    }
+                } else {
+                    //further cleaning to remove "'s" pattern
+                    //@TODO: Can these "'s" be put to a good use? Right now, we are just tokenizing on them
+                    String[] tokens = clean(name);
+                    outer:
+                    for (String token : tokens) {
+                        int s = name.indexOf(token);
+                        if (s < 0) {
+                            log.error("Did not find " + token + " extracted and cleaned from " + name);
+                            continue;
+                        }
+                        String lc = token.toLowerCase();
+                        for (String bs : badSubstrings) {
+                            String lbs = bs.toLowerCase();
+                            if (lc.equals(lbs) || lc.contains(" " + lbs + " ") || lc.startsWith(lbs + " ") || lc.endsWith(" " + lbs))
+                                continue outer;
                         }
+                        //this list contains many single word bad names like Jan, Feb, Mon, Tue, etc.
+                        if (DictUtils.tabooNames.contains(token.toLowerCase())) {
+                            continue;
+                        }
+                        String ct = canonicalize(token);
+                        matches.add(new Triple<>(ct, start + name.indexOf(token), start + name.indexOf(token) + token.length()));
                     }
                 }
             }
@@ -237,6 +233,103 @@ public class CICTokenizer implements Tokenizer, Serializable {
         return phrase;
     }
 
+    /** chars of nameP after the first, i.e. [A-Za-z0-9'\-.] */
+    private static boolean isNameChar(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '\'' || c == '-' || c == '.';
+    }
+
+    /** allowedCharsOther, i.e. [\s&'] with the (non-unicode) regex definition of \s */
+    private static boolean isAllowedChar(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r' || c == '&' || c == '\'';
+    }
+
+    /**
+     * Finds the capitalised phrases in sent that are candidates for entities.
+     * Returns exactly the matches that java.util.regex finds (one after the other, with Matcher.find) for the pattern
+     * (nameP([allowedCharsOther]{1,3}(nameP[allowedCharsOther]{1,3}|(stopWordsPattern[allowedCharsOther]{1,3}))*nameP)?)
+     * where nameP is [A-Z][A-Za-z0-9'\-.]* and allowedCharsOther is [\s&'], but in time linear in the length of sent
+     * (plus the # of apostrophes inside words), instead of backtracking.
+     * Stop words are matched literally.
+     * @return the start and end offsets of the phrases, flattened as [start1, end1, start2, end2, ...]
+     */
+    public static int[] findCandidatePhrases(String sent) {
+        if (stopWordsArray == null)
+            initPattern();
+        String[] sws = stopWordsArray;
+        int n = sent.length();
+
+        // nameEnd[i]: end of the run of name chars starting at i (i itself if sent[i] is not a name char)
+        // allowedRun[i]: # of allowed chars starting at i, capped at 3, the max. that {1,3} can take
+        // prevApos[i]: the largest j < i with an apostrophe at j, or -1
+        int[] nameEnd = new int[n + 1], allowedRun = new int[n + 1], prevApos = new int[n + 1];
+        nameEnd[n] = n;
+        for (int i = n - 1; i >= 0; i--) {
+            char c = sent.charAt(i);
+            nameEnd[i] = isNameChar(c) ? nameEnd[i + 1] : i;
+            allowedRun[i] = isAllowedChar(c) ? Math.min(3, allowedRun[i + 1] + 1) : 0;
+        }
+        for (int i = 0, last = -1; i <= n; i++) {
+            prevApos[i] = last;
+            if (i < n && sent.charAt(i) == '\'')
+                last = i;
+        }
+
+        // matchEnd[p] is where the pattern's (...)*nameP part ends when it starts at p, or -1 if it does not match at p.
+        // this is the result the regex engine's backtracking would arrive at: alternatives are tried in the same (greedy) order
+        // and the first one that leads to a match wins. every iteration of (...)* consumes at least one char, so
+        // matchEnd[p] only depends on matchEnd at larger offsets and can be filled in from right to left.
+        // (...)* is always entered after an allowed char, so other offsets are not needed.
+        int[] matchEnd = new int[n + 1];
+        for (int p = n; p >= 0; p--) {
+            matchEnd[p] = -1;
+            if (p == 0 || allowedRun[p - 1] == 0)
+                continue;
+
+            int result = -1;
+            boolean startsName = p < n && sent.charAt(p) >= 'A' && sent.charAt(p) <= 'Z';
+            // nameP[allowedCharsOther]{1,3}: nameP first takes the whole run of name chars, then gives back up to an apostrophe inside the run
+            if (startsName)
+                for (int q = nameEnd[p]; q > p && result < 0; q = prevApos[q])
+                    for (int k = allowedRun[q]; k >= 1 && result < 0; k--)
+                        result = matchEnd[q + k];
+            // stopWordsPattern[allowedCharsOther]{1,3}
+            for (int w = 0; w < sws.length && result < 0; w++) {
+                if (!sent.startsWith(sws[w], p))
+                    continue;
+                int q = p + sws[w].length();
+                for (int k = allowedRun[q]; k >= 1 && result < 0; k--)
+                    result = matchEnd[q + k];
+            }
+            // no more iterations, the final nameP
+            if (result < 0 && startsName)
+                result = nameEnd[p];
+            matchEnd[p] = result;
+        }
+
+        int[] phrases = new int[16];
+        int nPhrases = 0;
+        for (int start = 0; start < n; ) {
+            char c = sent.charAt(start);
+            if (c < 'A' || c > 'Z') {
+                start++;
+                continue;
+            }
+            // the first nameP never needs to give back chars: if the optional group does not match after the full run, the phrase is just the run
+            int end = nameEnd[start];
+            for (int k = allowedRun[end]; k >= 1; k--)
+                if (matchEnd[end + k] >= 0) {
+                    end = matchEnd[end + k];
+                    break;
+                }
+            if (nPhrases + 2 > phrases.length)
+                phrases = Arrays.copyOf(phrases, 2 * phrases.length);
+            phrases[nPhrases++] = start;
+            phrases[nPhrases++] = end;
+            start = end;
+        }
+        return Arrays.copyOf(phrases, nPhrases);
+    }
+
     /**
      * Ensures the sanity of the entity chunk, does the following checks:
      * <ul>
@@ -264,7 +357,7 @@ public class CICTokenizer implements Tokenizer, Serializable {
         //we have all the split tokens, will have to filter now
         List<String> nts = new ArrayList<>();
         for (String t : tokenL) {
-            t = t.replaceAll("^\\W+|\\W+$", "");
+            t = edgeNonWordPattern.matcher(t).replaceAll("");
 
             //if the chunk is the first word then, double check the capitalisation
             if (DictUtils.fullDictWords.contains(t.toLowerCase())) {
@@ -19,7 +19,7 @@ public class POSTokenizer implements Tokenizer{
      * */
     @Override
     public List<Triple<String, Integer, Integer>> tokenize(String content){
-        Span[] sents = NLPUtils.sentenceDetector.sentPosDetect(content);
+        Span[] sents = NLPUtils.getSentenceDetector().sentPosDetect(content);
         List<Triple<String, Integer, Integer>> ret = new ArrayList<>();
         for(Span span: sents) {
             String sent = span.getCoveredText(content).toString();
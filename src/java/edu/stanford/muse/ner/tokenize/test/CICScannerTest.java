@@ -0,0 +1,134 @@
+package edu.stanford.muse.ner.tokenize.test;
+
+import edu.stanford.muse.ner.tokenize.CICTokenizer;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+/**
+ * Property test of CICTokenizer.findCandidatePhrases against the entity pattern regex it replaces (built below exactly as CICTokenizer used to):
+ * on random strings made of names, stop words, the allowed separator chars, apostrophes and other punctuation, the scanner must return
+ * the same phrases as Matcher.find.
+ * main() compares the throughput of the two over synthetic mail bodies.
+ */
+public class CICScannerTest {
+    private static final List<String> STOP_WORDS = Arrays.asList(
+            "and","for","a","the","at", "in", "of",
+            "de", "van","von","da","ibn","mac","bin","del","dos","di","la","du","ben","no","ap","le","bint","do", "den"
+    );
+
+    private static Pattern referenceEntityPattern() {
+        String nameP = "[A-Z][A-Za-z0-9'\\-.]*";
+        String allowedCharsOther = "\\s&'";
+        String stopWordsPattern = "(" + String.join("|", STOP_WORDS) + ")";
+        String recur = "{1,3}";
+        String nps = "(" + nameP + "([" + allowedCharsOther + "]" + recur + "(" + nameP + "[" + allowedCharsOther + "]" + recur + "|(" + stopWordsPattern + "[" + allowedCharsOther + "]" + recur + "))*" + nameP + ")?)";
+        return Pattern.compile(nps);
+    }
+
+    private static List<Integer> referencePhrases(Pattern p, String s) {
+        List<Integer> result = new ArrayList<>();
+        Matcher m = p.matcher(s);
+        while (m.find()) {
+            result.add(m.start(1));
+            result.add(m.end(1));
+        }
+        return result;
+    }
+
+    private static List<Integer> scannerPhrases(String s) {
+        List<Integer> result = new ArrayList<>();
+        for (int x : CICTokenizer.findCandidatePhrases(s))
+            result.add(x);
+        return result;
+    }
+
+    // pieces that exercise the tricky parts of the pattern: apostrophes (both a name char and a separator), runs of separators,
+    // stop words that are prefixes of each other, and capitalised stop words
+    private static final String[] PIECES = new String[]{
+            "A", "B", "Jo", "John", "Mc'Do", "O'Neil", "U.S.", "Z.", "I'm", "Ap", "1", "x", "ab", "s", "'s",
+            "the", "a", "at", "and", "of", "de", "del", "den", "bin", "bint", "van", "no", "do", "dos",
+            " ", "  ", "\t", "\r", "\u000B", "&", "'", "''", ".", "-", ","
+    };
+
+    private static String randomString(Random r, int nPieces) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < nPieces; i++) {
+            if (r.nextInt(5) == 0)
+                sb.append((char) (32 + r.nextInt(95)));
+            else
+                sb.append(PIECES[r.nextInt(PIECES.length)]);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testFixedCases() {
+        Pattern p = referenceEntityPattern();
+        String[] cases = new String[]{
+                "", "a", "A", "John Smith", "I met John Smith and Mary de la Cruz at the Harvard Library & Co. yesterday",
+                "O'Neil's book", "John's Bob", "Ab'' Cd", "Ab'de Xy", "Xx 'Cd", "Bank of the West", "Bank of of of the", "A '  & B",
+                "Ellen van Langen", "P.V. Krishnamoorthi", "U.S. Dept. of Energy", "The End.", "X the", "X'"
+        };
+        for (String s : cases)
+            assertEquals(s, referencePhrases(p, s), scannerPhrases(s));
+    }
+
+    @Test
+    public void testRandomStrings() {
+        Pattern p = referenceEntityPattern();
+        Random r = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            String s = randomString(r, r.nextInt(i % 10 == 0 ? 300 : 30));
+            assertEquals(s, referencePhrases(p, s), scannerPhrases(s));
+        }
+    }
+
+    /** synthetic mail bodies: sentences of names, stop words and common words, with some lists of names */
+    private static List<String> makeSentences(int n) {
+        String[] words = new String[]{"John", "Smith", "and", "Mary", "O'Neil", "of", "the", "Board", "de", "la", "Cruz", "meeting", "on", "Tuesday",
+                "we", "will", "discuss", "Harvard", "Library", "&", "Co.", "U.S.", "in", "at", "Van", "Ness", "please", "send", "it", "to", "me"};
+        Random r = new Random(7);
+        List<String> sents = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            int len = 50 + r.nextInt(1900);
+            while (sb.length() < len)
+                sb.append(words[r.nextInt(words.length)]).append(r.nextInt(8) == 0 ? ", " : " ");
+            sents.add(sb.toString());
+        }
+        return sents;
+    }
+
+    public static void main(String[] args) {
+        Pattern p = referenceEntityPattern();
+        List<String> sents = makeSentences(5000);
+        long chars = 0;
+        for (String s : sents)
+            chars += s.length();
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            int nRegex = 0;
+            for (String s : sents) {
+                Matcher m = p.matcher(s);
+                while (m.find())
+                    nRegex++;
+            }
+            long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int nScanner = 0;
+            for (String s : sents)
+                nScanner += CICTokenizer.findCandidatePhrases(s).length / 2;
+            long scannerNanos = System.nanoTime() - start;
+
+            System.out.println(String.format("round %d: regex %.1f MB/s (%d phrases), scanner %.1f MB/s (%d phrases)", round,
+                    chars * 1000.0 / regexNanos, nRegex, chars * 1000.0 / scannerNanos, nScanner));
+        }
+    }
+}
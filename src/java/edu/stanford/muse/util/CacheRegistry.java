@@ -0,0 +1,321 @@
+package edu.stanford.muse.util;
+
+import edu.stanford.muse.Config;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of the structures kept in memory that can be dropped and rebuilt (or reloaded) when needed again: the caches computed from
+ * an archive's docs, whole archives in the read-only modes, the cross-collection entity index, DBpedia, etc.
+ * Each registers under a name with an estimate of its footprint and of the time it took to build, and is touched when used.
+ * The heap budget (Config.HEAP_BUDGET_PERCENT of the max) is set as the usage threshold of the old generation, and as its collection usage
+ * threshold, so the JVM tells us when it is crossed and when the old generation is still over it after a GC. Since the former only happens
+ * once per crossing, the heap is also checked every CHECK_INTERVAL_SECONDS. The old generation's usage
+ * includes garbage not collected yet (G1 only reports usage after a GC for full GCs), so this errs on the side of evicting early.
+ * When over budget, entries are evicted least recently used first until their estimates add up to what it takes to get back to
+ * Config.HEAP_TARGET_PERCENT, and nothing more is evicted until a GC has run. An entry that is expensive to rebuild counts as used
+ * more recently, by COST_WEIGHT times its build time.
+ * Loading something big can make room for it up front with ensureHeadroom().
+ * The entries, the heap pools and the recent evictions are available as JSON (ajax/caches.jsp).
+ */
+public class CacheRegistry {
+    private static final Logger log = LogManager.getLogger(CacheRegistry.class);
+
+    private static final long COST_WEIGHT = 60; // 1s to rebuild is worth a minute of recency
+    private static final int CHECK_INTERVAL_SECONDS = 30;
+    private static final int MAX_HISTORY = 50;
+    private static final long MB = 1024 * 1024;
+
+    /** something in memory that can be dropped, to be rebuilt or reloaded on next use */
+    public interface Evictable {
+        /** rough number of bytes that evict() would free, 0 if there is nothing to free right now */
+        long estimatedBytes();
+
+        /** how long the contents took to build or load, in ms */
+        long rebuildCostMillis();
+
+        /** drops the contents. returns false if they can't be dropped right now, e.g. because they are in use */
+        boolean evict();
+    }
+
+    private static class Entry {
+        final String name;
+        final Evictable evictable;
+        volatile long lastUsed = System.currentTimeMillis();
+
+        Entry(String name, Evictable evictable) {
+            this.name = name;
+            this.evictable = evictable;
+        }
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final Deque<JSONObject> history = new ArrayDeque<>(); // guarded by CacheRegistry.class
+    private static final Metrics.Counter evictionCount = Metrics.counter("cache.evictions"), evictedBytes = Metrics.counter("cache.evicted.bytes");
+
+    private static ScheduledExecutorService checker;
+    private static NotificationListener listener;
+    // GCs of the old generation when we last evicted. what was evicted is still counted as used until the next one, so don't evict again before that
+    private static long collectionsAtLastRelief = -1;
+
+    static {
+        Metrics.gauge("cache.estimated.bytes", CacheRegistry::estimatedBytes);
+    }
+
+    /** registers (or replaces) the entry with the given name */
+    public static void register(String name, Evictable evictable) {
+        entries.put(name, new Entry(name, evictable));
+    }
+
+    public static void unregister(String name) {
+        entries.remove(name);
+    }
+
+    /** marks the entry as just used. cheap, can be called on every access */
+    public static void touch(String name) {
+        Entry e = entries.get(name);
+        if (e != null)
+            e.lastUsed = System.currentTimeMillis();
+    }
+
+    /** ms since the entry was last used, 0 if it is not registered */
+    public static long idleMillis(String name) {
+        Entry e = entries.get(name);
+        return e == null ? 0 : System.currentTimeMillis() - e.lastUsed;
+    }
+
+    public static long estimatedBytes() {
+        long total = 0;
+        for (Entry e : entries.values())
+            total += estimate(e);
+        return total;
+    }
+
+    private static long estimate(Entry e) {
+        try {
+            return Math.max(0, e.evictable.estimatedBytes());
+        } catch (Exception ex) {
+            Util.print_exception("Error estimating the size of " + e.name, ex, log);
+            return 0;
+        }
+    }
+
+    private static long priority(Entry e) {
+        return e.lastUsed + COST_WEIGHT * Math.max(0, e.evictable.rebuildCostMillis());
+    }
+
+    /** evicts entries, least recently used (weighted by rebuild cost) first, until their estimates add up to at least the given bytes. returns the bytes freed by estimate */
+    public static synchronized long relieve(long bytes) {
+        List<Entry> candidates = new ArrayList<>(entries.values());
+        Map<Entry, Long> priorities = new HashMap<>();
+        for (Entry e : candidates)
+            priorities.put(e, priority(e));
+        candidates.sort(Comparator.comparingLong(priorities::get));
+
+        long freed = 0;
+        for (Entry e : candidates) {
+            if (freed >= bytes)
+                break;
+            // evicting one entry (e.g. an archive) may have taken out others along with it
+            if (entries.get(e.name) != e)
+                continue;
+            long size = estimate(e);
+            if (size == 0)
+                continue;
+            long idle = System.currentTimeMillis() - e.lastUsed;
+            try {
+                if (!e.evictable.evict())
+                    continue;
+            } catch (Exception ex) {
+                Util.print_exception("Error evicting " + e.name, ex, log);
+                continue;
+            }
+            freed += size;
+            evictionCount.inc();
+            evictedBytes.add(size);
+            log.info("Evicted " + e.name + ", about " + size / MB + "MB, idle for " + idle / 1000 + "s, took " + e.evictable.rebuildCostMillis() + "ms to build");
+
+            JSONObject json = new JSONObject();
+            json.put("name", e.name);
+            json.put("estimatedMB", size / MB);
+            json.put("idleMillis", idle);
+            json.put("time", System.currentTimeMillis());
+            history.addFirst(json);
+            while (history.size() > MAX_HISTORY)
+                history.removeLast();
+        }
+        return freed;
+    }
+
+    /** the pools we watch: heap pools that support usage thresholds, which in HotSpot is the old generation */
+    private static List<MemoryPoolMXBean> heapPools() {
+        List<MemoryPoolMXBean> result = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+            if (pool.getType() == MemoryType.HEAP && pool.isValid() && pool.isUsageThresholdSupported() && pool.getUsage().getMax() > 0)
+                result.add(pool);
+        return result;
+    }
+
+    private static long collectionCount(List<MemoryPoolMXBean> pools) {
+        Set<String> poolNames = new HashSet<>();
+        for (MemoryPoolMXBean pool : pools)
+            poolNames.add(pool.getName());
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            if (!Collections.disjoint(poolNames, Arrays.asList(gc.getMemoryPoolNames())))
+                count += gc.getCollectionCount();
+        return count;
+    }
+
+    /** bytes to free to get the given pools (plus the extra bytes) back to the target, 0 if they are within the budget */
+    private static long overBudget(List<MemoryPoolMXBean> pools, long extraBytes) {
+        long over = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getUsage();
+            if (usage.getMax() <= 0)
+                continue;
+            long used = usage.getUsed() + extraBytes;
+            if (used > usage.getMax() * Config.HEAP_BUDGET_PERCENT / 100)
+                over += used - usage.getMax() * Config.HEAP_TARGET_PERCENT / 100;
+        }
+        return over;
+    }
+
+    private static synchronized void checkHeap() {
+        try {
+            List<MemoryPoolMXBean> pools = heapPools();
+            long collections = collectionCount(pools);
+            if (collections == collectionsAtLastRelief)
+                return;
+            long over = overBudget(pools, 0);
+            if (over <= 0)
+                return;
+            log.warn("Heap is over budget, evicting about " + over / MB + "MB. " + Util.getMemoryStats());
+            long freed = relieve(over);
+            collectionsAtLastRelief = collections;
+            if (freed < over)
+                log.warn("Could only evict about " + freed / MB + "MB of the " + over / MB + "MB needed");
+        } catch (Throwable t) {
+            Util.print_exception("Error checking the heap budget", t, log);
+        }
+    }
+
+    /** evicts entries if the heap plus the given bytes, about to be allocated, would be over budget */
+    public static synchronized void ensureHeadroom(long bytes) {
+        long over = overBudget(heapPools(), bytes);
+        if (over <= 0)
+            return;
+        log.info("Making room for about " + bytes / MB + "MB, evicting about " + over / MB + "MB");
+        relieve(over);
+    }
+
+    /** sets the usage thresholds on the heap and starts watching it. called once at startup */
+    public static synchronized void install() {
+        if (checker != null)
+            return;
+        List<MemoryPoolMXBean> pools = heapPools();
+        for (MemoryPoolMXBean pool : pools) {
+            pool.setUsageThreshold(pool.getUsage().getMax() * Config.HEAP_BUDGET_PERCENT / 100);
+            if (pool.isCollectionUsageThresholdSupported())
+                pool.setCollectionUsageThreshold(pool.getUsage().getMax() * Config.HEAP_BUDGET_PERCENT / 100);
+        }
+
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "epadd-cache-registry");
+            t.setDaemon(true);
+            return t;
+        });
+        listener = (notification, handback) -> {
+            if (MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(notification.getType())
+                    || MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType()))
+                executor.execute(CacheRegistry::checkHeap);
+        };
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(listener, null, null);
+        executor.scheduleWithFixedDelay(CacheRegistry::checkHeap, CHECK_INTERVAL_SECONDS, CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS);
+        checker = executor;
+
+        StringBuilder sb = new StringBuilder();
+        for (MemoryPoolMXBean pool : pools)
+            sb.append(" ").append(pool.getName()).append(": ").append(pool.getUsageThreshold() / MB).append("MB");
+        log.info("Heap budget " + Config.HEAP_BUDGET_PERCENT + "%, target " + Config.HEAP_TARGET_PERCENT + "%." + (pools.isEmpty() ? " No heap pool supports usage thresholds, checking periodically" : sb.toString()));
+    }
+
+    public static synchronized void shutdown() {
+        if (checker == null)
+            return;
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(listener);
+        } catch (ListenerNotFoundException e) {
+            Util.print_exception(e, log);
+        }
+        for (MemoryPoolMXBean pool : heapPools()) {
+            pool.setUsageThreshold(0);
+            if (pool.isCollectionUsageThresholdSupported())
+                pool.setCollectionUsageThreshold(0);
+        }
+        checker.shutdownNow();
+        checker = null;
+        listener = null;
+    }
+
+    public static synchronized JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("budgetPercent", Config.HEAP_BUDGET_PERCENT);
+        json.put("targetPercent", Config.HEAP_TARGET_PERCENT);
+
+        JSONArray poolsJSON = new JSONArray();
+        for (MemoryPoolMXBean pool : heapPools()) {
+            JSONObject p = new JSONObject();
+            p.put("name", pool.getName());
+            p.put("usedMB", pool.getUsage().getUsed() / MB);
+            MemoryUsage afterGC = pool.getCollectionUsage();
+            if (afterGC != null)
+                p.put("usedAfterGCMB", afterGC.getUsed() / MB);
+            p.put("maxMB", pool.getUsage().getMax() / MB);
+            p.put("thresholdMB", pool.getUsageThreshold() / MB);
+            p.put("thresholdExceeded", pool.getUsageThresholdCount());
+            poolsJSON.put(p);
+        }
+        json.put("pools", poolsJSON);
+
+        // in the order in which they would be evicted
+        List<Entry> list = new ArrayList<>(entries.values());
+        Map<Entry, Long> priorities = new HashMap<>();
+        for (Entry e : list)
+            priorities.put(e, priority(e));
+        list.sort(Comparator.comparingLong(priorities::get));
+        JSONArray entriesJSON = new JSONArray();
+        long total = 0;
+        for (Entry e : list) {
+            long size = estimate(e);
+            total += size;
+            JSONObject j = new JSONObject();
+            j.put("name", e.name);
+            j.put("estimatedMB", size / MB);
+            j.put("rebuildCostMillis", e.evictable.rebuildCostMillis());
+            j.put("idleMillis", System.currentTimeMillis() - e.lastUsed);
+            entriesJSON.put(j);
+        }
+        json.put("entries", entriesJSON);
+        json.put("estimatedMB", total / MB);
+        json.put("evictions", evictionCount.get());
+
+        JSONArray historyJSON = new JSONArray();
+        for (JSONObject j : history)
+            historyJSON.put(j);
+        json.put("recentEvictions", historyJSON);
+        return json;
+    }
+}
@@ -54,7 +54,7 @@ import static edu.stanford.muse.email.EmailFetcherThread.INVALID_DATE;
 
 public class EmailUtils {
     public static final Logger log = LogManager.getLogger(EmailUtils.class);
-    private static org.apache.commons.collections4.map.CaseInsensitiveMap<String, String> dbpedia = null;
+    private static volatile org.apache.commons.collections4.map.CaseInsensitiveMap<String, String> dbpedia = null;
 
     private enum MessageType {
         ONLY_PLAIN, ONLY_HTML, PLAIN_AND_HTML, PLAIN_AND_ATTACHMENT, HTML_AND_ATTACHMENT, PLAIN_AND_HTML_AND_ATTACHMENT
@@ -287,10 +287,11 @@ public class EmailUtils {
         return result;
     }
 
+    // SimpleDateFormat is not thread-safe, and messages are printed to mbox on several threads at once (see MboxExporter), so each thread has its own
     //	From - Tue Sep 29 11:38:30 2009
-    private static final SimpleDateFormat sdf1 = new SimpleDateFormat("EEE MMM dd hh:mm:ss yyyy");
+    private static final ThreadLocal<SimpleDateFormat> sdf1 = ThreadLocal.withInitial(() -> new SimpleDateFormat("EEE MMM dd hh:mm:ss yyyy"));
     // Date: Wed, 2 Apr 2003 11:53:17 -0800 (PST)
-    private static final SimpleDateFormat sdf2 = new SimpleDateFormat("EEE, dd MMM yyyy hh:mm:ss");
+    private static final ThreadLocal<SimpleDateFormat> sdf2 = ThreadLocal.withInitial(() -> new SimpleDateFormat("EEE, dd MMM yyyy hh:mm:ss"));
     public static Random rng = new Random(0);
 
     static {
@@ -303,7 +304,7 @@ public class EmailUtils {
         /* http://www.ietf.org/rfc/rfc1521.txt is the official ref. */
         String frontier = "";
         Date d = ed.date != null ? ed.date : new Date();
-        String s = sdf1.format(d);
+        String s = sdf1.get().format(d);
         mbox.println("From - " + s);
         mbox.println("X-ePADD-Folder: " + ed.folderName);
         if (!Util.nullOrEmpty(annotationManager.getAnnotation(ed.getUniqueId()))) {
@@ -1097,23 +1098,36 @@ public class EmailUtils {
 
     /**
      * normalizeNewlines should already have been called on text
+     * returns the original content of the message, i.e. the text up to the first quoted/forwarded message marker, with lines quoted with > replaced by " . ".
+     * This is called for every message while indexing, so it scans text in place without creating a String or regex Matcher per line.
+     * Lines are split like BufferedReader.readLine does, i.e. on \n, \r or \r\n, and joined with \n in the result.
      */
-    public static String getOriginalContent(String text) throws IOException {
-        StringBuilder result = new StringBuilder();
-        BufferedReader br = new BufferedReader(new StringReader(text));
+    public static String getOriginalContent(CharSequence text) {
+        StringBuilder result = new StringBuilder(text.length());
+        scanOriginalContent(text, result);
+        return result.toString();
+    }
 
-        // stopper for the tokenize when we meet a line that needs to be ignored
-        String stopper = " . ";
+    /** returns the position in text at which its original content ends, i.e. the start of the line with the first quoted/forwarded message marker, or the length of text if it has none */
+    public static int originalContentEnd(CharSequence text) {
+        return scanOriginalContent(text, null);
+    }
 
-        // we'll maintain line and nextLine for lookahead. needed e.g. for the "on .... wrote:" detection below
-        String originalLine;
-        String nextLine = br.readLine();
+    /** appends the original content of text to result, if it is not null, and returns the position at which the original content ends */
+    private static int scanOriginalContent(CharSequence text, StringBuilder result) {
+        int len = text.length();
 
-        while (true) {
-            originalLine = nextLine;
-            if (originalLine == null)
-                break;
-            nextLine = br.readLine();
+        // stopper for the tokenize when we meet a line that needs to be ignored
+        final String stopper = " . ";
+
+        // the current line is [lineStart, lineEnd), nextLineStart is where the next line (if any) begins.
+        // we need the next line for lookahead. needed e.g. for the "on .... wrote:" detection below
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = endOfLine(text, lineStart);
+            int nextLineStart = startOfNextLine(text, lineEnd);
+            boolean hasNextLine = nextLineStart < len;
+            int nextLineEnd = hasNextLine ? endOfLine(text, nextLineStart) : -1;
 
             /*
              * Yahoo replies look like this. they don't use the quote character.
@@ -1128,44 +1142,149 @@ public class EmailUtils {
              * i.e. at least 20 '_' chars, and the following line has a colon
              */
 
-            // do all checking ops on effective line, but don't modify original line, because we want to use it verbatim in the result.
-            // effectiveLine is taken before replacing everything after a >, because we may want to look for a marker like "forwarded message" after a > as well.
-            String effectiveLine = originalLine.trim();
-
-            // nuke everything after >. this is the only modification to the original line
-            originalLine = originalLine.replaceAll("^\\s*>.*$", stopper); //
+            // do all checking ops on the effective line, i.e. [effStart, effEnd) which is the line trimmed as by String.trim(),
+            // but don't modify original line, because we want to use it verbatim in the result.
+            int effStart = lineStart, effEnd = lineEnd;
+            while (effStart < effEnd && text.charAt(effStart) <= ' ')
+                effStart++;
+            while (effEnd > effStart && text.charAt(effEnd - 1) <= ' ')
+                effEnd--;
 
             // now a series of checks to stop copying of the input to result
-            if (effectiveLine.length() > 20 && Util.hasOnlyOneChar(effectiveLine, '_') && nextLine != null && nextLine.indexOf(":") > 0)
-                break;
+            if (effEnd - effStart > 20 && isAllChar(text, effStart, effEnd, '_') && hasNextLine && indexOf(text, nextLineStart, nextLineEnd, ':') > nextLineStart)
+                return lineStart;
 
             // eliminate everything after the line "On Wed, Jul 3, 2013 at 2:06 PM, Sudheendra Hangal <hangal@gmail.com> wrote:"
             // however, sometimes this line has wrapped around on two lines, so we use the nextLine lookahead if it's present
-            if ((effectiveLine.startsWith("On ") && effectiveLine.endsWith("wrote:")) ||
-                    (effectiveLine.startsWith("On ") && effectiveLine.length() < 80 && (nextLine != null && nextLine.trim().endsWith("wrote:")))) {
-                break;
+            if (regionStartsWith(text, effStart, effEnd, "On ")) {
+                if (regionEndsWith(text, effStart, effEnd, "wrote:"))
+                    return lineStart;
+                if (effEnd - effStart < 80 && hasNextLine && regionEndsWith(text, nextLineStart, trimmedEnd(text, nextLineStart, nextLineEnd), "wrote:"))
+                    return lineStart;
             }
 
             // look for forward separator
-            String lowercaseLine = effectiveLine.toLowerCase();
-            if (lowercaseLine.startsWith("Begin forwarded message:"))
-                break;
-            if (effectiveLine.startsWith("---") && effectiveLine.endsWith("---") && (lowercaseLine.contains("forwarded message") || lowercaseLine.contains("original message")))
-                break;
+            // (an earlier version also looked for a line starting with "Begin forwarded message:", but compared it against the lower-cased line, so it never matched. left out to keep results unchanged.)
+            if (regionStartsWith(text, effStart, effEnd, "---") && regionEndsWith(text, effStart, effEnd, "---")) {
+                // rare, ok to create a string here
+                String lowercaseLine = text.subSequence(effStart, effEnd).toString().toLowerCase();
+                if (lowercaseLine.contains("forwarded message") || lowercaseLine.contains("original message"))
+                    return lineStart;
+            }
 
-            result.append(originalLine);
+            // nuke everything after >. this is the only modification to the original line
+            // (same as originalLine.replaceAll("^\\s*>.*$", stopper))
+            if (result == null) {
+                lineStart = nextLineStart;
+                continue;
+            }
+            int quoteReplacedUpTo = quotedLineEnd(text, lineStart, lineEnd);
+            if (quoteReplacedUpTo >= 0) {
+                result.append(stopper);
+                result.append(text, quoteReplacedUpTo, lineEnd);
+            } else
+                result.append(text, lineStart, lineEnd);
 
             // be careful, need to ensure that result is same as original text if nothing was stripped.
             // this is important because indexer will avoid redoing openNLPNER etc. if stripped content is exactly the same as the original.
-            if (nextLine == null) {
+            if (!hasNextLine) {
                 // we're at end of input, append \n only if original text had it.
-                if (text.endsWith("\n"))
+                if (len > 0 && text.charAt(len - 1) == '\n')
                     result.append("\n");
             } else
                 result.append("\n");
+
+            lineStart = nextLineStart;
         }
 
-        return result.toString();
+        return len;
+    }
+
+    /** returns the end (exclusive, i.e. the position of the line terminator or end of text) of the line starting at start. */
+    private static int endOfLine(CharSequence text, int start) {
+        int len = text.length();
+        for (int i = start; i < len; i++) {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r')
+                return i;
+        }
+        return len;
+    }
+
+    /** given the end of a line, returns the start of the next line, skipping over the line terminator (\n, \r or \r\n) */
+    private static int startOfNextLine(CharSequence text, int lineEnd) {
+        int len = text.length();
+        if (lineEnd >= len)
+            return len;
+        if (text.charAt(lineEnd) == '\r' && lineEnd + 1 < len && text.charAt(lineEnd + 1) == '\n')
+            return lineEnd + 2;
+        return lineEnd + 1;
+    }
+
+    /** returns the end of [start, end) after trimming trailing chars <= ' ', as String.trim() does */
+    private static int trimmedEnd(CharSequence text, int start, int end) {
+        while (end > start && text.charAt(end - 1) <= ' ')
+            end--;
+        return end;
+    }
+
+    private static boolean isAllChar(CharSequence text, int start, int end, char c) {
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) != c)
+                return false;
+        return true;
+    }
+
+    /** returns position of the first c in [start, end), or -1 */
+    private static int indexOf(CharSequence text, int start, int end, char c) {
+        for (int i = start; i < end; i++)
+            if (text.charAt(i) == c)
+                return i;
+        return -1;
+    }
+
+    private static boolean regionStartsWith(CharSequence text, int start, int end, String prefix) {
+        int n = prefix.length();
+        if (end - start < n)
+            return false;
+        for (int i = 0; i < n; i++)
+            if (text.charAt(start + i) != prefix.charAt(i))
+                return false;
+        return true;
+    }
+
+    private static boolean regionEndsWith(CharSequence text, int start, int end, String suffix) {
+        int n = suffix.length();
+        if (end - start < n)
+            return false;
+        for (int i = 0; i < n; i++)
+            if (text.charAt(end - n + i) != suffix.charAt(i))
+                return false;
+        return true;
+    }
+
+    /**
+     * hand-coded version of matching the line [start, end) against ^\s*>.*$
+     * returns -1 if the line does not match, otherwise the end of the matched part, which is end, or end-1 if the line ends with one of the
+     * line terminators that readLine does not split on but . does not match (\u0085, \u2028, \u2029), which $ allows at the end.
+     */
+    private static int quotedLineEnd(CharSequence text, int start, int end) {
+        int i = start;
+        while (i < end && isRegexWhitespace(text.charAt(i)))
+            i++;
+        if (i >= end || text.charAt(i) != '>')
+            return -1;
+        for (i++; i < end; i++) {
+            char c = text.charAt(i);
+            if (c == '\u0085' || c == '\u2028' || c == '\u2029')
+                return (i == end - 1) ? i : -1;
+        }
+        return end;
+    }
+
+    /** same as \s in java regex */
+    private static boolean isRegexWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
     }
 
     private static void testGetOriginalContent() throws IOException {
@@ -1242,25 +1361,30 @@ public class EmailUtils {
     }
 
     /**
-     * thread a collection of emails
+     * a canonical thread key for the message, based on the cleaned up subject line (removing re: fwd: etc) and the participants.
+     * used for threading messages that cannot be threaded by their References/In-Reply-To headers (see ThreadIndex)
+     */
+    public static String subjectThreadKey(EmailDocument ed) {
+        // in the future, could consider date ranges too, e.g. don't consider messages more than N days apart as the same thread
+        // even if they have the same subject and recipients
+        // for gmail only -- there is a thread id directly in gmail which can potentially be used
+        String canonicalSubject = cleanupSubjectLine(ed.description);
+        // we prob. don't care about canonical case for subject
+
+        List<String> addrs = emailAddrs(ed.to);
+        addrs.addAll(emailAddrs(ed.cc));
+        addrs.addAll(emailAddrs(ed.from));
+        Collections.sort(addrs);
+        return canonicalSubject + " " + Util.join(addrs, ",");
+    }
+
+    /**
+     * thread a collection of emails by subject and participants only. see ThreadIndex for threading by headers
      */
     public static Collection<Collection<EmailDocument>> threadEmails(Collection<EmailDocument> docs) {
         Map<String, Collection<EmailDocument>> map = new LinkedHashMap<>();
         for (EmailDocument ed : docs) {
-            // compute a canonical thread id, based on the cleaned up subject line (removing re: fwd: etc) and the description.
-            // in the future, could consider date ranges too, e.g. don't consider messages more than N days apart as the same thread
-            // even if they have the same subject and recipients
-            // for gmail only -- there is a thread id directly in gmail which can potentially be used
-            String canonicalSubject = cleanupSubjectLine(ed.description);
-            // we prob. don't care about canonical case for subject
-
-            List<String> addrs = emailAddrs(ed.to);
-            addrs.addAll(emailAddrs(ed.cc));
-            addrs.addAll(emailAddrs(ed.from));
-            Collections.sort(addrs);
-            String threadId = canonicalSubject + " " + Util.join(addrs, ",");
-            // canonical id for the thread.
-            Collection<EmailDocument> messagesForThisThread = map.computeIfAbsent(threadId, k -> new ArrayList<>());
+            Collection<EmailDocument> messagesForThisThread = map.computeIfAbsent(subjectThreadKey(ed), k -> new ArrayList<>());
             messagesForThisThread.add(ed);
         }
         return map.values();
@@ -1472,8 +1596,11 @@ public class EmailUtils {
         return ct;
     }
 
-    private static Map<String, String> readDBpedia(double p, String typesFile) {
+    /** synchronized so that it is read only once. the map is built locally and published at the end, since CacheRegistry may drop it at any time */
+    private static synchronized Map<String, String> readDBpedia(double p, String typesFile) {
+        org.apache.commons.collections4.map.CaseInsensitiveMap<String, String> dbpedia = EmailUtils.dbpedia;
         if (dbpedia != null) {
+            CacheRegistry.touch("dbpedia");
             if (p == 1)
                 return dbpedia;
             else
@@ -1481,6 +1608,7 @@ public class EmailUtils {
         }
         if (typesFile == null)
             typesFile = Config.DBPEDIA_INSTANCE_FILE;
+        long startTime = System.currentTimeMillis();
         //dbpedia = new LinkedHashMap<>();
         //we want to be able to access elements in the map in a case-sensitive manner, this is a way to do that.
         dbpedia = new org.apache.commons.collections4.map.CaseInsensitiveMap<>();
@@ -1489,6 +1617,7 @@ public class EmailUtils {
             InputStream is = Config.getResourceAsStream(typesFile);
             if (is == null) {
                 log.warn("DBpedia file resource could not be read!!");
+                EmailUtils.dbpedia = dbpedia;
                 return dbpedia;
             }
 
@@ -1559,10 +1688,28 @@ public class EmailUtils {
         }
 
         log.info("Read " + dbpedia.size() + " names from DBpedia, " + numPersons + " people name. dropped: " + d);
+        EmailUtils.dbpedia = dbpedia;
+        registerDBpedia(System.currentTimeMillis() - startTime);
 
         return new org.apache.commons.collections4.map.CaseInsensitiveMap<>(sample(dbpedia, p));
     }
 
+    /** lets CacheRegistry drop the DBpedia map when memory is low. it is read again on next use */
+    private static void registerDBpedia(long loadMillis) {
+        CacheRegistry.register("dbpedia", new CacheRegistry.Evictable() {
+            public long estimatedBytes() {
+                // about 150 bytes per title with its map entry; the types are interned
+                Map<String, String> map = dbpedia;
+                return map == null ? 0 : 150L * map.size();
+            }
+            public long rebuildCostMillis() { return loadMillis; }
+            public boolean evict() {
+                dbpedia = null;
+                return true;
+            }
+        });
+    }
+
     public static Map<String, String> readDBpedia() {
         return readDBpedia(1.0, null);
     }
@@ -0,0 +1,358 @@
+package edu.stanford.muse.util;
+
+import edu.stanford.muse.Config;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleToLongFunction;
+import java.util.function.Supplier;
+
+/**
+ * In-process metrics: counters, histograms (with approximate percentiles) and gauges, registered by name, and spans that time a stage
+ * of work into the histogram <name>.nanos and keep the most recent ones (with their parent span on the same thread) for tracing.
+ * Names are dotted, e.g. "search.lucene"; the Prometheus text output turns them into epadd_search_lucene etc.
+ * Counters and histograms that are hit often should be looked up once and kept in a static field.
+ * Turned off by epadd.metrics.enabled=false, in which case recording is a check of a volatile flag and span() returns a shared no-op span.
+ * Served by ajax/metrics.jsp as JSON, or as Prometheus text with format=prometheus.
+ */
+public class Metrics {
+    public static volatile boolean enabled = Config.METRICS_ENABLED;
+
+    private static final int MAX_RECENT_SPANS = 500;
+    private static final long ROLLING_WINDOW_MILLIS = 60 * 60 * 1000L;
+    private static final int ROLLING_SLOTS = 6;
+
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, RollingHistogram> rollingHistograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, Supplier<? extends Number>> gauges = new ConcurrentSkipListMap<>();
+    private static final Deque<Span> recentSpans = new ArrayDeque<>(); // guarded by itself
+    private static final ThreadLocal<Span> currentSpan = new ThreadLocal<>();
+
+    static {
+        gauge("jvm.heap.used.bytes", () -> Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+        gauge("jvm.heap.max.bytes", () -> Runtime.getRuntime().maxMemory());
+    }
+
+    public static class Counter {
+        private final LongAdder count = new LongAdder();
+
+        public void inc() {
+            if (enabled)
+                count.increment();
+        }
+
+        public void add(long n) {
+            if (enabled)
+                count.add(n);
+        }
+
+        public long get() {
+            return count.sum();
+        }
+    }
+
+    /**
+     * Histogram of non-negative longs in log-linear buckets: 4 buckets per power of 2, so a percentile is off by at most 25%.
+     * Lock-free, with fixed memory.
+     */
+    public static class Histogram {
+        private static final int SUB_BUCKETS = 4, SUB_BITS = 2;
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder(), sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void record(long value) {
+            if (!enabled)
+                return;
+            if (value < 0)
+                value = 0;
+            buckets.incrementAndGet(bucket(value));
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int bucket(long v) {
+            if (v < SUB_BUCKETS)
+                return (int) v;
+            int e = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (e - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (e - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /** the largest value that falls in bucket b */
+        static long upperBound(int b) {
+            if (b < SUB_BUCKETS)
+                return b;
+            int e = b / SUB_BUCKETS + SUB_BITS - 1, sub = b % SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + sub) << (e - SUB_BITS);
+            return lower + (1L << (e - SUB_BITS)) - 1;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getSum() {
+            return sum.sum();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /** adds the bucket counts of this histogram into counts */
+        private void addTo(long[] counts) {
+            for (int i = 0; i < counts.length; i++)
+                counts[i] += buckets.get(i);
+        }
+
+        /** approximate value at quantile q (0..1): the upper bound of the bucket it is in, but no more than the max seen */
+        public long percentile(double q) {
+            long[] counts = new long[buckets.length()];
+            addTo(counts);
+            return percentile(counts, max.get(), q);
+        }
+
+        private static long percentile(long[] counts, long max, double q) {
+            long n = 0;
+            for (long c : counts)
+                n += c;
+            if (n == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * n)), seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank)
+                    return Math.min(upperBound(i), max);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * Histogram over a sliding window: the window is split into slots, each a Histogram, and the oldest slot is dropped when a value
+     * is recorded after it has expired. So the window covers between (slots-1) and slots times the slot length.
+     */
+    public static class RollingHistogram {
+        private final long slotMillis;
+        private final AtomicReferenceArray<Histogram> slots;
+        private final AtomicLongArray slotEpochs; // the slot number (time / slotMillis) that each slot holds. set after the slot itself
+
+        private RollingHistogram(long windowMillis, int nSlots) {
+            this.slotMillis = Math.max(1, windowMillis / nSlots);
+            this.slots = new AtomicReferenceArray<>(nSlots);
+            this.slotEpochs = new AtomicLongArray(nSlots);
+            for (int i = 0; i < nSlots; i++)
+                slots.set(i, new Histogram());
+        }
+
+        private Histogram slot(long epoch) {
+            int i = (int) (epoch % slots.length());
+            if (slotEpochs.get(i) != epoch) {
+                synchronized (this) {
+                    if (slotEpochs.get(i) != epoch) {
+                        slots.set(i, new Histogram());
+                        slotEpochs.set(i, epoch);
+                    }
+                }
+            }
+            return slots.get(i);
+        }
+
+        public void record(long value) {
+            if (enabled)
+                slot(System.currentTimeMillis() / slotMillis).record(value);
+        }
+
+        /** the slots still in the window */
+        private synchronized List<Histogram> live() {
+            long now = System.currentTimeMillis() / slotMillis;
+            List<Histogram> result = new ArrayList<>();
+            for (int i = 0; i < slots.length(); i++)
+                if (now - slotEpochs.get(i) < slots.length())
+                    result.add(slots.get(i));
+            return result;
+        }
+
+        public long getCount() {
+            return live().stream().mapToLong(Histogram::getCount).sum();
+        }
+
+        public long getSum() {
+            return live().stream().mapToLong(Histogram::getSum).sum();
+        }
+
+        public long getMax() {
+            return live().stream().mapToLong(Histogram::getMax).max().orElse(0);
+        }
+
+        public long percentile(double q) {
+            List<Histogram> live = live();
+            long[] counts = new long[64 * Histogram.SUB_BUCKETS];
+            long max = 0;
+            for (Histogram h : live) {
+                h.addTo(counts);
+                max = Math.max(max, h.getMax());
+            }
+            return Histogram.percentile(counts, max, q);
+        }
+    }
+
+    /** a timed stage of work. use in try-with-resources; closing records the duration into the histogram <name>.nanos */
+    public static class Span implements AutoCloseable {
+        private final String name;
+        private final Span parent;
+        private final String thread;
+        private final long startMillis, startNanos;
+        private long durationNanos = -1;
+
+        private Span(String name) {
+            this.name = name;
+            this.parent = currentSpan.get();
+            this.thread = Thread.currentThread().getName();
+            this.startMillis = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (durationNanos >= 0)
+                return;
+            durationNanos = System.nanoTime() - startNanos;
+            histogram(name + ".nanos").record(durationNanos);
+            // spans on a thread are closed in reverse order of opening, so the parent is current again
+            if (parent != null)
+                currentSpan.set(parent);
+            else
+                currentSpan.remove();
+            synchronized (recentSpans) {
+                recentSpans.addFirst(this);
+                while (recentSpans.size() > MAX_RECENT_SPANS)
+                    recentSpans.removeLast();
+            }
+        }
+
+        private JSONObject toJSON() {
+            JSONObject json = new JSONObject();
+            json.put("name", name);
+            if (parent != null)
+                json.put("parent", parent.name);
+            json.put("thread", thread);
+            json.put("start", startMillis);
+            json.put("millis", durationNanos / 1e6);
+            return json;
+        }
+    }
+
+    private static final Span NOOP_SPAN = new Span("noop") {
+        @Override
+        public void close() {
+        }
+    };
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, k -> new Counter());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** histogram over roughly the last hour */
+    public static RollingHistogram rollingHistogram(String name) {
+        return rollingHistograms.computeIfAbsent(name, k -> new RollingHistogram(ROLLING_WINDOW_MILLIS, ROLLING_SLOTS));
+    }
+
+    /** registers a gauge, whose value is read from the supplier when the metrics are reported. replaces an earlier gauge of the same name */
+    public static void gauge(String name, Supplier<? extends Number> supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /** starts a span on this thread, e.g. try (Metrics.Span s = Metrics.span("search.lucene")) { ... } */
+    public static Span span(String name) {
+        if (!enabled)
+            return NOOP_SPAN;
+        Span s = new Span(name);
+        currentSpan.set(s);
+        return s;
+    }
+
+    private static Number gaugeValue(Supplier<? extends Number> s) {
+        try {
+            return s.get();
+        } catch (Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    public static JSONObject toJSON() {
+        JSONObject json = new JSONObject();
+        json.put("enabled", enabled);
+        JSONObject c = new JSONObject(), h = new JSONObject(), g = new JSONObject();
+        counters.forEach((name, counter) -> c.put(name, counter.get()));
+        histograms.forEach((name, hist) -> h.put(name, summaryJSON(hist.getCount(), hist.getSum(), hist.getMax(), hist::percentile)));
+        JSONObject r = new JSONObject();
+        rollingHistograms.forEach((name, hist) -> r.put(name, summaryJSON(hist.getCount(), hist.getSum(), hist.getMax(), hist::percentile)));
+        gauges.forEach((name, s) -> g.put(name, gaugeValue(s)));
+        json.put("counters", c);
+        json.put("histograms", h);
+        json.put("rollingHistograms", r);
+        json.put("rollingWindowMillis", ROLLING_WINDOW_MILLIS);
+        json.put("gauges", g);
+        JSONArray spans = new JSONArray();
+        synchronized (recentSpans) {
+            for (Span s : recentSpans)
+                spans.put(s.toJSON());
+        }
+        json.put("recentSpans", spans);
+        return json;
+    }
+
+    private static JSONObject summaryJSON(long count, long sum, long max, DoubleToLongFunction percentile) {
+        JSONObject o = new JSONObject();
+        o.put("count", count);
+        o.put("sum", sum);
+        o.put("max", max);
+        o.put("p50", percentile.applyAsLong(0.5));
+        o.put("p90", percentile.applyAsLong(0.9));
+        o.put("p99", percentile.applyAsLong(0.99));
+        return o;
+    }
+
+    private static String prometheusName(String name) {
+        return "epadd_" + name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    /** Prometheus text exposition format. histograms are reported as summaries */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        counters.forEach((name, counter) -> {
+            String n = prometheusName(name) + "_total";
+            sb.append("# TYPE ").append(n).append(" counter\n").append(n).append(' ').append(counter.get()).append('\n');
+        });
+        gauges.forEach((name, s) -> {
+            String n = prometheusName(name);
+            sb.append("# TYPE ").append(n).append(" gauge\n").append(n).append(' ').append(gaugeValue(s)).append('\n');
+        });
+        histograms.forEach((name, hist) -> appendSummary(sb, prometheusName(name), hist.getCount(), hist.getSum(), hist::percentile));
+        // rolling histograms only cover the last hour, so their _sum and _count can go down
+        rollingHistograms.forEach((name, hist) -> appendSummary(sb, prometheusName(name) + "_1h", hist.getCount(), hist.getSum(), hist::percentile));
+        return sb.toString();
+    }
+
+    private static void appendSummary(StringBuilder sb, String n, long count, long sum, DoubleToLongFunction percentile) {
+        sb.append("# TYPE ").append(n).append(" summary\n");
+        for (double q : new double[]{0.5, 0.9, 0.99})
+            sb.append(n).append("{quantile=\"").append(q).append("\"} ").append(percentile.applyAsLong(q)).append('\n');
+        sb.append(n).append("_sum ").append(sum).append('\n');
+        sb.append(n).append("_count ").append(count).append('\n');
+    }
+}
@@ -23,20 +23,31 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 //import org.apache.commons.logging.Log;
 //import org.apache.commons.logging.LogFactory;
+/**
+ * OpenNLP's *ME classes keep per-call state and are not thread-safe, so the (immutable) models are loaded once here
+ * and every thread gets its own *ME instances over the shared models.
+ */
 public class NLPUtils {
     private static final Logger log					= LogManager.getLogger(NLPUtils.class);
 
-    public static   SentenceDetectorME	sentenceDetector;
-    private static   POSTagger posTagger;
-    private static   Tokenizer tokenizer;
-    private static   Chunker chunker;
+    private static final SentenceModel sentenceModel;
+    private static final POSModel posModel;
+    private static final TokenizerModel tokenizerModel;
+    private static final ChunkerModel chunkerModel;
+
+    private static final ThreadLocal<SentenceDetectorME> sentenceDetector = ThreadLocal.withInitial(() -> new SentenceDetectorME(NLPUtils.sentenceModel));
+    private static final ThreadLocal<POSTagger> posTagger = ThreadLocal.withInitial(() -> new POSTaggerME(NLPUtils.posModel));
+    private static final ThreadLocal<Tokenizer> tokenizer = ThreadLocal.withInitial(() -> new TokenizerME(NLPUtils.tokenizerModel));
+    private static final ThreadLocal<Chunker> chunker = ThreadLocal.withInitial(() -> new ChunkerME(NLPUtils.chunkerModel));
 
 	static {
 		InputStream sentStream = null, posStream = null, tokenStream = null, chunkerStream = null;
 		SentenceModel model = null;
+        POSModel pm = null;
+        TokenizerModel tm = null;
+        ChunkerModel cm = null;
         try {
             sentStream = Config.getResourceAsStream("models/en-sent.bin");
-            model = null;
             posStream = Config.getResourceAsStream("models/en-pos-maxent.bin");
             tokenStream = Config.getResourceAsStream("models/en-token.bin");
             chunkerStream = Config.getResourceAsStream("models/en-chunker.bin");
@@ -53,13 +64,9 @@ public class NLPUtils {
             //AbstractModel model = new GenericModelReader(new File(modelName)).getModel()
             //but it was throwing java.io.UTFDataFormatException: malformed input around byte 48
             model = new SentenceModel("en",dummyModel.getMaxentModel(), null, cf);
-            POSModel posModel = new POSModel(posStream);
-            posTagger = new POSTaggerME(posModel);
-            TokenizerModel tokenizerModel = new TokenizerModel(tokenStream);
-            tokenizer = new TokenizerME(tokenizerModel);
-
-            ChunkerModel chunkerModel = new ChunkerModel(chunkerStream);
-            chunker = new ChunkerME(chunkerModel);
+            pm = new POSModel(posStream);
+            tm = new TokenizerModel(tokenStream);
+            cm = new ChunkerModel(chunkerStream);
         } catch (Exception e) {
 			e.printStackTrace();
 			log.warn("Exception in init'ing sentence model");
@@ -71,12 +78,20 @@ public class NLPUtils {
                     close(is);
         }
         assert model!=null;
-        sentenceDetector = new SentenceDetectorME(model);
-        assert posTagger!=null;
-        assert tokenizer!=null;
-        assert chunker!=null;
+        assert pm!=null;
+        assert tm!=null;
+        assert cm!=null;
+        sentenceModel = model;
+        posModel = pm;
+        tokenizerModel = tm;
+        chunkerModel = cm;
 	}
 
+    /** returns the sentence detector for the calling thread. the returned instance must not be shared with other threads. */
+    public static SentenceDetectorME getSentenceDetector() {
+        return sentenceDetector.get();
+    }
+
     private static void close(InputStream stream){
         try{
             stream.close();
@@ -89,12 +104,12 @@ public class NLPUtils {
 	private static String[] tokenizeSentence(String text) {
         if(text == null)
             return new String[]{};
-        return sentenceDetector.sentDetect(text);
+        return sentenceDetector.get().sentDetect(text);
 	}
 
 	public static Span[] tokenizeSentenceAsSpan(String text) {
         try {
-            return sentenceDetector.sentPosDetect(text);
+            return sentenceDetector.get().sentPosDetect(text);
         }catch(IllegalArgumentException e){
             log.warn("Cannot tokenize: "+text);
             e.printStackTrace();
@@ -103,11 +118,11 @@ public class NLPUtils {
 	}
 
     private static String[] tokenize(String sentence){
-        return tokenizer.tokenize(sentence);
+        return tokenizer.get().tokenize(sentence);
     }
 
     private static String[] posTag(String[] tokens) {
-        return posTagger.tag(tokens);
+        return posTagger.get().tag(tokens);
     }
 
     public static List<String> getAllProperNouns(String content){
@@ -116,7 +131,7 @@ public class NLPUtils {
         for(String sent: sents) {
             String[] tokens = tokenize(sent);
             String[] tags = posTag(tokens);
-            Span[] chunks = chunker.chunkAsSpans(tokens,tags);
+            Span[] chunks = chunker.get().chunkAsSpans(tokens,tags);
             for(Span chunk: chunks){
                 String chunkText = "";
                 if("NP".equals(chunk.getType())){
@@ -149,7 +164,7 @@ public class NLPUtils {
     }
 
     public static List<Pair<String,Triple<String,Integer,Integer>>> posTagWithOffsets(String sent){
-        Span[] tokenSpans = tokenizer.tokenizePos(sent);
+        Span[] tokenSpans = tokenizer.get().tokenizePos(sent);
         String[] tokens = new String[tokenSpans.length];
         for(int si=0;si<tokenSpans.length;si++)
             tokens[si] = tokenSpans[si].getCoveredText(sent).toString();
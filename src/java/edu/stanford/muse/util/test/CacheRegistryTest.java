@@ -0,0 +1,89 @@
+package edu.stanford.muse.util.test;
+
+import edu.stanford.muse.util.CacheRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Eviction order of CacheRegistry.relieve(): least recently used first, with the rebuild cost counting as recency,
+ * stopping once enough bytes are freed, and skipping entries that are empty or refuse to be evicted.
+ */
+public class CacheRegistryTest {
+    private final List<String> names = new ArrayList<>();
+    private final List<String> evicted = new ArrayList<>();
+
+    private class TestCache implements CacheRegistry.Evictable {
+        final String name;
+        long bytes;
+        final long cost;
+        final boolean evictable;
+
+        TestCache(String name, long bytes, long cost, boolean evictable) {
+            this.name = name;
+            this.bytes = bytes;
+            this.cost = cost;
+            this.evictable = evictable;
+        }
+
+        public long estimatedBytes() { return bytes; }
+        public long rebuildCostMillis() { return cost; }
+        public boolean evict() {
+            if (!evictable)
+                return false;
+            evicted.add(name);
+            bytes = 0;
+            return true;
+        }
+    }
+
+    private void register(String name, long bytes, long cost, boolean evictable) throws InterruptedException {
+        names.add(name);
+        CacheRegistry.register(name, new TestCache(name, bytes, cost, evictable));
+        Thread.sleep(5); // so that each is used after the previous one
+    }
+
+    @After
+    public void unregister() {
+        names.forEach(CacheRegistry::unregister);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFirst() throws InterruptedException {
+        register("test.a", 100, 0, true);
+        register("test.b", 100, 0, true);
+        register("test.c", 100, 0, true);
+        CacheRegistry.touch("test.a");
+
+        assertEquals(200, CacheRegistry.relieve(150));
+        assertEquals(2, evicted.size());
+        assertEquals("test.b", evicted.get(0));
+        assertEquals("test.c", evicted.get(1));
+    }
+
+    @Test
+    public void expensiveEntriesAreEvictedLater() throws InterruptedException {
+        register("test.expensive", 100, 60 * 1000, true);
+        register("test.cheap", 100, 0, true);
+
+        CacheRegistry.relieve(100);
+        assertEquals(1, evicted.size());
+        assertEquals("test.cheap", evicted.get(0));
+    }
+
+    @Test
+    public void skipsEmptyAndPinnedEntries() throws InterruptedException {
+        register("test.empty", 0, 0, true);
+        register("test.pinned", 100, 0, false);
+        register("test.last", 100, 0, true);
+
+        assertEquals(100, CacheRegistry.relieve(1000));
+        assertEquals(1, evicted.size());
+        assertEquals("test.last", evicted.get(0));
+        assertTrue(CacheRegistry.toJSON().getJSONArray("entries").length() >= 3);
+    }
+}
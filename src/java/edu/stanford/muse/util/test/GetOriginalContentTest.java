@@ -0,0 +1,139 @@
+package edu.stanford.muse.util.test;
+
+import edu.stanford.muse.util.EmailUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Differential test of EmailUtils.getOriginalContent against the earlier readLine/regex based implementation (copied below as the reference)
+ * on a corpus of synthetic mails with quoted text, reply headers, forward separators and mixed line endings.
+ */
+public class GetOriginalContentTest {
+
+    /** the earlier implementation of EmailUtils.getOriginalContent, kept here verbatim as the reference */
+    private static String referenceGetOriginalContent(String text) throws IOException {
+        StringBuilder result = new StringBuilder();
+        BufferedReader br = new BufferedReader(new StringReader(text));
+
+        String stopper = " . ";
+        String originalLine;
+        String nextLine = br.readLine();
+
+        while (true) {
+            originalLine = nextLine;
+            if (originalLine == null)
+                break;
+            nextLine = br.readLine();
+
+            String effectiveLine = originalLine.trim();
+            originalLine = originalLine.replaceAll("^\\s*>.*$", stopper);
+
+            if (effectiveLine.length() > 20 && hasOnlyOneChar(effectiveLine, '_') && nextLine != null && nextLine.indexOf(":") > 0)
+                break;
+
+            if ((effectiveLine.startsWith("On ") && effectiveLine.endsWith("wrote:")) ||
+                    (effectiveLine.startsWith("On ") && effectiveLine.length() < 80 && (nextLine != null && nextLine.trim().endsWith("wrote:")))) {
+                break;
+            }
+
+            String lowercaseLine = effectiveLine.toLowerCase();
+            if (lowercaseLine.startsWith("Begin forwarded message:"))
+                break;
+            if (effectiveLine.startsWith("---") && effectiveLine.endsWith("---") && (lowercaseLine.contains("forwarded message") || lowercaseLine.contains("original message")))
+                break;
+
+            result.append(originalLine);
+            if (nextLine == null) {
+                if (text.endsWith("\n"))
+                    result.append("\n");
+            } else
+                result.append("\n");
+        }
+
+        return result.toString();
+    }
+
+    private static boolean hasOnlyOneChar(String s, char matchChar) {
+        for (char c : s.toCharArray())
+            if (c != matchChar)
+                return false;
+        return true;
+    }
+
+    private static final String[] LINES = new String[]{
+            "Hi Bob,", "", "   ", "Thanks for the update on the budget.", "> quoted line", "   >> doubly quoted", ">", "\t> tab quoted",
+            "On Wed, Jul 3, 2013 at 2:06 PM, Sudheendra Hangal <hangal@gmail.com> wrote:", "On Wed, Jul 3, 2013 at 2:06 PM, Sudheendra Hangal",
+            "<hangal@gmail.com> wrote:  ", "On the other hand, I wrote:", "On second thought", "________________________________", "______________________",
+            "From: Someone <someone@example.com>", ":leading colon", "-----Original Message-----", "---------- Forwarded message ---------",
+            "--- FORWARDED MESSAGE ---", "--- not a separator ---", "---", "Begin forwarded message:", "begin forwarded message:", "Regards,", "--",
+            "> line with   separator", "> ends with separator ", "> two\u0085seps\u0085", "\u000B> vertical tab quoted", " > nbsp quoted",
+            "Wrote: On", "On  wrote:", "On wrote:", "İ Original message ---", "--- orİginal message ---"
+    };
+
+    private static final String[] NEWLINES = new String[]{"\n", "\r\n", "\r"};
+
+    private static String syntheticMail(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int nLines = r.nextInt(25);
+        for (int i = 0; i < nLines; i++) {
+            sb.append(LINES[r.nextInt(LINES.length)]);
+            if (i < nLines - 1 || r.nextBoolean())
+                sb.append(r.nextInt(10) == 0 ? NEWLINES[r.nextInt(NEWLINES.length)] : "\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testAgainstReferenceOnFixedInputs() throws IOException {
+        String[] inputs = new String[]{"", "\n", "\n\n", "\r", "\r\n", "a", "a\n", "a\r", "This is a test\nsecond line\n", "abc\r\nrxyz\rde\n",
+                "Hi\n> quoted\nbye", "Hi\nOn Mon, Bob wrote:\n> quoted\n", "Hi\n______________________\nFrom: x\n"};
+        for (String s : inputs)
+            assertEquals("Mismatch for input: " + s, referenceGetOriginalContent(s), EmailUtils.getOriginalContent(s));
+    }
+
+    @Test
+    public void testAgainstReferenceOnSyntheticMails() throws IOException {
+        Random r = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String s = syntheticMail(r);
+            assertEquals("Mismatch for input: " + s, referenceGetOriginalContent(s), EmailUtils.getOriginalContent(s));
+        }
+    }
+
+    /**
+     * how the indexer gets the original content of long bodies split into chunks at line starts: each chunk that starts before originalContentEnd
+     * contributes its own original content. that must add up to the original content of the whole text, unless the line just before a split looks
+     * ahead at the next line (a short "On ..." line, or a line of underscores), which is then kept.
+     */
+    @Test
+    public void testOriginalContentOfChunks() {
+        Random r = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            String s = syntheticMail(r).replace("\r\n", "\n").replace('\r', '\n');
+            int end = EmailUtils.originalContentEnd(s);
+            assertTrue(end >= 0 && end <= s.length());
+            assertEquals(EmailUtils.getOriginalContent(s), EmailUtils.getOriginalContent(s.substring(0, end)));
+
+            for (int k = s.indexOf('\n') + 1; k > 0 && k < s.length(); k = s.indexOf('\n', k) + 1) {
+                String lastLine = s.substring(s.lastIndexOf('\n', k - 2) + 1, k - 1).trim();
+                if (lastLine.startsWith("On ") || lastLine.startsWith("____"))
+                    continue;
+                String chunked = EmailUtils.getOriginalContent(s.substring(0, k)) + (k < end ? EmailUtils.getOriginalContent(s.substring(k)) : "");
+                assertEquals("Mismatch for input: " + s + " split at " + k, EmailUtils.getOriginalContent(s), chunked);
+            }
+        }
+    }
+
+    @Test
+    public void testUnchangedIfNothingStripped() {
+        String s = "This is a test\nsecond line\n";
+        assertEquals(s, EmailUtils.getOriginalContent(s));
+        assertEquals(s, EmailUtils.getOriginalContent(new StringBuilder(s)));
+    }
+}
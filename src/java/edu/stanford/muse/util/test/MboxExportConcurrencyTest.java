@@ -0,0 +1,71 @@
+package edu.stanford.muse.util.test;
+
+import edu.stanford.muse.Config;
+import edu.stanford.muse.email.MboxExporter;
+import edu.stanford.muse.index.Archive;
+import edu.stanford.muse.index.Document;
+import edu.stanford.muse.index.EmailDocument;
+import org.apache.commons.io.FileUtils;
+import org.junit.Test;
+
+import javax.mail.Address;
+import javax.mail.internet.InternetAddress;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exports a few hundred messages to mbox with MboxExporter on 1 thread and on 4 threads, several times, and checks that the files are identical.
+ * The messages have dates all over the day and the year, so that a date format shared between the export threads would show up as a difference.
+ */
+public class MboxExportConcurrencyTest {
+    private static final int NMESSAGES = 300;
+    private static final int ROUNDS = 3;
+
+    private static Archive makeArchive(File dir) throws Exception {
+        Archive archive = Archive.createArchive();
+        archive.setup(dir.getPath(), null, new String[0]);
+        archive.openForWrite();
+        Random r = new Random(42);
+        for (int i = 0; i < NMESSAGES; i++) {
+            Address[] from = new Address[]{new InternetAddress("sender" + (i % 7) + "@example.org", "Sender " + (i % 7))};
+            Address[] to = new Address[]{new InternetAddress("recipient" + (i % 5) + "@example.org")};
+            Date date = new Date(946684800000L + (long) (r.nextDouble() * 20 * 365 * 24 * 3600 * 1000L));
+            EmailDocument ed = new EmailDocument(Integer.toString(i), "test", "inbox", to, null, null, from, "message " + i, "<" + i + "@example.org>", date);
+            archive.addDoc(ed, "This is message " + i + ".\nIt was sent on " + date + ".\n");
+        }
+        archive.close();
+        archive.openForRead();
+        return archive;
+    }
+
+    private static byte[] export(Archive archive, List<Document> docs, int nThreads, File file) throws Exception {
+        Config.EXPORT_THREADS = nThreads;
+        assertTrue(new MboxExporter(archive, docs, null, false).export(file));
+        return Files.readAllBytes(file.toPath());
+    }
+
+    @Test
+    public void sameBytesOnOneAndFourThreads() throws Exception {
+        int savedThreads = Config.EXPORT_THREADS;
+        File dir = Files.createTempDirectory("mbox-export-test").toFile();
+        Archive archive = null;
+        try {
+            archive = makeArchive(new File(dir, "archive"));
+            List<Document> docs = new ArrayList<>(archive.getAllDocs());
+            assertEquals(NMESSAGES, docs.size());
+
+            byte[] expected = export(archive, docs, 1, new File(dir, "1.mbox"));
+            assertTrue(expected.length > 0);
+            for (int round = 0; round < ROUNDS; round++)
+                assertArrayEquals(expected, export(archive, docs, 4, new File(dir, "4-" + round + ".mbox")));
+        } finally {
+            Config.EXPORT_THREADS = savedThreads;
+            if (archive != null)
+                archive.close();
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
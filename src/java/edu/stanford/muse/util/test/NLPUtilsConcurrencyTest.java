@@ -0,0 +1,103 @@
+package edu.stanford.muse.util.test;
+
+import edu.stanford.muse.util.NLPUtils;
+import edu.stanford.muse.util.Pair;
+import edu.stanford.muse.util.Triple;
+import opennlp.tools.util.Span;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stress test for NLPUtils under concurrency: every text is run through sentence detection, POS tagging and chunking
+ * by 32 threads at once, and the results must be identical to the ones computed on a single thread.
+ * Needs the OpenNLP models (models/en-*.bin) on the classpath or in the settings folder.
+ */
+public class NLPUtilsConcurrencyTest {
+    private static final int NTHREADS = 32;
+    private static final int ROUNDS = 20;
+
+    private static final String[] SENTENCES = new String[]{
+            "Robert Creeley wrote to Charles Olson from Black Mountain College in North Carolina.",
+            "The meeting with the Stanford University Libraries is on Tuesday at 3 p.m. in Green Library.",
+            "Did Dr. Smith send the draft to Ms. Jones at the Department of Energy?",
+            "We flew from San Francisco to New York and then took the train to Washington D.C. on Friday.",
+            "Please forward the minutes to John, Mary and the rest of the Board of Trustees!",
+            "The Harvard Library and the Library of Congress are working on email archives together.",
+            "I met Barack Obama and Michelle at the White House last year.",
+            "Apple Inc. and Microsoft Corp. announced results on Thursday, beating estimates.",
+    };
+
+    private static List<String> makeTexts() {
+        Random r = new Random(42);
+        List<String> texts = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder sb = new StringBuilder();
+            int n = 1 + r.nextInt(6);
+            for (int j = 0; j < n; j++)
+                sb.append(SENTENCES[r.nextInt(SENTENCES.length)]).append(r.nextBoolean() ? " " : "\n");
+            texts.add(sb.toString());
+        }
+        return texts;
+    }
+
+    /** a string summarising everything NLPUtils computes for the text, so that results can be compared with equals */
+    private static String analyze(String text) {
+        StringBuilder sb = new StringBuilder();
+        Span[] sents = NLPUtils.tokenizeSentenceAsSpan(text);
+        sb.append(Arrays.toString(sents)).append('\n');
+        if (sents != null) {
+            for (Span s : sents) {
+                String sent = s.getCoveredText(text).toString();
+                for (Pair<String, Triple<String, Integer, Integer>> p : NLPUtils.posTagWithOffsets(sent))
+                    sb.append(p.first).append('/').append(p.second.first).append('@').append(p.second.second).append(' ');
+                sb.append('\n');
+            }
+        }
+        sb.append(NLPUtils.getAllProperNouns(text));
+        return sb.toString();
+    }
+
+    @Test
+    public void testConcurrentResultsMatchSingleThreaded() throws Exception {
+        List<String> texts = makeTexts();
+        List<String> expected = new ArrayList<>();
+        for (String text : texts)
+            expected.add(analyze(text));
+
+        ExecutorService pool = Executors.newFixedThreadPool(NTHREADS);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < NTHREADS; t++) {
+                final int seed = t;
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    // each thread walks the texts in its own order so that threads work on different texts at the same time
+                    List<Integer> order = new ArrayList<>();
+                    for (int i = 0; i < texts.size(); i++)
+                        order.add(i);
+                    Random r = new Random(seed);
+                    int mismatches = 0;
+                    for (int round = 0; round < ROUNDS; round++) {
+                        Collections.shuffle(order, r);
+                        for (int i : order)
+                            if (!expected.get(i).equals(analyze(texts.get(i))))
+                                mismatches++;
+                    }
+                    return mismatches;
+                }));
+            }
+            start.countDown();
+            int mismatches = 0;
+            for (Future<Integer> f : futures)
+                mismatches += f.get(10, TimeUnit.MINUTES);
+            assertEquals("results under " + NTHREADS + " threads differ from single-threaded results", 0, mismatches);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
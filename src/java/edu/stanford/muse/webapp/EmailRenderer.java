@@ -12,6 +12,7 @@ import edu.stanford.muse.datacache.Blob;
 import edu.stanford.muse.datacache.BlobStore;
 import edu.stanford.muse.index.*;
 import edu.stanford.muse.ner.model.NEType;
+import edu.stanford.muse.util.Metrics;
 import edu.stanford.muse.util.Pair;
 import edu.stanford.muse.util.Span;
 import edu.stanford.muse.util.Util;
@@ -48,6 +49,14 @@ public class EmailRenderer {
 	public static Pair<String, Boolean> htmlForDocument(Document d, SearchResult searchResult, String datasetTitle,
 														Map<String, Map<String, Short>> authorisedEntities,
 														boolean IA_links, boolean inFull, boolean debug, String archiveID) throws Exception {
+		try (Metrics.Span s = Metrics.span("render.document")) {
+			return renderDocument(d, searchResult, datasetTitle, authorisedEntities, IA_links, inFull, debug, archiveID);
+		}
+	}
+
+	private static Pair<String, Boolean> renderDocument(Document d, SearchResult searchResult, String datasetTitle,
+														Map<String, Map<String, Short>> authorisedEntities,
+														boolean IA_links, boolean inFull, boolean debug, String archiveID) throws Exception {
 		JSPHelper.log.debug("Generating HTML for document: " + d);
 		EmailDocument ed = null;
 		Archive archive = searchResult.getArchive();
@@ -615,79 +624,70 @@ public class EmailRenderer {
 	 * Changed the first arg type from: Collection<? extends EmailDocument> to Collection<Document>, as we get C
 	 * ollection<Document> in browse page or from docsforquery, its a hassle to make them all return EmailDocument
 	 * especially when no other document type is used anywhere.
-	 * The second result is a json array of objects, one for each message. each message's object has metadata for it such as
-	 * id, labels and annotations.
+	 * The dataset is the server-side handle on the sorted result, from which pages (DataSet.getPageForMessages) and
+	 * message metadata (DataSet.getMetadataForMessages) are rendered on demand, so opening a result does no per-message work
+	 * other than ordering it. The second result is the metadata of the first METADATA_BATCH_SIZE messages, see metadataForDocument.
 	 */
 	public static Pair<DataSet, JSONArray> pagesForDocuments(Collection<Document> docs, SearchResult result,
 															 String datasetTitle,
 															 MultiDoc.ClusteringType coptions, Multimap<String,String> queryparams) {
+		try (Metrics.Span s = Metrics.span("render.pages")) {
+			DataSet dataset = datasetForDocuments(docs, result, datasetTitle, coptions, queryparams);
+			return new Pair<>(dataset, dataset.getMetadataForMessages(0, METADATA_BATCH_SIZE));
+		}
+	}
 
-		// need clusters which map to sections in the browsing interface
-		List<MultiDoc> clusters;
+	/** # of messages whose metadata is sent to the browser in one go; the browse page asks for the next batch before it is needed */
+	public static final int METADATA_BATCH_SIZE = 50;
 
-		// indexer may or may not have indexed all the docs in ds
-		// if it has, use its clustering (could be yearly or monthly or category
-		// wise
-		// if (indexer != null && indexer.clustersIncludeAllDocs(ds))
-		// if (indexer != null)
+	private static DataSet datasetForDocuments(Collection<Document> docs, SearchResult result,
+															 String datasetTitle,
+															 MultiDoc.ClusteringType coptions, Multimap<String,String> queryparams) {
 		//IMP: instead of searchResult.getDocsasSet() use the docs that is already ordered by
 		//the sortBy order (in SearchResult.selectDocsAndBlobs method.
-		clusters = result.getArchive().clustersForDocs(docs, coptions);
-		/*
-		 * else { // categorize by month if the docs have dates if
-		 * (EmailUtils.allDocsAreDatedDocs(ds)) clusters =
-		 * IndexUtils.partitionDocsByInterval(new ArrayList<DatedDocument>((Set)
-		 * ds), true); else // must be category docs clusters =
-		 * CategoryDocument.clustersDocsByCategoryName((Collection) ds); }
-		 */
-		JSONArray resultObj = new JSONArray();
-		int resultCount = 0;
+		if (coptions == MultiDoc.ClusteringType.NONE)
+			return new DataSet(docs, result, datasetTitle, queryparams);
 
+		// need clusters which map to sections in the browsing interface
+		// indexer may or may not have indexed all the docs in ds
+		// if it has, use its clustering (could be yearly or monthly or category
+		// wise
+		List<MultiDoc> clusters = result.getArchive().clustersForDocs(docs, coptions);
 		List<Document> datasetDocs = new ArrayList<>();
-		AnnotationManager annotationManager = result.getArchive().getAnnotationManager();
 		// we build up a hierarchy of <section, document, page>
-		for (MultiDoc md : clusters) {
-			if (md.docs.size() == 0)
-				continue;
-
-			List<List<String>> clusterResult = new ArrayList<>();
-
-			for (Document d : md.docs) {
-				String pdfAttrib = "";
-				datasetDocs.add(d);
-				clusterResult.add(null);
-				// clusterResult.add(docPageList);
-				// for (String s: docPageList)
-				{
-					JSONObject jsonObj = new JSONObject();
-
-					String comment = Util.escapeHTML(annotationManager.getAnnotation(d.getUniqueId()));
-					if (!Util.nullOrEmpty(comment))
-						jsonObj.put("annotation", comment);
-					Set<String> labels = result.getArchive().getLabelIDs((EmailDocument) d);
-					if (!Util.nullOrEmpty(labels)) {
-						JSONArray labs = new JSONArray();
-						int i = 0;
-						for (String l : labels) {
-							labs.put(i++, l);
-						}
-						jsonObj.put("labels", labs);
-					}
+		for (MultiDoc md : clusters)
+			datasetDocs.addAll(md.docs);
+		return new DataSet(datasetDocs, result, datasetTitle, queryparams);
+	}
 
-					if (d instanceof EmailDocument) {
-					    EmailDocument ed = (EmailDocument) d;
-						jsonObj.put("id", ed.getUniqueId());
-                        jsonObj.put ("threadID", ed.threadID);
-                        jsonObj.put("msgInThread",result.getArchive().docsWithThreadId(ed.threadID).size());//docsWithThreadID is not expensive method as it caches the result for future queries
-						jsonObj.put ("nAttachments", ed.attachments != null ? ed.attachments.size(): 0);
-					}
-					resultObj.put(resultCount++, jsonObj);
-				}
+	/**
+	 * the json object for a message in the browse page, with metadata for it such as id, labels and annotations.
+	 * annotationManager is passed in since it is looked up once per batch of messages
+	 */
+	public static JSONObject metadataForDocument(Document d, Archive archive, AnnotationManager annotationManager) {
+		JSONObject jsonObj = new JSONObject();
+
+		String comment = Util.escapeHTML(annotationManager.getAnnotation(d.getUniqueId()));
+		if (!Util.nullOrEmpty(comment))
+			jsonObj.put("annotation", comment);
+		Set<String> labels = archive.getLabelIDs((EmailDocument) d);
+		if (!Util.nullOrEmpty(labels)) {
+			JSONArray labs = new JSONArray();
+			int i = 0;
+			for (String l : labels) {
+				labs.put(i++, l);
 			}
+			jsonObj.put("labels", labs);
 		}
 
-		DataSet dataset = new DataSet(datasetDocs, result, datasetTitle,queryparams);
-		return new Pair<>(dataset, resultObj);
+		if (d instanceof EmailDocument) {
+			EmailDocument ed = (EmailDocument) d;
+			jsonObj.put("id", ed.getUniqueId());
+			jsonObj.put ("threadID", ed.threadID);
+			jsonObj.put("msgInThread",archive.docsWithThreadId(ed.threadID).size());//docsWithThreadID is not expensive method as it caches the result for future queries
+			jsonObj.put ("nAttachments", ed.attachments != null ? ed.attachments.size(): 0);
+		}
+		return jsonObj;
 	}
 
 	/**
@@ -0,0 +1,213 @@
+package edu.stanford.muse.webapp;
+
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sends a file as the response to a GET, with the parts of HTTP that matter for attachments, videos and large exports:
+ * - an ETag and Last-Modified, with If-None-Match/If-Modified-Since answered by a 304 and If-Match/If-Unmodified-Since by a 412.
+ * The ETag is strong if the caller knows a hash of the content, e.g. the content hash of a blob, and otherwise a weak one made of the
+ * file's length and modification time, since those do not guarantee the same bytes;
+ * - a single byte range (Range, honoured only if If-Range still matches), answered by a 206, so that previews can seek and
+ * interrupted downloads resume. Requests for several ranges get the whole file, which RFC 7233 allows.
+ * An If-Range with a weak ETag never matches, so only resumed downloads of files with a strong ETag (or an If-Range date) get a range.
+ * The body is copied with positional reads from a FileChannel into the container's output stream.
+ * Responses are private and revalidated each time, since files in the temp dir are overwritten under the same name by each export.
+ */
+public class FileServer {
+    private static final Logger log = LogManager.getLogger(FileServer.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** returned by parseRange when none of the requested range is in the file */
+    public static final long[] UNSATISFIABLE = new long[0];
+
+    /** the strong ETag for content with the given hash, quoted. null if there is no hash */
+    public static String strongETag(byte[] contentHash) {
+        return contentHash == null ? null : "\"" + Util.byteArrayToHexString(contentHash) + "\"";
+    }
+
+    /** the weak ETag of the file, from its length and modification time */
+    public static String weakETag(File file) {
+        return "W/\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * the first and last byte of the range in the given Range header, for a file of the given length.
+     * returns null if the whole file is to be sent: no header, one that is not a single byte range, or one that is malformed (which is to be ignored),
+     * and UNSATISFIABLE if the range starts after the end of the file.
+     */
+    public static long[] parseRange(String header, long length) {
+        if (header == null)
+            return null;
+        header = header.trim();
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0)
+            return null;
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0)
+            return null;
+        try {
+            String first = spec.substring(0, dash).trim(), last = spec.substring(dash + 1).trim();
+            if (first.isEmpty()) {
+                // the last n bytes
+                if (last.isEmpty())
+                    return null;
+                long n = Long.parseLong(last);
+                if (n < 0)
+                    return null;
+                if (n == 0 || length == 0)
+                    return UNSATISFIABLE;
+                return new long[]{Math.max(0, length - n), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+            if (start < 0 || end < start)
+                return null;
+            if (start >= length)
+                return UNSATISFIABLE;
+            return new long[]{start, Math.min(end, length - 1)};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * true if the If-Match/If-None-Match style header lists the given etag, or is *.
+     * with weak comparison (If-None-Match) tags match whether they are weak or not, with strong comparison (If-Match) weak tags match nothing.
+     */
+    private static boolean matches(String header, String etag, boolean weakComparison) {
+        if (header == null)
+            return false;
+        boolean etagIsWeak = etag.startsWith("W/");
+        String opaqueTag = etagIsWeak ? etag.substring(2) : etag;
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if ("*".equals(tag))
+                return true;
+            boolean weak = tag.startsWith("W/");
+            if (weak)
+                tag = tag.substring(2);
+            if ((weakComparison || (!weak && !etagIsWeak)) && tag.equals(opaqueTag))
+                return true;
+        }
+        return false;
+    }
+
+    /** value of the given date header, -1 if it is missing or malformed */
+    private static long dateHeader(HttpServletRequest request, String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * sends the file, or the part of it asked for, or a 304/412/416 without a body, as the request's headers call for.
+     * the file must exist. request may be null, in which case the whole file is sent.
+     * returns true if the response includes the end of the file, i.e. the file has been downloaded once the response is through.
+     */
+    public static boolean serve(HttpServletRequest request, HttpServletResponse response, File file, String contentType, boolean asAttachment) throws IOException {
+        return serve(request, response, file, null, contentType, asAttachment);
+    }
+
+    /** as above, with the given strong ETag (see strongETag), or a weak one from the file's length and modification time if it is null */
+    public static boolean serve(HttpServletRequest request, HttpServletResponse response, File file, String strongETag, String contentType, boolean asAttachment) throws IOException {
+        long length = file.length();
+        long lastModified = file.lastModified();
+        String etag = strongETag != null ? strongETag : weakETag(file);
+
+        if (!response.isCommitted())
+            response.resetBuffer(); // e.g. whitespace from the calling jsp; headers set by filters stay
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "private, no-cache");
+        response.setHeader("Accept-Ranges", "bytes");
+
+        long[] range = null;
+        if (request != null) {
+            // conditional requests, in the order of RFC 7232 section 6. dates only have a resolution of seconds
+            long lastModifiedSecs = lastModified / 1000;
+            String ifMatch = request.getHeader("If-Match");
+            long ifUnmodifiedSince = ifMatch == null ? dateHeader(request, "If-Unmodified-Since") : -1;
+            if ((ifMatch != null && !matches(ifMatch, etag, false)) || (ifUnmodifiedSince >= 0 && lastModifiedSecs > ifUnmodifiedSince / 1000)) {
+                response.sendError(HttpServletResponse.SC_PRECONDITION_FAILED);
+                return false;
+            }
+            String ifNoneMatch = request.getHeader("If-None-Match");
+            long ifModifiedSince = ifNoneMatch == null ? dateHeader(request, "If-Modified-Since") : -1;
+            if ((ifNoneMatch != null && matches(ifNoneMatch, etag, true)) || (ifModifiedSince >= 0 && lastModifiedSecs <= ifModifiedSince / 1000)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return false;
+            }
+
+            String ifRange = request.getHeader("If-Range");
+            boolean rangeValid = true;
+            if (ifRange != null) {
+                ifRange = ifRange.trim();
+                if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+                    rangeValid = strongETag != null && ifRange.equals(etag); // a strong comparison
+                else
+                    rangeValid = dateHeader(request, "If-Range") / 1000 == lastModifiedSecs;
+            }
+            if (rangeValid)
+                range = parseRange(request.getHeader("Range"), length);
+        }
+
+        if (range == UNSATISFIABLE) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return false;
+        }
+
+        long start = 0, count = length;
+        response.setBufferSize(BUFFER_SIZE);
+        response.setContentType(contentType);
+        if (asAttachment)
+            response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
+        if (range != null) {
+            start = range[0];
+            count = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        response.setHeader("Content-Length", String.valueOf(count));
+
+        if ("HEAD".equals(request == null ? null : request.getMethod()))
+            return false;
+        copy(file, start, count, response.getOutputStream());
+        return start + count == length;
+    }
+
+    /** copies count bytes of the file, from start, to out */
+    static void copy(File file, long start, long count, OutputStream out) throws IOException {
+        long pos = start, end = start + count;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            ByteBuffer buf = ByteBuffer.wrap(buffer);
+            while (pos < end) {
+                buf.clear();
+                buf.limit((int) Math.min(buffer.length, end - pos));
+                int n = channel.read(buf, pos);
+                if (n < 0)
+                    throw new EOFException("File " + file + " ended at byte " + pos + ", expected " + end);
+                out.write(buffer, 0, n);
+                pos += n;
+            }
+        }
+        if (log.isDebugEnabled())
+            log.debug("Sent bytes " + start + "-" + (end - 1) + " of " + file);
+    }
+}
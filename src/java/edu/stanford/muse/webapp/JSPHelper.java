@@ -18,7 +18,9 @@ package edu.stanford.muse.webapp;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import edu.stanford.epadd.util.OperationInfo;
+import edu.stanford.epadd.util.StartupResources;
 import edu.stanford.muse.LabelManager.Label;
+import edu.stanford.muse.datacache.Blob;
 import edu.stanford.muse.datacache.BlobStore;
 import edu.stanford.muse.email.*;
 import edu.stanford.muse.AddressBookManager.AddressBook;
@@ -406,7 +408,7 @@ public class JSPHelper {
                     nerModel = new DummyNERModel();
                 } else {
                     log.info("Loading Bayesian classifier from: " + modelFile + " ...");
-                    nerModel = NBModel.loadModelFromRules(NBModel.MODEL_FILENAME);
+                    nerModel = StartupResources.get(StartupResources.NER_MODEL);
                 }
             }
             if (nerModel == null) {
@@ -817,7 +819,17 @@ public class JSPHelper {
 		// could check if user is authorized here... or get the userKey directly from session
 
 		String filePath = baseDir + File.separator + Archive.BAG_DATA_FOLDER + File.separator + Archive.BLOBS_SUBDIR + File.separator + filename;
-		writeFileToResponse(session, response, filePath, true /* asAttachment */);
+		writeFileToResponse(request, session, response, filePath, true /* asAttachment */, null, blobETag(archive.getBlobStore(), filename, new File(filePath)));
+	}
+
+	/** the strong ETag of a file in the blob store, from the content hash of the blob whose original data it is. null for other files, e.g. thumbnails */
+	private static String blobETag(BlobStore blobStore, String filename, File file)
+	{
+		Blob blob = blobStore == null ? null : blobStore.getBlobForOriginalFilename(filename);
+		// a file of another size is not the data that was hashed
+		if (blob == null || file.length() != blob.getSize())
+			return null;
+		return FileServer.strongETag(blob.getContentHash());
 	}
 
 	/** serve up a file from the cache_dir */
@@ -837,7 +849,7 @@ public class JSPHelper {
 		// could check if user is authorized here... or get the userKey directly from session
 
 		String filePath = baseDir + File.separator + Archive.BAG_DATA_FOLDER + File.separator + Archive.IMAGES_SUBDIR + File.separator + filename;
-		writeFileToResponse(session, response, filePath, true /* asAttachment */);
+		writeFileToResponse(request, session, response, filePath, true /* asAttachment */, null);
 	}
 
 	/** serve up a file from the temp dir, mainly used for serving exported mbox files*/
@@ -863,16 +875,30 @@ public class JSPHelper {
 		// could check if user is authorized here... or get the userKey directly from session
 
 		String filePath = Archive.TEMP_SUBDIR + File.separator + filename;
-		writeFileToResponse(session, response, filePath, true /* asAttachment */, archive);
+		writeFileToResponse(request, session, response, filePath, true /* asAttachment */, archive);
 	}
 
 
 	public static void writeFileToResponse(HttpSession session, HttpServletResponse response, String filePath, boolean asAttachment) throws IOException
 	{
-		writeFileToResponse(session, response, filePath, asAttachment, null);
+		writeFileToResponse(null, session, response, filePath, asAttachment, null);
 	}
 
 	public static void writeFileToResponse(HttpSession session, HttpServletResponse response, String filePath, boolean asAttachment, Archive archive) throws IOException
+	{
+		writeFileToResponse(null, session, response, filePath, asAttachment, archive);
+	}
+
+	public static void writeFileToResponse(HttpServletRequest request, HttpSession session, HttpServletResponse response, String filePath, boolean asAttachment, Archive archive) throws IOException
+	{
+		writeFileToResponse(request, session, response, filePath, asAttachment, archive, null);
+	}
+
+	/**
+	 * sends the file with FileServer. with the request, its Range and conditional headers are honoured, without it the whole file is sent.
+	 * strongETag is the ETag of the file's content if known (see FileServer.strongETag), otherwise the file gets a weak one
+	 */
+	public static void writeFileToResponse(HttpServletRequest request, HttpSession session, HttpServletResponse response, String filePath, boolean asAttachment, Archive archive, String strongETag) throws IOException
 	{
 		// Decode the file name (might contain spaces and on) and prepare file object.
 		File file = new File(filePath);
@@ -902,72 +928,34 @@ public class JSPHelper {
 			contentType = "text/xml";
 		}
 
-
-		// Init servlet response.
-		int DEFAULT_BUFFER_SIZE = 100000;
-		response.reset();
-		response.setBufferSize(DEFAULT_BUFFER_SIZE);
-		response.setContentType(contentType);
-
-		// not really sure why this is needed, but we have to ensure that these headers are not present when rendering e.g. xwordImage (directly rendered into web browser, instead of piclens)
-		if (asAttachment)
-		{
-			response.setHeader("Content-Length", String.valueOf(file.length()));
-			response.setHeader("Content-Disposition", "attachment; filename=\"" + file.getName() + "\"");
-		}
-		// Prepare streams.
-		BufferedInputStream input = null;
-		BufferedOutputStream output = null;
-
 		try {
-			// Open streams.
-			input = new BufferedInputStream(new FileInputStream(file), DEFAULT_BUFFER_SIZE);
-			output = new BufferedOutputStream(response.getOutputStream(), DEFAULT_BUFFER_SIZE);
-
-			// Write file contents to response.
-			byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
-			int length;
-			while ((length = input.read(buffer)) > 0) {
-				output.write(buffer, 0, length);
-			}
+			// a 304, or a range short of the end of the file, is not a download of the file
+			boolean downloaded = FileServer.serve(request, response, file, strongETag, contentType, asAttachment);
 			//If exception is thrown before then this will not be reached
-			if (archive != null)
-			{
-				File f = new File(filePath);
-				String fileName = f.getName();
-				String suffix = fileName.substring(fileName.length()-5);
-				boolean isMboxFile = ".mbox".equals(suffix);
-				boolean isMboxExportFromMainMenu = ("all-messages.mbox").equals(fileName) || ("non-restricted-messages.mbox").equals(fileName) || ("restricted-messages.mbox").equals(fileName);
-
-				// Mbox export from main menue is dealt with in statusUpdate.js
-				boolean mboxWeDealWithHere = isMboxFile && !isMboxExportFromMainMenu;
-				if (mboxWeDealWithHere)
-				{
-					archive.getEpaddPremis().createEvent(EpaddEvent.EventType.MBOX_EXPORT, "Exported a subset of the collection", "success");
-				}
-			}
+			if (downloaded)
+				recordMboxExport(archive, file, "success");
 		}
 		catch (Exception e)
 		{
-			if (archive != null)
-			{
-				File f = new File(filePath);
-				String fileName = f.getName();
-				String suffix = fileName.substring(fileName.length()-5);
-				boolean isMboxFile = ".mbox".equals(suffix);
-				boolean isMboxExportFromMainMenu = ("all-messages.mbox").equals(fileName) || ("non-restricted-messages.mbox").equals(fileName) || ("restricted-messages.mbox").equals(fileName);
-
-				// Mbox export from main menue is dealt with in statusUpdate.js
-				boolean mboxWeDealWithHere = isMboxFile && !isMboxExportFromMainMenu;
-				if (mboxWeDealWithHere)
-				{
-					archive.getEpaddPremis().createEvent(EpaddEvent.EventType.MBOX_EXPORT, "Exported a subset of the collection", "Error");
-				}
-			}
-		} finally {
-			// Gently close streams.
-			Util.close(output);
-			Util.close(input);
+			log.warn("Error serving " + filePath + ": " + e);
+			recordMboxExport(archive, file, "Error");
+		}
+	}
+
+	/** records the download of an exported mbox file in the archive's PREMIS events */
+	private static void recordMboxExport(Archive archive, File file, String outcome)
+	{
+		if (archive == null)
+			return;
+		String fileName = file.getName();
+		boolean isMboxFile = fileName.endsWith(".mbox");
+		boolean isMboxExportFromMainMenu = ("all-messages.mbox").equals(fileName) || ("non-restricted-messages.mbox").equals(fileName) || ("restricted-messages.mbox").equals(fileName);
+
+		// Mbox export from main menue is dealt with in statusUpdate.js
+		boolean mboxWeDealWithHere = isMboxFile && !isMboxExportFromMainMenu;
+		if (mboxWeDealWithHere)
+		{
+			archive.getEpaddPremis().createEvent(EpaddEvent.EventType.MBOX_EXPORT, "Exported a subset of the collection", outcome);
 		}
 	}
 
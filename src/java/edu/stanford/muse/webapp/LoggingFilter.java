@@ -7,7 +7,9 @@ import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
+import edu.stanford.muse.index.ArchiveReaderWriter;
 import edu.stanford.muse.webapp.JSPHelper;
 
 public class LoggingFilter implements Filter {
@@ -18,12 +20,23 @@ public class LoggingFilter implements Filter {
 		String requestURL = ((HttpServletRequest) request).getRequestURL().toString();
 		// we want to log only pages, not every little resource
 		boolean logRequest = !requestURL.endsWith(".gif") && !requestURL.endsWith(".svg") && !requestURL.endsWith(".png") && !requestURL.endsWith(".jpg") && !requestURL.endsWith(".js") && !requestURL.endsWith(".css");
-		if (requestURL.endsWith("muselog.jsp") || requestURL.endsWith("status") || requestURL.contains("serveImage") || requestURL.contains("serveAttachment"))
+		// attachments and images are profiled though, they can be large
+		boolean profileRequest = logRequest && response instanceof HttpServletResponse;
+		if (requestURL.endsWith("muselog.jsp") || requestURL.endsWith("status") || requestURL.endsWith("ready.jsp") || requestURL.contains("serveImage") || requestURL.contains("serveAttachment"))
 			logRequest = false;
 		
 		if (logRequest)
 			JSPHelper.logRequest((HttpServletRequest) request);
-		chain.doFilter(request,response);
+		RequestProfiler.Profile profile = profileRequest ? RequestProfiler.start((HttpServletRequest) request, (HttpServletResponse) response) : null;
+		// archives looked up by the request are not unloaded until it is done with them
+		ArchiveReaderWriter.beginUse();
+		try {
+			chain.doFilter(request, profile != null ? profile.response : response);
+		} finally {
+			ArchiveReaderWriter.endUse();
+			if (profile != null)
+				profile.end();
+		}
 		if (logRequest)
 			JSPHelper.logRequestComplete((HttpServletRequest) request);
 	} 
@@ -31,6 +44,7 @@ public class LoggingFilter implements Filter {
 	@Override
 	public void destroy() {
 		JSPHelper.log.info("Filter LoggingFilter destroyed");
+		RequestProfiler.shutdown();
 		// TODO Auto-generated method stub
 
 	}
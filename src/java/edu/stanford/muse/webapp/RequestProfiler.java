@@ -0,0 +1,276 @@
+package edu.stanford.muse.webapp;
+
+import edu.stanford.muse.Config;
+import edu.stanford.muse.util.Metrics;
+import edu.stanford.muse.util.Util;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+
+/**
+ * Measures each request that goes through LoggingFilter: wall time, CPU time and bytes allocated by the request thread (from ThreadMXBean,
+ * where the JVM supports it) and the size of the response. These go into rolling histograms per endpoint, named
+ * http.<endpoint>.wall.millis, .cpu.millis, .alloc.bytes and .response.bytes (see Metrics), where the endpoint is the servlet path, e.g. browse or ajax/jobs.jsp.
+ * A request that runs longer than Config.SLOW_REQUEST_MILLIS has the stack of its thread sampled every Config.SLOW_REQUEST_SAMPLE_MILLIS
+ * until it completes; it is then logged with its params and the most frequent stacks, and kept in a list of recent slow requests.
+ * Usage: RequestProfiler.Profile p = RequestProfiler.start(request, response); chain.doFilter(request, p.response); p.end();
+ */
+public class RequestProfiler {
+    private static final Logger log = LogManager.getLogger(RequestProfiler.class);
+
+    private static final int MAX_SLOW_REQUESTS = 50, STACK_DEPTH = 12, TOP_STACKS = 5;
+
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final boolean cpuTimeSupported, allocSupported;
+    static {
+        boolean cpu = false, alloc = false;
+        try {
+            cpu = threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled();
+            if (threadBean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) threadBean;
+                alloc = sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled();
+            }
+        } catch (Throwable t) {
+            Util.print_exception("Thread CPU time or allocation is not available, requests will only be timed", new Exception(t), log);
+        }
+        cpuTimeSupported = cpu;
+        allocSupported = alloc;
+    }
+
+    // one thread takes the stack samples of all slow requests
+    private static final ScheduledThreadPoolExecutor sampler = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r, "request-profiler");
+        t.setDaemon(true);
+        return t;
+    });
+    static {
+        sampler.setRemoveOnCancelPolicy(true);
+    }
+
+    private static final Deque<JSONObject> slowRequests = new ArrayDeque<>(); // guarded by itself
+
+    /** a request being profiled */
+    public static class Profile {
+        public final HttpServletResponse response;
+        private final HttpServletRequest request;
+        private final Thread thread;
+        private final long startNanos, startCpuNanos, startAllocBytes;
+        private final Map<String, Integer> stackCounts = new HashMap<>(); // guarded by itself
+        private final ScheduledFuture<?> sampling;
+
+        private Profile(HttpServletRequest request, HttpServletResponse response) {
+            this.request = request;
+            this.response = new CountingResponse(response);
+            this.thread = Thread.currentThread();
+            this.startNanos = System.nanoTime();
+            this.startCpuNanos = cpuTimeSupported ? threadBean.getCurrentThreadCpuTime() : 0;
+            this.startAllocBytes = allocSupported ? allocatedBytes() : 0;
+            int threshold = Config.SLOW_REQUEST_MILLIS, interval = Math.max(1, Config.SLOW_REQUEST_SAMPLE_MILLIS);
+            this.sampling = threshold > 0 ? sampler.scheduleAtFixedRate(this::sample, threshold, interval, TimeUnit.MILLISECONDS) : null;
+        }
+
+        private void sample() {
+            StackTraceElement[] stack = thread.getStackTrace();
+            if (stack.length == 0)
+                return;
+            String key = Arrays.stream(stack).limit(STACK_DEPTH).map(StackTraceElement::toString).collect(Collectors.joining("\n\tat "));
+            synchronized (stackCounts) {
+                stackCounts.merge(key, 1, Integer::sum);
+            }
+        }
+
+        /** to be called on the request thread once the request is done */
+        public void end() {
+            if (sampling != null)
+                sampling.cancel(false);
+            long wallMillis = (System.nanoTime() - startNanos) / 1000000;
+            long cpuMillis = cpuTimeSupported ? (threadBean.getCurrentThreadCpuTime() - startCpuNanos) / 1000000 : -1;
+            long allocBytes = allocSupported ? allocatedBytes() - startAllocBytes : -1;
+            long responseBytes = ((CountingResponse) response).count();
+
+            String prefix = "http." + endpoint(request, response) + ".";
+            Metrics.rollingHistogram(prefix + "wall.millis").record(wallMillis);
+            if (cpuMillis >= 0)
+                Metrics.rollingHistogram(prefix + "cpu.millis").record(cpuMillis);
+            if (allocBytes >= 0)
+                Metrics.rollingHistogram(prefix + "alloc.bytes").record(allocBytes);
+            Metrics.rollingHistogram(prefix + "response.bytes").record(responseBytes);
+
+            if (Config.SLOW_REQUEST_MILLIS > 0 && wallMillis >= Config.SLOW_REQUEST_MILLIS)
+                logSlowRequest(wallMillis, cpuMillis, allocBytes, responseBytes);
+        }
+
+        private void logSlowRequest(long wallMillis, long cpuMillis, long allocBytes, long responseBytes) {
+            JSONObject json = new JSONObject();
+            json.put("time", System.currentTimeMillis());
+            json.put("url", request.getRequestURL().toString());
+            json.put("wallMillis", wallMillis);
+            json.put("cpuMillis", cpuMillis);
+            json.put("allocBytes", allocBytes);
+            json.put("responseBytes", responseBytes);
+
+            JSONObject params = new JSONObject();
+            StringBuilder sb = new StringBuilder("SLOW REQUEST " + request.getRequestURL() + " took " + wallMillis + "ms (cpu " + cpuMillis + "ms, allocated "
+                    + Util.commatize(allocBytes) + " bytes, response " + Util.commatize(responseBytes) + " bytes)");
+            try {
+                for (Map.Entry<String, Collection<String>> e : JSPHelper.convertRequestToMap(request).asMap().entrySet()) {
+                    JSONArray values = new JSONArray();
+                    for (String v : e.getValue())
+                        values.put(e.getKey().startsWith("password") ? "***" : Util.ellipsize(v, 100));
+                    params.put(e.getKey(), values);
+                }
+            } catch (Exception e) {
+                Util.print_exception("Unable to read the params of a slow request", e, log);
+            }
+            json.put("params", params);
+            sb.append("\nparams: ").append(params);
+
+            List<Map.Entry<String, Integer>> stacks;
+            int nSamples;
+            synchronized (stackCounts) {
+                stacks = new ArrayList<>(stackCounts.entrySet());
+                nSamples = stackCounts.values().stream().mapToInt(Integer::intValue).sum();
+            }
+            stacks.sort((a, b) -> b.getValue() - a.getValue());
+            JSONArray profile = new JSONArray();
+            for (Map.Entry<String, Integer> e : stacks.subList(0, Math.min(TOP_STACKS, stacks.size()))) {
+                JSONObject o = new JSONObject();
+                o.put("samples", e.getValue());
+                o.put("stack", e.getKey());
+                profile.put(o);
+                sb.append("\n").append(e.getValue()).append("/").append(nSamples).append(" samples at ").append(e.getKey());
+            }
+            json.put("samples", nSamples);
+            json.put("profile", profile);
+            log.warn(sb.toString());
+
+            synchronized (slowRequests) {
+                slowRequests.addFirst(json);
+                while (slowRequests.size() > MAX_SLOW_REQUESTS)
+                    slowRequests.removeLast();
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** the servlet path without the leading /. not found pages all go to one endpoint, so that random urls don't each get their histograms */
+    private static String endpoint(HttpServletRequest request, HttpServletResponse response) {
+        if (response.getStatus() == HttpServletResponse.SC_NOT_FOUND)
+            return "not-found";
+        String path = request.getServletPath();
+        if (Util.nullOrEmpty(path) || "/".equals(path))
+            return "root";
+        return path.startsWith("/") ? path.substring(1) : path;
+    }
+
+    public static Profile start(HttpServletRequest request, HttpServletResponse response) {
+        return new Profile(request, response);
+    }
+
+    /** the most recent slow requests, latest first */
+    public static JSONArray slowRequestsToJSON() {
+        JSONArray result = new JSONArray();
+        synchronized (slowRequests) {
+            slowRequests.forEach(result::put);
+        }
+        return result;
+    }
+
+    public static void shutdown() {
+        sampler.shutdownNow();
+    }
+
+    /** counts the bytes written to the output stream, or the chars written to the writer (the same for ascii pages) */
+    private static class CountingResponse extends HttpServletResponseWrapper {
+        private long count;
+        private ServletOutputStream out;
+        private PrintWriter writer;
+
+        CountingResponse(HttpServletResponse response) {
+            super(response);
+        }
+
+        long count() {
+            return count;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (out == null) {
+                ServletOutputStream inner = super.getOutputStream();
+                out = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        inner.write(b);
+                        count++;
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        inner.write(b, off, len);
+                        count += len;
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        inner.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        inner.close();
+                    }
+                };
+            }
+            return out;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                PrintWriter inner = super.getWriter();
+                writer = new PrintWriter(new Writer() {
+                    @Override
+                    public void write(char[] cbuf, int off, int len) {
+                        inner.write(cbuf, off, len);
+                        count += len;
+                    }
+
+                    @Override
+                    public void write(String str, int off, int len) {
+                        inner.write(str, off, len);
+                        count += len;
+                    }
+
+                    @Override
+                    public void flush() {
+                        inner.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        inner.close();
+                    }
+                });
+            }
+            return writer;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package edu.stanford.muse.webapp.test;
+
+import edu.stanford.muse.webapp.FileServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Range parsing and the responses of FileServer.serve(): the whole file, a range, 304s for matching validators, 416 past the end,
+ * and If-Range falling back to the whole file once the file has changed, or if the file only has a weak ETag.
+ */
+public class FileServerTest {
+    private File file;
+    private byte[] content;
+
+    /** what was sent: status, headers and body */
+    private static class Sent {
+        int status = HttpServletResponse.SC_OK;
+        final Map<String, String> headers = new HashMap<>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    }
+
+    @Before
+    public void createFile() throws IOException {
+        file = File.createTempFile("fileserver", ".bin");
+        content = new byte[300000];
+        for (int i = 0; i < content.length; i++)
+            content[i] = (byte) (i * 31);
+        Files.write(file.toPath(), content);
+    }
+
+    @After
+    public void deleteFile() {
+        file.delete();
+    }
+
+    private static HttpServletRequest request(String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2)
+            map.put(headers[i], headers[i + 1]);
+        return (HttpServletRequest) Proxy.newProxyInstance(FileServerTest.class.getClassLoader(), new Class<?>[]{HttpServletRequest.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getMethod":
+                    return "GET";
+                case "getHeader":
+                    return map.get(args[0]);
+                case "getDateHeader":
+                    String value = map.get(args[0]);
+                    if (value == null)
+                        return -1L;
+                    try {
+                        return Long.parseLong(value);
+                    } catch (NumberFormatException e) {
+                        throw new IllegalArgumentException(value);
+                    }
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private Sent serve(HttpServletRequest request) throws IOException {
+        return serve(request, null);
+    }
+
+    private Sent serve(HttpServletRequest request, String strongETag) throws IOException {
+        Sent sent = new Sent();
+        ServletOutputStream out = new ServletOutputStream() {
+            public void write(int b) {
+                sent.body.write(b);
+            }
+
+            public void write(byte[] b, int off, int len) {
+                sent.body.write(b, off, len);
+            }
+        };
+        HttpServletResponse response = (HttpServletResponse) Proxy.newProxyInstance(FileServerTest.class.getClassLoader(), new Class<?>[]{HttpServletResponse.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "setStatus":
+                case "sendError":
+                    sent.status = (Integer) args[0];
+                    return null;
+                case "setHeader":
+                    sent.headers.put((String) args[0], (String) args[1]);
+                    return null;
+                case "setDateHeader":
+                    sent.headers.put((String) args[0], String.valueOf(args[1]));
+                    return null;
+                case "getOutputStream":
+                    return out;
+                case "isCommitted":
+                    return false;
+                default:
+                    return null;
+            }
+        });
+        FileServer.serve(request, response, file, strongETag, "application/octet-stream", true);
+        return sent;
+    }
+
+    @Test
+    public void parsesRanges() {
+        assertNull(FileServer.parseRange(null, 100));
+        assertArrayEquals(new long[]{0, 9}, FileServer.parseRange("bytes=0-9", 100));
+        assertArrayEquals(new long[]{90, 99}, FileServer.parseRange("bytes=90-", 100));
+        assertArrayEquals(new long[]{90, 99}, FileServer.parseRange("bytes=-10", 100));
+        assertArrayEquals(new long[]{0, 99}, FileServer.parseRange("bytes=-1000", 100));
+        assertArrayEquals(new long[]{50, 99}, FileServer.parseRange("bytes=50-1000", 100));
+        assertSame(FileServer.UNSATISFIABLE, FileServer.parseRange("bytes=100-", 100));
+        assertSame(FileServer.UNSATISFIABLE, FileServer.parseRange("bytes=-0", 100));
+        // malformed or several ranges: the whole file
+        assertNull(FileServer.parseRange("bytes=9-0", 100));
+        assertNull(FileServer.parseRange("bytes=a-b", 100));
+        assertNull(FileServer.parseRange("items=0-9", 100));
+        assertNull(FileServer.parseRange("bytes=0-9,20-29", 100));
+    }
+
+    @Test
+    public void servesWholeFileAndRanges() throws IOException {
+        Sent whole = serve(request());
+        assertEquals(HttpServletResponse.SC_OK, whole.status);
+        assertArrayEquals(content, whole.body.toByteArray());
+        assertEquals(String.valueOf(content.length), whole.headers.get("Content-Length"));
+        assertNotNull(whole.headers.get("ETag"));
+
+        Sent part = serve(request("Range", "bytes=100000-199999"));
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, part.status);
+        assertEquals("bytes 100000-199999/" + content.length, part.headers.get("Content-Range"));
+        assertArrayEquals(Arrays.copyOfRange(content, 100000, 200000), part.body.toByteArray());
+
+        Sent past = serve(request("Range", "bytes=" + content.length + "-"));
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, past.status);
+        assertEquals(0, past.body.size());
+    }
+
+    @Test
+    public void answersConditionalRequests() throws IOException {
+        String etag = FileServer.strongETag(new byte[]{1, 2, 3});
+        Sent notModified = serve(request("If-None-Match", "\"other\", " + etag), etag);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, notModified.status);
+        assertEquals(etag, notModified.headers.get("ETag"));
+        assertEquals(0, notModified.body.size());
+
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, serve(request("If-Modified-Since", String.valueOf(file.lastModified())), etag).status);
+        assertEquals(HttpServletResponse.SC_OK, serve(request("If-Modified-Since", String.valueOf(file.lastModified() - 10000)), etag).status);
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, serve(request("If-Match", "\"other\""), etag).status);
+        assertEquals(HttpServletResponse.SC_OK, serve(request("If-Match", etag), etag).status);
+
+        // resuming a download of the content as it was
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, serve(request("Range", "bytes=10-", "If-Range", etag), etag).status);
+
+        // the content changed since: the whole new file
+        content[0]++;
+        Files.write(file.toPath(), content);
+        Sent changed = serve(request("Range", "bytes=10-", "If-Range", etag), FileServer.strongETag(new byte[]{4, 5, 6}));
+        assertEquals(HttpServletResponse.SC_OK, changed.status);
+        assertArrayEquals(content, changed.body.toByteArray());
+    }
+
+    @Test
+    public void weakETagWithoutContentHash() throws IOException {
+        String etag = FileServer.weakETag(file);
+        Sent whole = serve(request());
+        assertEquals(etag, whole.headers.get("ETag"));
+        assertTrue(etag.startsWith("W/"));
+
+        // weak comparison for If-None-Match, strong comparison (which a weak tag never passes) for If-Match and If-Range
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, serve(request("If-None-Match", etag)).status);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, serve(request("If-None-Match", etag.substring(2))).status);
+        assertEquals(HttpServletResponse.SC_PRECONDITION_FAILED, serve(request("If-Match", etag)).status);
+        Sent resumed = serve(request("Range", "bytes=10-", "If-Range", etag));
+        assertEquals(HttpServletResponse.SC_OK, resumed.status);
+        assertArrayEquals(content, resumed.body.toByteArray());
+
+        // a file written again gets a new tag
+        Files.write(file.toPath(), content);
+        file.setLastModified(file.lastModified() + 5000);
+        assertNotEquals(etag, FileServer.weakETag(file));
+        assertEquals(HttpServletResponse.SC_OK, serve(request("If-None-Match", etag)).status);
+    }
+}
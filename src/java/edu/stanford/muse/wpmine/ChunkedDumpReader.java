@@ -0,0 +1,86 @@
+package edu.stanford.muse.wpmine;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a local dump file (plain, .gz or .bz2) in chunks of lines, and parses the chunks in parallel.
+ * The lines are read (and decompressed) on the calling thread, each chunk is handed to the parser on a thread pool, and the partial results
+ * are merged on the calling thread in the order of the chunks in the file. So as long as the parser only looks at its own chunk, the merged
+ * result is exactly what a sequential scan would produce, and is the same from run to run.
+ * Used by the offline resource builders in this package, which work only on local copies of the dumps.
+ */
+public class ChunkedDumpReader {
+    private static final Logger log = LogManager.getLogger(ChunkedDumpReader.class);
+
+    public static final int DEFAULT_CHUNK_LINES = 10000;
+
+    public static BufferedReader open(String file) throws IOException {
+        InputStream is = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+        if (file.endsWith(".bz2"))
+            is = new BZip2CompressorInputStream(is, true);
+        else if (file.endsWith(".gz"))
+            is = new GZIPInputStream(is, 1 << 16);
+        return new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    /**
+     * parses the lines of file in chunks of chunkLines lines with the given parser on nThreads threads, and calls merger with the result for each chunk, in file order.
+     * returns the number of lines read.
+     */
+    public static <T> long process(String file, int chunkLines, int nThreads, Function<List<String>, T> parser, Consumer<T> merger) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(nThreads);
+        // chunks being parsed, in file order. bounded, so that reading does not get too far ahead of the merge
+        Deque<Future<T>> inFlight = new ArrayDeque<>();
+        int maxInFlight = 2 * nThreads;
+        long nLines = 0, startMillis = System.currentTimeMillis();
+        try (BufferedReader br = open(file)) {
+            List<String> chunk = new ArrayList<>(chunkLines);
+            String line;
+            while ((line = br.readLine()) != null) {
+                nLines++;
+                chunk.add(line);
+                if (chunk.size() == chunkLines) {
+                    List<String> lines = chunk;
+                    inFlight.add(pool.submit(() -> parser.apply(lines)));
+                    chunk = new ArrayList<>(chunkLines);
+                    while (inFlight.size() >= maxInFlight)
+                        merger.accept(inFlight.poll().get());
+                }
+                if (nLines % 1000000 == 0)
+                    log.info("Read " + nLines + " lines of " + file);
+            }
+            if (!chunk.isEmpty()) {
+                List<String> lines = chunk;
+                inFlight.add(pool.submit(() -> parser.apply(lines)));
+            }
+            while (!inFlight.isEmpty())
+                merger.accept(inFlight.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + file, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error parsing " + file, e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+        log.info("Processed " + nLines + " lines of " + file + " in " + (System.currentTimeMillis() - startMillis) + "ms on " + nThreads + " threads");
+        return nLines;
+    }
+
+    public static <T> long process(String file, Function<List<String>, T> parser, Consumer<T> merger) throws IOException {
+        return process(file, DEFAULT_CHUNK_LINES, Runtime.getRuntime().availableProcessors(), parser, merger);
+    }
+}
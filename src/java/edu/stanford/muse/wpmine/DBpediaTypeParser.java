@@ -63,41 +63,49 @@ public class DBpediaTypeParser {
         }
     }
 
+    /** title -> type path, for the lines of one chunk of the types file. keeps the first type seen for a title, like the merge */
+    private static Map<String,String> parseChunk(List<String> lines, Map<String,String> ontology) {
+        int titleS = "<http://dbpedia.org/resource/".length();
+        int typeS = "<http://dbpedia.org/ontology/".length();
+        Map<String,String> dbpedia = new LinkedHashMap<>();
+        for (String line: lines) {
+            String[] fields = line.split("\\s+");
+            if(fields.length<3 || !fields[2].startsWith("<http://dbpedia.org/ontology/") || fields[0].contains("__"))
+                continue;
+            String title = fields[0].substring(titleS,fields[0].length()-1);
+            String type = fields[2].substring(typeS, fields[2].length()-1);
+            if(ontology.get(type) == null) {
+                //when processing 2014 instance file with DBpedia owl file of 2015, these types cannot be resolved.
+                if(!(type.startsWith("Wikidata") || type.equals("Comics")))
+                    System.err.println("NULL for type: " + type + " -- " + line);
+                continue;
+            }
+            //sometimes, the same title has multiple entries for type, considering the first one is the right one based on observation on a small sample set
+            dbpedia.putIfAbsent(title, ontology.get(type));
+        }
+        return dbpedia;
+    }
+
+    /**
+     * the types file is parsed in chunks in parallel (see ChunkedDumpReader), and the chunks are merged in file order, so the first type of a title still wins.
+     * The output is sorted by title, so that the files built from successive dumps can be diffed.
+     */
     private static void parse(String typesFile, String typeOntologyFile, String outPath) {
         try {
             Map<String,String> ontology = parseOntology(typeOntologyFile);
             if(ontology==null)
                 return;
-            LineNumberReader lnr = new LineNumberReader(new InputStreamReader(new BZip2CompressorInputStream(new FileInputStream(typesFile), true), StandardCharsets.UTF_8));
-            String line;
-            int titleS = "<http://dbpedia.org/resource/".length();
-            int typeS = "<http://dbpedia.org/ontology/".length();
-            Map<String,String> dbpedia = new LinkedHashMap<>();
-            while((line=lnr.readLine())!=null){
-                String[] fields = line.split("\\s+");
-                if(fields.length<3 || !fields[2].startsWith("<http://dbpedia.org/ontology/") || fields[0].contains("__"))
-                    continue;
-                String title = fields[0].substring(titleS,fields[0].length()-1);
-                String type = fields[2].substring(typeS, fields[2].length()-1);
-                if(ontology.get(type) == null) {
-                    //when processing 2014 instance file with DBpedia owl file of 2015, these types cannot be resolved.
-                    if(!(type.startsWith("Wikidata") || type.equals("Comics")))
-                        System.err.println("NULL for type: " + type + " -- " + line);
-                    continue;
-                }
-                //sometimes, the same title has multiple entries for type, considering the first one is the right one based on observation on a small sample set
-                if(!dbpedia.containsKey(title))
-                    dbpedia.put(title, ontology.get(type));
-                if(lnr.getLineNumber()%10000 == 0)
-                    System.err.println("Done: " + lnr.getLineNumber());
-            }
-            lnr.close();
+            Map<String,String> dbpedia = new HashMap<>();
+            ChunkedDumpReader.process(typesFile, lines -> parseChunk(lines, ontology), chunk -> chunk.forEach(dbpedia::putIfAbsent));
+
             String[] toks = typesFile.split("\\/");
             String fn = toks[toks.length-1];
             String name = fn.split("\\.")[0];
-            OutputStreamWriter osw = new OutputStreamWriter(new BZip2CompressorOutputStream(new FileOutputStream(new File(outPath + File.separator + name+".en.txt.bz2"))));
+            List<String> titles = new ArrayList<>(dbpedia.keySet());
+            Collections.sort(titles);
+            Writer osw = new BufferedWriter(new OutputStreamWriter(new BZip2CompressorOutputStream(new FileOutputStream(new File(outPath + File.separator + name+".en.txt.bz2"))), StandardCharsets.UTF_8));
             int numRecords = 0;
-            for(String str: dbpedia.keySet()) {
+            for(String str: titles) {
                 osw.write(str + " " + dbpedia.get(str) + "\n");
                 numRecords++;
             }
@@ -112,33 +120,30 @@ public class DBpediaTypeParser {
 
     private static void printStats(String typesFile, String ontologyFile){
         Map<String,String> ontology = parseOntology(ontologyFile);
-        int nlines = 0;
+        long nlines = 0;
         Set<String> uniqetitles = new LinkedHashSet<>();
         Map<Short,Set<String>> typeTitles = new LinkedHashMap<>();
         try {
-            LineNumberReader lnr = new LineNumberReader(new InputStreamReader(new BZip2CompressorInputStream(new FileInputStream(typesFile), true), StandardCharsets.UTF_8));
-            String line;
             int titleS = "<http://dbpedia.org/resource/".length();
             int typeS = "<http://dbpedia.org/ontology/".length();
-            while ((line = lnr.readLine()) != null) {
-                nlines++;
-                String[] fields = line.split("\\s+");
-                if (fields.length < 3 || !fields[2].startsWith("<http://dbpedia.org/ontology/") || fields[0].contains("__"))
-                    continue;
-                String title = fields[0].substring(titleS, fields[0].length() - 1);
-                String type = ontology.get(fields[2].substring(typeS, fields[2].length() - 1));
-                if(type == null)
-                    continue;
-                uniqetitles.add(title);
-                Short ct = NEType.parseDBpediaType(type).getCode();
-                if(!typeTitles.containsKey(ct))
-                    typeTitles.put(ct, new LinkedHashSet<>());
-                typeTitles.get(ct).add(title);
-
-                if (lnr.getLineNumber() % 10000 == 0)
-                    System.err.println("Done: " + lnr.getLineNumber());
-            }
-            lnr.close();
+            // type code -> titles, for each chunk of lines
+            nlines = ChunkedDumpReader.process(typesFile, lines -> {
+                Map<Short,List<String>> chunk = new LinkedHashMap<>();
+                for (String line: lines) {
+                    String[] fields = line.split("\\s+");
+                    if (fields.length < 3 || !fields[2].startsWith("<http://dbpedia.org/ontology/") || fields[0].contains("__"))
+                        continue;
+                    String title = fields[0].substring(titleS, fields[0].length() - 1);
+                    String type = ontology.get(fields[2].substring(typeS, fields[2].length() - 1));
+                    if(type == null)
+                        continue;
+                    chunk.computeIfAbsent(NEType.parseDBpediaType(type).getCode(), k -> new ArrayList<>()).add(title);
+                }
+                return chunk;
+            }, chunk -> chunk.forEach((ct, titles) -> {
+                uniqetitles.addAll(titles);
+                typeTitles.computeIfAbsent(ct, k -> new LinkedHashSet<>()).addAll(titles);
+            }));
         }catch(Exception e){
             e.printStackTrace();
         }
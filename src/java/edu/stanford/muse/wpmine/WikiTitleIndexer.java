@@ -3,7 +3,6 @@ package edu.stanford.muse.wpmine;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -33,24 +32,30 @@ public class WikiTitleIndexer {
     private static final String			REDIRECT_FILE	= System.getProperty("user.home") + File.separator + "data" + File.separator + "enwiki-latest-redirect.sql.gz";
     //https://dumps.wikimedia.org/enwiki/latest/enwiki-latest-page.sql.gz
     private static final String			PAGE_FILE       = System.getProperty("user.home") + File.separator + "data" + File.separator + "enwiki-latest-page.sql.gz";
+    // lines of the sql dumps are insert statements of about a MB each
+    private static final int INSERT_LINES_PER_CHUNK = 4;
+
+    private static String unquote(String val) {
+        if (val.length() > 0 && val.charAt(0) == '\'') {
+            val = StringUtils.stripEnd(val, "'");
+            val = StringUtils.stripStart(val, "'");
+            val = StringUtils.replaceChars(val, '_', ' ');
+        }
+        return val;
+    }
 
     private static String[] parseTuple(String str) {
         List<String> vals = new ArrayList<>();
         boolean inside = false;
-        String val = "";
+        StringBuilder val = new StringBuilder();
         for (int i = 0; i < str.length(); i++) {
             char c = str.charAt(i);
             if ((c == ',') && (!inside)) {
-                if (val.charAt(0) == '\'') {
-                    val = StringUtils.stripEnd(val, "'");
-                    val = StringUtils.stripStart(val, "'");
-                    val = StringUtils.replaceChars(val, '_', ' ');
-                }
-                vals.add(val);
-                val = "";
+                vals.add(unquote(val.toString()));
+                val.setLength(0);
                 continue;
             }
-            val += c;
+            val.append(c);
             //' - 39  '\'-92
             if (c == '\'') {
                 int j = i - 1;
@@ -63,13 +68,7 @@ public class WikiTitleIndexer {
                     inside = !inside;
             }
         }
-        if (val.charAt(0) == '\'') {
-            val = StringUtils.stripEnd(val, "'");
-            val = StringUtils.stripStart(val, "'");
-            val = StringUtils.replaceChars(val, '_', ' ');
-            //System.err.println(prev + " stripped to " + val);
-        }
-        vals.add(val);
+        vals.add(unquote(val.toString()));
 
         return vals.toArray(new String[vals.size()]);
     }
@@ -90,34 +89,29 @@ public class WikiTitleIndexer {
         return records.toArray(new String[records.size()][]);
     }
 
+    /** page id -> title of the page it redirects to, for redirects in the article namespace */
     private static Map<String, String> readRedirectTable(){
         //not so big, probably around 500MB
         Map<String, String> redirects = new LinkedHashMap<>();
         final String REDIRECT_INSERT_STATEMENT = "INSERT INTO `redirect` VALUES (";
         try {
-            LineNumberReader lnr = new LineNumberReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(new File(REDIRECT_FILE)))));
-            String line;
-            int ln = 0;
-            while ((line = lnr.readLine()) != null) {
-                if (!line.startsWith("INSERT INTO")) {
-                    System.err.println("Skipping initial comments...");
-                    continue;
-                }
-
-                String[][] tuples = parseLine(line, REDIRECT_INSERT_STATEMENT.length());
-                for (String[] tuple : tuples) {
-                    if (tuple.length < 3) {
-                        System.err.println("What?! Tuple size is less than 3 len:" + tuple.length);
+            // each line is an insert statement with many rows, so a few lines make a chunk
+            ChunkedDumpReader.process(REDIRECT_FILE, INSERT_LINES_PER_CHUNK, Runtime.getRuntime().availableProcessors(), lines -> {
+                List<String[]> chunk = new ArrayList<>();
+                for (String line : lines) {
+                    if (!line.startsWith("INSERT INTO"))
                         continue;
+                    for (String[] tuple : parseLine(line, REDIRECT_INSERT_STATEMENT.length())) {
+                        if (tuple.length < 3) {
+                            System.err.println("What?! Tuple size is less than 3 len:" + tuple.length);
+                            continue;
+                        }
+                        if ("0".equals(tuple[1]))
+                            chunk.add(new String[]{tuple[0], tuple[2]});
                     }
-                    if ("0".equals(tuple[1]))
-                        redirects.put(tuple[0], tuple[2]);
                 }
-
-                if ((ln++) % 100 == 0)
-                    System.err.println("Parsed: " + ln + " lines in redirect");
-            }
-            lnr.close();
+                return chunk;
+            }, chunk -> chunk.forEach(r -> redirects.put(r[0], r[1])));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -173,82 +167,76 @@ public class WikiTitleIndexer {
             Map<String, String> redirects = readRedirectTable();
 
             //a threshold page length for a page to be considered of quality
-            int qualityPageLength = 5000;
-            int numRecords = 0;
+            final int qualityPageLength = 5000;
             Writer fw = new BufferedWriter(new OutputStreamWriter(
                     new FileOutputStream(System.getProperty("user.home") + File.separator + "data" + File.separator + "TokenTypes.txt"), StandardCharsets.UTF_8));
             Map<String, Integer> pageLens = new LinkedHashMap<>();
+            // single word redirects, to be written once all the page lengths are known
+            List<WikiDocument> redirectDocs = new ArrayList<>();
+            int[] numRecords = new int[1];
+
+            // one pass over the page table, parsed in parallel chunks and merged in file order
+            ChunkedDumpReader.process(PAGE_FILE, INSERT_LINES_PER_CHUNK, Runtime.getRuntime().availableProcessors(), lines -> {
+                List<WikiDocument> chunk = new ArrayList<>();
+                for (String line : lines) {
+                    if (!line.startsWith("INSERT INTO"))
+                        continue;
 
-            LineNumberReader lnr = new LineNumberReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(new File(PAGE_FILE))), StandardCharsets.UTF_8));
-            String line;
-            while ((line = lnr.readLine()) != null) {
-                if (!line.startsWith("INSERT INTO"))
-                    continue;
-
-                Collection<WikiDocument> wikiDocs = parseLineInPagesTable(line);
-
-                for (WikiDocument doc : wikiDocs)
-                    if ("0".equals(doc.is_redirect)) {
-                        int pageLen = doc.pageLength;
+                    for (WikiDocument doc : parseLineInPagesTable(line)) {
                         String title = doc.title;
-                        if (title.contains("(disambiguation)"))
+                        if ("0".equals(doc.is_redirect)) {
+                            if (title.contains("(disambiguation)") || doc.pageLength <= qualityPageLength)
+                                continue;
+                        } else if (!"1".equals(doc.is_redirect))
                             continue;
-
-                        if (pageLen > qualityPageLength)
-                            pageLens.put(title, pageLen);
-                        else
-                            continue;
-                        String origTitle = title;
-
-                        //remove auxiliary content
-                        title = title.replaceAll(" \\(.+\\)", "");
-                        title = title.replaceAll(", .+", "");
-                        if (!title.contains(" ")) {
-                            fw.write(title + "\t" + origTitle + "\t" + null + "\t" + pageLen + "\n");
-                            numRecords++;
-                        }
+                        chunk.add(doc);
                     }
-
-                if (lnr.getLineNumber() % 1000 == 0)
-                    System.err.println("Step-1: Parsed " + lnr.getLineNumber() + " lines in page table");
-            }
-            lnr.setLineNumber(0);
-
-            while ((line = lnr.readLine()) != null) {
-                if (!line.startsWith("INSERT INTO"))
-                    continue;
-
-                Collection<WikiDocument> wikiDocs = parseLineInPagesTable(line);
-
-                for (WikiDocument doc : wikiDocs)
+                }
+                return chunk;
+            }, chunk -> {
+                for (WikiDocument doc : chunk) {
                     if ("1".equals(doc.is_redirect)) {
-                        String title = doc.title;
-                        String origTitle = title;
-
-                        title = title.replaceAll(" \\(.+\\)", "");
-                        title = title.replaceAll(", .+", "");
-                        if (title.contains(" "))
-                            continue;
-
-                        String redirect = redirects.get(title);
-                        Integer pageLen = pageLens.get(redirect);
-                        if (pageLen != null && pageLen > qualityPageLength) {
-                            fw.write(title + "\t" + origTitle + "\t" + redirect + "\t" + pageLen + "\n");
-                            numRecords++;
+                        if (!shortTitle(doc.title).contains(" "))
+                            redirectDocs.add(doc);
+                        continue;
+                    }
+                    pageLens.put(doc.title, doc.pageLength);
+                    //remove auxiliary content
+                    String title = shortTitle(doc.title);
+                    if (!title.contains(" ")) {
+                        try {
+                            fw.write(title + "\t" + doc.title + "\t" + null + "\t" + doc.pageLength + "\n");
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
+                        numRecords[0]++;
                     }
-                if (lnr.getLineNumber() % 1000000 == 0)
-                    System.err.println("Step-2: Parsed "+ lnr.getLineNumber() + " lines in page table");
+                }
+            });
+
+            for (WikiDocument doc : redirectDocs) {
+                // redirects are keyed by the id of the redirecting page
+                String redirect = redirects.get(doc.wiki_id);
+                Integer pageLen = pageLens.get(redirect);
+                if (pageLen != null && pageLen > qualityPageLength) {
+                    fw.write(shortTitle(doc.title) + "\t" + doc.title + "\t" + redirect + "\t" + pageLen + "\n");
+                    numRecords[0]++;
+                }
             }
-            System.out.println("Total number of records: " + numRecords);
+            System.out.println("Total number of records: " + numRecords[0]);
 
-            lnr.close();
             fw.close();
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
         }
     }
 
+    /** title without the auxiliary content in brackets or after a comma */
+    private static String shortTitle(String title) {
+        title = title.replaceAll(" \\(.+\\)", "");
+        return title.replaceAll(", .+", "");
+    }
+
     public static void main(String[] args) {
         long st = System.currentTimeMillis();
 
@@ -8,6 +8,7 @@ import edu.stanford.muse.AddressBookManager.Contact;
 import edu.stanford.muse.ie.variants.EntityBook;
 import edu.stanford.muse.ie.variants.MappedEntity;
 import edu.stanford.muse.index.*;
+import edu.stanford.muse.util.CacheRegistry;
 import edu.stanford.muse.util.DetailedFacetItem;
 import edu.stanford.muse.util.EmailUtils;
 import edu.stanford.muse.util.Pair;
@@ -26,12 +27,13 @@ import java.util.stream.Collectors;
 
 public class CrossCollectionSearch {
     private static final Logger log =  LogManager.getLogger(CrossCollectionSearch.class);
+    private static final String CACHE_NAME = "xcoll.entities";
 
   /*  public static List<Archive.CollectionMetadata> archiveMetadatas = new ArrayList<>(); // metadata's for the archives. the position number in this list is what is used in the EntityInfo
     public static List<String> archiveDirs = new ArrayList<>(); // metadata's for the archives. the position number in this list is what is used in the EntityInfo
 */
-    private static Multimap<String, EntityInfo> cTokenToInfos; // this token -> infos mapping is intended to make the lookup more efficient. Otherwise, we'd have to go through all the infos for looking up a string.
-    private static final Set<String> allCEntities = new LinkedHashSet<>(); // this token -> infos mapping is intended to make the lookup more efficient. Otherwise, we'd have to go through all the infos for looking up a string.
+    private static volatile Multimap<String, EntityInfo> cTokenToInfos; // this token -> infos mapping is intended to make the lookup more efficient. Otherwise, we'd have to go through all the infos for looking up a string.
+    private static volatile Set<String> allCEntities = new LinkedHashSet<>(); // this token -> infos mapping is intended to make the lookup more efficient. Otherwise, we'd have to go through all the infos for looking up a string.
 
     // this has to be fleshed out some more -- which version of canonicalize to use?
     // right now, we only lowercase the input string and return it.
@@ -48,32 +50,65 @@ public class CrossCollectionSearch {
             return s.toLowerCase();
     }
 
-    /* should be synchronized so there's no chance of doing it multiple times at the same time. */
-    private synchronized static void initialize() {
-        if (cTokenToInfos != null && cTokenToInfos.size()!=0)
-            return;
+    /* should be synchronized so there's no chance of doing it multiple times at the same time.
+     * returns cTokenToInfos, which callers should use rather than the field, since it may be dropped by CacheRegistry at any time. */
+    private synchronized static Multimap<String, EntityInfo> initialize() {
+        CacheRegistry.touch(CACHE_NAME);
+        Multimap<String, EntityInfo> result = cTokenToInfos;
+        if (result != null && result.size()!=0)
+            return result;
 
+        long startTime = System.currentTimeMillis();
         if (ModeConfig.isDiscoveryMode())
-            initialize(Config.REPO_DIR_DISCOVERY);
+            result = initialize(Config.REPO_DIR_DISCOVERY);
         else if (ModeConfig.isProcessingMode())
-            initialize(Config.REPO_DIR_PROCESSING);
+            result = initialize(Config.REPO_DIR_PROCESSING);
+        else
+            return result == null ? LinkedHashMultimap.create() : result;
+
+        // the lookup structures can be dropped when memory is low, and are rebuilt on the next search (the archives are usually still loaded).
+        // eviction does not take the lock, since the build holds it while loading archives, which may need to evict
+        long buildMillis = System.currentTimeMillis() - startTime;
+        CacheRegistry.register(CACHE_NAME, new CacheRegistry.Evictable() {
+            public long estimatedBytes() {
+                // about 100 bytes per token -> info entry, and 200 per entity for its info and canonical name
+                Multimap<String, EntityInfo> map = cTokenToInfos;
+                return map == null ? 0 : 100L * map.size() + 200L * allCEntities.size();
+            }
+            public long rebuildCostMillis() { return buildMillis; }
+            public boolean evict() {
+                // replaced rather than cleared, since searches may be going through the old ones
+                cTokenToInfos = null;
+                allCEntities = new LinkedHashSet<>();
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /** builds the lookup structures now rather than on the first search. does nothing outside discovery and processing modes */
+    public static void warmUp() {
+        initialize();
     }
 
     /** initializes lookup structures (entity infos and ctokenToInfos) for cross collection search
      * reads all archives available in the base dir.
      * should be synchronized so there's no chance of doing it multiple times at the same time.
+     * the structures are built locally and published at the end, so that an eviction in the meantime doesn't affect the build.
      **/
-    synchronized private static void initialize(String baseDir) {
+    synchronized private static Multimap<String, EntityInfo> initialize(String baseDir) {
 
         // this is created only once in one run. if it has already been created, reuse it.
         // in the future, this may be read from a serialized file, etc.
-        cTokenToInfos = LinkedHashMultimap.create();
+        Multimap<String, EntityInfo> cTokenToInfos = LinkedHashMultimap.create();
+        Set<String> allCEntities = new LinkedHashSet<>();
 
         File[] files = new File(baseDir).listFiles();
 
         if (files == null) {
             log.warn ("Trying to initialize cross collection search from an invalid directory: " + baseDir);
-            return;
+            CrossCollectionSearch.cTokenToInfos = cTokenToInfos;
+            return cTokenToInfos;
         }
 
         int archiveNum = 0;
@@ -195,12 +230,15 @@ public class CrossCollectionSearch {
             }
             archiveNum++;
         }
+        CrossCollectionSearch.allCEntities = allCEntities;
+        CrossCollectionSearch.cTokenToInfos = cTokenToInfos;
+        return cTokenToInfos;
     }
 
     /** returns EntityInfo's that match entity (word wise) */
     private static Collection<EntityInfo> getInfosFor (String lookupString) {
         // ensure we're initialized
-        initialize();
+        Multimap<String, EntityInfo> cTokenToInfos = initialize();
 
         Set<EntityInfo> result = new LinkedHashSet<>(); // set to ensure that a result appears only once
 
@@ -250,6 +288,7 @@ public class CrossCollectionSearch {
     /** this is more robust (doesn't depend on full word matching. but is highly inefficient right now! need to optimize*/
     public static List<String> searchForAutocomplete (String entity, int max) {
         initialize();
+        Set<String> allCEntities = CrossCollectionSearch.allCEntities;
         List<String> result = new ArrayList<>();
         String centity = canonicalize(entity);
         for (String e: allCEntities) {